@@ -22,6 +22,24 @@ public class RSABlindedEngine
     private RSACoreEngine    core = new RSACoreEngine();
     private RSAKeyParameters key;
     private SecureRandom     random;
+    private RSABlindingCache blindingCache;
+
+    public RSABlindedEngine()
+    {
+        this(null);
+    }
+
+    /**
+     * Create an engine taking its blinding factors from the given cache, when initialised with
+     * the key the cache is for.
+     *
+     * @param blindingCache the cache of blinding factors, or null to draw a fresh one every time.
+     */
+    public RSABlindedEngine(
+        RSABlindingCache    blindingCache)
+    {
+        this.blindingCache = blindingCache;
+    }
 
     /**
      * initialise the RSA engine.
@@ -103,12 +121,26 @@ public class RSABlindedEngine
             if (e != null)   // can't do blinding without a public exponent
             {
                 BigInteger m = k.getModulus();
-                BigInteger r = BigIntegers.createRandomInRange(ONE, m.subtract(ONE), random);
+                BigInteger blind, rInv;
+
+                if (blindingCache != null && blindingCache.isFor(k))
+                {
+                    BigInteger[] factors = blindingCache.nextFactors();
+
+                    blind = factors[0];
+                    rInv = factors[1];
+                }
+                else
+                {
+                    BigInteger r = BigIntegers.createRandomInRange(ONE, m.subtract(ONE), random);
+
+                    blind = r.modPow(e, m);
+                    rInv = r.modInverse(m);
+                }
 
-                BigInteger blindedInput = r.modPow(e, m).multiply(input).mod(m);
+                BigInteger blindedInput = blind.multiply(input).mod(m);
                 BigInteger blindedResult = core.processBlock(blindedInput);
 
-                BigInteger rInv = r.modInverse(m);
                 result = blindedResult.multiply(rInv).mod(m);
             }
             else
@@ -0,0 +1,201 @@
+package org.bouncycastle.crypto.engines;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Vector;
+
+import org.bouncycastle.crypto.params.RSAKeyParameters;
+import org.bouncycastle.crypto.params.RSAPrivateCrtKeyParameters;
+import org.bouncycastle.util.BigIntegers;
+
+/**
+ * Holds blinding factors for the private key operations of an {@link RSABlindedEngine} on a
+ * particular key. A fresh random blinding factor <code>r</code> costs an exponentiation, for
+ * <code>r^e</code>, and an inversion, for <code>r^-1</code>; instead, the cache squares both of
+ * them after each use, and only draws a fresh factor after a set number of uses.
+ * <p/>
+ * Fresh factors can also be drawn in batches, which share a single inversion: the product of the
+ * factors of a batch is inverted, and each <code>r^-1</code> recovered from that by multiplying
+ * with the other factors (Montgomery's trick). The factors of a batch not needed at once are kept
+ * for later uses.
+ * <p/>
+ * A cache is normally shared by all the engines using a key, across threads; it is thread-safe.
+ */
+public class RSABlindingCache
+{
+    public static final int DEFAULT_MAX_USES = 32;
+    public static final int DEFAULT_BATCH_SIZE = 1;
+
+    private static BigInteger ONE = BigInteger.valueOf(1);
+
+    private final BigInteger modulus;
+    private final BigInteger publicExponent;
+    private final SecureRandom random;
+    private final int maxUses;
+    private final int batchSize;
+
+    private BigInteger blind = null;      // r^e mod n
+    private BigInteger unblind = null;    // r^-1 mod n
+    private int uses = 0;
+
+    private Vector drawn = new Vector();  // fresh factors {r^e, r^-1} not yet used
+
+    /**
+     * Create a cache drawing a fresh blinding factor every {@link #DEFAULT_MAX_USES} uses.
+     */
+    public RSABlindingCache(RSAPrivateCrtKeyParameters key, SecureRandom random)
+    {
+        this(key, random, DEFAULT_MAX_USES);
+    }
+
+    /**
+     * @param key     the private key the engines will be using.
+     * @param random  the source of the blinding factors.
+     * @param maxUses the number of uses of a blinding factor, and the squares of it, before a fresh
+     *                one is drawn.
+     */
+    public RSABlindingCache(RSAPrivateCrtKeyParameters key, SecureRandom random, int maxUses)
+    {
+        this(key, random, maxUses, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param key       the private key the engines will be using.
+     * @param random    the source of the blinding factors.
+     * @param maxUses   the number of uses of a blinding factor, and the squares of it, before a
+     *                  fresh one is drawn.
+     * @param batchSize the number of fresh blinding factors drawn together.
+     */
+    public RSABlindingCache(RSAPrivateCrtKeyParameters key, SecureRandom random, int maxUses, int batchSize)
+    {
+        if (key == null)
+        {
+            throw new IllegalArgumentException("'key' cannot be null");
+        }
+        if (key.getPublicExponent() == null)
+        {
+            throw new IllegalArgumentException("'key' must have a public exponent");
+        }
+        if (random == null)
+        {
+            throw new IllegalArgumentException("'random' cannot be null");
+        }
+        if (maxUses < 1)
+        {
+            throw new IllegalArgumentException("'maxUses' must be positive");
+        }
+        if (batchSize < 1)
+        {
+            throw new IllegalArgumentException("'batchSize' must be positive");
+        }
+
+        this.modulus = key.getModulus();
+        this.publicExponent = key.getPublicExponent();
+        this.random = random;
+        this.maxUses = maxUses;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return true if the blinding factors of this cache are for the given key.
+     */
+    public boolean isFor(RSAKeyParameters key)
+    {
+        return key instanceof RSAPrivateCrtKeyParameters
+            && modulus.equals(key.getModulus())
+            && publicExponent.equals(((RSAPrivateCrtKeyParameters)key).getPublicExponent());
+    }
+
+    /**
+     * @return the next blinding factor <code>r^e</code> and its unblinding factor <code>r^-1</code>,
+     *         each handed out only once.
+     */
+    BigInteger[] nextFactors()
+    {
+        synchronized (this)
+        {
+            if (blind != null && uses < maxUses)
+            {
+                // (r^2)^e = (r^e)^2, and (r^2)^-1 = (r^-1)^2
+                blind = blind.multiply(blind).mod(modulus);
+                unblind = unblind.multiply(unblind).mod(modulus);
+
+                return use();
+            }
+
+            if (!drawn.isEmpty())
+            {
+                BigInteger[] factors = (BigInteger[])drawn.elementAt(drawn.size() - 1);
+                drawn.removeElementAt(drawn.size() - 1);
+
+                return use(factors);
+            }
+        }
+
+        // NOTE: Drawn without holding the lock, so that other threads can use the factors in hand
+        BigInteger[][] batch = drawFactors();
+
+        synchronized (this)
+        {
+            for (int i = 1; i < batch.length; ++i)
+            {
+                drawn.addElement(batch[i]);
+            }
+
+            return use(batch[0]);
+        }
+    }
+
+    private BigInteger[] use(BigInteger[] factors)
+    {
+        blind = factors[0];
+        unblind = factors[1];
+        uses = 0;
+
+        return use();
+    }
+
+    private BigInteger[] use()
+    {
+        ++uses;
+
+        return new BigInteger[]{ blind, unblind };
+    }
+
+    private BigInteger[][] drawFactors()
+    {
+        BigInteger[] r = new BigInteger[batchSize];
+
+        /*
+         * products[i] holds the product of the first i + 1 factors, so that all the factors can be
+         * inverted from the inverse of their overall product.
+         */
+        BigInteger[] products = new BigInteger[batchSize];
+        BigInteger product = ONE;
+
+        for (int i = 0; i < batchSize; ++i)
+        {
+            r[i] = BigIntegers.createRandomInRange(ONE, modulus.subtract(ONE), random);
+            product = product.multiply(r[i]).mod(modulus);
+            products[i] = product;
+        }
+
+        BigInteger[][] batch = new BigInteger[batchSize][];
+
+        // the inverse of the product of the first i + 1 factors, going down
+        BigInteger inverse = product.modInverse(modulus);
+
+        for (int i = batchSize - 1; i >= 0; --i)
+        {
+            // (r_0 ... r_i)^-1 * (r_0 ... r_(i-1)) = r_i^-1
+            BigInteger rInv = (i > 0) ? inverse.multiply(products[i - 1]).mod(modulus) : inverse;
+
+            batch[i] = new BigInteger[]{ r[i].modPow(publicExponent, modulus), rInv };
+
+            // (r_0 ... r_i)^-1 * r_i = (r_0 ... r_(i-1))^-1
+            inverse = inverse.multiply(r[i]).mod(modulus);
+        }
+
+        return batch;
+    }
+}
@@ -48,6 +48,10 @@ public class GCMBlockCipher
     private long        atLength;
     private long        atLengthPre;
 
+    // Scratch space, allocated once and reused for every message
+    private byte[]      ctrBlock;
+    private byte[]      macBuffer;
+
     public GCMBlockCipher(BlockCipher c)
     {
         this(c, null);
@@ -120,7 +124,10 @@ public class GCMBlockCipher
         }
 
         int bufLength = forEncryption ? BLOCK_SIZE : (BLOCK_SIZE + macSize); 
-        this.bufBlock = new byte[bufLength];
+        if (bufBlock == null || bufBlock.length != bufLength)
+        {
+            this.bufBlock = new byte[bufLength];
+        }
 
         if (nonce == null || nonce.length < 1)
         {
@@ -145,7 +152,11 @@ public class GCMBlockCipher
             exp = null;
         }
 
-        this.J0 = new byte[BLOCK_SIZE];
+        /*
+         * NOTE: Re-initialising with a new nonce but no key (i.e. the same key) is cheap; the
+         * state arrays are reused rather than reallocated.
+         */
+        this.J0 = newOrClear(J0);
 
         if (nonce.length == 12)
         {
@@ -160,17 +171,23 @@ public class GCMBlockCipher
             gHASHBlock(J0, X);
         }
 
-        this.S = new byte[BLOCK_SIZE];
-        this.S_at = new byte[BLOCK_SIZE];
-        this.S_atPre = new byte[BLOCK_SIZE];
-        this.atBlock = new byte[BLOCK_SIZE];
+        this.S = newOrClear(S);
+        this.S_at = newOrClear(S_at);
+        this.S_atPre = newOrClear(S_atPre);
+        this.atBlock = newOrClear(atBlock);
         this.atBlockPos = 0;
         this.atLength = 0;
         this.atLengthPre = 0;
-        this.counter = Arrays.clone(J0);
+        this.counter = newOrClear(counter);
+        System.arraycopy(J0, 0, counter, 0, BLOCK_SIZE);
         this.bufOff = 0;
         this.totalLength = 0;
 
+        if (ctrBlock == null)
+        {
+            this.ctrBlock = new byte[BLOCK_SIZE];
+        }
+
         if (initialAssociatedText != null)
         {
             processAADBytes(initialAssociatedText, 0, initialAssociatedText.length);
@@ -370,7 +387,7 @@ public class GCMBlockCipher
         }
 
         // Final gHASH
-        byte[] X = new byte[BLOCK_SIZE];
+        byte[] X = ctrBlock;
         Pack.longToBigEndian(atLength * 8, X, 0);
         Pack.longToBigEndian(totalLength * 8, X, 8);
 
@@ -378,14 +395,18 @@ public class GCMBlockCipher
 
         // TODO Fix this if tagLength becomes configurable
         // T = MSBt(GCTRk(J0,S))
-        byte[] tag = new byte[BLOCK_SIZE];
+        byte[] tag = ctrBlock;
         cipher.processBlock(J0, 0, tag, 0);
         xor(tag, S);
 
         int resultLen = extra;
 
         // We place into macBlock our calculated value for T
-        this.macBlock = new byte[macSize];
+        if (macBuffer == null || macBuffer.length != macSize)
+        {
+            this.macBuffer = new byte[macSize];
+        }
+        this.macBlock = macBuffer;
         System.arraycopy(tag, 0, macBlock, 0, macSize);
 
         if (forEncryption)
@@ -396,10 +417,13 @@ public class GCMBlockCipher
         }
         else
         {
-            // Retrieve the T value from the message and compare to calculated one
-            byte[] msgMac = new byte[macSize];
-            System.arraycopy(bufBlock, extra, msgMac, 0, macSize);
-            if (!Arrays.constantTimeAreEqual(this.macBlock, msgMac))
+            // Compare the T value from the message to the calculated one, in constant time
+            int diff = 0;
+            for (int i = 0; i < macSize; ++i)
+            {
+                diff |= macBlock[i] ^ bufBlock[extra + i];
+            }
+            if (diff != 0)
             {
                 throw new InvalidCipherTextException("mac check in GCM failed");
             }
@@ -420,14 +444,18 @@ public class GCMBlockCipher
     {
         cipher.reset();
 
-        S = new byte[BLOCK_SIZE];
-        S_at = new byte[BLOCK_SIZE];
-        S_atPre = new byte[BLOCK_SIZE];
-        atBlock = new byte[BLOCK_SIZE];
+        S = newOrClear(S);
+        S_at = newOrClear(S_at);
+        S_atPre = newOrClear(S_atPre);
+        atBlock = newOrClear(atBlock);
         atBlockPos = 0;
         atLength = 0;
         atLengthPre = 0;
-        counter = Arrays.clone(J0);
+        counter = newOrClear(counter);
+        if (J0 != null)
+        {
+            System.arraycopy(J0, 0, counter, 0, BLOCK_SIZE);
+        }
         bufOff = 0;
         totalLength = 0;
 
@@ -505,12 +533,22 @@ public class GCMBlockCipher
             }
         }
 
-        byte[] tmp = new byte[BLOCK_SIZE];
+        byte[] tmp = ctrBlock;
         // TODO Sure would be nice if ciphers could operate on int[]
         cipher.processBlock(counter, 0, tmp, 0);
         return tmp;
     }
 
+    private static byte[] newOrClear(byte[] block)
+    {
+        if (block == null)
+        {
+            return new byte[BLOCK_SIZE];
+        }
+        Arrays.fill(block, (byte)0);
+        return block;
+    }
+
     private static void multiply(byte[] block, byte[] val)
     {
         byte[] tmp = Arrays.clone(block);
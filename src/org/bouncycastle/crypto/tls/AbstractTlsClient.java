@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.util.Hashtable;
 import java.util.Vector;
 import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.Strings;
 
 public abstract class AbstractTlsClient
     extends AbstractTlsPeer
@@ -21,6 +22,11 @@ public abstract class AbstractTlsClient
     protected short selectedCompressionMethod;
     protected ProtocolVersion clientVersion = ProtocolVersion.TLSv11;
     protected byte[] sessionID;
+    protected TlsClientSessionCache sessionCache;
+    protected String sessionHost;
+    protected int sessionPort;
+    protected TlsCertificateCache certificateCache;
+    protected ClientHelloTemplate clientHelloTemplate;
 
     public AbstractTlsClient()
     {
@@ -80,6 +86,105 @@ public abstract class AbstractTlsClient
         return this.context;
     }
 
+    /**
+     * Resume sessions from, and keep new sessions in, the given cache. The sessions are keyed by
+     * the host and port connected to, and the server names sent in the server_name extension.
+     *
+     * @param sessionCache the cache, normally shared between the clients of an application.
+     * @param host         the host being connected to.
+     * @param port         the port being connected to.
+     */
+    public void setSessionCache(TlsClientSessionCache sessionCache, String host, int port)
+    {
+        if (sessionCache == null)
+        {
+            throw new IllegalArgumentException("'sessionCache' cannot be null");
+        }
+        if (host == null)
+        {
+            throw new IllegalArgumentException("'host' cannot be null");
+        }
+
+        this.sessionCache = sessionCache;
+        this.sessionHost = Strings.toLowerCase(host);
+        this.sessionPort = port;
+    }
+
+    public TlsClientSessionCache getSessionCache()
+    {
+        return this.sessionCache;
+    }
+
+    /**
+     * NOTE: The identity is computed on each call, so that it reflects the current server names.
+     */
+    public String getServerIdentity()
+    {
+        if (sessionHost == null)
+        {
+            return null;
+        }
+
+        StringBuffer sb = new StringBuffer(sessionHost);
+        sb.append(':').append(sessionPort);
+        if (serverNames != null)
+        {
+            for (int i = 0; i < serverNames.size(); ++i)
+            {
+                sb.append(i == 0 ? '/' : ',').append(serverNames.elementAt(i));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Parse server certificate chains through the given cache. To also skip validating chains that
+     * were already found to be trusted, wrap the {@link TlsAuthentication} in a
+     * {@link CachingTlsAuthentication} using the same cache.
+     *
+     * @param certificateCache the cache, normally shared between the clients of an application.
+     */
+    public void setCertificateCache(TlsCertificateCache certificateCache)
+    {
+        this.certificateCache = certificateCache;
+    }
+
+    public TlsCertificateCache getCertificateCache()
+    {
+        return this.certificateCache;
+    }
+
+    /**
+     * Send the ClientHello of the initial handshake from a template, instead of encoding it anew.
+     * The client version, and any state that would otherwise be derived while creating the client
+     * extensions, are taken from the template.
+     *
+     * @param clientHelloTemplate the template, normally shared between the clients of an
+     *                            application, or null to encode the ClientHello anew.
+     * @throws IOException
+     */
+    public void setClientHelloTemplate(ClientHelloTemplate clientHelloTemplate)
+        throws IOException
+    {
+        this.clientHelloTemplate = clientHelloTemplate;
+
+        if (clientHelloTemplate != null)
+        {
+            this.clientVersion = clientHelloTemplate.getClientVersion();
+
+            Hashtable clientExtensions = clientHelloTemplate.internalGetClientExtensions();
+            if (clientExtensions != null)
+            {
+                this.supportedSignatureAlgorithms = TlsUtils.getSignatureAlgorithmsExtension(clientExtensions);
+            }
+        }
+    }
+
+    public ClientHelloTemplate getClientHelloTemplate()
+    {
+        return this.clientHelloTemplate;
+    }
+
     /**
      * RFC 5246 E.1. "TLS clients that wish to negotiate with older servers MAY send any value
      * {03,XX} as the record layer version number. Typical values would be {03,00}, the lowest
@@ -264,9 +369,4 @@ public abstract class AbstractTlsClient
         throws IOException
     {
     }
-
-    public void notifyHandshakeComplete()
-        throws IOException
-    {
-    }
 }
@@ -1,5 +1,7 @@
 package org.bouncycastle.crypto.tls;
 
+import java.io.IOException;
+
 public abstract class AbstractTlsPeer
     implements TlsPeer
 {
@@ -11,4 +13,9 @@ public abstract class AbstractTlsPeer
     public void notifyAlertReceived(short alertLevel, short alertDescription)
     {
     }
+
+    public void notifyHandshakeComplete()
+        throws IOException
+    {
+    }
 }
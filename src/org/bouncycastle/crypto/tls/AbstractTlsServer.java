@@ -27,6 +27,7 @@ public abstract class AbstractTlsServer
     protected int selectedCipherSuite;
     protected short selectedCompressionMethod;
     protected Hashtable serverExtensions;
+    protected boolean sessionResumed = false;
 
     public AbstractTlsServer()
     {
@@ -220,6 +221,24 @@ public abstract class AbstractTlsServer
         throw new TlsFatalAlert(AlertDescription.handshake_failure);
     }
 
+    public TlsSessionCache getSessionCache()
+    {
+        return null;
+    }
+
+    public TlsSessionTicketCodec getSessionTicketCodec()
+    {
+        return null;
+    }
+
+    public void notifySessionResumed(SessionParameters sessionParameters)
+        throws IOException
+    {
+        this.sessionResumed = true;
+        this.selectedCipherSuite = sessionParameters.getCipherSuite();
+        this.selectedCompressionMethod = sessionParameters.getCompressionAlgorithm();
+    }
+
     // Hashtable is (Integer -> byte[])
     public Hashtable getServerExtensions()
         throws IOException
@@ -237,10 +256,28 @@ public abstract class AbstractTlsServer
 
             this.serverExtensions = new Hashtable();
             TlsECCUtils.addSupportedPointFormatsExtension(serverExtensions, serverECPointFormats);
-            return serverExtensions;
         }
 
-        return null;
+        /*
+         * RFC 5077 3.2. The server uses a zero-length SessionTicket extension to indicate to the
+         * client that it will send a new session ticket using the NewSessionTicket handshake
+         * message.
+         * 
+         * NOTE: We don't renew the ticket when resuming; a renewed ticket would be stamped with a new
+         * issue time, letting a session outlive the ticket lifetime. The client keeps using its
+         * existing ticket instead.
+         */
+        if (!this.sessionResumed && this.clientExtensions != null
+            && this.clientExtensions.containsKey(TlsProtocol.EXT_SessionTicket) && getSessionTicketCodec() != null)
+        {
+            if (this.serverExtensions == null)
+            {
+                this.serverExtensions = new Hashtable();
+            }
+            this.serverExtensions.put(TlsProtocol.EXT_SessionTicket, TlsUtils.EMPTY_BYTES);
+        }
+
+        return this.serverExtensions;
     }
 
     public Vector getServerSupplementalData()
@@ -289,6 +326,16 @@ public abstract class AbstractTlsServer
     public NewSessionTicket getNewSessionTicket()
         throws IOException
     {
+        TlsSessionTicketCodec sessionTicketCodec = getSessionTicketCodec();
+        if (sessionTicketCodec != null)
+        {
+            SessionParameters sessionParameters = new SessionParameters(context.getServerVersion(),
+                selectedCipherSuite, selectedCompressionMethod, context.getSecurityParameters().getMasterSecret());
+
+            return new NewSessionTicket(sessionTicketCodec.getTicketLifetimeHint(),
+                sessionTicketCodec.encodeTicket(sessionParameters));
+        }
+
         /*
          * RFC 5077 3.3. If the server determines that it does not want to include a ticket after it
          * has included the SessionTicket extension in the ServerHello, then it sends a zero-length
@@ -296,9 +343,4 @@ public abstract class AbstractTlsServer
          */
         return new NewSessionTicket(0L, TlsUtils.EMPTY_BYTES);
     }
-
-    public void notifyHandshakeComplete()
-        throws IOException
-    {
-    }
 }
@@ -0,0 +1,39 @@
+package org.bouncycastle.crypto.tls;
+
+import java.io.IOException;
+
+import org.bouncycastle.crypto.params.AsymmetricKeyParameter;
+
+/**
+ * {@link TlsEncryptionCredentials} that decrypt premaster secrets through a shared
+ * {@link TlsRSABatchDecryptor}, so that the RSA key exchanges of all the handshakes using a key
+ * draw their blinding factors in batches.
+ */
+public class BatchedTlsEncryptionCredentials
+    extends DefaultTlsEncryptionCredentials
+{
+    protected TlsRSABatchDecryptor batchDecryptor;
+
+    public BatchedTlsEncryptionCredentials(TlsContext context, Certificate certificate,
+                                           TlsRSABatchDecryptor batchDecryptor)
+    {
+        super(context, certificate, getPrivateKey(batchDecryptor));
+
+        this.batchDecryptor = batchDecryptor;
+    }
+
+    public byte[] decryptPreMasterSecret(byte[] encryptedPreMasterSecret)
+        throws IOException
+    {
+        return batchDecryptor.decryptPreMasterSecret(encryptedPreMasterSecret);
+    }
+
+    private static AsymmetricKeyParameter getPrivateKey(TlsRSABatchDecryptor batchDecryptor)
+    {
+        if (batchDecryptor == null)
+        {
+            throw new IllegalArgumentException("'batchDecryptor' cannot be null");
+        }
+        return batchDecryptor.getPrivateKey();
+    }
+}
@@ -1,7 +1,16 @@
 package org.bouncycastle.crypto.tls;
 
 /**
- * A queue for bytes. This file could be more optimized.
+ * A queue for bytes, implemented as a ring buffer.
+ * <p/>
+ * Bytes already in the queue are never moved by reading or removing data; the only copying of
+ * buffered data happens when the queue has to grow, and the capacity never shrinks below the
+ * high-water mark unless {@link #shrink()} is called. The buffer is allocated lazily, so an empty
+ * queue that has never been used holds no storage. An optional limit caps the number of bytes
+ * the queue will hold.
+ * <p/>
+ * If a {@link TlsBufferPool} is supplied, storage is taken from it and given back as soon as the
+ * queue is drained, so that an idle queue holds no storage at all.
  */
 public class ByteQueue
 {
@@ -30,18 +39,66 @@ public class ByteQueue
     /**
      * The buffer where we store our data.
      */
-    private byte[] databuf = new byte[ByteQueue.INITBUFSIZE];
+    private byte[] databuf = TlsUtils.EMPTY_BYTES;
 
     /**
-     * How many bytes at the beginning of the buffer are skipped.
+     * The position in the buffer of the first valid byte.
      */
-    private int skipped = 0;
+    private int head = 0;
 
     /**
      * How many bytes in the buffer are valid data.
      */
     private int available = 0;
 
+    /**
+     * The maximum number of bytes this queue will hold.
+     */
+    private final int limit;
+
+    /**
+     * The pool storage is taken from, or null.
+     */
+    private final TlsBufferPool bufferPool;
+
+    public ByteQueue()
+    {
+        this(Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * @param limit The maximum number of bytes this queue will hold; attempting to add more results
+     *              in a {@link TlsRuntimeException}.
+     */
+    public ByteQueue(int limit)
+    {
+        this(limit, null);
+    }
+
+    /**
+     * @param bufferPool The pool to take storage from, or null.
+     */
+    public ByteQueue(TlsBufferPool bufferPool)
+    {
+        this(Integer.MAX_VALUE, bufferPool);
+    }
+
+    /**
+     * @param limit      The maximum number of bytes this queue will hold; attempting to add more
+     *                   results in a {@link TlsRuntimeException}.
+     * @param bufferPool The pool to take storage from, or null.
+     */
+    public ByteQueue(int limit, TlsBufferPool bufferPool)
+    {
+        if (limit < 1)
+        {
+            throw new IllegalArgumentException("'limit' must be positive");
+        }
+
+        this.limit = limit;
+        this.bufferPool = bufferPool;
+    }
+
     /**
      * Read data from the buffer.
      *
@@ -61,8 +118,11 @@ public class ByteQueue
             throw new TlsRuntimeException("Buffer size of " + buf.length
                 + " is too small for a read of " + len + " bytes");
         }
-        System.arraycopy(databuf, skipped + skip, buf, offset, len);
-        return;
+
+        int pos = wrap(head + skip);
+        int firstPart = Math.min(len, databuf.length - pos);
+        System.arraycopy(databuf, pos, buf, offset, firstPart);
+        System.arraycopy(databuf, 0, buf, offset + firstPart, len - firstPart);
     }
 
     /**
@@ -74,14 +134,20 @@ public class ByteQueue
      */
     public void addData(byte[] data, int offset, int len)
     {
-        if ((skipped + available + len) > databuf.length)
+        if (len > limit - available)
         {
-            byte[] tmp = new byte[ByteQueue.nextTwoPow(data.length)];
-            System.arraycopy(databuf, skipped, tmp, 0, available);
-            skipped = 0;
-            databuf = tmp;
+            throw new TlsRuntimeException("Cannot add " + len + " bytes, queue is limited to " + limit);
         }
-        System.arraycopy(data, offset, databuf, skipped + available, len);
+
+        if ((available + len) > databuf.length)
+        {
+            grow(available + len);
+        }
+
+        int pos = wrap(head + available);
+        int firstPart = Math.min(len, databuf.length - pos);
+        System.arraycopy(data, offset, databuf, pos, firstPart);
+        System.arraycopy(data, offset + firstPart, databuf, 0, len - firstPart);
         available += len;
     }
 
@@ -101,15 +167,43 @@ public class ByteQueue
          * Skip the data.
          */
         available -= i;
-        skipped += i;
+        if (available == 0)
+        {
+            head = 0;
+            if (bufferPool != null)
+            {
+                releaseBuffer();
+            }
+        }
+        else
+        {
+            head = wrap(head + i);
+        }
+    }
 
-        /*
-         * If more than half of our data is skipped, we will move the data in the buffer.
-         */
-        if (skipped > (databuf.length / 2))
+    /**
+     * Read data from the buffer, then remove it, along with any skipped bytes, from the queue.
+     *
+     * @param buf    The buffer where the read data will be copied to.
+     * @param offset How many bytes to skip at the beginning of buf.
+     * @param len    How many bytes to read at all.
+     * @param skip   How many bytes from our data to skip.
+     */
+    public void removeData(byte[] buf, int offset, int len, int skip)
+    {
+        read(buf, offset, len, skip);
+        removeData(skip + len);
+    }
+
+    /**
+     * Release the buffer if the queue is empty, so that an idle queue holds no storage.
+     */
+    public void shrink()
+    {
+        if (available == 0)
         {
-            System.arraycopy(databuf, skipped, databuf, 0, available);
-            skipped = 0;
+            releaseBuffer();
+            head = 0;
         }
     }
 
@@ -120,4 +214,52 @@ public class ByteQueue
     {
         return available;
     }
+
+    /**
+     * @return The maximum number of bytes this queue will hold.
+     */
+    public int getLimit()
+    {
+        return limit;
+    }
+
+    /**
+     * @return The number of bytes of storage currently held by this buffer.
+     */
+    public int getCapacity()
+    {
+        return databuf.length;
+    }
+
+    private int wrap(int pos)
+    {
+        return pos >= databuf.length ? pos - databuf.length : pos;
+    }
+
+    private void grow(int required)
+    {
+        int capacity = Math.max(INITBUFSIZE, ByteQueue.nextTwoPow(required - 1));
+        if (capacity > limit || capacity < 0)
+        {
+            capacity = limit;
+        }
+
+        byte[] tmp = (bufferPool == null) ? new byte[capacity] : bufferPool.acquire(capacity);
+        if (available > 0)
+        {
+            read(tmp, 0, available, 0);
+        }
+        releaseBuffer();
+        head = 0;
+        databuf = tmp;
+    }
+
+    private void releaseBuffer()
+    {
+        if (bufferPool != null && databuf.length > 0)
+        {
+            bufferPool.release(databuf);
+        }
+        databuf = TlsUtils.EMPTY_BYTES;
+    }
 }
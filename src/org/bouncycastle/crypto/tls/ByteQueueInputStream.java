@@ -0,0 +1,90 @@
+package org.bouncycastle.crypto.tls;
+
+import java.io.InputStream;
+
+/**
+ * An InputStream reading from a {@link ByteQueue}, used to feed received ciphertext to the record
+ * layer when a {@link TlsProtocol} is running in non-blocking mode.
+ */
+class ByteQueueInputStream
+    extends InputStream
+{
+    private ByteQueue buffer;
+
+    ByteQueueInputStream(int limit, TlsBufferPool bufferPool)
+    {
+        this.buffer = new ByteQueue(limit, bufferPool);
+    }
+
+    public void addBytes(byte[] bytes, int offset, int len)
+    {
+        buffer.addData(bytes, offset, len);
+    }
+
+    /**
+     * Copy bytes from the front of the queue without consuming them.
+     *
+     * @param buf The buffer where the data will be copied to.
+     * @return The number of bytes copied, which may be less than buf.length.
+     */
+    public int peek(byte[] buf)
+    {
+        int bytesToRead = Math.min(buffer.size(), buf.length);
+        buffer.read(buf, 0, bytesToRead, 0);
+        return bytesToRead;
+    }
+
+    public int read()
+    {
+        if (buffer.size() == 0)
+        {
+            return -1;
+        }
+
+        byte[] b = new byte[1];
+        buffer.read(b, 0, 1, 0);
+        buffer.removeData(1);
+        return b[0] & 0xff;
+    }
+
+    public int read(byte[] b)
+    {
+        return read(b, 0, b.length);
+    }
+
+    public int read(byte[] b, int off, int len)
+    {
+        int bytesToRead = Math.min(buffer.size(), len);
+        if (bytesToRead == 0 && len > 0)
+        {
+            return -1;
+        }
+        buffer.read(b, off, bytesToRead, 0);
+        buffer.removeData(bytesToRead);
+        return bytesToRead;
+    }
+
+    public long skip(long n)
+    {
+        int bytesToSkip = (int)Math.min(buffer.size(), n);
+        buffer.removeData(bytesToSkip);
+        return bytesToSkip;
+    }
+
+    public int available()
+    {
+        return buffer.size();
+    }
+
+    /**
+     * @return The number of bytes that can still be added.
+     */
+    public int getSpace()
+    {
+        return buffer.getLimit() - buffer.size();
+    }
+
+    public void close()
+    {
+    }
+}
@@ -0,0 +1,41 @@
+package org.bouncycastle.crypto.tls;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An OutputStream writing to a {@link ByteQueue}, used to collect outgoing ciphertext from the
+ * record layer when a {@link TlsProtocol} is running in non-blocking mode.
+ */
+class ByteQueueOutputStream
+    extends OutputStream
+{
+    private ByteQueue buffer;
+
+    ByteQueueOutputStream(int limit, TlsBufferPool bufferPool)
+    {
+        this.buffer = new ByteQueue(limit, bufferPool);
+    }
+
+    public ByteQueue getBuffer()
+    {
+        return buffer;
+    }
+
+    public void write(int b)
+        throws IOException
+    {
+        write(new byte[]{ (byte)b }, 0, 1);
+    }
+
+    public void write(byte[] b, int off, int len)
+        throws IOException
+    {
+        if (len > buffer.getLimit() - buffer.size())
+        {
+            // The output has not been read, and would exceed the limit
+            throw new TlsFatalAlert(AlertDescription.internal_error);
+        }
+        buffer.addData(b, off, len);
+    }
+}
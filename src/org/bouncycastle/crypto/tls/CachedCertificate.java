@@ -0,0 +1,57 @@
+package org.bouncycastle.crypto.tls;
+
+import java.io.IOException;
+import java.util.Hashtable;
+
+import org.bouncycastle.crypto.params.AsymmetricKeyParameter;
+import org.bouncycastle.crypto.util.PublicKeyFactory;
+
+/**
+ * A {@link Certificate} held by a {@link TlsCertificateCache}, which remembers the public key of
+ * the end-entity certificate and the servers for which the chain was found to be trusted.
+ */
+class CachedCertificate
+    extends Certificate
+{
+    private final long expiry;
+
+    private AsymmetricKeyParameter subjectPublicKey = null;
+
+    // String (server identity) -> Boolean.TRUE
+    private final Hashtable trustedFor = new Hashtable();
+
+    CachedCertificate(org.bouncycastle.asn1.x509.Certificate[] certificateList, long expiry)
+    {
+        super(certificateList);
+
+        this.expiry = expiry;
+    }
+
+    /**
+     * @return the time after which neither the chain nor the decision to trust it may be used.
+     */
+    long getExpiry()
+    {
+        return expiry;
+    }
+
+    synchronized AsymmetricKeyParameter getSubjectPublicKey()
+        throws IOException
+    {
+        if (subjectPublicKey == null)
+        {
+            subjectPublicKey = PublicKeyFactory.createKey(getCertificateAt(0).getSubjectPublicKeyInfo());
+        }
+        return subjectPublicKey;
+    }
+
+    boolean isTrustedFor(String serverIdentity)
+    {
+        return trustedFor.containsKey(serverIdentity);
+    }
+
+    void setTrustedFor(String serverIdentity)
+    {
+        trustedFor.put(serverIdentity, Boolean.TRUE);
+    }
+}
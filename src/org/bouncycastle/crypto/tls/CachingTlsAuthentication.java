@@ -0,0 +1,69 @@
+package org.bouncycastle.crypto.tls;
+
+import java.io.IOException;
+
+/**
+ * A {@link TlsAuthentication} that only asks another {@link TlsAuthentication} to validate a
+ * server certificate chain if the chain has not already been found to be trusted for the same
+ * server, according to a {@link TlsCertificateCache}. For this to take effect, the client must
+ * parse the chain with the same cache (see {@link AbstractTlsClient#setCertificateCache}).
+ * <p/>
+ * NOTE: When the chain is already trusted, the other {@link TlsAuthentication} is not called at
+ * all, so it should not rely on seeing every server certificate (e.g. to record it). Trust is
+ * remembered for no longer than the lifetime of the cache entry, which ends at the latest when the
+ * end-entity certificate expires; other checks, such as for revocation, are not repeated in the
+ * meantime.
+ */
+public class CachingTlsAuthentication
+    implements TlsAuthentication
+{
+    protected TlsCertificateCache certificateCache;
+    protected String serverIdentity;
+    protected TlsAuthentication authentication;
+
+    /**
+     * @param certificateCache the cache recording which chains are trusted.
+     * @param serverIdentity   identifies the server being connected to, e.g. by host and port.
+     * @param authentication   validates the chains that are not yet trusted.
+     */
+    public CachingTlsAuthentication(TlsCertificateCache certificateCache, String serverIdentity,
+        TlsAuthentication authentication)
+    {
+        if (certificateCache == null)
+        {
+            throw new IllegalArgumentException("'certificateCache' cannot be null");
+        }
+        if (serverIdentity == null)
+        {
+            throw new IllegalArgumentException("'serverIdentity' cannot be null");
+        }
+        if (authentication == null)
+        {
+            throw new IllegalArgumentException("'authentication' cannot be null");
+        }
+
+        this.certificateCache = certificateCache;
+        this.serverIdentity = serverIdentity;
+        this.authentication = authentication;
+    }
+
+    public void notifyServerCertificate(Certificate serverCertificate)
+        throws IOException
+    {
+        if (certificateCache.isTrusted(serverCertificate, serverIdentity))
+        {
+            return;
+        }
+
+        // NOTE: Only trust is cached; a rejected chain is validated (and rejected) again every time
+        authentication.notifyServerCertificate(serverCertificate);
+
+        certificateCache.setTrusted(serverCertificate, serverIdentity);
+    }
+
+    public TlsCredentials getClientCredentials(CertificateRequest certificateRequest)
+        throws IOException
+    {
+        return authentication.getClientCredentials(certificateRequest);
+    }
+}
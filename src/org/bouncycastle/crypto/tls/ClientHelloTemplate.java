@@ -0,0 +1,267 @@
+package org.bouncycastle.crypto.tls;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.Enumeration;
+import java.util.Hashtable;
+
+import org.bouncycastle.util.Arrays;
+
+/**
+ * A pre-encoded ClientHello for clients that make many connections with the same configuration. The
+ * cipher suites, compression methods and extensions are encoded once, when the template is created,
+ * so that each connection only needs to fill in its random, session ID and session ticket.
+ * <p/>
+ * A template is immutable, and is normally shared between all the clients of an application that
+ * have the same configuration (see {@link AbstractTlsClient#setClientHelloTemplate}). It is only
+ * used for the initial handshake of a connection; renegotiation always encodes a new ClientHello.
+ */
+public class ClientHelloTemplate
+{
+    /**
+     * Create a template from the configuration of a client. The client is initialised for the
+     * purpose, so it should not itself be used for a connection afterwards.
+     *
+     * @param client       the client whose cipher suites, compression methods and extensions are
+     *                     to be offered.
+     * @param secureRandom passed to the client's {@link TlsClientContext}.
+     * @return a template equivalent to the ClientHello the client would send.
+     * @throws IOException
+     */
+    public static ClientHelloTemplate create(TlsClient client, SecureRandom secureRandom)
+        throws IOException
+    {
+        TlsClientContextImpl context = new TlsClientContextImpl(secureRandom, new SecurityParameters());
+        client.init(context);
+
+        ProtocolVersion clientVersion = client.getClientVersion();
+        context.setClientVersion(clientVersion);
+
+        return new ClientHelloTemplate(clientVersion, client.getCipherSuites(), client.getCompressionMethods(),
+            client.getClientExtensions());
+    }
+
+    private final ProtocolVersion clientVersion;
+    private final int[] cipherSuites;
+    private final short[] compressionMethods;
+    private final Hashtable clientExtensions;
+
+    // The cipher suites (and SCSV) and compression methods, as they appear in the ClientHello
+    private final byte[] encodedOffers;
+
+    // The extensions, without the enclosing length, or null if no extensions are sent
+    private final byte[] encodedExtensions;
+
+    /**
+     * @param clientVersion      the version to offer.
+     * @param cipherSuites       the cipher suites to offer, in order of preference.
+     * @param compressionMethods the compression methods to offer, in order of preference.
+     * @param clientExtensions   the extensions to send (Integer -> byte[]), or null. A session
+     *                           ticket is only included here if the same one is to be sent on every
+     *                           connection.
+     * @throws IOException
+     */
+    public ClientHelloTemplate(ProtocolVersion clientVersion, int[] cipherSuites, short[] compressionMethods,
+        Hashtable clientExtensions)
+        throws IOException
+    {
+        if (clientVersion == null)
+        {
+            throw new IllegalArgumentException("'clientVersion' cannot be null");
+        }
+        if (clientVersion.isDTLS())
+        {
+            throw new IllegalArgumentException("'clientVersion' must be a TLS version");
+        }
+        if (cipherSuites == null || cipherSuites.length == 0)
+        {
+            throw new IllegalArgumentException("'cipherSuites' cannot be null or empty");
+        }
+        if (compressionMethods == null || compressionMethods.length == 0)
+        {
+            throw new IllegalArgumentException("'compressionMethods' cannot be null or empty");
+        }
+
+        this.clientVersion = clientVersion;
+        this.cipherSuites = Arrays.clone(cipherSuites);
+        this.compressionMethods = Arrays.clone(compressionMethods);
+        this.clientExtensions = clientExtensions == null ? null : (Hashtable)clientExtensions.clone();
+
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+
+        // Cipher Suites (and SCSV)
+        {
+            /*
+             * RFC 5746 3.4. The client MUST include either an empty "renegotiation_info" extension,
+             * or the TLS_EMPTY_RENEGOTIATION_INFO_SCSV signaling cipher suite value in the
+             * ClientHello. Including both is NOT RECOMMENDED.
+             */
+            boolean noRenegExt = this.clientExtensions == null
+                || this.clientExtensions.get(TlsProtocol.EXT_RenegotiationInfo) == null;
+
+            int count = this.cipherSuites.length;
+            if (noRenegExt)
+            {
+                // Note: 1 extra slot for TLS_EMPTY_RENEGOTIATION_INFO_SCSV
+                ++count;
+            }
+
+            TlsUtils.writeUint16(2 * count, buf);
+            TlsUtils.writeUint16Array(this.cipherSuites, buf);
+
+            if (noRenegExt)
+            {
+                TlsUtils.writeUint16(CipherSuite.TLS_EMPTY_RENEGOTIATION_INFO_SCSV, buf);
+            }
+        }
+
+        // Compression methods
+        TlsUtils.writeUint8((short)this.compressionMethods.length, buf);
+        TlsUtils.writeUint8Array(this.compressionMethods, buf);
+
+        this.encodedOffers = buf.toByteArray();
+
+        // Extensions
+        if (this.clientExtensions == null)
+        {
+            this.encodedExtensions = null;
+        }
+        else
+        {
+            buf.reset();
+
+            Enumeration keys = this.clientExtensions.keys();
+            while (keys.hasMoreElements())
+            {
+                Integer extType = (Integer)keys.nextElement();
+                byte[] extValue = (byte[])this.clientExtensions.get(extType);
+
+                TlsUtils.writeUint16(extType.intValue(), buf);
+                TlsUtils.writeOpaque16(extValue, buf);
+            }
+
+            this.encodedExtensions = buf.toByteArray();
+        }
+    }
+
+    public ProtocolVersion getClientVersion()
+    {
+        return clientVersion;
+    }
+
+    public int[] getCipherSuites()
+    {
+        return Arrays.clone(cipherSuites);
+    }
+
+    public short[] getCompressionMethods()
+    {
+        return Arrays.clone(compressionMethods);
+    }
+
+    /**
+     * @return a copy of the extensions (Integer -> byte[]), or null if no extensions are sent.
+     */
+    public Hashtable getClientExtensions()
+    {
+        return clientExtensions == null ? null : (Hashtable)clientExtensions.clone();
+    }
+
+    int[] internalGetCipherSuites()
+    {
+        return cipherSuites;
+    }
+
+    short[] internalGetCompressionMethods()
+    {
+        return compressionMethods;
+    }
+
+    Hashtable internalGetClientExtensions()
+    {
+        return clientExtensions;
+    }
+
+    /**
+     * Encode a complete ClientHello handshake message from the template.
+     *
+     * @param clientRandom  the 32-byte ClientHello.random.
+     * @param sessionID     the session ID to offer (possibly empty).
+     * @param sessionTicket if not null, a SessionTicket extension containing this ticket (possibly
+     *                      empty) is sent in addition to the template's extensions.
+     * @return the handshake message, including its header.
+     * @throws IOException
+     */
+    public byte[] encode(byte[] clientRandom, byte[] sessionID, byte[] sessionTicket)
+        throws IOException
+    {
+        if (clientRandom == null || clientRandom.length != 32)
+        {
+            throw new IllegalArgumentException("'clientRandom' must have length 32");
+        }
+        if (sessionID == null || sessionID.length > 32)
+        {
+            throw new IllegalArgumentException("'sessionID' cannot be null or longer than 32 bytes");
+        }
+
+        int extensionsLength = encodedExtensions == null ? 0 : encodedExtensions.length;
+        if (sessionTicket != null)
+        {
+            extensionsLength += 4 + sessionTicket.length;
+        }
+        boolean hasExtensions = encodedExtensions != null || sessionTicket != null;
+
+        if (extensionsLength > 0xFFFF)
+        {
+            throw new TlsFatalAlert(AlertDescription.internal_error);
+        }
+
+        int length = 2 + 32 + 1 + sessionID.length + encodedOffers.length;
+        if (hasExtensions)
+        {
+            length += 2 + extensionsLength;
+        }
+
+        byte[] message = new byte[4 + length];
+        int pos = 0;
+
+        TlsUtils.writeUint8(HandshakeType.client_hello, message, pos);
+        TlsUtils.writeUint24(length, message, pos + 1);
+        pos += 4;
+
+        TlsUtils.writeVersion(clientVersion, message, pos);
+        pos += 2;
+
+        System.arraycopy(clientRandom, 0, message, pos, 32);
+        pos += 32;
+
+        TlsUtils.writeUint8((short)sessionID.length, message, pos);
+        System.arraycopy(sessionID, 0, message, pos + 1, sessionID.length);
+        pos += 1 + sessionID.length;
+
+        System.arraycopy(encodedOffers, 0, message, pos, encodedOffers.length);
+        pos += encodedOffers.length;
+
+        if (hasExtensions)
+        {
+            TlsUtils.writeUint16(extensionsLength, message, pos);
+            pos += 2;
+
+            if (encodedExtensions != null)
+            {
+                System.arraycopy(encodedExtensions, 0, message, pos, encodedExtensions.length);
+                pos += encodedExtensions.length;
+            }
+
+            if (sessionTicket != null)
+            {
+                TlsUtils.writeUint16(ExtensionType.session_ticket, message, pos);
+                TlsUtils.writeUint16(sessionTicket.length, message, pos + 2);
+                System.arraycopy(sessionTicket, 0, message, pos + 4, sessionTicket.length);
+            }
+        }
+
+        return message;
+    }
+}
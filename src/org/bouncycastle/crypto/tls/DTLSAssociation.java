@@ -0,0 +1,190 @@
+package org.bouncycastle.crypto.tls;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.SocketAddress;
+import java.util.Vector;
+
+/**
+ * A DTLS connection with one client of a {@link DTLSServerMultiplexer}.
+ */
+public class DTLSAssociation
+{
+    /*
+     * Like a socket receive buffer, the queue of datagrams awaiting a worker is bounded, so
+     * that datagrams spoofed from the peer's address cannot use up memory while the workers are busy
+     */
+    private static final int MAX_RECEIVED_DATAGRAMS = 32;
+
+    private final DTLSServerMultiplexer multiplexer;
+    private final SocketAddress peerAddress;
+
+    private final PeerTransport peerTransport = new PeerTransport();
+
+    // Accessed by the multiplexer only
+    DTLSRequest request;
+    DTLSServerProtocol.ServerHandshakeState handshake = null;
+    boolean handshaking = true;
+    DTLSTimerWheel.Timeout expiry = null;
+    boolean scheduled = false, woken = false, closeNotified = false;
+
+    private final Vector received = new Vector();
+    private volatile DTLSTransport transport = null;
+    private volatile boolean closed = false;
+    private volatile long lastReceived;
+
+    DTLSAssociation(DTLSServerMultiplexer multiplexer, SocketAddress peerAddress, DTLSRequest request)
+    {
+        this.multiplexer = multiplexer;
+        this.peerAddress = peerAddress;
+        this.request = request;
+        this.lastReceived = System.currentTimeMillis();
+    }
+
+    public SocketAddress getPeerAddress()
+    {
+        return peerAddress;
+    }
+
+    /**
+     * @return the transport for application data, or null if the handshake has not completed.
+     *         Application data should be received through
+     *         {@link DTLSAssociationHandler#notifyReceived(DTLSAssociation, byte[], int, int)}
+     *         rather than from the transport.
+     */
+    public DTLSTransport getTransport()
+    {
+        return transport;
+    }
+
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+    public void send(byte[] buf, int off, int len)
+        throws IOException
+    {
+        DTLSTransport transport = this.transport;
+        if (transport == null)
+        {
+            throw new IllegalStateException("Handshake not completed");
+        }
+        transport.send(buf, off, len);
+    }
+
+    public void close()
+        throws IOException
+    {
+        DTLSTransport transport = this.transport;
+        if (transport != null)
+        {
+            transport.close();
+        }
+        else
+        {
+            peerTransport.close();
+        }
+    }
+
+    DatagramTransport getPeerTransport()
+    {
+        return peerTransport;
+    }
+
+    void setTransport(DTLSTransport transport)
+    {
+        this.transport = transport;
+    }
+
+    long getLastReceived()
+    {
+        return lastReceived;
+    }
+
+    void updateLastReceived()
+    {
+        this.lastReceived = System.currentTimeMillis();
+    }
+
+    /**
+     * @return false if the datagram was dropped, because the queue is full.
+     */
+    boolean addReceived(byte[] datagram)
+    {
+        synchronized (received)
+        {
+            if (received.size() >= MAX_RECEIVED_DATAGRAMS)
+            {
+                return false;
+            }
+            received.addElement(datagram);
+            return true;
+        }
+    }
+
+    /**
+     * @return the oldest queued datagram, or null if there is none.
+     */
+    byte[] takeReceived()
+    {
+        synchronized (received)
+        {
+            if (received.isEmpty())
+            {
+                return null;
+            }
+            byte[] datagram = (byte[])received.elementAt(0);
+            received.removeElementAt(0);
+            return datagram;
+        }
+    }
+
+    void markClosed()
+    {
+        synchronized (received)
+        {
+            closed = true;
+            received.removeAllElements();
+        }
+    }
+
+    /*
+     * The transport under the record layer of the association: sends through the multiplexer's
+     * socket. The multiplexer passes the datagrams it receives for the association straight to the
+     * record layer, so it never receives.
+     */
+    private class PeerTransport
+        implements DatagramTransport
+    {
+        public int getReceiveLimit()
+        {
+            return multiplexer.getReceiveLimit();
+        }
+
+        public int getSendLimit()
+        {
+            return multiplexer.getSendLimit();
+        }
+
+        public int receive(byte[] buf, int off, int len, int waitMillis)
+        {
+            return -1;
+        }
+
+        public void send(byte[] buf, int off, int len)
+            throws IOException
+        {
+            if (closed)
+            {
+                throw new IOException("DTLS association closed");
+            }
+            multiplexer.send(new DatagramPacket(buf, off, len, peerAddress));
+        }
+
+        public void close()
+        {
+            multiplexer.remove(DTLSAssociation.this);
+        }
+    }
+}
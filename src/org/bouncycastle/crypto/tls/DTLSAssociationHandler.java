@@ -0,0 +1,35 @@
+package org.bouncycastle.crypto.tls;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+
+/**
+ * The application side of a {@link DTLSServerMultiplexer}. All the methods are called on the
+ * multiplexer's worker threads, never concurrently for the same association.
+ */
+public interface DTLSAssociationHandler
+{
+    /**
+     * @param peerAddress the address of a client whose ClientHello has been verified.
+     * @return the server to handshake with the client.
+     */
+    TlsServer createServer(SocketAddress peerAddress)
+        throws IOException;
+
+    /**
+     * Called when the handshake of an association has completed successfully.
+     */
+    void notifyConnected(DTLSAssociation association)
+        throws IOException;
+
+    /**
+     * Called with each application data record received on an association.
+     */
+    void notifyReceived(DTLSAssociation association, byte[] buf, int off, int len)
+        throws IOException;
+
+    /**
+     * Called once an association that had connected is closed, by either side, or has expired.
+     */
+    void notifyClosed(DTLSAssociation association);
+}
@@ -76,6 +76,24 @@ public class DTLSClientProtocol
 
         DTLSReliableHandshake.Message serverMessage = handshake.receiveMessage();
 
+        while (serverMessage.getType() == HandshakeType.hello_verify_request)
+        {
+            byte[] cookie = parseHelloVerifyRequest(state.clientContext, serverMessage.getBody());
+            byte[] patched = patchClientHelloWithCookie(clientHelloBody, cookie);
+
+            /*
+             * RFC 6347 4.2.1. DTLS 1.2 and 1.0 clients MUST use the version solely to indicate
+             * packet formatting (which is the same in both DTLS 1.2 and 1.0) and not as part of
+             * version negotiation.
+             */
+            recordLayer.resetDiscoveredPeerVersion();
+
+            handshake.resetHandshakeMessagesDigest();
+            handshake.sendMessage(HandshakeType.client_hello, patched);
+
+            serverMessage = handshake.receiveMessage();
+        }
+
         {
             // NOTE: After receiving a record from the server, we discover the record layer version
             ProtocolVersion server_version = recordLayer.getDiscoveredPeerVersion();
@@ -90,17 +108,6 @@ public class DTLSClientProtocol
             state.client.notifyServerVersion(server_version);
         }
 
-        while (serverMessage.getType() == HandshakeType.hello_verify_request)
-        {
-            byte[] cookie = parseHelloVerifyRequest(state.clientContext, serverMessage.getBody());
-            byte[] patched = patchClientHelloWithCookie(clientHelloBody, cookie);
-
-            handshake.resetHandshakeMessagesDigest();
-            handshake.sendMessage(HandshakeType.client_hello, patched);
-
-            serverMessage = handshake.receiveMessage();
-        }
-
         if (serverMessage.getType() == HandshakeType.server_hello)
         {
             processServerHello(state, serverMessage.getBody());
@@ -411,7 +418,10 @@ public class DTLSClientProtocol
 
         ByteArrayInputStream buf = new ByteArrayInputStream(body);
 
-        Certificate serverCertificate = Certificate.parse(buf);
+        TlsCertificateCache certificateCache = state.client.getCertificateCache();
+        Certificate serverCertificate = certificateCache == null
+            ? Certificate.parse(buf)
+            : certificateCache.parse(buf);
 
         TlsProtocol.assertEmpty(buf);
 
@@ -581,7 +591,7 @@ public class DTLSClientProtocol
         ByteArrayInputStream buf = new ByteArrayInputStream(body);
 
         ProtocolVersion server_version = TlsUtils.readVersion(buf);
-        if (!server_version.equals(context.getServerVersion()))
+        if (!server_version.isDTLS() || !server_version.isEqualOrEarlierVersionOf(context.getClientVersion()))
         {
             throw new TlsFatalAlert(AlertDescription.illegal_parameter);
         }
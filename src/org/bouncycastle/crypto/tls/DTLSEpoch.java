@@ -50,4 +50,9 @@ class DTLSEpoch
     {
         return sequence_number;
     }
+
+    void setSequence_number(long sequence_number)
+    {
+        this.sequence_number = sequence_number;
+    }
 }
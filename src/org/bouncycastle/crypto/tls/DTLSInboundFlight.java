@@ -0,0 +1,105 @@
+package org.bouncycastle.crypto.tls;
+
+/**
+ * The reassemblers of the messages of an inbound handshake flight, by message_seq. A flight holds
+ * only a few messages, so they are kept in arrays sorted by message_seq, avoiding the boxed keys of
+ * a Hashtable.
+ */
+class DTLSInboundFlight
+{
+
+    private int[] seqs = new int[8];
+    private DTLSReassembler[] reassemblers = new DTLSReassembler[8];
+    private int count = 0;
+
+    DTLSReassembler get(int seq)
+    {
+        int index = find(seq);
+        return index >= 0 ? reassemblers[index] : null;
+    }
+
+    void put(int seq, DTLSReassembler reassembler)
+    {
+        int index = find(seq);
+        if (index >= 0)
+        {
+            reassemblers[index] = reassembler;
+            return;
+        }
+
+        index = -(index + 1);
+        if (count == seqs.length)
+        {
+            int[] tmpSeqs = new int[2 * count];
+            System.arraycopy(seqs, 0, tmpSeqs, 0, count);
+            seqs = tmpSeqs;
+
+            DTLSReassembler[] tmpReassemblers = new DTLSReassembler[2 * count];
+            System.arraycopy(reassemblers, 0, tmpReassemblers, 0, count);
+            reassemblers = tmpReassemblers;
+        }
+
+        System.arraycopy(seqs, index, seqs, index + 1, count - index);
+        System.arraycopy(reassemblers, index, reassemblers, index + 1, count - index);
+        seqs[index] = seq;
+        reassemblers[index] = reassembler;
+        ++count;
+    }
+
+    /**
+     * @return the highest message_seq in the flight, or -1 if it is empty.
+     */
+    int getHighestSeq()
+    {
+        return count == 0 ? -1 : seqs[count - 1];
+    }
+
+    /**
+     * @return true if every message in the flight is complete.
+     */
+    boolean isComplete()
+    {
+        for (int i = 0; i < count; ++i)
+        {
+            if (reassemblers[i].getBodyIfComplete() == null)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void reset()
+    {
+        for (int i = 0; i < count; ++i)
+        {
+            reassemblers[i].reset();
+        }
+    }
+
+    /**
+     * @return the index of 'seq' if present, otherwise (-(insertion point) - 1).
+     */
+    private int find(int seq)
+    {
+        int lo = 0, hi = count - 1;
+        while (lo <= hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            int midSeq = seqs[mid];
+            if (midSeq < seq)
+            {
+                lo = mid + 1;
+            }
+            else if (midSeq > seq)
+            {
+                hi = mid - 1;
+            }
+            else
+            {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+}
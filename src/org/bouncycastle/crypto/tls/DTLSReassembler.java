@@ -1,20 +1,23 @@
 package org.bouncycastle.crypto.tls;
 
-import java.util.Vector;
-
 class DTLSReassembler
 {
 
     private final short msg_type;
     private final byte[] body;
 
-    private Vector missing = new Vector();
+    /*
+     * The missing ranges of the body, as sorted, disjoint [start, end) pairs of ints: range i is
+     * missing[2 * i] to missing[2 * i + 1].
+     */
+    private int[] missing = new int[8];
+    private int missingCount;
 
     DTLSReassembler(short msg_type, int length)
     {
         this.msg_type = msg_type;
         this.body = new byte[length];
-        this.missing.addElement(new Range(0, length));
+        reset();
     }
 
     short getType()
@@ -24,7 +27,7 @@ class DTLSReassembler
 
     byte[] getBodyIfComplete()
     {
-        return missing.isEmpty() ? body : null;
+        return missingCount == 0 ? body : null;
     }
 
     void contributeFragment(short msg_type, int length, byte[] buf, int off, int fragment_offset,
@@ -41,96 +44,121 @@ class DTLSReassembler
         if (fragment_length == 0)
         {
             // NOTE: Empty messages still require an empty fragment to complete it
-            if (fragment_offset == 0 && !missing.isEmpty())
+            if (fragment_offset == 0 && missingCount > 0 && missing[1] == 0)
             {
-                Range firstRange = (Range)missing.firstElement();
-                if (firstRange.getEnd() == 0)
-                {
-                    missing.removeElementAt(0);
-                }
+                missingCount = 0;
             }
             return;
         }
 
-        for (int i = 0; i < missing.size(); ++i)
+        /*
+         * The ranges [first, last) are those overlapping the fragment; the first starts no later
+         * than any other, and the last ends no earlier.
+         */
+        int first = findFirstEndingAfter(fragment_offset);
+        int last = findFirstStartingFrom(fragment_end);
+        if (first >= last)
         {
-            Range range = (Range)missing.elementAt(i);
-            if (range.getStart() >= fragment_end)
-            {
-                break;
-            }
-            if (range.getEnd() > fragment_offset)
-            {
+            return;
+        }
 
-                int copyStart = Math.max(range.getStart(), fragment_offset);
-                int copyEnd = Math.min(range.getEnd(), fragment_end);
-                int copyLength = copyEnd - copyStart;
-
-                System.arraycopy(buf, off + copyStart - fragment_offset, body, copyStart,
-                    copyLength);
-
-                if (copyStart == range.getStart())
-                {
-                    if (copyEnd == range.getEnd())
-                    {
-                        missing.removeElementAt(i--);
-                    }
-                    else
-                    {
-                        range.setStart(copyEnd);
-                    }
-                }
-                else
-                {
-                    if (copyEnd == range.getEnd())
-                    {
-                        range.setEnd(copyStart);
-                    }
-                    else
-                    {
-                        missing.insertElementAt(new Range(copyEnd, range.getEnd()), ++i);
-                        range.setEnd(copyStart);
-                    }
-                }
-            }
+        for (int i = first; i < last; ++i)
+        {
+            int copyStart = Math.max(missing[2 * i], fragment_offset);
+            int copyEnd = Math.min(missing[2 * i + 1], fragment_end);
+
+            System.arraycopy(buf, off + copyStart - fragment_offset, body, copyStart, copyEnd - copyStart);
+        }
+
+        /*
+         * Replace the overlapping ranges by what remains of them either side of the fragment
+         */
+        int headStart = missing[2 * first], tailEnd = missing[2 * last - 1];
+        boolean head = headStart < fragment_offset, tail = tailEnd > fragment_end;
+        int replacements = (head ? 1 : 0) + (tail ? 1 : 0);
+
+        replaceRanges(first, last, replacements);
+
+        int pos = 2 * first;
+        if (head)
+        {
+            missing[pos++] = headStart;
+            missing[pos++] = fragment_offset;
+        }
+        if (tail)
+        {
+            missing[pos++] = fragment_end;
+            missing[pos] = tailEnd;
         }
     }
 
     void reset()
     {
-        this.missing.removeAllElements();
-        this.missing.addElement(new Range(0, body.length));
+        this.missing[0] = 0;
+        this.missing[1] = body.length;
+        this.missingCount = 1;
     }
 
-    private static class Range
+    /**
+     * @return the index of the first range ending after 'offset', or missingCount if none does.
+     */
+    private int findFirstEndingAfter(int offset)
     {
-
-        private int start, end;
-
-        Range(int start, int end)
+        int lo = 0, hi = missingCount;
+        while (lo < hi)
         {
-            this.start = start;
-            this.end = end;
-        }
-
-        public int getStart()
-        {
-            return start;
+            int mid = (lo + hi) >>> 1;
+            if (missing[2 * mid + 1] > offset)
+            {
+                hi = mid;
+            }
+            else
+            {
+                lo = mid + 1;
+            }
         }
+        return lo;
+    }
 
-        public void setStart(int start)
+    /**
+     * @return the index of the first range starting at or after 'offset', or missingCount if none
+     *         does.
+     */
+    private int findFirstStartingFrom(int offset)
+    {
+        int lo = 0, hi = missingCount;
+        while (lo < hi)
         {
-            this.start = start;
+            int mid = (lo + hi) >>> 1;
+            if (missing[2 * mid] >= offset)
+            {
+                hi = mid;
+            }
+            else
+            {
+                lo = mid + 1;
+            }
         }
+        return lo;
+    }
 
-        public int getEnd()
+    /**
+     * Make room for 'count' ranges in place of the ranges [first, last), moving the later ones.
+     */
+    private void replaceRanges(int first, int last, int count)
+    {
+        int newCount = missingCount - (last - first) + count;
+        if (2 * newCount > missing.length)
         {
-            return end;
+            int[] tmp = new int[Math.max(2 * missing.length, 2 * newCount)];
+            System.arraycopy(missing, 0, tmp, 0, 2 * first);
+            System.arraycopy(missing, 2 * last, tmp, 2 * (first + count), 2 * (missingCount - last));
+            missing = tmp;
         }
-
-        public void setEnd(int end)
+        else if (last != first + count)
         {
-            this.end = end;
+            System.arraycopy(missing, 2 * last, missing, 2 * (first + count), 2 * (missingCount - last));
         }
+        missingCount = newCount;
     }
 }
@@ -11,11 +11,26 @@ class DTLSRecordLayer
     private static final long TCP_MSL = 1000L * 60 * 2;
     private static final long RETRANSMIT_TIMEOUT = TCP_MSL * 2;
 
+    private static final byte[] CHANGE_CIPHER_SPEC_MESSAGE = new byte[]{ 1 };
+
     private final DatagramTransport transport;
     private final TlsContext context;
     private final TlsPeer peer;
 
-    private final ByteQueue recordQueue = new ByteQueue();
+    /*
+     * Holds the records following the first in a datagram (received with at most a full fragment
+     * and a header), the record of a verified ClientHello, or the datagrams offered to it
+     */
+    private final ByteQueue recordQueue = new ByteQueue(RECORD_HEADER_LENGTH + MAX_FRAGMENT_LENGTH);
+
+    /*
+     * NOTE: Records are received into, and decoded in place in, the receive buffer, and encoded into
+     * the send buffer, so that no allocation is needed per datagram once these have grown.
+     */
+    private byte[] receiveBuffer = TlsUtils.EMPTY_BYTES;
+    private byte[] sendBuffer = TlsUtils.EMPTY_BYTES;
+    private final byte[] lengthBytes = new byte[2];
+    private final byte[] alertBytes = new byte[2];
 
     private volatile boolean closed = false;
     private volatile boolean failed = false;
@@ -47,6 +62,32 @@ class DTLSRecordLayer
         return discoveredPeerVersion;
     }
 
+    void resetDiscoveredPeerVersion()
+    {
+        this.discoveredPeerVersion = null;
+    }
+
+    /**
+     * Continue from a ClientHello verified before this record layer was created; the record
+     * containing it is received again, as the first record.
+     */
+    void resetAfterHelloVerifyRequest(DTLSRequest request)
+        throws IOException
+    {
+        /*
+         * RFC 6347 4.2.1. The server MUST use the record sequence number in the ClientHello as the
+         * record sequence number in the HelloVerifyRequest. Our records continue from there.
+         */
+        currentEpoch.setSequence_number(request.getRecordSeq());
+
+        byte[] record = request.getRecord();
+        if (record.length > recordQueue.getLimit())
+        {
+            throw new TlsFatalAlert(AlertDescription.record_overflow);
+        }
+        recordQueue.addData(record, 0, record.length);
+    }
+
     void initPendingEpoch(TlsCipher pendingCipher)
     {
         if (pendingEpoch != null)
@@ -113,17 +154,50 @@ class DTLSRecordLayer
     public int receive(byte[] buf, int off, int len, int waitMillis)
         throws IOException
     {
+        return receive(buf, off, len, waitMillis, true);
+    }
 
-        byte[] record = null;
+    /**
+     * Queue a datagram received for this record layer other than from its transport, e.g. by a
+     * {@link DTLSServerMultiplexer} that receives for many record layers.
+     *
+     * @return false if the datagram was dropped, because earlier ones are still queued.
+     */
+    boolean offerDatagram(byte[] buf, int off, int len)
+    {
+        if (len > recordQueue.getLimit() - recordQueue.size())
+        {
+            return false;
+        }
+        recordQueue.addData(buf, off, len);
+        return true;
+    }
+
+    /**
+     * Like {@link #receive(byte[], int, int, int)}, but only from the datagrams queued by
+     * {@link #offerDatagram(byte[], int, int)}, so never waiting.
+     *
+     * @return the length of the data received, or -1 once the queued datagrams are used up.
+     */
+    int receivePending(byte[] buf, int off, int len)
+        throws IOException
+    {
+        return receive(buf, off, len, 0, false);
+    }
+
+    private int receive(byte[] buf, int off, int len, int waitMillis, boolean useTransport)
+        throws IOException
+    {
 
         for (; ; )
         {
 
             int receiveLimit = Math.min(len, getReceiveLimit()) + RECORD_HEADER_LENGTH;
-            if (record == null || record.length < receiveLimit)
+            if (receiveBuffer.length < receiveLimit)
             {
-                record = new byte[receiveLimit];
+                receiveBuffer = new byte[receiveLimit];
             }
+            byte[] record = receiveBuffer;
 
             try
             {
@@ -133,7 +207,7 @@ class DTLSRecordLayer
                     retransmitEpoch = null;
                 }
 
-                int received = receiveRecord(record, 0, receiveLimit, waitMillis);
+                int received = receiveRecord(record, 0, receiveLimit, waitMillis, useTransport);
                 if (received < 0)
                 {
                     return received;
@@ -193,9 +267,9 @@ class DTLSRecordLayer
                     continue;
                 }
 
-                byte[] plaintext = recordEpoch.getCipher().decodeCiphertext(
+                int plaintextLength = recordEpoch.getCipher().decodeCiphertext(
                     getMacSequenceNumber(recordEpoch.getEpoch(), seq), type, record, RECORD_HEADER_LENGTH,
-                    received - RECORD_HEADER_LENGTH);
+                    received - RECORD_HEADER_LENGTH, record, RECORD_HEADER_LENGTH);
 
                 recordEpoch.getReplayWindow().reportAuthenticated(seq);
 
@@ -209,10 +283,10 @@ class DTLSRecordLayer
                 case ContentType.alert:
                 {
 
-                    if (plaintext.length == 2)
+                    if (plaintextLength == 2)
                     {
-                        short alertLevel = plaintext[0];
-                        short alertDescription = plaintext[1];
+                        short alertLevel = record[RECORD_HEADER_LENGTH];
+                        short alertDescription = record[RECORD_HEADER_LENGTH + 1];
 
                         peer.notifyAlertReceived(alertLevel, alertDescription);
 
@@ -249,7 +323,7 @@ class DTLSRecordLayer
                 {
                     // Implicitly receive change_cipher_spec and change to pending cipher state
 
-                    if (plaintext.length != 1 || plaintext[0] != 1)
+                    if (plaintextLength != 1 || record[RECORD_HEADER_LENGTH] != 1)
                     {
                         continue;
                     }
@@ -267,7 +341,7 @@ class DTLSRecordLayer
                     {
                         if (retransmit != null)
                         {
-                            retransmit.receivedHandshakeRecord(epoch, plaintext, 0, plaintext.length);
+                            retransmit.receivedHandshakeRecord(epoch, record, RECORD_HEADER_LENGTH, plaintextLength);
                         }
 
                         // TODO Consider support for HelloRequest
@@ -286,8 +360,8 @@ class DTLSRecordLayer
                     this.retransmitEpoch = null;
                 }
 
-                System.arraycopy(plaintext, 0, buf, off, plaintext.length);
-                return plaintext.length;
+                System.arraycopy(record, RECORD_HEADER_LENGTH, buf, off, plaintextLength);
+                return plaintextLength;
             }
             catch (IOException e)
             {
@@ -331,8 +405,8 @@ class DTLSRecordLayer
                 // Implicitly send change_cipher_spec and change to pending cipher state
 
                 // TODO Send change_cipher_spec and finished records in single datagram?
-                byte[] data = new byte[]{1};
-                sendRecord(ContentType.change_cipher_spec, data, 0, data.length);
+                sendRecord(ContentType.change_cipher_spec, CHANGE_CIPHER_SPEC_MESSAGE, 0,
+                    CHANGE_CIPHER_SPEC_MESSAGE.length);
 
                 writeEpoch = nextEpoch;
             }
@@ -413,14 +487,16 @@ class DTLSRecordLayer
 
         peer.notifyAlertRaised(alertLevel, alertDescription, message, cause);
 
-        byte[] error = new byte[2];
-        error[0] = (byte)alertLevel;
-        error[1] = (byte)alertDescription;
+        synchronized (alertBytes)
+        {
+            alertBytes[0] = (byte)alertLevel;
+            alertBytes[1] = (byte)alertDescription;
 
-        sendRecord(ContentType.alert, error, 0, 2);
+            sendRecord(ContentType.alert, alertBytes, 0, 2);
+        }
     }
 
-    private int receiveRecord(byte[] buf, int off, int len, int waitMillis)
+    private int receiveRecord(byte[] buf, int off, int len, int waitMillis, boolean useTransport)
         throws IOException
     {
         if (recordQueue.size() > 0)
@@ -428,17 +504,23 @@ class DTLSRecordLayer
             int length = 0;
             if (recordQueue.size() >= RECORD_HEADER_LENGTH)
             {
-                byte[] lengthBytes = new byte[2];
                 recordQueue.read(lengthBytes, 0, 2, 11);
                 length = TlsUtils.readUint16(lengthBytes, 0);
             }
 
-            int received = Math.min(recordQueue.size(), RECORD_HEADER_LENGTH + length);
+            // NOTE: An offered datagram may hold a record too long for the buffer; it is truncated
+            int recordLength = Math.min(recordQueue.size(), RECORD_HEADER_LENGTH + length);
+            int received = Math.min(recordLength, len);
             recordQueue.read(buf, off, received, 0);
-            recordQueue.removeData(received);
+            recordQueue.removeData(recordLength);
             return received;
         }
 
+        if (!useTransport)
+        {
+            return -1;
+        }
+
         int received = transport.receive(buf, off, len, waitMillis);
         if (received >= RECORD_HEADER_LENGTH)
         {
@@ -454,7 +536,7 @@ class DTLSRecordLayer
         return received;
     }
 
-    private void sendRecord(short contentType, byte[] buf, int off, int len)
+    private synchronized void sendRecord(short contentType, byte[] buf, int off, int len)
         throws IOException
     {
 
@@ -470,24 +552,30 @@ class DTLSRecordLayer
         int recordEpoch = writeEpoch.getEpoch();
         long recordSequenceNumber = writeEpoch.allocateSequenceNumber();
 
-        byte[] ciphertext = writeEpoch.getCipher().encodePlaintext(
-            getMacSequenceNumber(recordEpoch, recordSequenceNumber), contentType, buf, off, len);
+        TlsCipher cipher = writeEpoch.getCipher();
+        int recordLimit = RECORD_HEADER_LENGTH + cipher.getCiphertextLimit(len);
+        if (sendBuffer.length < recordLimit)
+        {
+            sendBuffer = new byte[recordLimit];
+        }
+        byte[] record = sendBuffer;
+
+        int ciphertextLength = cipher.encodePlaintext(getMacSequenceNumber(recordEpoch, recordSequenceNumber),
+            contentType, buf, off, len, record, RECORD_HEADER_LENGTH);
 
-        if (ciphertext.length > MAX_FRAGMENT_LENGTH)
+        if (ciphertextLength > MAX_FRAGMENT_LENGTH)
         {
             throw new TlsFatalAlert(AlertDescription.internal_error);
         }
 
-        byte[] record = new byte[ciphertext.length + RECORD_HEADER_LENGTH];
         TlsUtils.writeUint8(contentType, record, 0);
         ProtocolVersion version = discoveredPeerVersion != null ? discoveredPeerVersion : context.getClientVersion();
         TlsUtils.writeVersion(version, record, 1);
         TlsUtils.writeUint16(recordEpoch, record, 3);
         TlsUtils.writeUint48(recordSequenceNumber, record, 5);
-        TlsUtils.writeUint16(ciphertext.length, record, 11);
-        System.arraycopy(ciphertext, 0, record, RECORD_HEADER_LENGTH, ciphertext.length);
+        TlsUtils.writeUint16(ciphertextLength, record, 11);
 
-        transport.send(record, 0, record.length);
+        transport.send(record, 0, RECORD_HEADER_LENGTH + ciphertextLength);
     }
 
     private static long getMacSequenceNumber(int epoch, long sequence_number)
@@ -1,35 +1,56 @@
 package org.bouncycastle.crypto.tls;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.Enumeration;
-import java.util.Hashtable;
 import java.util.Vector;
 
-import org.bouncycastle.util.Integers;
-
 class DTLSReliableHandshake
 {
 
     private final static int MAX_RECEIVE_AHEAD = 10;
 
+    /*
+     * RFC 6347 4.2.4.1. Implementations SHOULD use an initial timer value of 1 second [...] and
+     * double the value at each retransmission, up to no less than the RFC 6298 maximum of 60
+     * seconds.
+     */
+    private final static int INITIAL_RESEND_MILLIS = 1000;
+    private final static int MAX_RESEND_MILLIS = 60000;
+
     private final DTLSRecordLayer recordLayer;
 
     private TlsHandshakeHash hash = new DeferredHash();
 
-    private Hashtable currentInboundFlight = new Hashtable();
-    private Hashtable previousInboundFlight = null;
+    private DTLSInboundFlight currentInboundFlight = new DTLSInboundFlight();
+    private DTLSInboundFlight previousInboundFlight = null;
     private Vector outboundFlight = new Vector();
     private boolean sending = true;
 
     private int message_seq = 0, next_receive_seq = 0;
 
+    // The retransmission timer of the outbound flight, backed off after each retransmission
+    private int resendMillis = INITIAL_RESEND_MILLIS;
+    private long resendTime = 0L;
+
+    // Reused for every record received, every fragment sent, and every message header digested
+    private byte[] receiveBuffer = TlsUtils.EMPTY_BYTES;
+    private byte[] fragmentBuffer = TlsUtils.EMPTY_BYTES;
+    private final byte[] headerBuffer = new byte[12];
+
     DTLSReliableHandshake(TlsContext context, DTLSRecordLayer transport)
     {
         this.recordLayer = transport;
         this.hash.init(context);
     }
 
+    /**
+     * Continue the message sequence from a ClientHello verified before this handshake was created
+     */
+    void resetAfterHelloVerifyRequest(int message_seq)
+    {
+        this.message_seq = message_seq;
+        this.next_receive_seq = message_seq;
+    }
+
     void notifyHelloComplete()
     {
         this.hash = this.hash.commit();
@@ -52,6 +73,9 @@ class DTLSReliableHandshake
             checkInboundFlight();
             sending = true;
             outboundFlight.removeAllElements();
+
+            // NOTE: The peer's flight came through, so the next flight starts from the initial timer
+            resendMillis = INITIAL_RESEND_MILLIS;
         }
 
         Message message = new Message(message_seq++, msg_type, body);
@@ -66,38 +90,20 @@ class DTLSReliableHandshake
         throws IOException
     {
 
-        if (sending)
-        {
-            sending = false;
-            prepareInboundFlight();
-        }
-
         // Check if we already have the next message waiting
+        Message message = nextMessage();
+        if (message != null)
         {
-            DTLSReassembler next = (DTLSReassembler)currentInboundFlight.get(Integers.valueOf(next_receive_seq));
-            if (next != null)
-            {
-                byte[] body = next.getBodyIfComplete();
-                if (body != null)
-                {
-                    previousInboundFlight = null;
-                    return updateHandshakeMessagesDigest(new Message(next_receive_seq++, next.getType(), body));
-                }
-            }
+            return message;
         }
 
-        byte[] buf = null;
-
-        // TODO Check the conditions under which we should reset this
-        int readTimeoutMillis = 1000;
-
         for (; ; )
         {
 
             int receiveLimit = recordLayer.getReceiveLimit();
-            if (buf == null || buf.length < receiveLimit)
+            if (receiveBuffer.length < receiveLimit)
             {
-                buf = new byte[receiveLimit];
+                receiveBuffer = new byte[receiveLimit];
             }
 
             // TODO Handle records containing multiple handshake messages
@@ -106,103 +112,195 @@ class DTLSReliableHandshake
             {
                 for (; ; )
                 {
-                    int received = recordLayer.receive(buf, 0, receiveLimit, readTimeoutMillis);
-                    if (received < 0)
+                    long waitMillis = resendTime - System.currentTimeMillis();
+                    if (waitMillis <= 0)
                     {
                         break;
                     }
-                    if (received < 12)
-                    {
-                        continue;
-                    }
-                    int fragment_length = TlsUtils.readUint24(buf, 9);
-                    if (received != (fragment_length + 12))
-                    {
-                        continue;
-                    }
-                    int seq = TlsUtils.readUint16(buf, 4);
-                    if (seq > (next_receive_seq + MAX_RECEIVE_AHEAD))
+
+                    int received = recordLayer.receive(receiveBuffer, 0, receiveLimit, (int)waitMillis);
+                    if (received < 0)
                     {
-                        continue;
+                        break;
                     }
-                    short msg_type = TlsUtils.readUint8(buf, 0);
-                    int length = TlsUtils.readUint24(buf, 1);
-                    int fragment_offset = TlsUtils.readUint24(buf, 6);
-                    if (fragment_offset + fragment_length > length)
+
+                    receivedHandshakeRecord(receiveBuffer, 0, received);
+
+                    message = nextMessage();
+                    if (message != null)
                     {
-                        continue;
+                        return message;
                     }
+                }
+            }
+            catch (IOException e)
+            {
+                // NOTE: Assume this is a timeout for the moment
+            }
 
-                    if (seq < next_receive_seq)
-                    {
-                        /*
-                         * NOTE: If we receive the previous flight of incoming messages in full
-                         * again, retransmit our last flight
-                         */
-                        if (previousInboundFlight != null)
-                        {
-                            DTLSReassembler reassembler = (DTLSReassembler)previousInboundFlight.get(Integers
-                                .valueOf(seq));
-                            if (reassembler != null)
-                            {
+            resendOutboundFlight();
+        }
+    }
 
-                                reassembler.contributeFragment(msg_type, length, buf, 12, fragment_offset,
-                                    fragment_length);
+    /**
+     * Receive the next message from the records already received by the record layer (see
+     * {@link DTLSRecordLayer#offerDatagram(byte[], int, int)}), without waiting for any more. Flights
+     * are then retransmitted by the caller, through {@link #checkResendTime()}.
+     *
+     * @return the next message, or null if it has not been received in full yet.
+     */
+    Message receivePendingMessage()
+        throws IOException
+    {
+        Message message = nextMessage();
+        while (message == null)
+        {
+            int receiveLimit = recordLayer.getReceiveLimit();
+            if (receiveBuffer.length < receiveLimit)
+            {
+                receiveBuffer = new byte[receiveLimit];
+            }
 
-                                if (checkAll(previousInboundFlight))
-                                {
+            int received = recordLayer.receivePending(receiveBuffer, 0, receiveLimit);
+            if (received < 0)
+            {
+                break;
+            }
 
-                                    resendOutboundFlight();
+            receivedHandshakeRecord(receiveBuffer, 0, received);
 
-                                    /*
-                                     * TODO[DTLS] implementations SHOULD back off handshake packet
-                                     * size during the retransmit backoff.
-                                     */
-                                    readTimeoutMillis = Math.min(readTimeoutMillis * 2, 60000);
+            message = nextMessage();
+        }
+        return message;
+    }
 
-                                    resetAll(previousInboundFlight);
-                                }
-                            }
-                        }
-                    }
-                    else
-                    {
+    /**
+     * @return the time at which the outbound flight is due to be retransmitted, or 0 if no flight
+     *         awaits an answer.
+     */
+    long getResendTime()
+    {
+        return (sending || outboundFlight.isEmpty()) ? 0L : resendTime;
+    }
 
-                        DTLSReassembler reassembler = (DTLSReassembler)currentInboundFlight.get(Integers.valueOf(seq));
-                        if (reassembler == null)
-                        {
-                            reassembler = new DTLSReassembler(msg_type, length);
-                            currentInboundFlight.put(Integers.valueOf(seq), reassembler);
-                        }
+    /**
+     * Retransmit the outbound flight if the time for it has come, backing off the next
+     * retransmission.
+     */
+    void checkResendTime()
+        throws IOException
+    {
+        long resendTime = getResendTime();
+        if (resendTime != 0L && resendTime <= System.currentTimeMillis())
+        {
+            resendOutboundFlight();
+        }
+    }
 
-                        reassembler.contributeFragment(msg_type, length, buf, 12, fragment_offset, fragment_length);
+    /*
+     * Contribute a handshake record to the messages being received
+     */
+    private void receivedHandshakeRecord(byte[] buf, int off, int len)
+        throws IOException
+    {
+        if (len < 12)
+        {
+            return;
+        }
+        int fragment_length = TlsUtils.readUint24(buf, off + 9);
+        if (len != (fragment_length + 12))
+        {
+            return;
+        }
+        int seq = TlsUtils.readUint16(buf, off + 4);
+        if (seq > (next_receive_seq + MAX_RECEIVE_AHEAD))
+        {
+            return;
+        }
+        short msg_type = TlsUtils.readUint8(buf, off);
+        int length = TlsUtils.readUint24(buf, off + 1);
+        int fragment_offset = TlsUtils.readUint24(buf, off + 6);
+        if (fragment_offset + fragment_length > length)
+        {
+            return;
+        }
 
-                        if (seq == next_receive_seq)
-                        {
-                            byte[] body = reassembler.getBodyIfComplete();
-                            if (body != null)
-                            {
-                                previousInboundFlight = null;
-                                return updateHandshakeMessagesDigest(new Message(next_receive_seq++,
-                                    reassembler.getType(), body));
-                            }
-                        }
+        if (seq < next_receive_seq)
+        {
+            /*
+             * NOTE: If we receive the previous flight of incoming messages in full again,
+             * retransmit our last flight
+             */
+            if (previousInboundFlight != null)
+            {
+                DTLSReassembler reassembler = previousInboundFlight.get(seq);
+                if (reassembler != null)
+                {
+
+                    reassembler.contributeFragment(msg_type, length, buf, off + 12, fragment_offset,
+                        fragment_length);
+
+                    if (previousInboundFlight.isComplete())
+                    {
+
+                        resendOutboundFlight();
+
+                        previousInboundFlight.reset();
                     }
                 }
             }
-            catch (IOException e)
+        }
+        else
+        {
+
+            DTLSReassembler reassembler = currentInboundFlight.get(seq);
+            if (reassembler == null)
             {
-                // NOTE: Assume this is a timeout for the moment
+                reassembler = new DTLSReassembler(msg_type, length);
+                currentInboundFlight.put(seq, reassembler);
             }
 
-            resendOutboundFlight();
+            reassembler.contributeFragment(msg_type, length, buf, off + 12, fragment_offset, fragment_length);
+        }
+    }
 
-            /*
-             * TODO[DTLS] implementations SHOULD back off handshake packet size during the
-             * retransmit backoff.
-             */
-            readTimeoutMillis = Math.min(readTimeoutMillis * 2, 60000);
+    /*
+     * Take the next message, if it has been received in full
+     */
+    private Message nextMessage()
+        throws IOException
+    {
+        if (sending)
+        {
+            sending = false;
+            prepareInboundFlight();
+
+            resendTime = System.currentTimeMillis() + resendMillis;
+        }
+
+        DTLSReassembler next = currentInboundFlight.get(next_receive_seq);
+        if (next != null)
+        {
+            byte[] body = next.getBodyIfComplete();
+            if (body != null)
+            {
+                /*
+                 * NOTE: The retransmission timer only restarts when a message is completed, so that
+                 * datagrams that complete nothing (duplicates, or from an old epoch) do not keep
+                 * restarting it.
+                 */
+                resendTime = System.currentTimeMillis() + resendMillis;
+
+                previousInboundFlight = null;
+                return updateHandshakeMessagesDigest(new Message(next_receive_seq++, next.getType(), body));
+            }
         }
+        return null;
+    }
+
+    private static int backOff(int timeoutMillis)
+    {
+        return Math.min(timeoutMillis * 2, MAX_RESEND_MILLIS);
     }
 
     void finish()
@@ -260,15 +358,15 @@ class DTLSReliableHandshake
                         return;
                     }
 
-                    DTLSReassembler reassembler = (DTLSReassembler)currentInboundFlight.get(Integers.valueOf(seq));
+                    DTLSReassembler reassembler = currentInboundFlight.get(seq);
                     if (reassembler != null)
                     {
                         reassembler.contributeFragment(msg_type, length, buf, off + 12, fragment_offset,
                             fragment_length);
-                        if (checkAll(currentInboundFlight))
+                        if (currentInboundFlight.isComplete())
                         {
                             resendOutboundFlight();
-                            resetAll(currentInboundFlight);
+                            currentInboundFlight.reset();
                         }
                     }
                 }
@@ -288,22 +386,17 @@ class DTLSReliableHandshake
      */
     private void checkInboundFlight()
     {
-        Enumeration e = currentInboundFlight.keys();
-        while (e.hasMoreElements())
+        if (currentInboundFlight.getHighestSeq() >= next_receive_seq)
         {
-            Integer key = (Integer)e.nextElement();
-            if (key.intValue() >= next_receive_seq)
-            {
-                // TODO Should this be considered an error?
-            }
+            // TODO Should this be considered an error?
         }
     }
 
     private void prepareInboundFlight()
     {
-        resetAll(currentInboundFlight);
+        currentInboundFlight.reset();
         previousInboundFlight = currentInboundFlight;
-        currentInboundFlight = new Hashtable();
+        currentInboundFlight = new DTLSInboundFlight();
     }
 
     private void resendOutboundFlight()
@@ -314,6 +407,13 @@ class DTLSReliableHandshake
         {
             writeMessage((Message)outboundFlight.elementAt(i));
         }
+
+        /*
+         * TODO[DTLS] implementations SHOULD back off handshake packet size during the retransmit
+         * backoff.
+         */
+        resendMillis = backOff(resendMillis);
+        resendTime = System.currentTimeMillis() + resendMillis;
     }
 
     private Message updateHandshakeMessagesDigest(Message message)
@@ -322,7 +422,7 @@ class DTLSReliableHandshake
         if (message.getType() != HandshakeType.hello_request)
         {
             byte[] body = message.getBody();
-            byte[] buf = new byte[12];
+            byte[] buf = headerBuffer;
             TlsUtils.writeUint8(message.getType(), buf, 0);
             TlsUtils.writeUint24(body.length, buf, 1);
             TlsUtils.writeUint16(message.getSeq(), buf, 4);
@@ -365,39 +465,21 @@ class DTLSReliableHandshake
         throws IOException
     {
 
-        ByteArrayOutputStream buf = new ByteArrayOutputStream();
-        TlsUtils.writeUint8(message.getType(), buf);
-        TlsUtils.writeUint24(message.getBody().length, buf);
-        TlsUtils.writeUint16(message.getSeq(), buf);
-        TlsUtils.writeUint24(fragment_offset, buf);
-        TlsUtils.writeUint24(fragment_length, buf);
-        buf.write(message.getBody(), fragment_offset, fragment_length);
-
-        byte[] fragment = buf.toByteArray();
-
-        recordLayer.send(fragment, 0, fragment.length);
-    }
-
-    private static boolean checkAll(Hashtable inboundFlight)
-    {
-        Enumeration e = inboundFlight.elements();
-        while (e.hasMoreElements())
+        int length = 12 + fragment_length;
+        if (fragmentBuffer.length < length)
         {
-            if (((DTLSReassembler)e.nextElement()).getBodyIfComplete() == null)
-            {
-                return false;
-            }
+            fragmentBuffer = new byte[length];
         }
-        return true;
-    }
+        byte[] buf = fragmentBuffer;
 
-    private static void resetAll(Hashtable inboundFlight)
-    {
-        Enumeration e = inboundFlight.elements();
-        while (e.hasMoreElements())
-        {
-            ((DTLSReassembler)e.nextElement()).reset();
-        }
+        TlsUtils.writeUint8(message.getType(), buf, 0);
+        TlsUtils.writeUint24(message.getBody().length, buf, 1);
+        TlsUtils.writeUint16(message.getSeq(), buf, 4);
+        TlsUtils.writeUint24(fragment_offset, buf, 6);
+        TlsUtils.writeUint24(fragment_length, buf, 9);
+        System.arraycopy(message.getBody(), fragment_offset, buf, 12, fragment_length);
+
+        recordLayer.send(buf, 0, length);
     }
 
     static class Message
@@ -0,0 +1,37 @@
+package org.bouncycastle.crypto.tls;
+
+/**
+ * A ClientHello whose cookie has been verified by a {@link DTLSVerifier}, from which a server
+ * handshake can be started (see {@link DTLSServerProtocol#accept(TlsServer, DatagramTransport, DTLSRequest)}).
+ */
+public class DTLSRequest
+{
+    private final long recordSeq;
+    private final int messageSeq;
+    private final byte[] record;
+
+    DTLSRequest(long recordSeq, int messageSeq, byte[] record)
+    {
+        this.recordSeq = recordSeq;
+        this.messageSeq = messageSeq;
+        this.record = record;
+    }
+
+    long getRecordSeq()
+    {
+        return recordSeq;
+    }
+
+    int getMessageSeq()
+    {
+        return messageSeq;
+    }
+
+    /**
+     * @return the (plaintext) record containing the ClientHello.
+     */
+    byte[] getRecord()
+    {
+        return record;
+    }
+}
@@ -0,0 +1,655 @@
+package org.bouncycastle.crypto.tls;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.security.SecureRandom;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.Integers;
+
+/**
+ * Serves many DTLS clients over a single unconnected {@link DatagramSocket}. One receiver thread
+ * reads every datagram from the socket and routes it, by the source address, to the
+ * {@link DTLSAssociation} of that client. Datagrams from unknown clients go to a
+ * {@link DTLSVerifier}, so that no association exists before a client has answered a
+ * HelloVerifyRequest.
+ * <p/>
+ * A fixed pool of worker threads passes the datagrams of each association to its record layer, and
+ * delivers the application data received to a {@link DTLSAssociationHandler}. The handshakes are
+ * driven by the same events (see {@link DTLSServerProtocol#beginHandshake}), so a worker never
+ * waits on a client, and a few workers can handshake with many clients at once. The number of
+ * handshakes in progress from any one IP address is limited, whatever the source ports.
+ * <p/>
+ * The handshake and idle timeouts of all the associations, and the retransmissions of their
+ * handshakes, are kept on one {@link DTLSTimerWheel}.
+ */
+public class DTLSServerMultiplexer
+{
+    public static final int DEFAULT_MAX_ASSOCIATIONS = 65536;
+    public static final int DEFAULT_MAX_HANDSHAKES_PER_ADDRESS = 16;
+    public static final long DEFAULT_HANDSHAKE_TIMEOUT_MILLIS = 30000L;
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 300000L;
+
+    private final static int MIN_IP_OVERHEAD = 20;
+    private final static int MAX_IP_OVERHEAD = MIN_IP_OVERHEAD + 64;
+    private final static int UDP_OVERHEAD = 8;
+
+    private final DatagramSocket socket;
+    private final int receiveLimit, sendLimit;
+    private final DTLSAssociationHandler handler;
+    private final DTLSServerProtocol protocol;
+    private final int workerCount;
+    private final DTLSTimerWheel timerWheel = new DTLSTimerWheel();
+
+    private final Hashtable associations = new Hashtable();
+    private final Hashtable handshakeCounts = new Hashtable();
+    private final Vector tasks = new Vector();
+
+    private int maxAssociations = DEFAULT_MAX_ASSOCIATIONS;
+    private int maxHandshakesPerAddress = DEFAULT_MAX_HANDSHAKES_PER_ADDRESS;
+    private long handshakeTimeoutMillis = DEFAULT_HANDSHAKE_TIMEOUT_MILLIS;
+    private long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+
+    private Vector threads = null;
+    private volatile boolean closed = false;
+
+    /**
+     * @param socket       a bound, unconnected socket. It is owned by the multiplexer from
+     *                     {@link #start()}, and closed by {@link #close()}.
+     * @param mtu          the MTU of the network.
+     * @param handler      receives the events of every association.
+     * @param secureRandom for the handshakes, and the secrets of the cookie exchange.
+     * @param workerCount  the number of worker threads.
+     */
+    public DTLSServerMultiplexer(DatagramSocket socket, int mtu, DTLSAssociationHandler handler,
+        SecureRandom secureRandom, int workerCount)
+    {
+        if (socket == null)
+        {
+            throw new IllegalArgumentException("'socket' cannot be null");
+        }
+        if (!socket.isBound() || socket.isConnected())
+        {
+            throw new IllegalArgumentException("'socket' must be bound and not connected");
+        }
+        if (handler == null)
+        {
+            throw new IllegalArgumentException("'handler' cannot be null");
+        }
+        if (workerCount < 1)
+        {
+            throw new IllegalArgumentException("'workerCount' must be positive");
+        }
+
+        this.socket = socket;
+
+        // NOTE: As of JDK 1.6, can use NetworkInterface.getMTU
+
+        this.receiveLimit = mtu - MIN_IP_OVERHEAD - UDP_OVERHEAD;
+        this.sendLimit = mtu - MAX_IP_OVERHEAD - UDP_OVERHEAD;
+        this.handler = handler;
+        this.protocol = new DTLSServerProtocol(secureRandom);
+        this.workerCount = workerCount;
+    }
+
+    public int getMaxAssociations()
+    {
+        return maxAssociations;
+    }
+
+    /**
+     * @param maxAssociations the number of associations beyond which new clients are ignored.
+     */
+    public void setMaxAssociations(int maxAssociations)
+    {
+        this.maxAssociations = maxAssociations;
+    }
+
+    public int getMaxHandshakesPerAddress()
+    {
+        return maxHandshakesPerAddress;
+    }
+
+    /**
+     * @param maxHandshakesPerAddress the number of handshakes in progress from one IP address beyond
+     *                                which new clients from that address are ignored.
+     */
+    public void setMaxHandshakesPerAddress(int maxHandshakesPerAddress)
+    {
+        this.maxHandshakesPerAddress = maxHandshakesPerAddress;
+    }
+
+    public long getHandshakeTimeoutMillis()
+    {
+        return handshakeTimeoutMillis;
+    }
+
+    /**
+     * @param handshakeTimeoutMillis the time after which an association that has not completed its
+     *                               handshake is closed.
+     */
+    public void setHandshakeTimeoutMillis(long handshakeTimeoutMillis)
+    {
+        this.handshakeTimeoutMillis = handshakeTimeoutMillis;
+    }
+
+    public long getIdleTimeoutMillis()
+    {
+        return idleTimeoutMillis;
+    }
+
+    /**
+     * @param idleTimeoutMillis the time after which an association that has received no
+     *                          application data is closed.
+     */
+    public void setIdleTimeoutMillis(long idleTimeoutMillis)
+    {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    public int getAssociationCount()
+    {
+        return associations.size();
+    }
+
+    public synchronized void start()
+    {
+        if (threads != null)
+        {
+            throw new IllegalStateException("Multiplexer already started");
+        }
+
+        this.threads = new Vector();
+
+        threads.addElement(new Thread(new Runnable()
+        {
+            public void run()
+            {
+                receiveLoop();
+            }
+        }, "DTLSServerMultiplexer-receiver"));
+
+        for (int i = 0; i < workerCount; ++i)
+        {
+            threads.addElement(new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    workerLoop();
+                }
+            }, "DTLSServerMultiplexer-worker-" + i));
+        }
+
+        for (int i = 0; i < threads.size(); ++i)
+        {
+            Thread t = (Thread)threads.elementAt(i);
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /**
+     * Close the socket and every association, and stop the threads.
+     */
+    public void close()
+        throws InterruptedException
+    {
+        this.closed = true;
+
+        socket.close();
+        timerWheel.close();
+
+        Enumeration e = associations.elements();
+        while (e.hasMoreElements())
+        {
+            remove((DTLSAssociation)e.nextElement());
+        }
+
+        synchronized (tasks)
+        {
+            tasks.notifyAll();
+        }
+
+        Vector threads;
+        synchronized (this)
+        {
+            threads = this.threads;
+        }
+        if (threads != null)
+        {
+            for (int i = 0; i < threads.size(); ++i)
+            {
+                Thread t = (Thread)threads.elementAt(i);
+                if (t != Thread.currentThread())
+                {
+                    t.join();
+                }
+            }
+        }
+    }
+
+    int getReceiveLimit()
+    {
+        return receiveLimit;
+    }
+
+    int getSendLimit()
+    {
+        return sendLimit;
+    }
+
+    void send(DatagramPacket packet)
+        throws IOException
+    {
+        if (packet.getLength() > sendLimit)
+        {
+            // See UDPTransport.send
+            throw new TlsFatalAlert(AlertDescription.internal_error);
+        }
+
+        socket.send(packet);
+    }
+
+    /**
+     * Stop routing datagrams to an association; the closure is reported from a worker.
+     */
+    void remove(DTLSAssociation association)
+    {
+        SocketAddress peerAddress = association.getPeerAddress();
+        synchronized (associations)
+        {
+            if (associations.get(peerAddress) == association)
+            {
+                associations.remove(peerAddress);
+            }
+        }
+
+        association.markClosed();
+        schedule(association);
+    }
+
+    protected byte[] getClientID(SocketAddress peerAddress)
+    {
+        InetSocketAddress inetAddress = (InetSocketAddress)peerAddress;
+        byte[] address = inetAddress.getAddress().getAddress();
+        byte[] port = new byte[2];
+        TlsUtils.writeUint16(inetAddress.getPort(), port, 0);
+        return Arrays.concatenate(address, port);
+    }
+
+    private void receiveLoop()
+    {
+        byte[] buf = new byte[receiveLimit];
+        DatagramPacket packet = new DatagramPacket(buf, buf.length);
+        ReplyTransport replyTransport = new ReplyTransport();
+
+        while (!closed)
+        {
+            try
+            {
+                packet.setLength(buf.length);
+                socket.receive(packet);
+
+                SocketAddress peerAddress = packet.getSocketAddress();
+                int length = packet.getLength();
+                DTLSAssociation association = (DTLSAssociation)associations.get(peerAddress);
+
+                /*
+                 * RFC 6347 4.2.8. If a server receives a ClientHello with epoch 0 on an existing
+                 * association, it SHOULD proceed with a new handshake, but only destroy the existing
+                 * association once the client has demonstrated reachability by returning a valid
+                 * cookie. (E.g. a client that lost its state, but not its address and port.)
+                 */
+                if (association != null && association.getTransport() != null && isInitialClientHello(buf, length))
+                {
+                    replyTransport.peerAddress = peerAddress;
+                    DTLSRequest request = protocol.verifier.verifyRequest(getClientID(peerAddress), buf, 0,
+                        length, replyTransport);
+                    if (request != null && reserveHandshake(peerAddress))
+                    {
+                        remove(association);
+                        addAssociation(peerAddress, request);
+                    }
+                }
+                else if (association != null)
+                {
+                    if (association.addReceived(Arrays.copyOfRange(buf, 0, length)))
+                    {
+                        schedule(association);
+                    }
+                }
+                else if (associations.size() < maxAssociations)
+                {
+                    replyTransport.peerAddress = peerAddress;
+                    DTLSRequest request = protocol.verifier.verifyRequest(getClientID(peerAddress), buf, 0,
+                        length, replyTransport);
+                    if (request != null && reserveHandshake(peerAddress))
+                    {
+                        addAssociation(peerAddress, request);
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                // Either the socket has been closed, or the datagram could not be answered
+            }
+        }
+    }
+
+    private void addAssociation(SocketAddress peerAddress, DTLSRequest request)
+    {
+        DTLSAssociation association = new DTLSAssociation(this, peerAddress, request);
+        associations.put(peerAddress, association);
+        scheduleExpiry(association, handshakeTimeoutMillis);
+        schedule(association);
+    }
+
+    /*
+     * NOTE: Only verified clients are counted, so a spoofed source address cannot use up the
+     * handshakes of another host.
+     */
+    private boolean reserveHandshake(SocketAddress peerAddress)
+    {
+        InetAddress address = ((InetSocketAddress)peerAddress).getAddress();
+        synchronized (handshakeCounts)
+        {
+            Integer count = (Integer)handshakeCounts.get(address);
+            int handshakes = count == null ? 0 : count.intValue();
+            if (handshakes >= maxHandshakesPerAddress)
+            {
+                return false;
+            }
+            handshakeCounts.put(address, Integers.valueOf(handshakes + 1));
+            return true;
+        }
+    }
+
+    private void releaseHandshake(SocketAddress peerAddress)
+    {
+        InetAddress address = ((InetSocketAddress)peerAddress).getAddress();
+        synchronized (handshakeCounts)
+        {
+            int handshakes = ((Integer)handshakeCounts.get(address)).intValue() - 1;
+            if (handshakes > 0)
+            {
+                handshakeCounts.put(address, Integers.valueOf(handshakes));
+            }
+            else
+            {
+                handshakeCounts.remove(address);
+            }
+        }
+    }
+
+    /**
+     * @return true if the datagram starts with a ClientHello in epoch 0.
+     */
+    private static boolean isInitialClientHello(byte[] buf, int length)
+    {
+        return length >= 13 + 12
+            && TlsUtils.readUint8(buf, 0) == ContentType.handshake
+            && TlsUtils.readUint16(buf, 3) == 0
+            && TlsUtils.readUint8(buf, 13) == HandshakeType.client_hello;
+    }
+
+    private void scheduleExpiry(final DTLSAssociation association, long delayMillis)
+    {
+        association.expiry = timerWheel.schedule(new Runnable()
+        {
+            public void run()
+            {
+                checkExpiry(association);
+            }
+        }, delayMillis);
+    }
+
+    /*
+     * NOTE: Runs on the timer wheel. Rather than rescheduling the timer on every datagram, an idle
+     * timer that fires early is rescheduled for the remaining time.
+     */
+    private void checkExpiry(DTLSAssociation association)
+    {
+        if (association.isClosed())
+        {
+            return;
+        }
+
+        if (association.getTransport() == null)
+        {
+            remove(association);
+            return;
+        }
+
+        long idleMillis = System.currentTimeMillis() - association.getLastReceived();
+        if (idleMillis >= idleTimeoutMillis)
+        {
+            remove(association);
+        }
+        else
+        {
+            scheduleExpiry(association, idleTimeoutMillis - idleMillis);
+        }
+    }
+
+    /*
+     * NOTE: An association scheduled while a worker is processing it is processed again afterwards.
+     */
+    private void schedule(DTLSAssociation association)
+    {
+        synchronized (tasks)
+        {
+            association.woken = true;
+            if (!association.scheduled)
+            {
+                association.scheduled = true;
+                tasks.addElement(association);
+                tasks.notify();
+            }
+        }
+    }
+
+    private void workerLoop()
+    {
+        // NOTE: No transport of an association receives more than the multiplexer does
+        byte[] buf = new byte[receiveLimit];
+
+        for (;;)
+        {
+            DTLSAssociation association;
+            synchronized (tasks)
+            {
+                while (tasks.isEmpty() && !closed)
+                {
+                    try
+                    {
+                        tasks.wait();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        // Keep waiting until closed
+                    }
+                }
+                if (tasks.isEmpty())
+                {
+                    return;
+                }
+                association = (DTLSAssociation)tasks.elementAt(0);
+                tasks.removeElementAt(0);
+                association.woken = false;
+            }
+
+            process(association, buf);
+
+            synchronized (tasks)
+            {
+                if (association.woken)
+                {
+                    tasks.addElement(association);
+                    tasks.notify();
+                }
+                else
+                {
+                    association.scheduled = false;
+                }
+            }
+        }
+    }
+
+    private void process(DTLSAssociation association, byte[] buf)
+    {
+        try
+        {
+            if (association.handshaking && !association.isClosed())
+            {
+                continueHandshake(association);
+            }
+
+            DTLSTransport transport = association.getTransport();
+            if (transport != null && !association.isClosed())
+            {
+                receiveApplicationData(association, transport, buf);
+            }
+        }
+        catch (Exception e)
+        {
+            remove(association);
+        }
+
+        if (association.isClosed() && !association.closeNotified)
+        {
+            association.closeNotified = true;
+            endHandshake(association);
+            if (association.getTransport() != null)
+            {
+                handler.notifyClosed(association);
+            }
+        }
+    }
+
+    private void continueHandshake(final DTLSAssociation association)
+        throws IOException
+    {
+        if (association.handshake == null)
+        {
+            DTLSRequest request = association.request;
+            association.request = null;
+
+            TlsServer server = handler.createServer(association.getPeerAddress());
+            association.handshake = protocol.beginHandshake(server, association.getPeerTransport(), request,
+                timerWheel, new Runnable()
+                {
+                    public void run()
+                    {
+                        schedule(association);
+                    }
+                });
+        }
+
+        // NOTE: Without a datagram, in case the association was scheduled for a retransmission
+        DTLSTransport transport = protocol.continueHandshake(association.handshake, null, 0, 0);
+
+        byte[] datagram;
+        while (transport == null && (datagram = association.takeReceived()) != null)
+        {
+            transport = protocol.continueHandshake(association.handshake, datagram, 0, datagram.length);
+        }
+
+        if (transport != null)
+        {
+            endHandshake(association);
+            association.setTransport(transport);
+            association.updateLastReceived();
+            if (association.expiry.cancel())
+            {
+                scheduleExpiry(association, idleTimeoutMillis);
+            }
+            handler.notifyConnected(association);
+        }
+    }
+
+    /*
+     * NOTE: Called once the handshake has completed, failed, or been cut short by the closure.
+     */
+    private void endHandshake(DTLSAssociation association)
+    {
+        if (!association.handshaking)
+        {
+            return;
+        }
+
+        if (association.handshake != null)
+        {
+            protocol.cancelHandshake(association.handshake);
+            association.handshake = null;
+        }
+        association.request = null;
+        association.handshaking = false;
+        releaseHandshake(association.getPeerAddress());
+    }
+
+    /*
+     * NOTE: A record left queued by the end of the handshake is received before any new datagram.
+     */
+    private void receiveApplicationData(DTLSAssociation association, DTLSTransport transport, byte[] buf)
+        throws IOException
+    {
+        byte[] datagram = null;
+        do
+        {
+            if (datagram != null)
+            {
+                transport.offerDatagram(datagram, 0, datagram.length);
+            }
+
+            int length;
+            while ((length = transport.receivePending(buf, 0, buf.length)) >= 0)
+            {
+                // NOTE: Only authenticated records count as activity, not any datagram from the address
+                association.updateLastReceived();
+                handler.notifyReceived(association, buf, 0, length);
+            }
+        }
+        while (!association.isClosed() && (datagram = association.takeReceived()) != null);
+    }
+
+    /*
+     * Sends the replies of the verifier, to the client the current datagram came from.
+     */
+    private class ReplyTransport
+        implements DatagramTransport
+    {
+        SocketAddress peerAddress;
+
+        public int getReceiveLimit()
+        {
+            return receiveLimit;
+        }
+
+        public int getSendLimit()
+        {
+            return sendLimit;
+        }
+
+        public int receive(byte[] buf, int off, int len, int waitMillis)
+        {
+            return -1;
+        }
+
+        public void send(byte[] buf, int off, int len)
+            throws IOException
+        {
+            DTLSServerMultiplexer.this.send(new DatagramPacket(buf, off, len, peerAddress));
+        }
+
+        public void close()
+        {
+        }
+    }
+}
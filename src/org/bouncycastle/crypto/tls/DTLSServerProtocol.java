@@ -3,6 +3,7 @@ package org.bouncycastle.crypto.tls;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.security.SecureRandom;
 import java.util.Hashtable;
 import java.util.Vector;
@@ -17,10 +18,13 @@ public class DTLSServerProtocol
 {
 
     protected boolean verifyRequests = true;
+    protected DTLSVerifier verifier;
 
     public DTLSServerProtocol(SecureRandom secureRandom)
     {
         super(secureRandom);
+
+        this.verifier = new DTLSVerifier(secureRandom);
     }
 
     public boolean getVerifyRequests()
@@ -46,6 +50,35 @@ public class DTLSServerProtocol
             throw new IllegalArgumentException("'transport' cannot be null");
         }
 
+        DTLSRequest request = null;
+        if (verifyRequests)
+        {
+            request = receiveVerifiedRequest(transport);
+        }
+
+        return accept(server, transport, request);
+    }
+
+    /**
+     * Accept a connection whose ClientHello has already been verified, e.g. by a
+     * {@link DTLSVerifier} shared between the connections of a server.
+     *
+     * @param request the verified ClientHello, or null to handshake from the first ClientHello
+     *                received, without verifying it.
+     */
+    public DTLSTransport accept(TlsServer server, DatagramTransport transport, DTLSRequest request)
+        throws IOException
+    {
+
+        if (server == null)
+        {
+            throw new IllegalArgumentException("'server' cannot be null");
+        }
+        if (transport == null)
+        {
+            throw new IllegalArgumentException("'transport' cannot be null");
+        }
+
         SecurityParameters securityParameters = new SecurityParameters();
         securityParameters.entity = ConnectionEnd.server;
         securityParameters.serverRandom = TlsProtocol.createRandomBlock(secureRandom);
@@ -57,11 +90,9 @@ public class DTLSServerProtocol
 
         DTLSRecordLayer recordLayer = new DTLSRecordLayer(transport, state.serverContext, server, ContentType.handshake);
 
-        // TODO Need to handle sending of HelloVerifyRequest without entering a full connection
-
         try
         {
-            return serverHandshake(state, recordLayer);
+            return serverHandshake(state, recordLayer, request);
         }
         catch (TlsFatalAlert fatalAlert)
         {
@@ -83,110 +114,238 @@ public class DTLSServerProtocol
     public DTLSTransport serverHandshake(ServerHandshakeState state, DTLSRecordLayer recordLayer)
         throws IOException
     {
+        return serverHandshake(state, recordLayer, null);
+    }
+
+    protected DTLSTransport serverHandshake(ServerHandshakeState state, DTLSRecordLayer recordLayer,
+                                            DTLSRequest request)
+        throws IOException
+    {
 
-        SecurityParameters securityParameters = state.serverContext.getSecurityParameters();
         DTLSReliableHandshake handshake = new DTLSReliableHandshake(state.serverContext, recordLayer);
 
-        DTLSReliableHandshake.Message clientMessage = handshake.receiveMessage();
+        if (request != null)
+        {
+            recordLayer.resetAfterHelloVerifyRequest(request);
+            handshake.resetAfterHelloVerifyRequest(request.getMessageSeq());
+        }
+
+        state.recordLayer = recordLayer;
+        state.handshake = handshake;
 
+        DTLSTransport transport;
+        do
         {
-            // NOTE: After receiving a record from the client, we discover the record layer version
-            ProtocolVersion client_version = recordLayer.getDiscoveredPeerVersion();
-            // TODO Read RFCs for guidance on the expected record layer version number
-            state.serverContext.setClientVersion(client_version);
+            transport = processClientMessage(state, handshake.receiveMessage());
         }
+        while (transport == null);
+
+        return transport;
+    }
 
-        if (clientMessage.getType() == HandshakeType.client_hello)
+    /**
+     * Begin a handshake that is driven by events, rather than by waiting on the transport, so that
+     * a few threads can handshake with many clients (see {@link DTLSServerMultiplexer}). The
+     * datagrams from the client are passed to {@link #continueHandshake}, which is also to be called
+     * whenever the given task runs; the task is run from the timer wheel when the flight of the
+     * server is due to be retransmitted.
+     *
+     * @param transport  the transport to send on; it is never received from.
+     * @param request    the verified ClientHello.
+     * @param resendTask run, on the thread of the timer wheel, when {@link #continueHandshake} is
+     *                   to be called to retransmit the flight of the server.
+     */
+    ServerHandshakeState beginHandshake(TlsServer server, DatagramTransport transport, DTLSRequest request,
+        DTLSTimerWheel timerWheel, Runnable resendTask)
+        throws IOException
+    {
+
+        if (server == null)
         {
-            processClientHello(state, clientMessage.getBody());
+            throw new IllegalArgumentException("'server' cannot be null");
         }
-        else
+        if (transport == null)
         {
-            throw new TlsFatalAlert(AlertDescription.unexpected_message);
+            throw new IllegalArgumentException("'transport' cannot be null");
+        }
+        if (request == null)
+        {
+            throw new IllegalArgumentException("'request' cannot be null");
         }
 
-        byte[] serverHelloBody = generateServerHello(state);
-        handshake.sendMessage(HandshakeType.server_hello, serverHelloBody);
+        SecurityParameters securityParameters = new SecurityParameters();
+        securityParameters.entity = ConnectionEnd.server;
+        securityParameters.serverRandom = TlsProtocol.createRandomBlock(secureRandom);
 
-        // TODO This block could really be done before actually sending the hello
+        ServerHandshakeState state = new ServerHandshakeState();
+        state.server = server;
+        state.serverContext = new TlsServerContextImpl(secureRandom, securityParameters);
+        server.init(state.serverContext);
+
+        state.recordLayer = new DTLSRecordLayer(transport, state.serverContext, server, ContentType.handshake);
+        state.handshake = new DTLSReliableHandshake(state.serverContext, state.recordLayer);
+        state.timerWheel = timerWheel;
+        state.resendTask = resendTask;
+
+        state.recordLayer.resetAfterHelloVerifyRequest(request);
+        state.handshake.resetAfterHelloVerifyRequest(request.getMessageSeq());
+
+        return state;
+    }
+
+    /**
+     * Continue a handshake begun by {@link #beginHandshake}, with the next datagram from the client,
+     * or because the resend task has run. This never waits; the caller must not call it again for
+     * the same handshake before it has returned.
+     *
+     * @param datagram a datagram from the client, or null if there is none.
+     * @return the transport once the handshake has completed, otherwise null.
+     */
+    DTLSTransport continueHandshake(ServerHandshakeState state, byte[] datagram, int off, int len)
+        throws IOException
+    {
+
+        DTLSReliableHandshake handshake = state.handshake;
+        DTLSRecordLayer recordLayer = state.recordLayer;
+
+        try
         {
-            securityParameters.prfAlgorithm = TlsProtocol.getPRFAlgorithm(state.selectedCipherSuite);
-            securityParameters.compressionAlgorithm = state.selectedCompressionMethod;
+            if (datagram != null)
+            {
+                // NOTE: If the previous datagrams are still queued, this one is dropped like by a socket
+                recordLayer.offerDatagram(datagram, off, len);
+            }
 
-            /*
-             * RFC 5264 7.4.9. Any cipher suite which does not explicitly specify verify_data_length
-             * has a verify_data_length equal to 12. This includes all existing cipher suites.
-             */
-            securityParameters.verifyDataLength = 12;
+            handshake.checkResendTime();
 
-            handshake.notifyHelloComplete();
-        }
+            DTLSTransport transport = null;
+            DTLSReliableHandshake.Message clientMessage;
+            while (transport == null && (clientMessage = handshake.receivePendingMessage()) != null)
+            {
+                transport = processClientMessage(state, clientMessage);
+            }
 
-        Vector serverSupplementalData = state.server.getServerSupplementalData();
-        if (serverSupplementalData != null)
+            scheduleResend(state, transport == null ? handshake.getResendTime() : 0L);
+
+            return transport;
+        }
+        catch (TlsFatalAlert fatalAlert)
         {
-            byte[] supplementalDataBody = generateSupplementalData(serverSupplementalData);
-            handshake.sendMessage(HandshakeType.supplemental_data, supplementalDataBody);
+            scheduleResend(state, 0L);
+            recordLayer.fail(fatalAlert.getAlertDescription());
+            throw fatalAlert;
         }
+        catch (IOException e)
+        {
+            scheduleResend(state, 0L);
+            recordLayer.fail(AlertDescription.internal_error);
+            throw e;
+        }
+        catch (RuntimeException e)
+        {
+            scheduleResend(state, 0L);
+            recordLayer.fail(AlertDescription.internal_error);
+            throw new TlsFatalAlert(AlertDescription.internal_error);
+        }
+    }
 
-        state.keyExchange = state.server.getKeyExchange();
-        state.keyExchange.init(state.serverContext);
+    /**
+     * Stop the retransmissions of a handshake begun by {@link #beginHandshake} that will not be
+     * continued, e.g. because it has timed out.
+     */
+    void cancelHandshake(ServerHandshakeState state)
+    {
+        scheduleResend(state, 0L);
+    }
 
-        state.serverCredentials = state.server.getCredentials();
-        if (state.serverCredentials == null)
+    /*
+     * Keep the resend task scheduled for the time the flight of the server is due to be
+     * retransmitted, or cancel it if the time is 0.
+     */
+    private static void scheduleResend(ServerHandshakeState state, long resendTime)
+    {
+        if (resendTime == state.resendTime)
         {
-            state.keyExchange.skipServerCredentials();
+            return;
         }
-        else
-        {
-            state.keyExchange.processServerCredentials(state.serverCredentials);
 
-            byte[] certificateBody = generateCertificate(state.serverCredentials.getCertificate());
-            handshake.sendMessage(HandshakeType.certificate, certificateBody);
+        if (state.resendTimeout != null)
+        {
+            state.resendTimeout.cancel();
+            state.resendTimeout = null;
         }
 
-        byte[] serverKeyExchange = state.keyExchange.generateServerKeyExchange();
-        if (serverKeyExchange != null)
+        state.resendTime = resendTime;
+
+        if (resendTime != 0L)
         {
-            handshake.sendMessage(HandshakeType.server_key_exchange, serverKeyExchange);
+            long delayMillis = resendTime - System.currentTimeMillis();
+            state.resendTimeout = state.timerWheel.schedule(state.resendTask, delayMillis);
         }
+    }
 
-        if (state.serverCredentials != null)
+    /**
+     * Handle the next message from the client, sending the flights of the server in response.
+     *
+     * @return the transport once the handshake has completed, otherwise null.
+     */
+    protected DTLSTransport processClientMessage(ServerHandshakeState state,
+                                                 DTLSReliableHandshake.Message clientMessage)
+        throws IOException
+    {
+
+        DTLSReliableHandshake handshake = state.handshake;
+
+        switch (state.connectionState)
+        {
+        case TlsProtocol.CS_START:
         {
-            state.certificateRequest = state.server.getCertificateRequest();
-            if (state.certificateRequest != null)
             {
-                state.keyExchange.validateCertificateRequest(state.certificateRequest);
-
-                byte[] certificateRequestBody = generateCertificateRequest(state, state.certificateRequest);
-                handshake.sendMessage(HandshakeType.certificate_request, certificateRequestBody);
+                // NOTE: After receiving a record from the client, we discover the record layer version
+                ProtocolVersion client_version = state.recordLayer.getDiscoveredPeerVersion();
+                // TODO Read RFCs for guidance on the expected record layer version number
+                state.serverContext.setClientVersion(client_version);
             }
-        }
 
-        handshake.sendMessage(HandshakeType.server_hello_done, TlsUtils.EMPTY_BYTES);
+            if (clientMessage.getType() == HandshakeType.client_hello)
+            {
+                processClientHello(state, clientMessage.getBody());
+            }
+            else
+            {
+                throw new TlsFatalAlert(AlertDescription.unexpected_message);
+            }
 
-        clientMessage = handshake.receiveMessage();
+            sendServerHelloFlight(state);
+            state.connectionState = TlsProtocol.CS_SERVER_HELLO_DONE;
 
-        if (clientMessage.getType() == HandshakeType.supplemental_data)
-        {
-            processClientSupplementalData(state, clientMessage.getBody());
-            clientMessage = handshake.receiveMessage();
+            return null;
         }
-        else
+        case TlsProtocol.CS_SERVER_HELLO_DONE:
         {
-            state.server.processClientSupplementalData(null);
-        }
+            if (clientMessage.getType() == HandshakeType.supplemental_data)
+            {
+                processClientSupplementalData(state, clientMessage.getBody());
+                state.connectionState = TlsProtocol.CS_CLIENT_SUPPLEMENTAL_DATA;
 
-        if (state.certificateRequest == null)
-        {
-            state.keyExchange.skipClientCredentials();
+                return null;
+            }
+
+            state.server.processClientSupplementalData(null);
+            // NB: Fall through to next case label
         }
-        else
+        case TlsProtocol.CS_CLIENT_SUPPLEMENTAL_DATA:
         {
-            if (clientMessage.getType() == HandshakeType.certificate)
+            if (state.certificateRequest == null)
+            {
+                state.keyExchange.skipClientCredentials();
+            }
+            else if (clientMessage.getType() == HandshakeType.certificate)
             {
                 processClientCertificate(state, clientMessage.getBody());
-                clientMessage = handshake.receiveMessage();
+                state.connectionState = TlsProtocol.CS_CLIENT_CERTIFICATE;
+
+                return null;
             }
             else
             {
@@ -205,71 +364,162 @@ public class DTLSServerProtocol
 
                 notifyClientCertificate(state, Certificate.EMPTY_CHAIN);
             }
+            // NB: Fall through to next case label
         }
-
-        if (clientMessage.getType() == HandshakeType.client_key_exchange)
+        case TlsProtocol.CS_CLIENT_CERTIFICATE:
         {
-            processClientKeyExchange(state, clientMessage.getBody());
+            if (clientMessage.getType() == HandshakeType.client_key_exchange)
+            {
+                processClientKeyExchange(state, clientMessage.getBody());
+            }
+            else
+            {
+                throw new TlsFatalAlert(AlertDescription.unexpected_message);
+            }
+
+            state.recordLayer.initPendingEpoch(state.server.getCipher());
+
+            /*
+             * RFC 5246 7.4.8 This message is only sent following a client certificate that has
+             * signing capability (i.e., all certificates except those containing fixed
+             * Diffie-Hellman parameters).
+             */
+            if (expectCertificateVerifyMessage(state))
+            {
+                state.certificateVerifyHash = handshake.getCurrentHash();
+                state.connectionState = TlsProtocol.CS_CLIENT_KEY_EXCHANGE;
+            }
+            else
+            {
+                // NOTE: Calculated exclusive of the actual Finished message from the client
+                state.clientFinishedHash = handshake.getCurrentHash();
+                state.connectionState = TlsProtocol.CS_CERTIFICATE_VERIFY;
+            }
+
+            return null;
         }
-        else
+        case TlsProtocol.CS_CLIENT_KEY_EXCHANGE:
         {
-            throw new TlsFatalAlert(AlertDescription.unexpected_message);
-        }
+            if (clientMessage.getType() == HandshakeType.certificate_verify)
+            {
+                processCertificateVerify(state, clientMessage.getBody(), state.certificateVerifyHash);
+            }
+            else
+            {
+                throw new TlsFatalAlert(AlertDescription.unexpected_message);
+            }
 
-        recordLayer.initPendingEpoch(state.server.getCipher());
+            // NOTE: Calculated exclusive of the actual Finished message from the client
+            state.clientFinishedHash = handshake.getCurrentHash();
+            state.connectionState = TlsProtocol.CS_CERTIFICATE_VERIFY;
 
-        /*
-         * RFC 5246 7.4.8 This message is only sent following a client certificate that has signing
-         * capability (i.e., all certificates except those containing fixed Diffie-Hellman
-         * parameters).
-         */
-        if (expectCertificateVerifyMessage(state))
+            return null;
+        }
+        case TlsProtocol.CS_CERTIFICATE_VERIFY:
         {
-            byte[] certificateVerifyHash = handshake.getCurrentHash();
-            clientMessage = handshake.receiveMessage();
-
-            if (clientMessage.getType() == HandshakeType.certificate_verify)
+            if (clientMessage.getType() == HandshakeType.finished)
             {
-                processCertificateVerify(state, clientMessage.getBody(), certificateVerifyHash);
+                byte[] expectedClientVerifyData = TlsUtils.calculateVerifyData(state.serverContext,
+                    "client finished", state.clientFinishedHash);
+                processFinished(clientMessage.getBody(), expectedClientVerifyData);
             }
             else
             {
                 throw new TlsFatalAlert(AlertDescription.unexpected_message);
             }
+
+            if (state.expectSessionTicket)
+            {
+                NewSessionTicket newSessionTicket = state.server.getNewSessionTicket();
+                byte[] newSessionTicketBody = generateNewSessionTicket(state, newSessionTicket);
+                handshake.sendMessage(HandshakeType.session_ticket, newSessionTicketBody);
+            }
+
+            // NOTE: Calculated exclusive of the Finished message itself
+            byte[] serverVerifyData = TlsUtils.calculateVerifyData(state.serverContext, "server finished",
+                handshake.getCurrentHash());
+            handshake.sendMessage(HandshakeType.finished, serverVerifyData);
+
+            handshake.finish();
+
+            state.server.notifyHandshakeComplete();
+            state.connectionState = TlsProtocol.CS_END;
+
+            return new DTLSTransport(state.recordLayer);
+        }
+        default:
+        {
+            throw new TlsFatalAlert(AlertDescription.internal_error);
+        }
+        }
+    }
+
+    protected void sendServerHelloFlight(ServerHandshakeState state)
+        throws IOException
+    {
+
+        SecurityParameters securityParameters = state.serverContext.getSecurityParameters();
+        DTLSReliableHandshake handshake = state.handshake;
+
+        byte[] serverHelloBody = generateServerHello(state);
+        handshake.sendMessage(HandshakeType.server_hello, serverHelloBody);
+
+        // TODO This block could really be done before actually sending the hello
+        {
+            securityParameters.prfAlgorithm = TlsProtocol.getPRFAlgorithm(state.selectedCipherSuite);
+            securityParameters.compressionAlgorithm = state.selectedCompressionMethod;
+
+            /*
+             * RFC 5264 7.4.9. Any cipher suite which does not explicitly specify verify_data_length
+             * has a verify_data_length equal to 12. This includes all existing cipher suites.
+             */
+            securityParameters.verifyDataLength = 12;
+
+            handshake.notifyHelloComplete();
         }
 
-        // NOTE: Calculated exclusive of the actual Finished message from the client
-        byte[] clientFinishedHash = handshake.getCurrentHash();
-        clientMessage = handshake.receiveMessage();
+        Vector serverSupplementalData = state.server.getServerSupplementalData();
+        if (serverSupplementalData != null)
+        {
+            byte[] supplementalDataBody = generateSupplementalData(serverSupplementalData);
+            handshake.sendMessage(HandshakeType.supplemental_data, supplementalDataBody);
+        }
+
+        state.keyExchange = state.server.getKeyExchange();
+        state.keyExchange.init(state.serverContext);
 
-        if (clientMessage.getType() == HandshakeType.finished)
+        state.serverCredentials = state.server.getCredentials();
+        if (state.serverCredentials == null)
         {
-            byte[] expectedClientVerifyData = TlsUtils.calculateVerifyData(state.serverContext, "client finished",
-                clientFinishedHash);
-            processFinished(clientMessage.getBody(), expectedClientVerifyData);
+            state.keyExchange.skipServerCredentials();
         }
         else
         {
-            throw new TlsFatalAlert(AlertDescription.unexpected_message);
+            state.keyExchange.processServerCredentials(state.serverCredentials);
+
+            byte[] certificateBody = generateCertificate(state.serverCredentials.getCertificate());
+            handshake.sendMessage(HandshakeType.certificate, certificateBody);
         }
 
-        if (state.expectSessionTicket)
+        byte[] serverKeyExchange = state.keyExchange.generateServerKeyExchange();
+        if (serverKeyExchange != null)
         {
-            NewSessionTicket newSessionTicket = state.server.getNewSessionTicket();
-            byte[] newSessionTicketBody = generateNewSessionTicket(state, newSessionTicket);
-            handshake.sendMessage(HandshakeType.session_ticket, newSessionTicketBody);
+            handshake.sendMessage(HandshakeType.server_key_exchange, serverKeyExchange);
         }
 
-        // NOTE: Calculated exclusive of the Finished message itself
-        byte[] serverVerifyData = TlsUtils.calculateVerifyData(state.serverContext, "server finished",
-            handshake.getCurrentHash());
-        handshake.sendMessage(HandshakeType.finished, serverVerifyData);
-
-        handshake.finish();
+        if (state.serverCredentials != null)
+        {
+            state.certificateRequest = state.server.getCertificateRequest();
+            if (state.certificateRequest != null)
+            {
+                state.keyExchange.validateCertificateRequest(state.certificateRequest);
 
-        state.server.notifyHandshakeComplete();
+                byte[] certificateRequestBody = generateCertificateRequest(state, state.certificateRequest);
+                handshake.sendMessage(HandshakeType.certificate_request, certificateRequestBody);
+            }
+        }
 
-        return new DTLSTransport(recordLayer);
+        handshake.sendMessage(HandshakeType.server_hello_done, TlsUtils.EMPTY_BYTES);
     }
 
     protected byte[] generateCertificateRequest(ServerHandshakeState state, CertificateRequest certificateRequest)
@@ -467,6 +717,40 @@ public class DTLSServerProtocol
         }
     }
 
+    /**
+     * Answer ClientHellos with HelloVerifyRequests, until one comes back with a valid cookie. No
+     * connection state exists until then.
+     */
+    protected DTLSRequest receiveVerifiedRequest(DatagramTransport transport)
+        throws IOException
+    {
+        byte[] buf = new byte[transport.getReceiveLimit()];
+
+        for (;;)
+        {
+            int length;
+            try
+            {
+                length = transport.receive(buf, 0, buf.length, 1000);
+            }
+            catch (InterruptedIOException e)
+            {
+                // NOTE: A timeout; keep waiting for a ClientHello
+                continue;
+            }
+
+            if (length > 0)
+            {
+                // NOTE: The transport is already specific to the client, so needs no client ID
+                DTLSRequest request = verifier.verifyRequest(TlsUtils.EMPTY_BYTES, buf, 0, length, transport);
+                if (request != null)
+                {
+                    return request;
+                }
+            }
+        }
+    }
+
     protected void processClientHello(ServerHandshakeState state, byte[] body)
         throws IOException
     {
@@ -627,5 +911,14 @@ public class DTLSServerProtocol
         CertificateRequest certificateRequest = null;
         short clientCertificateType = -1;
         Certificate clientCertificate = null;
+        DTLSRecordLayer recordLayer = null;
+        DTLSReliableHandshake handshake = null;
+        short connectionState = TlsProtocol.CS_START;
+        byte[] certificateVerifyHash = null;
+        byte[] clientFinishedHash = null;
+        DTLSTimerWheel timerWheel = null;
+        Runnable resendTask = null;
+        DTLSTimerWheel.Timeout resendTimeout = null;
+        long resendTime = 0L;
     }
 }
@@ -0,0 +1,229 @@
+package org.bouncycastle.crypto.tls;
+
+import java.util.Vector;
+
+/**
+ * A hashed timer wheel, on which {@link DTLSServerMultiplexer} keeps the timers of all its
+ * associations with a single thread: the handshake and idle timeouts, and the retransmissions of
+ * the handshake flights (see {@link DTLSServerProtocol}). Scheduling and cancelling cost O(1);
+ * timers fire no earlier than their delay, and at most one tick later.
+ * <p/>
+ * Tasks run on the thread of the wheel, so they should only do a little work, or hand it off.
+ */
+public class DTLSTimerWheel
+{
+    public static final long DEFAULT_TICK_MILLIS = 100L;
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private final long tickMillis;
+    private final Timeout[] buckets;
+    private final int mask;
+    private final long startTime;
+
+    private long currentTick = 0L;
+    private Thread thread = null;
+    private boolean closed = false;
+
+    public DTLSTimerWheel()
+    {
+        this(DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * @param tickMillis the resolution of the timers.
+     * @param wheelSize  the number of buckets, a power of 2. Timers further than this many ticks
+     *                   ahead share buckets with nearer ones.
+     */
+    public DTLSTimerWheel(long tickMillis, int wheelSize)
+    {
+        if (tickMillis < 1)
+        {
+            throw new IllegalArgumentException("'tickMillis' must be positive");
+        }
+        if (wheelSize < 1 || (wheelSize & (wheelSize - 1)) != 0)
+        {
+            throw new IllegalArgumentException("'wheelSize' must be a power of 2");
+        }
+
+        this.tickMillis = tickMillis;
+        this.buckets = new Timeout[wheelSize];
+        this.mask = wheelSize - 1;
+        this.startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * @param task        run once the delay has passed, unless cancelled before.
+     * @param delayMillis the delay.
+     * @return a handle for cancelling the task.
+     */
+    public synchronized Timeout schedule(Runnable task, long delayMillis)
+    {
+        if (task == null)
+        {
+            throw new IllegalArgumentException("'task' cannot be null");
+        }
+        if (closed)
+        {
+            throw new IllegalStateException("Timer wheel closed");
+        }
+
+        long elapsed = System.currentTimeMillis() - startTime;
+        long deadlineTick = (elapsed + Math.max(0L, delayMillis)) / tickMillis + 1;
+
+        Timeout timeout = new Timeout(task, deadlineTick);
+        link(timeout);
+
+        if (thread == null)
+        {
+            thread = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    runTimers();
+                }
+            }, "DTLSTimerWheel");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        return timeout;
+    }
+
+    /**
+     * Stop the thread of the wheel; pending timers never fire.
+     */
+    public synchronized void close()
+    {
+        this.closed = true;
+        notifyAll();
+    }
+
+    private void link(Timeout timeout)
+    {
+        int index = (int)(timeout.deadlineTick & mask);
+        timeout.next = buckets[index];
+        if (timeout.next != null)
+        {
+            timeout.next.prev = timeout;
+        }
+        buckets[index] = timeout;
+    }
+
+    private void unlink(Timeout timeout)
+    {
+        if (timeout.prev != null)
+        {
+            timeout.prev.next = timeout.next;
+        }
+        else
+        {
+            buckets[(int)(timeout.deadlineTick & mask)] = timeout.next;
+        }
+        if (timeout.next != null)
+        {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+    }
+
+    private void expireBucket(long tick, Vector expired)
+    {
+        Timeout timeout = buckets[(int)(tick & mask)];
+        while (timeout != null)
+        {
+            Timeout next = timeout.next;
+            if (timeout.deadlineTick <= tick)
+            {
+                unlink(timeout);
+                timeout.pending = false;
+                expired.addElement(timeout.task);
+            }
+            timeout = next;
+        }
+    }
+
+    private void runTimers()
+    {
+        Vector expired = new Vector();
+
+        for (;;)
+        {
+            synchronized (this)
+            {
+                for (;;)
+                {
+                    if (closed)
+                    {
+                        return;
+                    }
+
+                    long elapsed = System.currentTimeMillis() - startTime;
+                    long dueTick = elapsed / tickMillis;
+                    while (currentTick < dueTick)
+                    {
+                        expireBucket(++currentTick, expired);
+                    }
+                    if (!expired.isEmpty())
+                    {
+                        break;
+                    }
+
+                    try
+                    {
+                        wait(Math.max(1L, (currentTick + 1) * tickMillis - elapsed));
+                    }
+                    catch (InterruptedException e)
+                    {
+                        // Keep running until closed
+                    }
+                }
+            }
+
+            for (int i = 0; i < expired.size(); ++i)
+            {
+                try
+                {
+                    ((Runnable)expired.elementAt(i)).run();
+                }
+                catch (RuntimeException e)
+                {
+                    // A failing task must not stop the other timers
+                }
+            }
+            expired.removeAllElements();
+        }
+    }
+
+    public class Timeout
+    {
+        private final Runnable task;
+        private final long deadlineTick;
+
+        private Timeout prev = null, next = null;
+        private boolean pending = true;
+
+        private Timeout(Runnable task, long deadlineTick)
+        {
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        /**
+         * @return true if the task had not yet run, and now never will.
+         */
+        public boolean cancel()
+        {
+            synchronized (DTLSTimerWheel.this)
+            {
+                if (!pending)
+                {
+                    return false;
+                }
+                pending = false;
+                unlink(this);
+                return true;
+            }
+        }
+    }
+}
@@ -49,6 +49,47 @@ public class DTLSTransport
         }
     }
 
+    /**
+     * Queue a datagram received for this transport other than from the transport it was created
+     * on, e.g. by a {@link DTLSServerMultiplexer} (see {@link DTLSRecordLayer#offerDatagram}).
+     *
+     * @return false if the datagram was dropped, because earlier ones are still queued.
+     */
+    boolean offerDatagram(byte[] buf, int off, int len)
+    {
+        return recordLayer.offerDatagram(buf, off, len);
+    }
+
+    /**
+     * Like {@link #receive(byte[], int, int, int)}, but only from the datagrams queued by
+     * {@link #offerDatagram(byte[], int, int)}, so never waiting.
+     *
+     * @return the length of the data received, or -1 once the queued datagrams are used up.
+     */
+    int receivePending(byte[] buf, int off, int len)
+        throws IOException
+    {
+        try
+        {
+            return recordLayer.receivePending(buf, off, len);
+        }
+        catch (TlsFatalAlert fatalAlert)
+        {
+            recordLayer.fail(fatalAlert.getAlertDescription());
+            throw fatalAlert;
+        }
+        catch (IOException e)
+        {
+            recordLayer.fail(AlertDescription.internal_error);
+            throw e;
+        }
+        catch (RuntimeException e)
+        {
+            recordLayer.fail(AlertDescription.internal_error);
+            throw new TlsFatalAlert(AlertDescription.internal_error);
+        }
+    }
+
     public void send(byte[] buf, int off, int len)
         throws IOException
     {
@@ -0,0 +1,241 @@
+package org.bouncycastle.crypto.tls;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+
+import org.bouncycastle.crypto.Mac;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.macs.HMac;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.util.Arrays;
+
+/**
+ * Implements the cookie exchange of RFC 6347 4.2.1 for a DTLS server, without keeping any state per
+ * client. Initial ClientHellos are answered with a HelloVerifyRequest, and a
+ * {@link DTLSRequest} is returned only for a ClientHello that carries a valid cookie, so that no
+ * connection state need be allocated for clients that do not prove they receive at their source
+ * address.
+ * <p/>
+ * A cookie is an HMAC, over the client's identity (normally its address and port) and the
+ * parameters of its ClientHello, under a secret that is replaced periodically. Cookies made under
+ * the previous secret are still accepted. A single verifier can serve any number of clients; it is
+ * thread-safe.
+ */
+public class DTLSVerifier
+{
+    public static final long DEFAULT_SECRET_LIFETIME_MILLIS = 60000L;
+
+    private static final int RECORD_HEADER_LENGTH = 13;
+    private static final int MESSAGE_HEADER_LENGTH = 12;
+    private static final int SECRET_LENGTH = 32;
+
+    private final SecureRandom secureRandom;
+    private final long secretLifetimeMillis;
+
+    private byte[] currentSecret = null, previousSecret = null;
+    private long rotationTime = 0L;
+
+    /**
+     * Create a verifier replacing its secret every {@link #DEFAULT_SECRET_LIFETIME_MILLIS}
+     * milliseconds.
+     */
+    public DTLSVerifier(SecureRandom secureRandom)
+    {
+        this(secureRandom, DEFAULT_SECRET_LIFETIME_MILLIS);
+    }
+
+    /**
+     * @param secureRandom         the source of the secrets.
+     * @param secretLifetimeMillis the time after which the secret is replaced. A cookie is accepted
+     *                             for up to twice this time after it is made.
+     */
+    public DTLSVerifier(SecureRandom secureRandom, long secretLifetimeMillis)
+    {
+        if (secureRandom == null)
+        {
+            throw new IllegalArgumentException("'secureRandom' cannot be null");
+        }
+        if (secretLifetimeMillis < 1)
+        {
+            throw new IllegalArgumentException("'secretLifetimeMillis' must be positive");
+        }
+
+        this.secureRandom = secureRandom;
+        this.secretLifetimeMillis = secretLifetimeMillis;
+    }
+
+    /**
+     * Examine a datagram received from a client that has no connection yet.
+     *
+     * @param clientID identifies the client, normally by its address and port.
+     * @param data     the buffer holding the datagram.
+     * @param dataOff  the offset of the datagram in the buffer.
+     * @param dataLen  the length of the datagram.
+     * @param sender   used to send a HelloVerifyRequest to the client, if needed.
+     * @return the verified request, if the datagram holds a ClientHello with a valid cookie; null
+     *         otherwise. If the datagram holds a ClientHello without a valid cookie, a
+     *         HelloVerifyRequest has been sent to the client; any other datagram is ignored.
+     */
+    public DTLSRequest verifyRequest(byte[] clientID, byte[] data, int dataOff, int dataLen, DatagramTransport sender)
+        throws IOException
+    {
+        if (dataLen < RECORD_HEADER_LENGTH + MESSAGE_HEADER_LENGTH)
+        {
+            return null;
+        }
+
+        /*
+         * The ClientHello must be alone in the first record of the datagram, and unfragmented.
+         */
+        int recordLength = TlsUtils.readUint16(data, dataOff + 11);
+        if (TlsUtils.readUint8(data, dataOff) != ContentType.handshake
+            || (data[dataOff + 1] & 0xFF) != 0xFE
+            || TlsUtils.readUint16(data, dataOff + 3) != 0
+            || RECORD_HEADER_LENGTH + recordLength > dataLen)
+        {
+            return null;
+        }
+
+        int msgOff = dataOff + RECORD_HEADER_LENGTH;
+        int length = TlsUtils.readUint24(data, msgOff + 1);
+        if (TlsUtils.readUint8(data, msgOff) != HandshakeType.client_hello
+            || MESSAGE_HEADER_LENGTH + length != recordLength
+            || TlsUtils.readUint24(data, msgOff + 6) != 0
+            || TlsUtils.readUint24(data, msgOff + 9) != length)
+        {
+            return null;
+        }
+
+        /*
+         * Locate the cookie, which follows the client_version, random and session_id
+         */
+        int bodyOff = msgOff + MESSAGE_HEADER_LENGTH, bodyEnd = bodyOff + length;
+        int sessionIDPos = bodyOff + 2 + 32;
+        if (sessionIDPos >= bodyEnd)
+        {
+            return null;
+        }
+        int cookieLengthPos = sessionIDPos + 1 + TlsUtils.readUint8(data, sessionIDPos);
+        if (cookieLengthPos >= bodyEnd)
+        {
+            return null;
+        }
+        int cookiePos = cookieLengthPos + 1;
+        int cookieLength = TlsUtils.readUint8(data, cookieLengthPos);
+        if (cookiePos + cookieLength > bodyEnd)
+        {
+            return null;
+        }
+
+        long recordSeq = TlsUtils.readUint48(data, dataOff + 5);
+        int messageSeq = TlsUtils.readUint16(data, msgOff + 4);
+
+        byte[][] secrets = getSecrets();
+
+        if (cookieLength == SECRET_LENGTH)
+        {
+            for (int i = 0; i < secrets.length; ++i)
+            {
+                if (secrets[i] == null)
+                {
+                    continue;
+                }
+
+                byte[] expected = calculateCookie(secrets[i], clientID, data, bodyOff, cookieLengthPos, cookiePos
+                    + cookieLength, bodyEnd);
+                if (Arrays.constantTimeAreEqual(expected, Arrays.copyOfRange(data, cookiePos, cookiePos
+                    + cookieLength)))
+                {
+                    return new DTLSRequest(recordSeq, messageSeq, Arrays.copyOfRange(data, dataOff, dataOff
+                        + RECORD_HEADER_LENGTH + recordLength));
+                }
+            }
+        }
+
+        byte[] cookie = calculateCookie(secrets[0], clientID, data, bodyOff, cookieLengthPos, cookiePos
+            + cookieLength, bodyEnd);
+        byte[] helloVerifyRequest = generateHelloVerifyRequest(recordSeq, messageSeq, cookie);
+        sender.send(helloVerifyRequest, 0, helloVerifyRequest.length);
+
+        return null;
+    }
+
+    /**
+     * @return the current secret, followed by the previous one (which may be null).
+     */
+    private synchronized byte[][] getSecrets()
+    {
+        long now = System.currentTimeMillis();
+        if (currentSecret == null || now >= rotationTime)
+        {
+            // NOTE: The previous secret is kept only for one lifetime after it was replaced
+            if (currentSecret != null && now < rotationTime + secretLifetimeMillis)
+            {
+                this.previousSecret = currentSecret;
+                this.rotationTime += secretLifetimeMillis;
+            }
+            else
+            {
+                this.previousSecret = null;
+                this.rotationTime = now + secretLifetimeMillis;
+            }
+
+            this.currentSecret = new byte[SECRET_LENGTH];
+            secureRandom.nextBytes(currentSecret);
+        }
+        return new byte[][]{ currentSecret, previousSecret };
+    }
+
+    /*
+     * The HMAC covers the client ID and the ClientHello body, except for the cookie itself
+     */
+    private static byte[] calculateCookie(byte[] secret, byte[] clientID, byte[] data, int bodyOff,
+                                          int cookieLengthPos, int cookieEnd, int bodyEnd)
+    {
+        Mac mac = new HMac(new SHA256Digest());
+        mac.init(new KeyParameter(secret));
+        mac.update(clientID, 0, clientID.length);
+        mac.update(data, bodyOff, cookieLengthPos - bodyOff);
+        mac.update(data, cookieEnd, bodyEnd - cookieEnd);
+
+        byte[] cookie = new byte[mac.getMacSize()];
+        mac.doFinal(cookie, 0);
+        return cookie;
+    }
+
+    private static byte[] generateHelloVerifyRequest(long recordSeq, int messageSeq, byte[] cookie)
+        throws IOException
+    {
+        int length = 3 + cookie.length;
+        byte[] record = new byte[RECORD_HEADER_LENGTH + MESSAGE_HEADER_LENGTH + length];
+
+        /*
+         * RFC 6347 4.2.1. In order to avoid sequence number duplication in case of multiple
+         * HelloVerifyRequests, the server MUST use the record sequence number in the ClientHello as
+         * the record sequence number in the HelloVerifyRequest.
+         */
+        TlsUtils.writeUint8(ContentType.handshake, record, 0);
+        TlsUtils.writeVersion(ProtocolVersion.DTLSv10, record, 1);
+        TlsUtils.writeUint16(0, record, 3);
+        TlsUtils.writeUint48(recordSeq, record, 5);
+        TlsUtils.writeUint16(MESSAGE_HEADER_LENGTH + length, record, 11);
+
+        int msgOff = RECORD_HEADER_LENGTH;
+        TlsUtils.writeUint8(HandshakeType.hello_verify_request, record, msgOff);
+        TlsUtils.writeUint24(length, record, msgOff + 1);
+        TlsUtils.writeUint16(messageSeq, record, msgOff + 4);
+        TlsUtils.writeUint24(0, record, msgOff + 6);
+        TlsUtils.writeUint24(length, record, msgOff + 9);
+
+        /*
+         * RFC 6347 4.2.1. DTLS 1.2 server implementations SHOULD use DTLS version 1.0 regardless of
+         * the version of TLS that is expected to be negotiated.
+         */
+        int bodyOff = msgOff + MESSAGE_HEADER_LENGTH;
+        TlsUtils.writeVersion(ProtocolVersion.DTLSv10, record, bodyOff);
+        TlsUtils.writeUint8((short)cookie.length, record, bodyOff + 2);
+        System.arraycopy(cookie, 0, record, bodyOff + 3, cookie.length);
+
+        return record;
+    }
+}
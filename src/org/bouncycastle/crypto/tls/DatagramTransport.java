@@ -14,6 +14,17 @@ public interface DatagramTransport
     int receive(byte[] buf, int off, int len, int waitMillis)
         throws IOException;
 
+    /**
+     * Send a datagram.
+     * <p/>
+     * NOTE: The caller reuses the buffer as soon as this returns, so an implementation that keeps
+     * the data beyond the call (e.g. to queue it) must copy it.
+     *
+     * @param buf the buffer holding the datagram.
+     * @param off the offset of the datagram in the buffer.
+     * @param len the length of the datagram.
+     * @throws IOException
+     */
     void send(byte[] buf, int off, int len)
         throws IOException;
 
@@ -0,0 +1,115 @@
+package org.bouncycastle.crypto.tls;
+
+import java.util.Vector;
+
+import org.bouncycastle.util.Arrays;
+
+/**
+ * A {@link TlsBufferPool} keeping a bounded number of free buffers for each power-of-two size from
+ * 1 KB up to 64 KB, which covers a complete TLS record as well as a batch of coalesced records.
+ * Larger requests are allocated directly and never retained. Buffers are cleared when they are
+ * returned, since they may have held plaintext.
+ */
+public class DefaultTlsBufferPool
+    implements TlsBufferPool
+{
+    private static final int MIN_SIZE_LOG2 = 10;
+    private static final int MAX_SIZE_LOG2 = 16;
+
+    private final Vector[] freeLists = new Vector[MAX_SIZE_LOG2 - MIN_SIZE_LOG2 + 1];
+    private final int maxFreeBuffers;
+
+    public DefaultTlsBufferPool()
+    {
+        this(64);
+    }
+
+    /**
+     * @param maxFreeBuffers the maximum number of free buffers retained for each size.
+     */
+    public DefaultTlsBufferPool(int maxFreeBuffers)
+    {
+        if (maxFreeBuffers < 0)
+        {
+            throw new IllegalArgumentException("'maxFreeBuffers' cannot be negative");
+        }
+
+        this.maxFreeBuffers = maxFreeBuffers;
+
+        for (int i = 0; i < freeLists.length; ++i)
+        {
+            freeLists[i] = new Vector();
+        }
+    }
+
+    public byte[] acquire(int minLength)
+    {
+        int index = getIndex(minLength);
+        if (index < 0)
+        {
+            return new byte[minLength];
+        }
+
+        Vector free = freeLists[index];
+        synchronized (free)
+        {
+            int count = free.size();
+            if (count > 0)
+            {
+                byte[] buf = (byte[])free.elementAt(count - 1);
+                free.removeElementAt(count - 1);
+                return buf;
+            }
+        }
+
+        return new byte[1 << (MIN_SIZE_LOG2 + index)];
+    }
+
+    public void release(byte[] buf)
+    {
+        int index = getIndex(buf.length);
+        if (index < 0 || buf.length != (1 << (MIN_SIZE_LOG2 + index)))
+        {
+            return;
+        }
+
+        Arrays.fill(buf, (byte)0);
+
+        Vector free = freeLists[index];
+        synchronized (free)
+        {
+            if (free.size() < maxFreeBuffers)
+            {
+                free.addElement(buf);
+            }
+        }
+    }
+
+    /**
+     * @return the number of free buffers currently retained by this pool.
+     */
+    public int getFreeBufferCount()
+    {
+        int count = 0;
+        for (int i = 0; i < freeLists.length; ++i)
+        {
+            count += freeLists[i].size();
+        }
+        return count;
+    }
+
+    private static int getIndex(int length)
+    {
+        if (length > (1 << MAX_SIZE_LOG2))
+        {
+            return -1;
+        }
+
+        int index = 0;
+        while ((1 << (MIN_SIZE_LOG2 + index)) < length)
+        {
+            ++index;
+        }
+        return index;
+    }
+}
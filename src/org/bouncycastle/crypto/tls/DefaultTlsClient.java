@@ -86,6 +86,23 @@ public abstract class DefaultTlsClient
         return clientExtensions;
     }
 
+    public void setClientHelloTemplate(ClientHelloTemplate clientHelloTemplate)
+        throws IOException
+    {
+
+        super.setClientHelloTemplate(clientHelloTemplate);
+
+        if (clientHelloTemplate != null)
+        {
+            Hashtable clientExtensions = clientHelloTemplate.internalGetClientExtensions();
+            if (clientExtensions != null)
+            {
+                this.namedCurves = TlsECCUtils.getSupportedEllipticCurvesExtension(clientExtensions);
+                this.clientECPointFormats = TlsECCUtils.getSupportedPointFormatsExtension(clientExtensions);
+            }
+        }
+    }
+
     public void processServerExtensions(Hashtable serverExtensions)
         throws IOException
     {
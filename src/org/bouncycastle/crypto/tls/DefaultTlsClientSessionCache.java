@@ -0,0 +1,93 @@
+package org.bouncycastle.crypto.tls;
+
+/**
+ * A {@link TlsClientSessionCache} holding the sessions with a bounded number of servers in
+ * memory. Sessions expire a fixed time after they were established, or earlier if the server sent
+ * a session ticket with a shorter lifetime hint, and once the cache is full the session with the
+ * least recently used server is evicted to make room for a new one.
+ */
+public class DefaultTlsClientSessionCache
+    implements TlsClientSessionCache
+{
+    public static final int DEFAULT_MAX_SIZE = 100;
+    public static final long DEFAULT_LIFETIME_MILLIS = 60L * 60 * 1000;
+
+    private final long lifetimeMillis;
+
+    // String (server identity) -> TlsClientSession
+    private final ExpiringLRUTable entries;
+
+    public DefaultTlsClientSessionCache()
+    {
+        this(DEFAULT_MAX_SIZE, DEFAULT_LIFETIME_MILLIS);
+    }
+
+    /**
+     * @param maxSize        the maximum number of servers for which a session is held.
+     * @param lifetimeMillis the time, in milliseconds, for which a session can be resumed.
+     */
+    public DefaultTlsClientSessionCache(int maxSize, long lifetimeMillis)
+    {
+        if (lifetimeMillis < 0)
+        {
+            throw new IllegalArgumentException("'lifetimeMillis' cannot be negative");
+        }
+
+        this.entries = new ExpiringLRUTable(maxSize);
+        this.lifetimeMillis = lifetimeMillis;
+    }
+
+    public synchronized TlsClientSession get(String serverIdentity)
+    {
+        return (TlsClientSession)entries.get(serverIdentity, currentTimeMillis());
+    }
+
+    public synchronized void put(String serverIdentity, TlsClientSession session)
+    {
+        if (serverIdentity == null)
+        {
+            throw new IllegalArgumentException("'serverIdentity' cannot be null");
+        }
+        if (session == null)
+        {
+            throw new IllegalArgumentException("'session' cannot be null");
+        }
+
+        long lifetime = lifetimeMillis;
+
+        /*
+         * RFC 5077 3.3. The ticket_lifetime_hint field contains a hint from the server about how
+         * long the ticket should be stored. A ticket lifetime value of zero indicates that the
+         * lifetime of the ticket is unspecified.
+         */
+        NewSessionTicket sessionTicket = session.getSessionTicket();
+        if (sessionTicket != null && sessionTicket.getTicketLifetimeHint() > 0)
+        {
+            lifetime = Math.min(lifetime, sessionTicket.getTicketLifetimeHint() * 1000);
+        }
+
+        entries.put(serverIdentity, session, currentTimeMillis() + lifetime);
+    }
+
+    public synchronized void remove(String serverIdentity)
+    {
+        entries.remove(serverIdentity);
+    }
+
+    /**
+     * @return the number of sessions currently held, including any that have expired but not yet
+     *         been evicted.
+     */
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * The clock used for expiry. Subclasses may override this, e.g. for testing.
+     */
+    protected long currentTimeMillis()
+    {
+        return System.currentTimeMillis();
+    }
+}
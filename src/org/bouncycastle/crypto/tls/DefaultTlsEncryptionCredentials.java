@@ -5,6 +5,7 @@ import java.io.IOException;
 import org.bouncycastle.crypto.InvalidCipherTextException;
 import org.bouncycastle.crypto.encodings.PKCS1Encoding;
 import org.bouncycastle.crypto.engines.RSABlindedEngine;
+import org.bouncycastle.crypto.engines.RSABlindingCache;
 import org.bouncycastle.crypto.params.AsymmetricKeyParameter;
 import org.bouncycastle.crypto.params.ParametersWithRandom;
 import org.bouncycastle.crypto.params.RSAKeyParameters;
@@ -15,9 +16,20 @@ public class DefaultTlsEncryptionCredentials
     protected TlsContext context;
     protected Certificate certificate;
     protected AsymmetricKeyParameter privateKey;
+    protected RSABlindingCache blindingCache;
 
     public DefaultTlsEncryptionCredentials(TlsContext context, Certificate certificate,
                                            AsymmetricKeyParameter privateKey)
+    {
+        this(context, certificate, privateKey, null);
+    }
+
+    /**
+     * @param blindingCache blinding factors for the private key, normally shared by the credentials
+     *                      of all connections using the key; or null.
+     */
+    public DefaultTlsEncryptionCredentials(TlsContext context, Certificate certificate,
+                                           AsymmetricKeyParameter privateKey, RSABlindingCache blindingCache)
     {
         if (certificate == null)
         {
@@ -48,6 +60,7 @@ public class DefaultTlsEncryptionCredentials
         this.context = context;
         this.certificate = certificate;
         this.privateKey = privateKey;
+        this.blindingCache = blindingCache;
     }
 
     public Certificate getCertificate()
@@ -59,7 +72,7 @@ public class DefaultTlsEncryptionCredentials
         throws IOException
     {
 
-        PKCS1Encoding encoding = new PKCS1Encoding(new RSABlindedEngine());
+        PKCS1Encoding encoding = new PKCS1Encoding(new RSABlindedEngine(blindingCache));
         encoding.init(false, new ParametersWithRandom(this.privateKey, context.getSecureRandom()));
 
         try
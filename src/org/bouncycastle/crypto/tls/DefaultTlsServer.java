@@ -36,6 +36,15 @@ public abstract class DefaultTlsServer
         return DHStandardGroups.rfc5114_1024_160;
     }
 
+    /**
+     * @return a pool from which DHE and ECDHE key exchanges take key pairs generated in advance, or
+     *         null if they are always to be generated during the handshake.
+     */
+    protected TlsEphemeralKeyPool getEphemeralKeyPool()
+    {
+        return null;
+    }
+
     protected int[] getCipherSuites()
     {
         return new int[]{CipherSuite.TLS_ECDHE_RSA_WITH_AES_256_CBC_SHA,
@@ -362,7 +371,8 @@ public abstract class DefaultTlsServer
 
     protected TlsKeyExchange createDHEKeyExchange(int keyExchange)
     {
-        return new TlsDHEKeyExchange(keyExchange, supportedSignatureAlgorithms, getDHParameters());
+        return new TlsDHEKeyExchange(keyExchange, supportedSignatureAlgorithms, getDHParameters(),
+            getEphemeralKeyPool());
     }
 
     protected TlsKeyExchange createECDHKeyExchange(int keyExchange)
@@ -374,7 +384,7 @@ public abstract class DefaultTlsServer
     protected TlsKeyExchange createECDHEKeyExchange(int keyExchange)
     {
         return new TlsECDHEKeyExchange(keyExchange, supportedSignatureAlgorithms, namedCurves, clientECPointFormats,
-            serverECPointFormats);
+            serverECPointFormats, getEphemeralKeyPool());
     }
 
     protected TlsKeyExchange createRSAKeyExchange()
@@ -0,0 +1,77 @@
+package org.bouncycastle.crypto.tls;
+
+import org.bouncycastle.util.encoders.Hex;
+
+/**
+ * A {@link TlsSessionCache} holding a bounded number of sessions in memory. Sessions expire a
+ * fixed time after they were established, and once the cache is full the least recently used
+ * session is evicted to make room for a new one.
+ */
+public class DefaultTlsSessionCache
+    implements TlsSessionCache
+{
+    public static final int DEFAULT_MAX_SIZE = 1000;
+    public static final long DEFAULT_LIFETIME_MILLIS = 60L * 60 * 1000;
+
+    private final long lifetimeMillis;
+
+    // String (hex session ID) -> SessionParameters
+    private final ExpiringLRUTable entries;
+
+    public DefaultTlsSessionCache()
+    {
+        this(DEFAULT_MAX_SIZE, DEFAULT_LIFETIME_MILLIS);
+    }
+
+    /**
+     * @param maxSize        the maximum number of sessions held.
+     * @param lifetimeMillis the time, in milliseconds, for which a session can be resumed.
+     */
+    public DefaultTlsSessionCache(int maxSize, long lifetimeMillis)
+    {
+        if (lifetimeMillis < 0)
+        {
+            throw new IllegalArgumentException("'lifetimeMillis' cannot be negative");
+        }
+
+        this.entries = new ExpiringLRUTable(maxSize);
+        this.lifetimeMillis = lifetimeMillis;
+    }
+
+    public synchronized SessionParameters get(byte[] sessionID)
+    {
+        return (SessionParameters)entries.get(Hex.toHexString(sessionID), currentTimeMillis());
+    }
+
+    public synchronized void put(byte[] sessionID, SessionParameters sessionParameters)
+    {
+        if (sessionParameters == null)
+        {
+            throw new IllegalArgumentException("'sessionParameters' cannot be null");
+        }
+
+        entries.put(Hex.toHexString(sessionID), sessionParameters, currentTimeMillis() + lifetimeMillis);
+    }
+
+    public synchronized void remove(byte[] sessionID)
+    {
+        entries.remove(Hex.toHexString(sessionID));
+    }
+
+    /**
+     * @return the number of sessions currently held, including any that have expired but not yet
+     *         been evicted.
+     */
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * The clock used for expiry. Subclasses may override this, e.g. for testing.
+     */
+    protected long currentTimeMillis()
+    {
+        return System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,344 @@
+package org.bouncycastle.crypto.tls;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.Vector;
+
+import org.bouncycastle.crypto.BlockCipher;
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.Mac;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.engines.AESFastEngine;
+import org.bouncycastle.crypto.macs.HMac;
+import org.bouncycastle.crypto.modes.CBCBlockCipher;
+import org.bouncycastle.crypto.paddings.PKCS7Padding;
+import org.bouncycastle.crypto.paddings.PaddedBufferedBlockCipher;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+import org.bouncycastle.crypto.util.Pack;
+import org.bouncycastle.util.Arrays;
+
+/**
+ * A {@link TlsSessionTicketCodec} following <i>RFC 5077 4. Recommended Ticket Construction</i>.
+ * The session state is encrypted with AES-128-CBC and authenticated with HMAC-SHA256:
+ *
+ * <pre>
+ * struct {
+ *     opaque key_name[16];
+ *     opaque iv[16];
+ *     opaque encrypted_state&lt;0..2^16-1&gt;;
+ *     opaque mac[32];
+ * } ticket;
+ * </pre>
+ *
+ * New tickets are always sealed under the current key. When the key is rotated, the previous key
+ * is retained for decryption only, until every ticket it sealed has expired. Keys are either
+ * generated and rotated automatically at a fixed interval, or supplied by the application via
+ * {@link #rotateKey(TlsSessionTicketKey)}, e.g. to share them between the servers of a cluster.
+ */
+public class DefaultTlsSessionTicketCodec
+    implements TlsSessionTicketCodec
+{
+    public static final long DEFAULT_KEY_ROTATION_MILLIS = 60L * 60 * 1000;
+    public static final long DEFAULT_TICKET_LIFETIME_MILLIS = 60L * 60 * 1000;
+
+    private static final int BLOCK_SIZE = 16;
+    private static final int IV_LENGTH = BLOCK_SIZE;
+    private static final int MAC_LENGTH = 32;
+    private static final int HEADER_LENGTH = TlsSessionTicketKey.KEY_NAME_LENGTH + IV_LENGTH + 2;
+
+    /*
+     * The sealed state: version, cipher suite, compression method, master secret and issue time.
+     */
+    private static final int STATE_LENGTH = 2 + 2 + 1 + 48 + 8;
+
+    private final SecureRandom random;
+    private final long keyRotationMillis;
+    private final long ticketLifetimeMillis;
+
+    private TlsSessionTicketKey currentKey;
+    private long currentKeyCreated;
+
+    // RetiredKey
+    private final Vector retiredKeys = new Vector();
+
+    /**
+     * Create a codec generating its own keys, rotated every hour, for tickets valid for one hour.
+     */
+    public DefaultTlsSessionTicketCodec(SecureRandom random)
+    {
+        this(random, DEFAULT_KEY_ROTATION_MILLIS, DEFAULT_TICKET_LIFETIME_MILLIS);
+    }
+
+    /**
+     * Create a codec generating its own keys.
+     *
+     * @param random               source of keys and IVs.
+     * @param keyRotationMillis    the interval, in milliseconds, after which a new key is generated.
+     * @param ticketLifetimeMillis the time, in milliseconds, for which a ticket can be used.
+     */
+    public DefaultTlsSessionTicketCodec(SecureRandom random, long keyRotationMillis, long ticketLifetimeMillis)
+    {
+        this(random, keyRotationMillis, ticketLifetimeMillis, TlsSessionTicketKey.generate(random));
+
+        if (keyRotationMillis <= 0)
+        {
+            throw new IllegalArgumentException("'keyRotationMillis' must be positive");
+        }
+    }
+
+    /**
+     * Create a codec using keys supplied by the application. The key is only changed by calls to
+     * {@link #rotateKey(TlsSessionTicketKey)}.
+     *
+     * @param random               source of IVs.
+     * @param key                  the initial key.
+     * @param ticketLifetimeMillis the time, in milliseconds, for which a ticket can be used.
+     */
+    public DefaultTlsSessionTicketCodec(SecureRandom random, TlsSessionTicketKey key, long ticketLifetimeMillis)
+    {
+        this(random, 0L, ticketLifetimeMillis, key);
+    }
+
+    private DefaultTlsSessionTicketCodec(SecureRandom random, long keyRotationMillis, long ticketLifetimeMillis,
+                                         TlsSessionTicketKey key)
+    {
+        if (random == null)
+        {
+            throw new IllegalArgumentException("'random' cannot be null");
+        }
+        if (ticketLifetimeMillis <= 0)
+        {
+            throw new IllegalArgumentException("'ticketLifetimeMillis' must be positive");
+        }
+        if (key == null)
+        {
+            throw new IllegalArgumentException("'key' cannot be null");
+        }
+
+        this.random = random;
+        this.keyRotationMillis = keyRotationMillis;
+        this.ticketLifetimeMillis = ticketLifetimeMillis;
+        this.currentKey = key;
+        this.currentKeyCreated = currentTimeMillis();
+    }
+
+    /**
+     * Make a new key current. The previous key remains usable for decrypting tickets until all the
+     * tickets it sealed have expired.
+     *
+     * @param key the new key.
+     */
+    public synchronized void rotateKey(TlsSessionTicketKey key)
+    {
+        if (key == null)
+        {
+            throw new IllegalArgumentException("'key' cannot be null");
+        }
+
+        long now = currentTimeMillis();
+        purgeRetiredKeys(now);
+        retiredKeys.addElement(new RetiredKey(currentKey, now));
+        this.currentKey = key;
+        this.currentKeyCreated = now;
+    }
+
+    public long getTicketLifetimeHint()
+    {
+        return ticketLifetimeMillis / 1000;
+    }
+
+    public byte[] encodeTicket(SessionParameters sessionParameters)
+        throws IOException
+    {
+        byte[] state = new byte[STATE_LENGTH];
+        TlsUtils.writeVersion(sessionParameters.getServerVersion(), state, 0);
+        TlsUtils.writeUint16(sessionParameters.getCipherSuite(), state, 2);
+        TlsUtils.writeUint8(sessionParameters.getCompressionAlgorithm(), state, 4);
+        System.arraycopy(sessionParameters.masterSecret, 0, state, 5, 48);
+        Pack.longToBigEndian(currentTimeMillis(), state, 53);
+
+        TlsSessionTicketKey key = getEncryptionKey();
+
+        byte[] iv = new byte[IV_LENGTH];
+        random.nextBytes(iv);
+
+        PaddedBufferedBlockCipher cipher = createCipher(true, key, iv);
+        int encryptedLength = cipher.getOutputSize(STATE_LENGTH);
+
+        byte[] ticket = new byte[HEADER_LENGTH + encryptedLength + MAC_LENGTH];
+        System.arraycopy(key.keyName, 0, ticket, 0, TlsSessionTicketKey.KEY_NAME_LENGTH);
+        System.arraycopy(iv, 0, ticket, TlsSessionTicketKey.KEY_NAME_LENGTH, IV_LENGTH);
+        TlsUtils.writeUint16(encryptedLength, ticket, HEADER_LENGTH - 2);
+
+        try
+        {
+            int len = cipher.processBytes(state, 0, STATE_LENGTH, ticket, HEADER_LENGTH);
+            cipher.doFinal(ticket, HEADER_LENGTH + len);
+        }
+        catch (InvalidCipherTextException e)
+        {
+            throw new TlsFatalAlert(AlertDescription.internal_error);
+        }
+        finally
+        {
+            Arrays.fill(state, (byte)0);
+        }
+
+        Mac mac = createMac(key);
+        mac.update(ticket, 0, HEADER_LENGTH + encryptedLength);
+        mac.doFinal(ticket, HEADER_LENGTH + encryptedLength);
+
+        return ticket;
+    }
+
+    public SessionParameters decodeTicket(byte[] ticket)
+    {
+        if (ticket == null || ticket.length < HEADER_LENGTH + BLOCK_SIZE + MAC_LENGTH)
+        {
+            return null;
+        }
+
+        int encryptedLength = TlsUtils.readUint16(ticket, HEADER_LENGTH - 2);
+        if (ticket.length != HEADER_LENGTH + encryptedLength + MAC_LENGTH || (encryptedLength % BLOCK_SIZE) != 0)
+        {
+            return null;
+        }
+
+        TlsSessionTicketKey key = getDecryptionKey(ticket);
+        if (key == null)
+        {
+            return null;
+        }
+
+        byte[] calculatedMac = new byte[MAC_LENGTH];
+        Mac mac = createMac(key);
+        mac.update(ticket, 0, HEADER_LENGTH + encryptedLength);
+        mac.doFinal(calculatedMac, 0);
+
+        if (!TlsUtils.constantTimeAreEqual(MAC_LENGTH, calculatedMac, 0, ticket, HEADER_LENGTH + encryptedLength))
+        {
+            return null;
+        }
+
+        byte[] iv = Arrays.copyOfRange(ticket, TlsSessionTicketKey.KEY_NAME_LENGTH, HEADER_LENGTH - 2);
+        PaddedBufferedBlockCipher cipher = createCipher(false, key, iv);
+
+        byte[] state = new byte[cipher.getOutputSize(encryptedLength)];
+        try
+        {
+            int len = cipher.processBytes(ticket, HEADER_LENGTH, encryptedLength, state, 0);
+            len += cipher.doFinal(state, len);
+
+            if (len != STATE_LENGTH)
+            {
+                return null;
+            }
+
+            long issued = Pack.bigEndianToLong(state, 53);
+            if (currentTimeMillis() - issued >= ticketLifetimeMillis)
+            {
+                return null;
+            }
+
+            return new SessionParameters(TlsUtils.readVersion(state, 0), TlsUtils.readUint16(state, 2),
+                (short)(state[4] & 0xFF), Arrays.copyOfRange(state, 5, 53));
+        }
+        catch (InvalidCipherTextException e)
+        {
+            return null;
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+        finally
+        {
+            Arrays.fill(state, (byte)0);
+        }
+    }
+
+    /**
+     * The clock used for key rotation and ticket expiry. Subclasses may override this, e.g. for
+     * testing.
+     */
+    protected long currentTimeMillis()
+    {
+        return System.currentTimeMillis();
+    }
+
+    private synchronized TlsSessionTicketKey getEncryptionKey()
+    {
+        if (keyRotationMillis > 0 && currentTimeMillis() - currentKeyCreated >= keyRotationMillis)
+        {
+            rotateKey(TlsSessionTicketKey.generate(random));
+        }
+        return currentKey;
+    }
+
+    private synchronized TlsSessionTicketKey getDecryptionKey(byte[] ticket)
+    {
+        purgeRetiredKeys(currentTimeMillis());
+
+        if (hasKeyName(currentKey, ticket))
+        {
+            return currentKey;
+        }
+        for (int i = 0; i < retiredKeys.size(); ++i)
+        {
+            RetiredKey retired = (RetiredKey)retiredKeys.elementAt(i);
+            if (hasKeyName(retired.key, ticket))
+            {
+                return retired.key;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Forget the retired keys whose tickets have all expired.
+     */
+    private void purgeRetiredKeys(long now)
+    {
+        for (int i = retiredKeys.size() - 1; i >= 0; --i)
+        {
+            RetiredKey retired = (RetiredKey)retiredKeys.elementAt(i);
+            if (now - retired.retiredAt >= ticketLifetimeMillis)
+            {
+                retiredKeys.removeElementAt(i);
+            }
+        }
+    }
+
+    private static boolean hasKeyName(TlsSessionTicketKey key, byte[] ticket)
+    {
+        return TlsUtils.constantTimeAreEqual(TlsSessionTicketKey.KEY_NAME_LENGTH, key.keyName, 0, ticket, 0);
+    }
+
+    private static PaddedBufferedBlockCipher createCipher(boolean forEncryption, TlsSessionTicketKey key, byte[] iv)
+    {
+        BlockCipher cbc = new CBCBlockCipher(new AESFastEngine());
+        PaddedBufferedBlockCipher cipher = new PaddedBufferedBlockCipher(cbc, new PKCS7Padding());
+        cipher.init(forEncryption, new ParametersWithIV(new KeyParameter(key.encryptionKey), iv));
+        return cipher;
+    }
+
+    private static Mac createMac(TlsSessionTicketKey key)
+    {
+        Mac mac = new HMac(new SHA256Digest());
+        mac.init(new KeyParameter(key.macKey));
+        return mac;
+    }
+
+    private static class RetiredKey
+    {
+        final TlsSessionTicketKey key;
+        final long retiredAt;
+
+        RetiredKey(TlsSessionTicketKey key, long retiredAt)
+        {
+            this.key = key;
+            this.retiredAt = retiredAt;
+        }
+    }
+}
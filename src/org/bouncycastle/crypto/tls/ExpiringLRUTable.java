@@ -0,0 +1,123 @@
+package org.bouncycastle.crypto.tls;
+
+import java.util.Hashtable;
+
+/**
+ * A bounded table of entries that expire at a given time, evicting the least recently used entry
+ * when full. Used by the session caches; not synchronized, callers must do that themselves.
+ */
+class ExpiringLRUTable
+{
+    private final int maxSize;
+
+    // String -> Entry
+    private final Hashtable entries = new Hashtable();
+
+    /*
+     * Sentinel of a circular list of the entries, most recently used first.
+     */
+    private final Entry head = new Entry(null, null, 0L);
+
+    ExpiringLRUTable(int maxSize)
+    {
+        if (maxSize < 1)
+        {
+            throw new IllegalArgumentException("'maxSize' must be at least 1");
+        }
+
+        this.maxSize = maxSize;
+
+        head.prev = head;
+        head.next = head;
+    }
+
+    Object get(String key, long now)
+    {
+        Entry entry = (Entry)entries.get(key);
+        if (entry == null)
+        {
+            return null;
+        }
+
+        if (now >= entry.expiry)
+        {
+            removeEntry(entry);
+            return null;
+        }
+
+        unlink(entry);
+        linkFirst(entry);
+
+        return entry.value;
+    }
+
+    void put(String key, Object value, long expiry)
+    {
+        Entry previous = (Entry)entries.get(key);
+        if (previous != null)
+        {
+            removeEntry(previous);
+        }
+
+        if (entries.size() >= maxSize)
+        {
+            removeEntry(head.prev);
+        }
+
+        Entry entry = new Entry(key, value, expiry);
+        entries.put(key, entry);
+        linkFirst(entry);
+    }
+
+    void remove(String key)
+    {
+        Entry entry = (Entry)entries.get(key);
+        if (entry != null)
+        {
+            removeEntry(entry);
+        }
+    }
+
+    int size()
+    {
+        return entries.size();
+    }
+
+    private void removeEntry(Entry entry)
+    {
+        entries.remove(entry.key);
+        unlink(entry);
+    }
+
+    private void linkFirst(Entry entry)
+    {
+        entry.prev = head;
+        entry.next = head.next;
+        head.next.prev = entry;
+        head.next = entry;
+    }
+
+    private static void unlink(Entry entry)
+    {
+        entry.prev.next = entry.next;
+        entry.next.prev = entry.prev;
+        entry.prev = null;
+        entry.next = null;
+    }
+
+    private static class Entry
+    {
+        final String key;
+        final Object value;
+        final long expiry;
+
+        Entry prev, next;
+
+        Entry(String key, Object value, long expiry)
+        {
+            this.key = key;
+            this.value = value;
+            this.expiry = expiry;
+        }
+    }
+}
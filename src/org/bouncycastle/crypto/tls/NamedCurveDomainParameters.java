@@ -0,0 +1,32 @@
+package org.bouncycastle.crypto.tls;
+
+import java.math.BigInteger;
+
+import org.bouncycastle.crypto.params.ECDomainParameters;
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.math.ec.FixedPointCombMultiplier;
+
+/**
+ * The {@link ECDomainParameters} of a {@link NamedCurve}, shared between all handshakes using the
+ * curve (see {@link TlsECCUtils#getParametersForNamedCurve(int)}), together with a precomputation
+ * that speeds up multiplying the base point, i.e. generating ephemeral keys.
+ */
+class NamedCurveDomainParameters
+    extends ECDomainParameters
+{
+    private final FixedPointCombMultiplier baseMultiplier;
+
+    NamedCurveDomainParameters(ECCurve curve, ECPoint G, BigInteger n, BigInteger h, byte[] seed)
+    {
+        super(curve, G, n, h, seed);
+
+        int bits = n.bitLength();
+        this.baseMultiplier = new FixedPointCombMultiplier(G, bits, bits > 257 ? 6 : 5);
+    }
+
+    ECPoint multiplyG(BigInteger k)
+    {
+        return baseMultiplier.multiply(k);
+    }
+}
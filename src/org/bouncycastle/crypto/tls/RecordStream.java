@@ -1,6 +1,7 @@
 package org.bouncycastle.crypto.tls;
 
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -16,6 +17,10 @@ class RecordStream
     private static int PLAINTEXT_LIMIT = (1 << 14);
     private static int COMPRESSED_LIMIT = PLAINTEXT_LIMIT + 1024;
     private static int CIPHERTEXT_LIMIT = COMPRESSED_LIMIT + 1024;
+    private static int COALESCE_LIMIT = (1 << 16);
+    private static int INPUT_BUFFER_SIZE = (1 << 15);
+
+    static final int TLS_HEADER_SIZE = 5;
 
     private TlsProtocol handler;
     private InputStream input;
@@ -25,17 +30,49 @@ class RecordStream
     private long readSeqNo = 0, writeSeqNo = 0;
     private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
 
+    /*
+     * Record buffers, reused for every record so that steady-state traffic does not allocate. The
+     * write buffer reserves TLS_HEADER_SIZE bytes in front of the ciphertext for the header. They
+     * are not used when a buffer pool is set.
+     */
+    private byte[] readHeader = new byte[TLS_HEADER_SIZE];
+    private byte[] readBuffer = TlsUtils.EMPTY_BYTES;
+    private byte[] writeBuffer = TlsUtils.EMPTY_BYTES;
+
+    /*
+     * If set, record buffers are taken from this pool for each record instead.
+     */
+    private TlsBufferPool bufferPool;
+
+    /*
+     * If set, ciphertext is read from the input in large chunks into 'inputBuffer', and records are
+     * decoded in place there. The valid data starts at 'inputOffset'.
+     */
+    private boolean bufferInput;
+    private byte[] inputBuffer = TlsUtils.EMPTY_BYTES;
+    private int inputOffset = 0, inputLength = 0;
+
+    /*
+     * While coalescing, application data records are collected here and written out together.
+     */
+    private boolean coalescing = false;
+    private byte[] coalesceBuffer = TlsUtils.EMPTY_BYTES;
+    private int coalesceLength = 0;
+
     private TlsContext context = null;
     private TlsHandshakeHash hash = null;
 
     private ProtocolVersion readVersion = null, writeVersion = null;
     private boolean restrictReadVersion = true;
 
-    RecordStream(TlsProtocol handler, InputStream input, OutputStream output)
+    RecordStream(TlsProtocol handler, InputStream input, OutputStream output, TlsBufferPool bufferPool,
+        boolean bufferInput)
     {
         this.handler = handler;
         this.input = input;
         this.output = output;
+        this.bufferPool = bufferPool;
+        this.bufferInput = bufferInput;
         this.readCompression = new TlsNullCompression();
         this.writeCompression = this.readCompression;
         this.readCipher = new TlsNullCipher(context);
@@ -126,8 +163,126 @@ class RecordStream
     public void readRecord()
         throws IOException
     {
+        if (bufferInput)
+        {
+            readBufferedRecord();
+            return;
+        }
+
+        TlsUtils.readFully(readHeader, input);
+
+        short type = TlsUtils.readUint8(readHeader, 0);
+        int length = checkRecordHeader(readHeader, 0);
+
+        byte[] record = acquireReadBuffer(length);
+        try
+        {
+            TlsUtils.readFully(record, 0, length, input);
+
+            decodeAndProcess(type, record, 0, length);
+        }
+        finally
+        {
+            releaseBuffer(record);
+        }
+    }
+
+    /**
+     * Decode and process the next record from 'inputBuffer', reading more input only if it does
+     * not hold a complete record yet.
+     */
+    private void readBufferedRecord()
+        throws IOException
+    {
+        fillInput(TLS_HEADER_SIZE);
+
+        short type = TlsUtils.readUint8(inputBuffer, inputOffset);
+        int length = checkRecordHeader(inputBuffer, inputOffset);
+
+        fillInput(TLS_HEADER_SIZE + length);
 
-        short type = TlsUtils.readUint8(input);
+        int recordOffset = inputOffset + TLS_HEADER_SIZE;
+        inputOffset += TLS_HEADER_SIZE + length;
+        inputLength -= TLS_HEADER_SIZE + length;
+
+        try
+        {
+            decodeAndProcess(type, inputBuffer, recordOffset, length);
+        }
+        finally
+        {
+            if (inputLength == 0)
+            {
+                inputOffset = 0;
+                if (bufferPool != null && inputBuffer.length > 0)
+                {
+                    bufferPool.release(inputBuffer);
+                    inputBuffer = TlsUtils.EMPTY_BYTES;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if a complete record has already been read from the input, so that
+     *         {@link #readRecord()} will not block.
+     */
+    boolean hasCompleteRecord()
+    {
+        return inputLength >= TLS_HEADER_SIZE
+            && inputLength >= TLS_HEADER_SIZE + TlsUtils.readUint16(inputBuffer, inputOffset + 3);
+    }
+
+    /**
+     * Make sure at least 'required' bytes are buffered, reading as much as the input will give us
+     * in each call.
+     */
+    private void fillInput(int required)
+        throws IOException
+    {
+        if (inputLength >= required)
+        {
+            return;
+        }
+
+        if (inputOffset + required > inputBuffer.length)
+        {
+            byte[] tmp = inputBuffer;
+            if (required > inputBuffer.length)
+            {
+                int length = Math.max(required, INPUT_BUFFER_SIZE);
+                tmp = (bufferPool == null) ? new byte[length] : bufferPool.acquire(length);
+            }
+            System.arraycopy(inputBuffer, inputOffset, tmp, 0, inputLength);
+            if (tmp != inputBuffer && bufferPool != null && inputBuffer.length > 0)
+            {
+                bufferPool.release(inputBuffer);
+            }
+            inputBuffer = tmp;
+            inputOffset = 0;
+        }
+
+        while (inputLength < required)
+        {
+            int pos = inputOffset + inputLength;
+            int count = input.read(inputBuffer, pos, inputBuffer.length - pos);
+            if (count < 0)
+            {
+                throw new EOFException();
+            }
+            inputLength += count;
+        }
+    }
+
+    /**
+     * Check the header of a record.
+     *
+     * @return the length of the record.
+     */
+    private int checkRecordHeader(byte[] header, int off)
+        throws IOException
+    {
+        short type = TlsUtils.readUint8(header, off);
 
         // TODO In earlier RFCs, it was "SHOULD ignore"; should this be version-dependent?
         /*
@@ -138,7 +293,7 @@ class RecordStream
 
         if (!restrictReadVersion)
         {
-            int version = TlsUtils.readVersionRaw(input);
+            int version = TlsUtils.readUint16(header, off + 1);
             if ((version & 0xffffff00) != 0x0300)
             {
                 throw new TlsFatalAlert(AlertDescription.illegal_parameter);
@@ -146,7 +301,7 @@ class RecordStream
         }
         else
         {
-            ProtocolVersion version = TlsUtils.readVersion(input);
+            ProtocolVersion version = TlsUtils.readVersion(header, off + 1);
             if (readVersion == null)
             {
                 readVersion = version;
@@ -157,42 +312,64 @@ class RecordStream
             }
         }
 
-        int length = TlsUtils.readUint16(input);
-        byte[] plaintext = decodeAndVerify(type, input, length);
-        handler.processRecord(type, plaintext, 0, plaintext.length);
+        int length = TlsUtils.readUint16(header, off + 3);
+
+        checkLength(length, CIPHERTEXT_LIMIT, AlertDescription.record_overflow);
+
+        return length;
     }
 
-    protected byte[] decodeAndVerify(short type, InputStream input, int len)
+    private void decodeAndProcess(short type, byte[] buf, int off, int len)
         throws IOException
     {
+        int plaintextLength = decodeAndVerify(type, buf, off, len);
+        if (plaintextLength < 0)
+        {
+            // The decompressed record has been left in 'buffer'
+            byte[] decompressed = getBufferContents();
+            handler.processRecord(type, decompressed, 0, decompressed.length);
+        }
+        else
+        {
+            handler.processRecord(type, buf, off, plaintextLength);
+        }
+    }
 
-        checkLength(len, CIPHERTEXT_LIMIT, AlertDescription.record_overflow);
+    /**
+     * Decrypt and verify a record in place.
+     *
+     * @return the length of the plaintext, which starts at 'off' in 'buf', or -1 if the record was
+     *         decompressed into 'buffer' instead.
+     */
+    protected int decodeAndVerify(short type, byte[] buf, int off, int len)
+        throws IOException
+    {
 
-        byte[] buf = TlsUtils.readFully(len, input);
-        byte[] decoded = readCipher.decodeCiphertext(readSeqNo++, type, buf, 0, buf.length);
+        int decodedLength = readCipher.decodeCiphertext(readSeqNo++, type, buf, off, len, buf, off);
 
-        checkLength(decoded.length, COMPRESSED_LIMIT, AlertDescription.record_overflow);
+        checkLength(decodedLength, COMPRESSED_LIMIT, AlertDescription.record_overflow);
 
         /*
          * TODO RFC5264 6.2.2. Implementation note: Decompression functions are responsible for
          * ensuring that messages cannot cause internal buffer overflows.
          */
         OutputStream cOut = readCompression.decompress(buffer);
-        if (cOut != buffer)
+        if (cOut == buffer)
         {
-            cOut.write(decoded, 0, decoded.length);
-            cOut.flush();
-            decoded = getBufferContents();
+            return decodedLength;
         }
 
+        cOut.write(buf, off, decodedLength);
+        cOut.flush();
+
         /*
          * RFC 5264 6.2.2. If the decompression function encounters a TLSCompressed.fragment that
          * would decompress to a length in excess of 2^14 bytes, it should report a fatal
          * decompression failure error.
          */
-        checkLength(decoded.length, PLAINTEXT_LIMIT, AlertDescription.decompression_failure);
+        checkLength(buffer.size(), PLAINTEXT_LIMIT, AlertDescription.decompression_failure);
 
-        return decoded;
+        return -1;
     }
 
     protected void writeRecord(short type, byte[] plaintext, int plaintextOffset, int plaintextLength)
@@ -225,39 +402,128 @@ class RecordStream
         }
 
         OutputStream cOut = writeCompression.compress(buffer);
-
-        byte[] ciphertext;
-        if (cOut == buffer)
-        {
-            ciphertext = writeCipher.encodePlaintext(writeSeqNo++, type, plaintext, plaintextOffset, plaintextLength);
-        }
-        else
+        if (cOut != buffer)
         {
             cOut.write(plaintext, plaintextOffset, plaintextLength);
             cOut.flush();
-            byte[] compressed = getBufferContents();
+            plaintext = getBufferContents();
+            plaintextOffset = 0;
 
             /*
              * RFC5264 6.2.2. Compression must be lossless and may not increase the content length
              * by more than 1024 bytes.
              */
-            checkLength(compressed.length, plaintextLength + 1024, AlertDescription.internal_error);
+            checkLength(plaintext.length, plaintextLength + 1024, AlertDescription.internal_error);
 
-            ciphertext = writeCipher.encodePlaintext(writeSeqNo++, type, compressed, 0, compressed.length);
+            plaintextLength = plaintext.length;
+        }
+
+        int recordLimit = TLS_HEADER_SIZE + writeCipher.getCiphertextLimit(plaintextLength);
+
+        if (coalescing && type == ContentType.application_data)
+        {
+            reserveCoalesceSpace(recordLimit);
+            coalesceLength += encodeRecord(type, plaintext, plaintextOffset, plaintextLength, coalesceBuffer,
+                coalesceLength);
+            return;
         }
 
+        /*
+         * Anything other than application data is written immediately, after any records that are
+         * still pending.
+         */
+        writeCoalesced();
+
+        byte[] record = acquireWriteBuffer(recordLimit);
+        try
+        {
+            int recordLength = encodeRecord(type, plaintext, plaintextOffset, plaintextLength, record, 0);
+            output.write(record, 0, recordLength);
+            output.flush();
+        }
+        finally
+        {
+            releaseBuffer(record);
+        }
+    }
+
+    /**
+     * Encrypt a record and prepend its header.
+     *
+     * @return the total length of the record, including the header.
+     */
+    private int encodeRecord(short type, byte[] plaintext, int plaintextOffset, int plaintextLength, byte[] record,
+        int recordOffset)
+        throws IOException
+    {
+        int ciphertextLength = writeCipher.encodePlaintext(writeSeqNo++, type, plaintext, plaintextOffset,
+            plaintextLength, record, recordOffset + TLS_HEADER_SIZE);
+
         /*
          * RFC 5264 6.2.3. The length may not exceed 2^14 + 2048.
          */
-        checkLength(ciphertext.length, CIPHERTEXT_LIMIT, AlertDescription.internal_error);
-
-        byte[] record = new byte[ciphertext.length + 5];
-        TlsUtils.writeUint8(type, record, 0);
-        TlsUtils.writeVersion(writeVersion, record, 1);
-        TlsUtils.writeUint16(ciphertext.length, record, 3);
-        System.arraycopy(ciphertext, 0, record, 5, ciphertext.length);
-        output.write(record);
+        checkLength(ciphertextLength, CIPHERTEXT_LIMIT, AlertDescription.internal_error);
+
+        TlsUtils.writeUint8(type, record, recordOffset);
+        TlsUtils.writeVersion(writeVersion, record, recordOffset + 1);
+        TlsUtils.writeUint16(ciphertextLength, record, recordOffset + 3);
+        return TLS_HEADER_SIZE + ciphertextLength;
+    }
+
+    /**
+     * Collect application data records in a single buffer, until {@link #endCoalescing()} writes
+     * them out together and flushes the output.
+     */
+    void startCoalescing()
+    {
+        this.coalescing = true;
+    }
+
+    void endCoalescing()
+        throws IOException
+    {
+        this.coalescing = false;
+        writeCoalesced();
         output.flush();
+
+        if (bufferPool != null && coalesceBuffer.length > 0)
+        {
+            bufferPool.release(coalesceBuffer);
+            coalesceBuffer = TlsUtils.EMPTY_BYTES;
+        }
+    }
+
+    private void reserveCoalesceSpace(int recordLimit)
+        throws IOException
+    {
+        if (coalesceLength + recordLimit > COALESCE_LIMIT)
+        {
+            writeCoalesced();
+        }
+
+        int required = coalesceLength + recordLimit;
+        if (required > coalesceBuffer.length)
+        {
+            int length = Math.min(COALESCE_LIMIT, Math.max(required, coalesceBuffer.length * 2));
+            byte[] tmp = (bufferPool == null) ? new byte[length] : bufferPool.acquire(length);
+            System.arraycopy(coalesceBuffer, 0, tmp, 0, coalesceLength);
+            if (bufferPool != null && coalesceBuffer.length > 0)
+            {
+                bufferPool.release(coalesceBuffer);
+            }
+            coalesceBuffer = tmp;
+        }
+    }
+
+    private void writeCoalesced()
+        throws IOException
+    {
+        if (coalesceLength > 0)
+        {
+            int length = coalesceLength;
+            coalesceLength = 0;
+            output.write(coalesceBuffer, 0, length);
+        }
     }
 
     void updateHandshakeData(byte[] message, int offset, int len)
@@ -315,6 +581,40 @@ class RecordStream
         output.flush();
     }
 
+    private byte[] acquireReadBuffer(int length)
+    {
+        if (bufferPool != null)
+        {
+            return bufferPool.acquire(length);
+        }
+        if (readBuffer.length < length)
+        {
+            readBuffer = new byte[length];
+        }
+        return readBuffer;
+    }
+
+    private byte[] acquireWriteBuffer(int length)
+    {
+        if (bufferPool != null)
+        {
+            return bufferPool.acquire(length);
+        }
+        if (writeBuffer.length < length)
+        {
+            writeBuffer = new byte[length];
+        }
+        return writeBuffer;
+    }
+
+    private void releaseBuffer(byte[] buf)
+    {
+        if (bufferPool != null)
+        {
+            bufferPool.release(buf);
+        }
+    }
+
     private byte[] getBufferContents()
     {
         byte[] contents = buffer.toByteArray();
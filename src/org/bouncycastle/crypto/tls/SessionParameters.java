@@ -0,0 +1,63 @@
+package org.bouncycastle.crypto.tls;
+
+import org.bouncycastle.util.Arrays;
+
+/**
+ * The state of an established session that is needed to resume it: the negotiated protocol
+ * version, cipher suite and compression method, and the master secret.
+ */
+public class SessionParameters
+{
+
+    protected ProtocolVersion serverVersion;
+    protected int cipherSuite;
+    protected short compressionAlgorithm;
+    protected byte[] masterSecret;
+
+    public SessionParameters(ProtocolVersion serverVersion, int cipherSuite, short compressionAlgorithm,
+                             byte[] masterSecret)
+    {
+        if (serverVersion == null)
+        {
+            throw new IllegalArgumentException("'serverVersion' cannot be null");
+        }
+        if (masterSecret == null || masterSecret.length != 48)
+        {
+            throw new IllegalArgumentException("'masterSecret' must be 48 bytes");
+        }
+
+        this.serverVersion = serverVersion;
+        this.cipherSuite = cipherSuite;
+        this.compressionAlgorithm = compressionAlgorithm;
+        this.masterSecret = Arrays.clone(masterSecret);
+    }
+
+    public ProtocolVersion getServerVersion()
+    {
+        return serverVersion;
+    }
+
+    /**
+     * @return {@link CipherSuite}
+     */
+    public int getCipherSuite()
+    {
+        return cipherSuite;
+    }
+
+    /**
+     * @return {@link CompressionMethod}
+     */
+    public short getCompressionAlgorithm()
+    {
+        return compressionAlgorithm;
+    }
+
+    /**
+     * @return a copy of the master secret.
+     */
+    public byte[] getMasterSecret()
+    {
+        return Arrays.clone(masterSecret);
+    }
+}
@@ -20,6 +20,14 @@ public class TlsAEADCipher
 
     protected byte[] encryptImplicitNonce, decryptImplicitNonce;
 
+    /*
+     * Per-direction nonce and additional data, reused for every record. The parameters refer to the
+     * nonce arrays, and carry no key so that re-initialising the cipher keeps the current key.
+     */
+    private byte[] encryptNonce, decryptNonce;
+    private byte[] encryptAdditionalData = new byte[13], decryptAdditionalData = new byte[13];
+    private AEADParameters encryptParameters, decryptParameters;
+
     public TlsAEADCipher(TlsContext context, AEADBlockCipher clientWriteCipher, AEADBlockCipher serverWriteCipher,
                          int cipherKeySize, int macSize)
         throws IOException
@@ -83,6 +91,14 @@ public class TlsAEADCipher
 
         this.encryptCipher.init(true, new AEADParameters(encryptKey, 8 * macSize, dummyNonce));
         this.decryptCipher.init(false, new AEADParameters(decryptKey, 8 * macSize, dummyNonce));
+
+        this.encryptNonce = new byte[fixed_iv_length + nonce_explicit_length];
+        System.arraycopy(encryptImplicitNonce, 0, encryptNonce, 0, fixed_iv_length);
+        this.decryptNonce = new byte[fixed_iv_length + nonce_explicit_length];
+        System.arraycopy(decryptImplicitNonce, 0, decryptNonce, 0, fixed_iv_length);
+
+        this.encryptParameters = new AEADParameters(null, 8 * macSize, encryptNonce);
+        this.decryptParameters = new AEADParameters(null, 8 * macSize, decryptNonce);
     }
 
     public int getPlaintextLimit(int ciphertextLimit)
@@ -91,30 +107,41 @@ public class TlsAEADCipher
         return ciphertextLimit - macSize - nonce_explicit_length;
     }
 
+    public int getCiphertextLimit(int plaintextLength)
+    {
+        return plaintextLength + macSize + nonce_explicit_length;
+    }
+
     public byte[] encodePlaintext(long seqNo, short type, byte[] plaintext, int offset, int len)
         throws IOException
     {
+        byte[] output = new byte[nonce_explicit_length + encryptCipher.getOutputSize(len)];
+        encodePlaintext(seqNo, type, plaintext, offset, len, output, 0);
+        return output;
+    }
 
-        byte[] nonce = new byte[this.encryptImplicitNonce.length + nonce_explicit_length];
-        System.arraycopy(encryptImplicitNonce, 0, nonce, 0, encryptImplicitNonce.length);
+    public int encodePlaintext(long seqNo, short type, byte[] plaintext, int offset, int len, byte[] output,
+                               int outputOffset)
+        throws IOException
+    {
 
         /*
          * RFC 5288 The nonce_explicit MAY be the 64-bit sequence number.
          * 
          * (May need review for other AEAD ciphers).
          */
-        TlsUtils.writeUint64(seqNo, nonce, encryptImplicitNonce.length);
+        TlsUtils.writeUint64(seqNo, encryptNonce, encryptImplicitNonce.length);
 
         int plaintextOffset = offset;
         int plaintextLength = len;
         int ciphertextLength = encryptCipher.getOutputSize(plaintextLength);
 
-        byte[] output = new byte[nonce_explicit_length + ciphertextLength];
-        System.arraycopy(nonce, encryptImplicitNonce.length, output, 0, nonce_explicit_length);
-        int outputPos = nonce_explicit_length;
+        System.arraycopy(encryptNonce, encryptImplicitNonce.length, output, outputOffset, nonce_explicit_length);
+        int outputPos = outputOffset + nonce_explicit_length;
 
-        encryptCipher.init(true,
-            new AEADParameters(null, 8 * macSize, nonce, getAdditionalData(seqNo, type, plaintextLength)));
+        encryptCipher.init(true, encryptParameters);
+        writeAdditionalData(seqNo, type, plaintextLength, encryptAdditionalData);
+        encryptCipher.processAADBytes(encryptAdditionalData, 0, encryptAdditionalData.length);
 
         outputPos += encryptCipher.processBytes(plaintext, plaintextOffset, plaintextLength, output, outputPos);
         try
@@ -126,37 +153,51 @@ public class TlsAEADCipher
             throw new TlsFatalAlert(AlertDescription.internal_error);
         }
 
-        if (outputPos != output.length)
+        if (outputPos != outputOffset + nonce_explicit_length + ciphertextLength)
         {
             // NOTE: Existing AEAD cipher implementations all give exact output lengths
             throw new TlsFatalAlert(AlertDescription.internal_error);
         }
 
-        return output;
+        return nonce_explicit_length + ciphertextLength;
     }
 
     public byte[] decodeCiphertext(long seqNo, short type, byte[] ciphertext, int offset, int len)
         throws IOException
     {
+        if (getPlaintextLimit(len) < 0)
+        {
+            throw new TlsFatalAlert(AlertDescription.decode_error);
+        }
+
+        byte[] output = new byte[decryptCipher.getOutputSize(len - nonce_explicit_length)];
+        decodeCiphertext(seqNo, type, ciphertext, offset, len, output, 0);
+        return output;
+    }
+
+    public int decodeCiphertext(long seqNo, short type, byte[] ciphertext, int offset, int len, byte[] output,
+                                int outputOffset)
+        throws IOException
+    {
 
         if (getPlaintextLimit(len) < 0)
         {
             throw new TlsFatalAlert(AlertDescription.decode_error);
         }
 
-        byte[] nonce = new byte[this.decryptImplicitNonce.length + nonce_explicit_length];
-        System.arraycopy(decryptImplicitNonce, 0, nonce, 0, decryptImplicitNonce.length);
-        System.arraycopy(ciphertext, offset, nonce, decryptImplicitNonce.length, nonce_explicit_length);
+        System.arraycopy(ciphertext, offset, decryptNonce, decryptImplicitNonce.length, nonce_explicit_length);
 
         int ciphertextOffset = offset + nonce_explicit_length;
         int ciphertextLength = len - nonce_explicit_length;
+
+        decryptCipher.init(false, decryptParameters);
+
         int plaintextLength = decryptCipher.getOutputSize(ciphertextLength);
 
-        byte[] output = new byte[plaintextLength];
-        int outputPos = 0;
+        writeAdditionalData(seqNo, type, plaintextLength, decryptAdditionalData);
+        decryptCipher.processAADBytes(decryptAdditionalData, 0, decryptAdditionalData.length);
 
-        decryptCipher.init(false,
-            new AEADParameters(null, 8 * macSize, nonce, getAdditionalData(seqNo, type, plaintextLength)));
+        int outputPos = outputOffset;
 
         outputPos += decryptCipher.processBytes(ciphertext, ciphertextOffset, ciphertextLength, output, outputPos);
 
@@ -169,13 +210,13 @@ public class TlsAEADCipher
             throw new TlsFatalAlert(AlertDescription.bad_record_mac);
         }
 
-        if (outputPos != output.length)
+        if (outputPos != outputOffset + plaintextLength)
         {
             // NOTE: Existing AEAD cipher implementations all give exact output lengths
             throw new TlsFatalAlert(AlertDescription.internal_error);
         }
 
-        return output;
+        return plaintextLength;
     }
 
     protected byte[] getAdditionalData(long seqNo, short type, int len)
@@ -187,11 +228,16 @@ public class TlsAEADCipher
          */
 
         byte[] additional_data = new byte[13];
+        writeAdditionalData(seqNo, type, len, additional_data);
+        return additional_data;
+    }
+
+    private void writeAdditionalData(long seqNo, short type, int len, byte[] additional_data)
+        throws IOException
+    {
         TlsUtils.writeUint64(seqNo, additional_data, 0);
         TlsUtils.writeUint8(type, additional_data, 8);
         TlsUtils.writeVersion(context.getServerVersion(), additional_data, 9);
         TlsUtils.writeUint16(len, additional_data, 11);
-
-        return additional_data;
     }
 }
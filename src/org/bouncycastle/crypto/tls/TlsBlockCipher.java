@@ -27,6 +27,12 @@ public class TlsBlockCipher
     protected TlsMac writeMac;
     protected TlsMac readMac;
 
+    /*
+     * Scratch buffers, reused for every record.
+     */
+    private byte[] explicitIV;
+    private byte[] calculatedMac;
+
     public TlsMac getWriteMac()
     {
         return writeMac;
@@ -116,6 +122,9 @@ public class TlsBlockCipher
 
         this.encryptCipher.init(true, encryptParams);
         this.decryptCipher.init(false, decryptParams);
+
+        this.explicitIV = new byte[encryptCipher.getBlockSize()];
+        this.calculatedMac = new byte[readMac.getSize()];
     }
 
     public int getPlaintextLimit(int ciphertextLimit)
@@ -132,7 +141,32 @@ public class TlsBlockCipher
         return result;
     }
 
+    public int getCiphertextLimit(int plaintextLength)
+    {
+        int blockSize = encryptCipher.getBlockSize();
+        int macSize = writeMac.getSize();
+
+        ProtocolVersion version = context.getServerVersion();
+
+        // The padding (including its length byte) is at most 256 bytes, or a block if no extra is added
+        int result = plaintextLength + macSize + ((!version.isDTLS() && !version.isSSL()) ? 256 : blockSize);
+        if (useExplicitIV)
+        {
+            result += blockSize;
+        }
+
+        return result;
+    }
+
     public byte[] encodePlaintext(long seqNo, short type, byte[] plaintext, int offset, int len)
+    {
+        byte[] outbuf = new byte[getCiphertextLimit(len)];
+        int outLen = encodePlaintext(seqNo, type, plaintext, offset, len, outbuf, 0);
+        return outLen == outbuf.length ? outbuf : Arrays.copyOf(outbuf, outLen);
+    }
+
+    public int encodePlaintext(long seqNo, short type, byte[] plaintext, int offset, int len, byte[] output,
+                               int outputOffset)
     {
         int blockSize = encryptCipher.getBlockSize();
         int macSize = writeMac.getSize();
@@ -156,39 +190,46 @@ public class TlsBlockCipher
             totalSize += blockSize;
         }
 
-        byte[] outbuf = new byte[totalSize];
-        int outOff = 0;
+        int outOff = outputOffset;
 
         if (useExplicitIV)
         {
-            byte[] explicitIV = new byte[blockSize];
+            /*
+             * RFC 4346 6.2.3.2 (2)(b). Prepend a random block R and encrypt it along with the rest,
+             * chaining on from the previous record; the resulting first ciphertext block serves as
+             * the explicit IV, without having to re-initialise the cipher.
+             */
             context.getSecureRandom().nextBytes(explicitIV);
 
-            encryptCipher.init(true, new ParametersWithIV(null, explicitIV));
-
-            System.arraycopy(explicitIV, 0, outbuf, outOff, blockSize);
+            System.arraycopy(explicitIV, 0, output, outOff, blockSize);
             outOff += blockSize;
         }
 
-        byte[] mac = writeMac.calculateMac(seqNo, type, plaintext, offset, len);
-
-        System.arraycopy(plaintext, offset, outbuf, outOff, len);
-        System.arraycopy(mac, 0, outbuf, outOff + len, mac.length);
+        System.arraycopy(plaintext, offset, output, outOff, len);
+        writeMac.calculateMac(seqNo, type, plaintext, offset, len, output, outOff + len);
 
-        int padOffset = outOff + len + mac.length;
+        int padOffset = outOff + len + macSize;
         for (int i = 0; i <= padding_length; i++)
         {
-            outbuf[i + padOffset] = (byte)padding_length;
+            output[i + padOffset] = (byte)padding_length;
         }
-        for (int i = outOff; i < totalSize; i += blockSize)
+        for (int i = outputOffset; i < outputOffset + totalSize; i += blockSize)
         {
-            encryptCipher.processBlock(outbuf, i, outbuf, i);
+            encryptCipher.processBlock(output, i, output, i);
         }
-        return outbuf;
+        return totalSize;
     }
 
     public byte[] decodeCiphertext(long seqNo, short type, byte[] ciphertext, int offset, int len)
         throws IOException
+    {
+        int plaintextLength = decodeCiphertext(seqNo, type, ciphertext, offset, len, ciphertext, offset);
+        return Arrays.copyOfRange(ciphertext, offset, offset + plaintextLength);
+    }
+
+    public int decodeCiphertext(long seqNo, short type, byte[] ciphertext, int offset, int len, byte[] output,
+                                int outputOffset)
+        throws IOException
     {
         int blockSize = decryptCipher.getBlockSize();
         int macSize = readMac.getSize();
@@ -211,7 +252,12 @@ public class TlsBlockCipher
 
         if (useExplicitIV)
         {
-            decryptCipher.init(false, new ParametersWithIV(null, ciphertext, offset, blockSize));
+            /*
+             * Decrypting the explicit IV block chains the cipher onto it, so the following blocks
+             * decrypt correctly without re-initialising the cipher. The decrypted IV block itself is
+             * meaningless, and is overwritten by the first block of the record.
+             */
+            decryptCipher.processBlock(ciphertext, offset, output, outputOffset);
 
             offset += blockSize;
             len -= blockSize;
@@ -219,26 +265,26 @@ public class TlsBlockCipher
 
         for (int i = 0; i < len; i += blockSize)
         {
-            decryptCipher.processBlock(ciphertext, offset + i, ciphertext, offset + i);
+            decryptCipher.processBlock(ciphertext, offset + i, output, outputOffset + i);
         }
 
         // If there's anything wrong with the padding, this will return zero
-        int totalPad = checkPaddingConstantTime(ciphertext, offset, len, blockSize, macSize);
+        int totalPad = checkPaddingConstantTime(output, outputOffset, len, blockSize, macSize);
 
         int macInputLen = len - totalPad - macSize;
 
-        byte[] decryptedMac = Arrays.copyOfRange(ciphertext, offset + macInputLen, offset + macInputLen + macSize);
-        byte[] calculatedMac = readMac.calculateMacConstantTime(seqNo, type, ciphertext, offset, macInputLen, len
-            - macSize, randomData);
+        readMac.calculateMacConstantTime(seqNo, type, output, outputOffset, macInputLen, len - macSize, randomData,
+            calculatedMac, 0);
 
-        boolean badMac = !Arrays.constantTimeAreEqual(calculatedMac, decryptedMac);
+        boolean badMac = !TlsUtils.constantTimeAreEqual(macSize, calculatedMac, 0, output, outputOffset
+            + macInputLen);
 
         if (badMac || totalPad == 0)
         {
             throw new TlsFatalAlert(AlertDescription.bad_record_mac);
         }
 
-        return Arrays.copyOfRange(ciphertext, offset, offset + macInputLen);
+        return macInputLen;
     }
 
     protected int checkPaddingConstantTime(byte[] buf, int off, int len, int blockSize, int macSize)
@@ -0,0 +1,22 @@
+package org.bouncycastle.crypto.tls;
+
+/**
+ * A source of byte arrays for the record layer and the protocol's internal queues. A single pool
+ * may be shared between many connections, so implementations must be thread-safe.
+ */
+public interface TlsBufferPool
+{
+    /**
+     * @param minLength the minimum length of the buffer required.
+     * @return a buffer of at least 'minLength' bytes.
+     */
+    byte[] acquire(int minLength);
+
+    /**
+     * Return a buffer obtained from {@link #acquire(int)}. The caller must not use the buffer
+     * afterwards.
+     *
+     * @param buf the buffer being returned.
+     */
+    void release(byte[] buf);
+}
@@ -0,0 +1,170 @@
+package org.bouncycastle.crypto.tls;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.util.encoders.Hex;
+
+/**
+ * A cache of the certificate chains received from servers, for clients that connect to the same
+ * few servers over and over again. A chain that has been seen before is not parsed again, the
+ * public key of its end-entity certificate is only extracted once, and a {@link TlsAuthentication}
+ * can record that it trusts the chain (see {@link CachingTlsAuthentication}) so that it need not
+ * validate it again.
+ * <p/>
+ * Chains are identified by the SHA-256 hash of their encoding. The cache holds a bounded number of
+ * chains, evicting the least recently used one when full, and forgets a chain, together with the
+ * decision to trust it, a fixed time after it was first seen, or when its end-entity certificate
+ * expires, whichever comes first. A single cache is normally shared between all the connections of
+ * an application; it is thread-safe.
+ */
+public class TlsCertificateCache
+{
+    public static final int DEFAULT_MAX_SIZE = 100;
+    public static final long DEFAULT_LIFETIME_MILLIS = 60L * 60 * 1000;
+
+    private final long lifetimeMillis;
+
+    // String (hex hash of the encoding) -> CachedCertificate
+    private final ExpiringLRUTable entries;
+
+    public TlsCertificateCache()
+    {
+        this(DEFAULT_MAX_SIZE, DEFAULT_LIFETIME_MILLIS);
+    }
+
+    /**
+     * @param maxSize        the maximum number of chains held.
+     * @param lifetimeMillis the time, in milliseconds, for which a chain, and the decision to trust
+     *                       it, is remembered (at most until the end-entity certificate expires).
+     */
+    public TlsCertificateCache(int maxSize, long lifetimeMillis)
+    {
+        if (lifetimeMillis < 0)
+        {
+            throw new IllegalArgumentException("'lifetimeMillis' cannot be negative");
+        }
+
+        this.entries = new ExpiringLRUTable(maxSize);
+        this.lifetimeMillis = lifetimeMillis;
+    }
+
+    /**
+     * Parse a {@link Certificate} from an {@link InputStream}, returning the same object as before
+     * if the chain has been seen recently.
+     *
+     * @param input the {@link InputStream} to parse from.
+     * @return a {@link Certificate} object.
+     * @throws IOException
+     */
+    public Certificate parse(InputStream input)
+        throws IOException
+    {
+        int length = TlsUtils.readUint24(input);
+        if (length == 0)
+        {
+            return Certificate.EMPTY_CHAIN;
+        }
+
+        byte[] encoding = new byte[3 + length];
+        TlsUtils.writeUint24(length, encoding, 0);
+        TlsUtils.readFully(encoding, 3, length, input);
+
+        String key = hash(encoding);
+
+        synchronized (this)
+        {
+            CachedCertificate certificate = (CachedCertificate)entries.get(key, currentTimeMillis());
+            if (certificate != null)
+            {
+                return certificate;
+            }
+        }
+
+        Certificate parsed = Certificate.parse(new ByteArrayInputStream(encoding));
+
+        long expiry = currentTimeMillis() + lifetimeMillis;
+        long notAfter = parsed.getCertificateAt(0).getEndDate().getDate().getTime();
+        CachedCertificate certificate = new CachedCertificate(parsed.certificateList, Math.min(expiry, notAfter));
+
+        synchronized (this)
+        {
+            entries.put(key, certificate, certificate.getExpiry());
+        }
+
+        return certificate;
+    }
+
+    /**
+     * @param certificate    a chain returned by {@link #parse(InputStream)}.
+     * @param serverIdentity identifies the server that sent the chain.
+     * @return true if the chain was found to be trusted for the server, and has not expired since.
+     */
+    public boolean isTrusted(Certificate certificate, String serverIdentity)
+    {
+        if (!(certificate instanceof CachedCertificate) || serverIdentity == null)
+        {
+            return false;
+        }
+
+        CachedCertificate cached = (CachedCertificate)certificate;
+        if (currentTimeMillis() >= cached.getExpiry())
+        {
+            return false;
+        }
+
+        synchronized (this)
+        {
+            return cached.isTrustedFor(serverIdentity);
+        }
+    }
+
+    /**
+     * Record that a chain has been found to be trusted for a server. The decision is bound to the
+     * server, since validating a chain normally involves matching it against the server's name.
+     *
+     * @param certificate    a chain returned by {@link #parse(InputStream)}.
+     * @param serverIdentity identifies the server that sent the chain.
+     */
+    public void setTrusted(Certificate certificate, String serverIdentity)
+    {
+        if (!(certificate instanceof CachedCertificate) || serverIdentity == null)
+        {
+            return;
+        }
+
+        synchronized (this)
+        {
+            ((CachedCertificate)certificate).setTrustedFor(serverIdentity);
+        }
+    }
+
+    /**
+     * @return the number of chains currently held, including any that have expired but not yet been
+     *         evicted.
+     */
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * The clock used for expiry. Subclasses may override this, e.g. for testing.
+     */
+    protected long currentTimeMillis()
+    {
+        return System.currentTimeMillis();
+    }
+
+    private static String hash(byte[] encoding)
+    {
+        Digest digest = new SHA256Digest();
+        digest.update(encoding, 0, encoding.length);
+        byte[] hash = new byte[digest.getDigestSize()];
+        digest.doFinal(hash, 0);
+        return Hex.toHexString(hash);
+    }
+}
@@ -6,9 +6,39 @@ public interface TlsCipher
 {
     int getPlaintextLimit(int ciphertextLimit);
 
+    /**
+     * @param plaintextLength the length of a record's plaintext.
+     * @return an upper bound on the length of the ciphertext that encoding such a record can
+     *         produce, i.e. the space a caller must provide to
+     *         {@link #encodePlaintext(long, short, byte[], int, int, byte[], int)}.
+     */
+    int getCiphertextLimit(int plaintextLength);
+
     byte[] encodePlaintext(long seqNo, short type, byte[] plaintext, int offset, int len)
         throws IOException;
 
+    /**
+     * Encode a record into a caller-supplied buffer, e.g. one that already has space reserved
+     * for the record header. The output must not overlap the plaintext.
+     *
+     * @return the number of ciphertext bytes written to 'output', starting at 'outputOffset'.
+     */
+    int encodePlaintext(long seqNo, short type, byte[] plaintext, int offset, int len, byte[] output,
+                        int outputOffset)
+        throws IOException;
+
     byte[] decodeCiphertext(long seqNo, short type, byte[] ciphertext, int offset, int len)
         throws IOException;
+
+    /**
+     * Decode a record into a caller-supplied buffer. 'output' may be the same array as
+     * 'ciphertext', provided 'outputOffset' is not greater than 'offset', in which case the
+     * record is decoded in place. Since the record may be processed in place before it has been
+     * verified, there must be room for 'len' bytes in 'output'.
+     *
+     * @return the number of plaintext bytes written to 'output', starting at 'outputOffset'.
+     */
+    int decodeCiphertext(long seqNo, short type, byte[] ciphertext, int offset, int len, byte[] output,
+                         int outputOffset)
+        throws IOException;
 }
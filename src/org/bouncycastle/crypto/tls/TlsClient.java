@@ -18,6 +18,33 @@ public interface TlsClient
 
     TlsClientContext getClientContext();
 
+    /**
+     * @return the cache from which sessions with the server are resumed, and in which new ones are
+     *         kept, or null if sessions are not to be resumed.
+     */
+    TlsClientSessionCache getSessionCache();
+
+    /**
+     * @return the key under which sessions with the server are kept in the
+     *         {@link #getSessionCache() session cache}. Sessions must only be resumed with the
+     *         server they were established with, so this should identify the server by host,
+     *         port and requested server names.
+     */
+    String getServerIdentity();
+
+    /**
+     * @return the cache used to avoid parsing the same server certificate chain over and over
+     *         again, or null if chains are not to be cached.
+     */
+    TlsCertificateCache getCertificateCache();
+
+    /**
+     * @return a template from which to encode the ClientHello of the initial handshake, or null if
+     *         it is to be encoded from {@link #getCipherSuites()}, {@link #getCompressionMethods()}
+     *         and {@link #getClientExtensions()}. In the former case, those methods are not called.
+     */
+    ClientHelloTemplate getClientHelloTemplate();
+
     void setClientVersion(ProtocolVersion version);
 
     int[] getCipherSuites();
@@ -76,7 +103,4 @@ public interface TlsClient
      */
     void notifyNewSessionTicket(NewSessionTicket newSessionTicket)
         throws IOException;
-
-    void notifyHandshakeComplete()
-        throws IOException;
 }
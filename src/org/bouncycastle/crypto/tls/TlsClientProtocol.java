@@ -23,6 +23,13 @@ public class TlsClientProtocol
     protected int[] offeredCipherSuites = null;
     protected short[] offeredCompressionMethods = null;
     protected Hashtable clientExtensions = null;
+    protected byte[] offeredSessionID = null;
+
+    protected TlsClientSessionCache sessionCache = null;
+    protected String serverIdentity = null;
+    protected TlsClientSession sessionToResume = null;
+    protected byte[] sessionID = null;
+    protected NewSessionTicket newSessionTicket = null;
 
     protected int selectedCipherSuite;
     protected short selectedCompressionMethod;
@@ -58,8 +65,40 @@ public class TlsClientProtocol
         super(input, output, secureRandom);
     }
 
+    public TlsClientProtocol(InputStream input, OutputStream output, SecureRandom secureRandom, TlsBufferPool bufferPool)
+    {
+        super(input, output, secureRandom, bufferPool);
+    }
+
     /**
-     * Initiates a TLS handshake in the role of client
+     * Constructor for non-blocking mode.
+     *
+     * @param secureRandom Random number generator for various cryptographic functions
+     * @see TlsProtocol#TlsProtocol(SecureRandom)
+     */
+    public TlsClientProtocol(SecureRandom secureRandom)
+    {
+        super(secureRandom);
+    }
+
+    /**
+     * Constructor for non-blocking mode, taking buffers from a pool.
+     *
+     * @param secureRandom Random number generator for various cryptographic functions
+     * @param bufferPool   Pool from which buffers are taken
+     * @see TlsProtocol#TlsProtocol(SecureRandom, TlsBufferPool)
+     */
+    public TlsClientProtocol(SecureRandom secureRandom, TlsBufferPool bufferPool)
+    {
+        super(secureRandom, bufferPool);
+    }
+
+    /**
+     * Initiates a TLS handshake in the role of client.
+     * <p/>
+     * In blocking mode, this will not return until the handshake is complete. In non-blocking mode,
+     * the ClientHello is queued for output and the remainder of the handshake is driven by
+     * {@link #offerInput(byte[])}; {@link TlsPeer#notifyHandshakeComplete()} signals completion.
      *
      * @param tlsClient
      * @throws IOException If handshake was not successful.
@@ -98,8 +137,6 @@ public class TlsClientProtocol
         this.connection_state = CS_CLIENT_HELLO;
 
         completeHandshake();
-
-        this.tlsClient.notifyHandshakeComplete();
     }
 
     protected AbstractTlsContext getContext()
@@ -118,6 +155,14 @@ public class TlsClientProtocol
 
         switch (this.connection_state)
         {
+        case CS_SERVER_HELLO:
+        {
+            if (!this.resumed)
+            {
+                this.failWithError(AlertLevel.fatal, AlertDescription.handshake_failure);
+            }
+            // NB: Fall through to next case label
+        }
         case CS_CLIENT_FINISHED:
         {
             if (this.expectSessionTicket)
@@ -138,6 +183,12 @@ public class TlsClientProtocol
         }
     }
 
+    protected boolean isDelegatedHandshakeMessage(short type)
+    {
+        // The CertificateVerify sent in response may need signing
+        return type == HandshakeType.server_hello_done;
+    }
+
     protected void handleHandshakeMessage(short type, byte[] data)
         throws IOException
     {
@@ -158,7 +209,7 @@ public class TlsClientProtocol
             {
                 // Parse the Certificate message and send to cipher suite
 
-                Certificate serverCertificate = Certificate.parse(buf);
+                Certificate serverCertificate = parseServerCertificate(buf);
 
                 assertEmpty(buf);
 
@@ -182,6 +233,21 @@ public class TlsClientProtocol
             case CS_SERVER_CHANGE_CIPHER_SPEC:
                 processFinishedMessage(buf);
                 this.connection_state = CS_SERVER_FINISHED;
+
+                if (this.resumed)
+                {
+                    sendChangeCipherSpecMessage();
+                    this.connection_state = CS_CLIENT_CHANGE_CIPHER_SPEC;
+
+                    sendFinishedMessage();
+                    this.connection_state = CS_CLIENT_FINISHED;
+                }
+
+                if (this.sessionCache != null)
+                {
+                    cacheSession();
+                }
+                this.connection_state = CS_END;
                 break;
             default:
                 this.failWithError(AlertLevel.fatal, AlertDescription.unexpected_message);
@@ -206,6 +272,16 @@ public class TlsClientProtocol
 
                 recordStream.notifyHelloComplete();
 
+                if (this.resumed)
+                {
+                    /*
+                     * RFC 5246 7.3. [..] the server MUST send a ChangeCipherSpec message and then
+                     * send its Finished message directly after the ServerHello. The keys are
+                     * derived from the master secret of the resumed session.
+                     */
+                    recordStream.setPendingConnectionState(tlsClient.getCompression(), tlsClient.getCipher());
+                }
+
                 break;
             default:
                 this.failWithError(AlertLevel.fatal, AlertDescription.unexpected_message);
@@ -404,6 +480,12 @@ public class TlsClientProtocol
         {
             switch (this.connection_state)
             {
+            case CS_SERVER_HELLO:
+                if (!this.resumed)
+                {
+                    this.failWithError(AlertLevel.fatal, AlertDescription.unexpected_message);
+                }
+                // NB: Fall through to next case label
             case CS_CLIENT_FINISHED:
                 if (!this.expectSessionTicket)
                 {
@@ -419,6 +501,7 @@ public class TlsClientProtocol
             default:
                 this.failWithError(AlertLevel.fatal, AlertDescription.unexpected_message);
             }
+            break;
         }
         case HandshakeType.hello_request:
 
@@ -430,7 +513,7 @@ public class TlsClientProtocol
              * if it does not wish to renegotiate a session, or the client may, if it wishes,
              * respond with a no_renegotiation alert.
              */
-            if (this.connection_state == CS_SERVER_FINISHED)
+            if (this.connection_state == CS_END)
             {
                 secure_renegotiation = true;
                 this.connect(this.tlsClient);
@@ -466,6 +549,7 @@ public class TlsClientProtocol
 
         TlsProtocol.assertEmpty(buf);
 
+        this.newSessionTicket = newSessionTicket;
         tlsClient.notifyNewSessionTicket(newSessionTicket);
     }
 
@@ -506,11 +590,9 @@ public class TlsClientProtocol
             this.failWithError(AlertLevel.fatal, AlertDescription.illegal_parameter);
         }
 
-        if(sessionID.length > 0 && Arrays.areEqual(sessionID, tlsClient.getSessionID()))
-        {
-            resumed = true;
-        }
+        this.resumed = sessionID.length > 0 && Arrays.areEqual(sessionID, this.offeredSessionID);
 
+        this.sessionID = sessionID;
         this.tlsClient.notifySessionID(sessionID);
 
         /*
@@ -539,6 +621,30 @@ public class TlsClientProtocol
 
         this.tlsClient.notifySelectedCompressionMethod(selectedCompressionMethod);
 
+        if (this.resumed && this.sessionToResume != null)
+        {
+            /*
+             * RFC 5246 7.4.1.3. cipher_suite: [...] For resumed sessions, this field is the value
+             * from the state of the session being resumed. compression_method: [...] For resumed
+             * sessions, this field is the value from the resumed session state.
+             */
+            SessionParameters sessionParameters = this.sessionToResume.getSessionParameters();
+            if (!server_version.equals(sessionParameters.getServerVersion())
+                || this.selectedCipherSuite != sessionParameters.getCipherSuite()
+                || selectedCompressionMethod != sessionParameters.getCompressionAlgorithm())
+            {
+                this.failWithError(AlertLevel.fatal, AlertDescription.illegal_parameter);
+            }
+
+            securityParameters.masterSecret = sessionParameters.getMasterSecret();
+        }
+
+        if (this.resumed && securityParameters.masterSecret == null)
+        {
+            // We offered a session ID without knowing the master secret of the session
+            this.failWithError(AlertLevel.fatal, AlertDescription.internal_error);
+        }
+
         /*
          * RFC3546 2.2 The extended server hello message format MAY be sent in place of the server
          * hello message when the client has requested extended functionality via the extended
@@ -686,41 +792,103 @@ public class TlsClientProtocol
 
         recordStream.setWriteVersion(this.tlsClient.getClientHelloRecordLayerVersion());
 
-        ByteArrayOutputStream buf = new ByteArrayOutputStream();
-        TlsUtils.writeUint8(HandshakeType.client_hello, buf);
-
-        // Reserve space for length
-        TlsUtils.writeUint24(0, buf);
+        /*
+         * NOTE: A template can't be used for renegotiation, since the "renegotiation_info"
+         * extension then has to carry the saved client_verify_data.
+         */
+        ClientHelloTemplate template = secure_renegotiation ? null : this.tlsClient.getClientHelloTemplate();
 
-        ProtocolVersion client_version = this.tlsClient.getClientVersion();
+        ProtocolVersion client_version = template != null ? template.getClientVersion()
+            : this.tlsClient.getClientVersion();
         if (client_version.isDTLS())
         {
             this.failWithError(AlertLevel.fatal, AlertDescription.internal_error);
         }
 
         getContext().setClientVersion(client_version);
-        TlsUtils.writeVersion(client_version, buf);
-
-        buf.write(securityParameters.clientRandom);
 
         // Session id
-        if(tlsClient.getSessionID()==null)
+        this.sessionCache = this.tlsClient.getSessionCache();
+        this.serverIdentity = this.tlsClient.getServerIdentity();
+        if (this.sessionCache != null && this.serverIdentity == null)
+        {
+            this.failWithError(AlertLevel.fatal, AlertDescription.internal_error);
+        }
+        if (this.sessionCache != null)
+        {
+            this.sessionToResume = this.sessionCache.get(this.serverIdentity);
+        }
+
+        if (this.sessionToResume != null)
+        {
+            this.offeredSessionID = this.sessionToResume.getSessionID();
+
+            /*
+             * RFC 5077 3.4. When presenting a ticket, the client MAY generate and include a Session
+             * ID in the TLS ClientHello. If the server accepts the ticket and the Session ID is not
+             * empty, then it MUST respond with the same Session ID present in the ClientHello.
+             */
+            if (this.offeredSessionID.length == 0)
+            {
+                this.offeredSessionID = new byte[32];
+                getContext().getSecureRandom().nextBytes(this.offeredSessionID);
+            }
+        }
+        else
+        {
+            this.offeredSessionID = this.tlsClient.getSessionID();
+            if (this.offeredSessionID == null)
+            {
+                this.offeredSessionID = TlsUtils.EMPTY_BYTES;
+            }
+        }
+
+        // Integer -> byte[]
+        if (template != null)
         {
-            TlsUtils.writeOpaque8(TlsUtils.EMPTY_BYTES, buf);
+            this.offeredCipherSuites = template.internalGetCipherSuites();
+            this.offeredCompressionMethods = template.internalGetCompressionMethods();
+            this.clientExtensions = template.internalGetClientExtensions();
         }
         else
         {
-            TlsUtils.writeUint8((short)tlsClient.getSessionID().length, buf);
-            buf.write(tlsClient.getSessionID());
+            this.offeredCipherSuites = this.tlsClient.getCipherSuites();
+            this.clientExtensions = this.tlsClient.getClientExtensions();
+            this.offeredCompressionMethods = this.tlsClient.getCompressionMethods();
         }
 
         /*
-         * Cipher suites
+         * RFC 5077 3.2. If the client possesses a ticket that it wants to use to resume a session,
+         * then it includes the ticket in the SessionTicket extension in the ClientHello. If the
+         * client does not have a ticket and is prepared to receive one in the NewSessionTicket
+         * handshake message, then it MUST include a zero-length ticket in the SessionTicket
+         * extension.
          */
-        this.offeredCipherSuites = this.tlsClient.getCipherSuites();
+        byte[] ticket = null;
+        if (this.sessionCache != null && (clientExtensions == null || !clientExtensions.containsKey(EXT_SessionTicket)))
+        {
+            ticket = TlsUtils.EMPTY_BYTES;
+            if (this.sessionToResume != null && this.sessionToResume.getSessionTicket() != null)
+            {
+                ticket = this.sessionToResume.getSessionTicket().getTicket();
+            }
+        }
 
-        // Integer -> byte[]
-        this.clientExtensions = this.tlsClient.getClientExtensions();
+        if (template != null)
+        {
+            if (ticket != null)
+            {
+                // NOTE: The template's extensions are shared, so record the ticket in a copy
+                this.clientExtensions = this.clientExtensions == null ? new Hashtable()
+                    : (Hashtable)this.clientExtensions.clone();
+                this.clientExtensions.put(EXT_SessionTicket, ticket);
+            }
+
+            byte[] message = template.encode(securityParameters.clientRandom, this.offeredSessionID, ticket);
+
+            safeWriteRecord(ContentType.handshake, message, 0, message.length);
+            return;
+        }
 
         /*
          * RFC 5746 3.5. The client MUST include the "renegotiation_info"
@@ -732,6 +900,27 @@ public class TlsClientProtocol
             this.clientExtensions.put(EXT_RenegotiationInfo, createRenegotiationInfo(client_verify_data));
         }
 
+        if (ticket != null)
+        {
+            if (this.clientExtensions == null)
+            {
+                this.clientExtensions = new Hashtable();
+            }
+            this.clientExtensions.put(EXT_SessionTicket, ticket);
+        }
+
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        TlsUtils.writeUint8(HandshakeType.client_hello, buf);
+
+        // Reserve space for length
+        TlsUtils.writeUint24(0, buf);
+
+        TlsUtils.writeVersion(client_version, buf);
+
+        buf.write(securityParameters.clientRandom);
+
+        TlsUtils.writeOpaque8(this.offeredSessionID, buf);
+
         // Cipher Suites (and SCSV)
         {
             /*
@@ -758,8 +947,6 @@ public class TlsClientProtocol
         }
 
         // Compression methods
-        this.offeredCompressionMethods = this.tlsClient.getCompressionMethods();
-
         TlsUtils.writeUint8((short)offeredCompressionMethods.length, buf);
         TlsUtils.writeUint8Array(offeredCompressionMethods, buf);
 
@@ -777,6 +964,57 @@ public class TlsClientProtocol
         safeWriteRecord(ContentType.handshake, message, 0, message.length);
     }
 
+    protected Certificate parseServerCertificate(ByteArrayInputStream buf)
+        throws IOException
+    {
+        TlsCertificateCache certificateCache = tlsClient.getCertificateCache();
+        if (certificateCache == null)
+        {
+            return Certificate.parse(buf);
+        }
+        return certificateCache.parse(buf);
+    }
+
+    protected void cacheSession()
+    {
+        boolean hasTicket = this.newSessionTicket != null && this.newSessionTicket.getTicket().length > 0;
+
+        if (this.resumed)
+        {
+            /*
+             * RFC 5077 3.3. The server MAY issue a new ticket when resuming a session; the client
+             * uses it in place of the ticket it presented.
+             */
+            if (hasTicket && this.sessionToResume != null)
+            {
+                this.sessionCache.put(this.serverIdentity, new TlsClientSession(this.sessionToResume.getSessionID(),
+                    this.newSessionTicket, this.sessionToResume.getSessionParameters()));
+            }
+            return;
+        }
+
+        if (this.sessionID.length == 0 && !hasTicket)
+        {
+            // The server doesn't support resumption; don't offer the previous session again
+            this.sessionCache.remove(this.serverIdentity);
+            return;
+        }
+
+        SessionParameters sessionParameters = new SessionParameters(getContext().getServerVersion(),
+            this.selectedCipherSuite, this.selectedCompressionMethod, this.securityParameters.masterSecret);
+
+        this.sessionCache.put(this.serverIdentity, new TlsClientSession(this.sessionID,
+            hasTicket ? this.newSessionTicket : null, sessionParameters));
+    }
+
+    protected void invalidateSession()
+    {
+        if (this.sessionCache != null && (this.resumed || this.connection_state == CS_END))
+        {
+            this.sessionCache.remove(this.serverIdentity);
+        }
+    }
+
     protected void sendClientKeyExchangeMessage()
         throws IOException
     {
@@ -795,41 +1033,4 @@ public class TlsClientProtocol
 
         safeWriteRecord(ContentType.handshake, message, 0, message.length);
     }
-
-    @Override
-    protected void processChangeCipherSpec()
-        throws IOException
-    {
-        while (changeCipherSpecQueue.size() > 0)
-        {
-            /*
-             * A change cipher spec message is only one byte with the value 1.
-             */
-            byte[] b = new byte[1];
-            changeCipherSpecQueue.read(b, 0, 1, 0);
-            changeCipherSpecQueue.removeData(1);
-            if (b[0] != 1)
-            {
-                /*
-                 * This should never happen.
-                 */
-                this.failWithError(AlertLevel.fatal, AlertDescription.unexpected_message);
-            }
-
-            if(this.resumed)
-            {
-                /*
-                 * Send our change cipher spec
-                 */
-                recordStream.setPendingConnectionState(tlsClient.getCompression(), tlsClient.getCipher());
-                sendChangeCipherSpecMessage();
-                this.connection_state = CS_SERVER_SESSION_TICKET;
-            }
-
-            recordStream.receivedReadCipherSpec();
-
-            handleChangeCipherSpecMessage();
-        }
-    }
-
 }
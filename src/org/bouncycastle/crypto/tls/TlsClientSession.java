@@ -0,0 +1,54 @@
+package org.bouncycastle.crypto.tls;
+
+import org.bouncycastle.util.Arrays;
+
+/**
+ * A session established by a client, as kept in a {@link TlsClientSessionCache}: the session ID
+ * and/or session ticket to offer when resuming it, and the parameters of the session.
+ */
+public class TlsClientSession
+{
+
+    protected byte[] sessionID;
+    protected NewSessionTicket sessionTicket;
+    protected SessionParameters sessionParameters;
+
+    /**
+     * @param sessionID         the session ID sent by the server, possibly empty.
+     * @param sessionTicket     the ticket sent by the server, or null if none was sent.
+     * @param sessionParameters the parameters of the session.
+     */
+    public TlsClientSession(byte[] sessionID, NewSessionTicket sessionTicket, SessionParameters sessionParameters)
+    {
+        if (sessionID == null)
+        {
+            throw new IllegalArgumentException("'sessionID' cannot be null");
+        }
+        if (sessionParameters == null)
+        {
+            throw new IllegalArgumentException("'sessionParameters' cannot be null");
+        }
+
+        this.sessionID = Arrays.clone(sessionID);
+        this.sessionTicket = sessionTicket;
+        this.sessionParameters = sessionParameters;
+    }
+
+    public byte[] getSessionID()
+    {
+        return Arrays.clone(sessionID);
+    }
+
+    /**
+     * @return the ticket sent by the server, or null if none was sent.
+     */
+    public NewSessionTicket getSessionTicket()
+    {
+        return sessionTicket;
+    }
+
+    public SessionParameters getSessionParameters()
+    {
+        return sessionParameters;
+    }
+}
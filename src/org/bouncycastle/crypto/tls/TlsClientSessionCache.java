@@ -0,0 +1,31 @@
+package org.bouncycastle.crypto.tls;
+
+/**
+ * A store of resumable sessions for use by a {@link TlsClient}, keyed by the identity of the
+ * server they were established with (see {@link TlsClient#getServerIdentity()}). A single cache is
+ * normally shared between all the connections of an application, so implementations must be
+ * thread-safe.
+ */
+public interface TlsClientSessionCache
+{
+    /**
+     * @param serverIdentity the identity of the server being connected to.
+     * @return the most recent session with the server, or null if there is none or it has expired.
+     */
+    TlsClientSession get(String serverIdentity);
+
+    /**
+     * Called by the protocol handler once a full handshake has completed.
+     *
+     * @param serverIdentity the identity of the server connected to.
+     * @param session        the new session.
+     */
+    void put(String serverIdentity, TlsClientSession session);
+
+    /**
+     * Called by the protocol handler when a session must no longer be resumed.
+     *
+     * @param serverIdentity the identity of the server connected to.
+     */
+    void remove(String serverIdentity);
+}
@@ -20,10 +20,23 @@ public class TlsDHEKeyExchange
 {
 
     protected TlsSignerCredentials serverCredentials = null;
+    protected TlsEphemeralKeyPool ephemeralKeyPool;
 
     public TlsDHEKeyExchange(int keyExchange, Vector supportedSignatureAlgorithms, DHParameters dhParameters)
+    {
+        this(keyExchange, supportedSignatureAlgorithms, dhParameters, null);
+    }
+
+    /**
+     * @param ephemeralKeyPool if not null, the server's ephemeral key pair is taken from this pool
+     *                         when one is ready.
+     */
+    public TlsDHEKeyExchange(int keyExchange, Vector supportedSignatureAlgorithms, DHParameters dhParameters,
+        TlsEphemeralKeyPool ephemeralKeyPool)
     {
         super(keyExchange, supportedSignatureAlgorithms, dhParameters);
+
+        this.ephemeralKeyPool = ephemeralKeyPool;
     }
 
     public void processServerCredentials(TlsCredentials serverCredentials)
@@ -51,9 +64,17 @@ public class TlsDHEKeyExchange
 
         ByteArrayOutputStream buf = new ByteArrayOutputStream();
 
-        DHKeyPairGenerator kpg = new DHKeyPairGenerator();
-        kpg.init(new DHKeyGenerationParameters(context.getSecureRandom(), this.dhParameters));
-        AsymmetricCipherKeyPair kp = kpg.generateKeyPair();
+        AsymmetricCipherKeyPair kp = null;
+        if (ephemeralKeyPool != null)
+        {
+            kp = ephemeralKeyPool.takeDHKeyPair(this.dhParameters);
+        }
+        if (kp == null)
+        {
+            DHKeyPairGenerator kpg = new DHKeyPairGenerator();
+            kpg.init(new DHKeyGenerationParameters(context.getSecureRandom(), this.dhParameters));
+            kp = kpg.generateKeyPair();
+        }
 
         BigInteger Ys = ((DHPublicKeyParameters)kp.getPublic()).getY();
 
@@ -6,13 +6,11 @@ import java.math.BigInteger;
 import java.util.Vector;
 
 import org.bouncycastle.asn1.x509.KeyUsage;
-import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
 import org.bouncycastle.crypto.AsymmetricCipherKeyPair;
 import org.bouncycastle.crypto.params.AsymmetricKeyParameter;
 import org.bouncycastle.crypto.params.DHParameters;
 import org.bouncycastle.crypto.params.DHPrivateKeyParameters;
 import org.bouncycastle.crypto.params.DHPublicKeyParameters;
-import org.bouncycastle.crypto.util.PublicKeyFactory;
 
 /**
  * TLS 1.0/1.1 DH key exchange.
@@ -85,10 +83,9 @@ public class TlsDHKeyExchange
 
         org.bouncycastle.asn1.x509.Certificate x509Cert = serverCertificate.getCertificateAt(0);
 
-        SubjectPublicKeyInfo keyInfo = x509Cert.getSubjectPublicKeyInfo();
         try
         {
-            this.serverPublicKey = PublicKeyFactory.createKey(keyInfo);
+            this.serverPublicKey = TlsUtils.getSubjectPublicKey(serverCertificate);
         }
         catch (RuntimeException e)
         {
@@ -34,6 +34,9 @@ public class TlsECCUtils
         "sect571k1", "sect571r1", "secp160k1", "secp160r1", "secp160r2", "secp192k1", "secp192r1", "secp224k1",
         "secp224r1", "secp256k1", "secp256r1", "secp384r1", "secp521r1",};
 
+    // Integer (NamedCurve) -> NamedCurveDomainParameters
+    private static final Hashtable namedCurveParameters = new Hashtable();
+
     public static void addSupportedEllipticCurvesExtension(Hashtable extensions, int[] namedCurves)
         throws IOException
     {
@@ -188,6 +191,17 @@ public class TlsECCUtils
 
     public static ECDomainParameters getParametersForNamedCurve(int namedCurve)
     {
+        Integer key = Integers.valueOf(namedCurve);
+
+        synchronized (namedCurveParameters)
+        {
+            ECDomainParameters parameters = (ECDomainParameters)namedCurveParameters.get(key);
+            if (parameters != null)
+            {
+                return parameters;
+            }
+        }
+
         String curveName = getNameOfNamedCurve(namedCurve);
         if (curveName == null)
         {
@@ -202,8 +216,24 @@ public class TlsECCUtils
             return null;
         }
 
-        // It's a bit inefficient to do this conversion every time
-        return new ECDomainParameters(ecP.getCurve(), ecP.getG(), ecP.getN(), ecP.getH(), ecP.getSeed());
+        /*
+         * NOTE: Converted (and the base point precomputation done) only once per curve; if two
+         * threads race to do it, the first to finish wins.
+         */
+        ECDomainParameters parameters = new NamedCurveDomainParameters(ecP.getCurve(), ecP.getG(), ecP.getN(),
+            ecP.getH(), ecP.getSeed());
+
+        synchronized (namedCurveParameters)
+        {
+            ECDomainParameters existing = (ECDomainParameters)namedCurveParameters.get(key);
+            if (existing != null)
+            {
+                return existing;
+            }
+            namedCurveParameters.put(key, parameters);
+        }
+
+        return parameters;
     }
 
     public static boolean hasAnySupportedNamedCurves()
@@ -401,6 +431,25 @@ public class TlsECCUtils
     public static AsymmetricCipherKeyPair generateECKeyPair(SecureRandom random, ECDomainParameters ecParams)
     {
 
+        if (ecParams instanceof NamedCurveDomainParameters)
+        {
+            // As for ECKeyPairGenerator, but using the precomputation for the base point
+            BigInteger n = ecParams.getN();
+            int nBitLength = n.bitLength();
+            BigInteger d;
+
+            do
+            {
+                d = new BigInteger(nBitLength, random);
+            }
+            while (d.signum() == 0 || (d.compareTo(n) >= 0));
+
+            ECPoint Q = ((NamedCurveDomainParameters)ecParams).multiplyG(d);
+
+            return new AsymmetricCipherKeyPair(new ECPublicKeyParameters(Q, ecParams), new ECPrivateKeyParameters(d,
+                ecParams));
+        }
+
         ECKeyPairGenerator keyPairGenerator = new ECKeyPairGenerator();
         ECKeyGenerationParameters keyGenerationParameters = new ECKeyGenerationParameters(ecParams, random);
         keyPairGenerator.init(keyGenerationParameters);
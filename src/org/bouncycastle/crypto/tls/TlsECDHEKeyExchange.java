@@ -21,11 +21,25 @@ public class TlsECDHEKeyExchange
 {
 
     protected TlsSignerCredentials serverCredentials = null;
+    protected TlsEphemeralKeyPool ephemeralKeyPool;
 
     public TlsECDHEKeyExchange(int keyExchange, Vector supportedSignatureAlgorithms, int[] namedCurves,
                                short[] clientECPointFormats, short[] serverECPointFormats)
+    {
+        this(keyExchange, supportedSignatureAlgorithms, namedCurves, clientECPointFormats, serverECPointFormats, null);
+    }
+
+    /**
+     * @param ephemeralKeyPool if not null, the server's ephemeral key pair is taken from this pool
+     *                         when one is ready.
+     */
+    public TlsECDHEKeyExchange(int keyExchange, Vector supportedSignatureAlgorithms, int[] namedCurves,
+                               short[] clientECPointFormats, short[] serverECPointFormats,
+                               TlsEphemeralKeyPool ephemeralKeyPool)
     {
         super(keyExchange, supportedSignatureAlgorithms, namedCurves, clientECPointFormats, serverECPointFormats);
+
+        this.ephemeralKeyPool = ephemeralKeyPool;
     }
 
     public void processServerCredentials(TlsCredentials serverCredentials)
@@ -96,7 +110,15 @@ public class TlsECDHEKeyExchange
             throw new TlsFatalAlert(AlertDescription.internal_error);
         }
 
-        AsymmetricCipherKeyPair kp = TlsECCUtils.generateECKeyPair(context.getSecureRandom(), curve_params);
+        AsymmetricCipherKeyPair kp = null;
+        if (ephemeralKeyPool != null)
+        {
+            kp = ephemeralKeyPool.takeECKeyPair(curve_params);
+        }
+        if (kp == null)
+        {
+            kp = TlsECCUtils.generateECKeyPair(context.getSecureRandom(), curve_params);
+        }
         this.ecAgreeServerPrivateKey = (ECPrivateKeyParameters)kp.getPrivate();
 
         byte[] publicBytes = TlsECCUtils.serializeECPublicKey(clientECPointFormats,
@@ -6,13 +6,11 @@ import java.io.OutputStream;
 import java.util.Vector;
 
 import org.bouncycastle.asn1.x509.KeyUsage;
-import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
 import org.bouncycastle.crypto.AsymmetricCipherKeyPair;
 import org.bouncycastle.crypto.params.AsymmetricKeyParameter;
 import org.bouncycastle.crypto.params.ECDomainParameters;
 import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
 import org.bouncycastle.crypto.params.ECPublicKeyParameters;
-import org.bouncycastle.crypto.util.PublicKeyFactory;
 
 /**
  * ECDH key exchange (see RFC 4492)
@@ -88,10 +86,9 @@ public class TlsECDHKeyExchange
 
         org.bouncycastle.asn1.x509.Certificate x509Cert = serverCertificate.getCertificateAt(0);
 
-        SubjectPublicKeyInfo keyInfo = x509Cert.getSubjectPublicKeyInfo();
         try
         {
-            this.serverPublicKey = PublicKeyFactory.createKey(keyInfo);
+            this.serverPublicKey = TlsUtils.getSubjectPublicKey(serverCertificate);
         }
         catch (RuntimeException e)
         {
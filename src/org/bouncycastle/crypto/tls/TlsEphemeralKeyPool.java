@@ -0,0 +1,244 @@
+package org.bouncycastle.crypto.tls;
+
+import java.security.SecureRandom;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import org.bouncycastle.crypto.AsymmetricCipherKeyPair;
+import org.bouncycastle.crypto.params.DHParameters;
+import org.bouncycastle.crypto.params.ECDomainParameters;
+
+/**
+ * Generates ephemeral key pairs for DHE and ECDHE key exchanges ahead of time, on background
+ * threads, so that a server need not generate them while handshaking (see
+ * {@link DefaultTlsServer#getEphemeralKeyPool()}).
+ * <p/>
+ * The pool keeps up to a fixed number of key pairs ready for each DH group and elliptic curve it has
+ * been asked for. A key pair is handed out only once, and is removed from the pool when it is.
+ * When no key pair is ready, the key exchange generates one itself, as it would without a pool.
+ * A single pool is normally shared between all the servers of an application; it is thread-safe.
+ */
+public class TlsEphemeralKeyPool
+{
+    public static final int DEFAULT_MAX_SIZE = 16;
+
+    private final SecureRandom secureRandom;
+    private final int maxSize;
+
+    // DHParameters or ECDomainParameters -> Entry, in the order first asked for
+    private final Hashtable entries = new Hashtable();
+    private final Vector entryOrder = new Vector();
+
+    private boolean closed = false;
+
+    /**
+     * Create a pool holding up to {@link #DEFAULT_MAX_SIZE} key pairs per group or curve, filled
+     * by a single thread.
+     */
+    public TlsEphemeralKeyPool(SecureRandom secureRandom)
+    {
+        this(secureRandom, DEFAULT_MAX_SIZE, 1);
+    }
+
+    /**
+     * @param secureRandom the source of randomness for the key pairs.
+     * @param maxSize      the maximum number of key pairs kept ready per group or curve.
+     * @param threads      the number of (daemon) threads generating key pairs.
+     */
+    public TlsEphemeralKeyPool(SecureRandom secureRandom, int maxSize, int threads)
+    {
+        if (secureRandom == null)
+        {
+            throw new IllegalArgumentException("'secureRandom' cannot be null");
+        }
+        if (maxSize < 1)
+        {
+            throw new IllegalArgumentException("'maxSize' must be positive");
+        }
+        if (threads < 1)
+        {
+            throw new IllegalArgumentException("'threads' must be positive");
+        }
+
+        this.secureRandom = secureRandom;
+        this.maxSize = maxSize;
+
+        for (int i = 0; i < threads; ++i)
+        {
+            Thread producer = new Thread(new Producer(), "TlsEphemeralKeyPool-" + i);
+            producer.setDaemon(true);
+            producer.start();
+        }
+    }
+
+    /**
+     * @param dhParameters the DH group.
+     * @return a key pair generated in advance, which is not handed out again, or null if none is
+     *         ready. In the latter case, the pool starts generating key pairs for the group.
+     */
+    public AsymmetricCipherKeyPair takeDHKeyPair(DHParameters dhParameters)
+    {
+        return take(dhParameters);
+    }
+
+    /**
+     * @param ecParameters the curve. Key pairs are kept per {@link ECDomainParameters} instance, so
+     *                     this should normally be one returned by
+     *                     {@link TlsECCUtils#getParametersForNamedCurve(int)}.
+     * @return a key pair generated in advance, which is not handed out again, or null if none is
+     *         ready. In the latter case, the pool starts generating key pairs for the curve.
+     */
+    public AsymmetricCipherKeyPair takeECKeyPair(ECDomainParameters ecParameters)
+    {
+        return take(ecParameters);
+    }
+
+    /**
+     * @return the number of key pairs currently ready, over all groups and curves.
+     */
+    public synchronized int size()
+    {
+        int size = 0;
+        for (int i = 0; i < entryOrder.size(); ++i)
+        {
+            size += ((Entry)entryOrder.elementAt(i)).keyPairs.size();
+        }
+        return size;
+    }
+
+    /**
+     * Stop generating key pairs, and discard those that are ready. Subsequent requests for key
+     * pairs return null.
+     */
+    public synchronized void close()
+    {
+        this.closed = true;
+
+        Enumeration e = entries.elements();
+        while (e.hasMoreElements())
+        {
+            ((Entry)e.nextElement()).keyPairs.removeAllElements();
+        }
+
+        notifyAll();
+    }
+
+    private synchronized AsymmetricCipherKeyPair take(Object parameters)
+    {
+        if (parameters == null || closed)
+        {
+            return null;
+        }
+
+        Entry entry = (Entry)entries.get(parameters);
+        if (entry == null)
+        {
+            entry = new Entry(parameters);
+            entries.put(parameters, entry);
+            entryOrder.addElement(entry);
+            notifyAll();
+            return null;
+        }
+
+        if (entry.keyPairs.isEmpty())
+        {
+            return null;
+        }
+
+        AsymmetricCipherKeyPair keyPair = (AsymmetricCipherKeyPair)entry.keyPairs.elementAt(0);
+        entry.keyPairs.removeElementAt(0);
+        notifyAll();
+        return keyPair;
+    }
+
+    /**
+     * @return the entry most in need of another key pair, or null if none is to be generated.
+     */
+    private Entry selectEntry()
+    {
+        Entry selected = null;
+        for (int i = 0; i < entryOrder.size(); ++i)
+        {
+            Entry entry = (Entry)entryOrder.elementAt(i);
+            int count = entry.keyPairs.size() + entry.pending;
+            if (count < maxSize && (selected == null || count < selected.keyPairs.size() + selected.pending))
+            {
+                selected = entry;
+            }
+        }
+        return selected;
+    }
+
+    private AsymmetricCipherKeyPair generateKeyPair(Object parameters)
+    {
+        if (parameters instanceof DHParameters)
+        {
+            return TlsDHUtils.generateDHKeyPair(secureRandom, (DHParameters)parameters);
+        }
+        return TlsECCUtils.generateECKeyPair(secureRandom, (ECDomainParameters)parameters);
+    }
+
+    private static class Entry
+    {
+        final Object parameters;
+        final Vector keyPairs = new Vector();
+        int pending = 0;
+
+        Entry(Object parameters)
+        {
+            this.parameters = parameters;
+        }
+    }
+
+    private class Producer
+        implements Runnable
+    {
+        public void run()
+        {
+            for (;;)
+            {
+                Entry entry = null;
+
+                synchronized (TlsEphemeralKeyPool.this)
+                {
+                    while (!closed && (entry = selectEntry()) == null)
+                    {
+                        try
+                        {
+                            TlsEphemeralKeyPool.this.wait();
+                        }
+                        catch (InterruptedException e)
+                        {
+                            return;
+                        }
+                    }
+
+                    if (closed)
+                    {
+                        return;
+                    }
+
+                    ++entry.pending;
+                }
+
+                AsymmetricCipherKeyPair keyPair = null;
+                try
+                {
+                    keyPair = generateKeyPair(entry.parameters);
+                }
+                finally
+                {
+                    synchronized (TlsEphemeralKeyPool.this)
+                    {
+                        --entry.pending;
+                        if (keyPair != null && !closed)
+                        {
+                            entry.keyPairs.addElement(keyPair);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -1,8 +1,5 @@
 package org.bouncycastle.crypto.tls;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-
 import org.bouncycastle.crypto.Digest;
 import org.bouncycastle.crypto.Mac;
 import org.bouncycastle.crypto.digests.LongDigest;
@@ -22,6 +19,8 @@ public class TlsMac
     protected int digestBlockSize;
     protected int digestOverhead;
 
+    private final byte[] macHeader = new byte[13];
+
     /**
      * Generate a new instance of an TlsMac.
      *
@@ -102,46 +101,48 @@ public class TlsMac
      */
     public byte[] calculateMac(long seqNo, short type, byte[] message, int offset, int length)
     {
+        byte[] result = new byte[mac.getMacSize()];
+        calculateMac(seqNo, type, message, offset, length, result, 0);
+        return result;
+    }
 
-        ProtocolVersion serverVersion = context.getServerVersion();
-        boolean isSSL = serverVersion.isSSL();
-
-        ByteArrayOutputStream bosMac = new ByteArrayOutputStream(isSSL ? 11 : 13);
-        try
-        {
-            TlsUtils.writeUint64(seqNo, bosMac);
-            TlsUtils.writeUint8(type, bosMac);
-
-            if (!isSSL)
-            {
-                TlsUtils.writeVersion(serverVersion, bosMac);
-            }
-
-            TlsUtils.writeUint16(length, bosMac);
-        }
-        catch (IOException e)
-        {
-            // This should never happen
-            throw new IllegalStateException("Internal error during mac calculation");
-        }
-
-        byte[] macHeader = bosMac.toByteArray();
-        mac.update(macHeader, 0, macHeader.length);
+    /**
+     * Calculate the MAC for some given data, writing it to a caller-supplied buffer.
+     *
+     * @param type         The message type of the message.
+     * @param message      A byte-buffer containing the message.
+     * @param offset       The number of bytes to skip, before the message starts.
+     * @param length       The length of the message.
+     * @param output       The buffer the MAC value is written to.
+     * @param outputOffset The offset in 'output' at which the MAC value starts.
+     * @return The length of the MAC value, i.e. {@link #getSize()}.
+     */
+    public int calculateMac(long seqNo, short type, byte[] message, int offset, int length, byte[] output,
+        int outputOffset)
+    {
+        int headerLength = writeMacHeader(seqNo, type, length);
+        mac.update(macHeader, 0, headerLength);
         mac.update(message, offset, length);
 
-        byte[] result = new byte[mac.getMacSize()];
-        mac.doFinal(result, 0);
-        return result;
+        return mac.doFinal(output, outputOffset);
     }
 
     public byte[] calculateMacConstantTime(long seqNo, short type, byte[] message, int offset, int length,
                                            int fullLength, byte[] dummyData)
     {
+        byte[] result = new byte[mac.getMacSize()];
+        calculateMacConstantTime(seqNo, type, message, offset, length, fullLength, dummyData, result, 0);
+        return result;
+    }
+
+    public int calculateMacConstantTime(long seqNo, short type, byte[] message, int offset, int length,
+                                        int fullLength, byte[] dummyData, byte[] output, int outputOffset)
+    {
 
         /*
          * Actual MAC only calculated on 'length' bytes...
          */
-        byte[] result = calculateMac(seqNo, type, message, offset, length);
+        int result = calculateMac(seqNo, type, message, offset, length, output, outputOffset);
 
         /*
          * ...but ensure a constant number of complete digest blocks are processed (as many as would
@@ -164,6 +165,30 @@ public class TlsMac
         return result;
     }
 
+    /**
+     * Write the MAC pseudo-header into 'macHeader'.
+     *
+     * @return the length of the header.
+     */
+    private int writeMacHeader(long seqNo, short type, int length)
+    {
+        ProtocolVersion serverVersion = context.getServerVersion();
+
+        TlsUtils.writeUint64(seqNo, macHeader, 0);
+        TlsUtils.writeUint8(type, macHeader, 8);
+
+        if (serverVersion.isSSL())
+        {
+            TlsUtils.writeUint16(length, macHeader, 9);
+            return 11;
+        }
+
+        macHeader[9] = (byte)serverVersion.getMajorVersion();
+        macHeader[10] = (byte)serverVersion.getMinorVersion();
+        TlsUtils.writeUint16(length, macHeader, 11);
+        return 13;
+    }
+
     private int getDigestBlockCount(int inputLength)
     {
         // NOTE: This calculation assumes a minimum of 1 pad byte
@@ -16,6 +16,11 @@ public class TlsNullCipher
     protected TlsMac writeMac;
     protected TlsMac readMac;
 
+    /*
+     * Scratch buffer for the MAC of received records.
+     */
+    private byte[] computedMac = null;
+
     public TlsNullCipher(TlsContext context)
     {
         this.context = context;
@@ -81,29 +86,56 @@ public class TlsNullCipher
         return result;
     }
 
+    public int getCiphertextLimit(int plaintextLength)
+    {
+        int result = plaintextLength;
+        if (writeMac != null)
+        {
+            result += writeMac.getSize();
+        }
+        return result;
+    }
+
     public byte[] encodePlaintext(long seqNo, short type, byte[] plaintext, int offset, int len)
         throws IOException
     {
+        byte[] ciphertext = new byte[getCiphertextLimit(len)];
+        encodePlaintext(seqNo, type, plaintext, offset, len, ciphertext, 0);
+        return ciphertext;
+    }
+
+    public int encodePlaintext(long seqNo, short type, byte[] plaintext, int offset, int len, byte[] output,
+                               int outputOffset)
+        throws IOException
+    {
+
+        System.arraycopy(plaintext, offset, output, outputOffset, len);
 
         if (writeMac == null)
         {
-            return Arrays.copyOfRange(plaintext, offset, offset + len);
+            return len;
         }
 
-        byte[] mac = writeMac.calculateMac(seqNo, type, plaintext, offset, len);
-        byte[] ciphertext = new byte[len + mac.length];
-        System.arraycopy(plaintext, offset, ciphertext, 0, len);
-        System.arraycopy(mac, 0, ciphertext, len, mac.length);
-        return ciphertext;
+        return len + writeMac.calculateMac(seqNo, type, plaintext, offset, len, output, outputOffset + len);
     }
 
     public byte[] decodeCiphertext(long seqNo, short type, byte[] ciphertext, int offset, int len)
         throws IOException
     {
+        byte[] plaintext = new byte[len];
+        int plaintextLength = decodeCiphertext(seqNo, type, ciphertext, offset, len, plaintext, 0);
+        return plaintextLength == len ? plaintext : Arrays.copyOf(plaintext, plaintextLength);
+    }
+
+    public int decodeCiphertext(long seqNo, short type, byte[] ciphertext, int offset, int len, byte[] output,
+                                int outputOffset)
+        throws IOException
+    {
 
         if (readMac == null)
         {
-            return Arrays.copyOfRange(ciphertext, offset, offset + len);
+            System.arraycopy(ciphertext, offset, output, outputOffset, len);
+            return len;
         }
 
         int macSize = readMac.getSize();
@@ -114,14 +146,18 @@ public class TlsNullCipher
 
         int macInputLen = len - macSize;
 
-        byte[] receivedMac = Arrays.copyOfRange(ciphertext, offset + macInputLen, offset + len);
-        byte[] computedMac = readMac.calculateMac(seqNo, type, ciphertext, offset, macInputLen);
+        if (computedMac == null)
+        {
+            computedMac = new byte[macSize];
+        }
+        readMac.calculateMac(seqNo, type, ciphertext, offset, macInputLen, computedMac, 0);
 
-        if (!Arrays.constantTimeAreEqual(receivedMac, computedMac))
+        if (!TlsUtils.constantTimeAreEqual(macSize, computedMac, 0, ciphertext, offset + macInputLen))
         {
             throw new TlsFatalAlert(AlertDescription.bad_record_mac);
         }
 
-        return Arrays.copyOfRange(ciphertext, offset, offset + macInputLen);
+        System.arraycopy(ciphertext, offset, output, outputOffset, macInputLen);
+        return macInputLen;
     }
 }
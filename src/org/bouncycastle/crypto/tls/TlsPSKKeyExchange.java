@@ -8,13 +8,11 @@ import java.math.BigInteger;
 import java.util.Vector;
 
 import org.bouncycastle.asn1.x509.KeyUsage;
-import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
 import org.bouncycastle.crypto.params.AsymmetricKeyParameter;
 import org.bouncycastle.crypto.params.DHParameters;
 import org.bouncycastle.crypto.params.DHPrivateKeyParameters;
 import org.bouncycastle.crypto.params.DHPublicKeyParameters;
 import org.bouncycastle.crypto.params.RSAKeyParameters;
-import org.bouncycastle.crypto.util.PublicKeyFactory;
 
 /**
  * TLS 1.0 PSK key exchange (RFC 4279).
@@ -75,10 +73,9 @@ public class TlsPSKKeyExchange
 
         org.bouncycastle.asn1.x509.Certificate x509Cert = serverCertificate.getCertificateAt(0);
 
-        SubjectPublicKeyInfo keyInfo = x509Cert.getSubjectPublicKeyInfo();
         try
         {
-            this.serverPublicKey = PublicKeyFactory.createKey(keyInfo);
+            this.serverPublicKey = TlsUtils.getSubjectPublicKey(serverCertificate);
         }
         catch (RuntimeException e)
         {
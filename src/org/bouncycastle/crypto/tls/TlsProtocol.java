@@ -24,6 +24,21 @@ public abstract class TlsProtocol
 
     private static final String TLS_ERROR_MESSAGE = "Internal TLS error, this could be an attack";
 
+    /*
+     * Limits on the data a connection buffers, so that a peer cannot make it hold arbitrary amounts
+     * of memory. A handshake message may span many records, so its length is limited on its own. In
+     * non-blocking mode, received application data and outgoing ciphertext wait until the
+     * application reads them; a few records' worth of each may be pending. The outgoing ciphertext
+     * may also hold a whole flight of handshake messages.
+     */
+    private static final int MAX_HANDSHAKE_MESSAGE_LENGTH = 1 << 17;
+    private static final int MAX_PLAINTEXT_LENGTH = 1 << 14;
+    private static final int MAX_CIPHERTEXT_LENGTH = RecordStream.TLS_HEADER_SIZE + MAX_PLAINTEXT_LENGTH + 2048;
+    private static final int PENDING_RECORDS = 4;
+    private static final int APPLICATION_DATA_LIMIT = PENDING_RECORDS * MAX_PLAINTEXT_LENGTH;
+    private static final int INPUT_LIMIT = PENDING_RECORDS * MAX_CIPHERTEXT_LENGTH;
+    private static final int OUTPUT_LIMIT = INPUT_LIMIT + MAX_HANDSHAKE_MESSAGE_LENGTH;
+
     /*
      * Our Connection states
      */
@@ -44,14 +59,15 @@ public abstract class TlsProtocol
     protected static final short CS_SERVER_SESSION_TICKET = 14;
     protected static final short CS_SERVER_CHANGE_CIPHER_SPEC = 15;
     protected static final short CS_SERVER_FINISHED = 16;
+    protected static final short CS_END = 17;
 
     /*
      * Queues for data from some protocols.
      */
-    private ByteQueue applicationDataQueue = new ByteQueue();
-    protected ByteQueue changeCipherSpecQueue = new ByteQueue();
-    private ByteQueue alertQueue = new ByteQueue();
-    private ByteQueue handshakeQueue = new ByteQueue();
+    private ByteQueue applicationDataQueue;
+    protected ByteQueue changeCipherSpecQueue;
+    private ByteQueue alertQueue;
+    private ByteQueue handshakeQueue;
 
     /*
      * The Record Stream we use
@@ -59,6 +75,14 @@ public abstract class TlsProtocol
     protected RecordStream recordStream;
     protected SecureRandom secureRandom;
 
+    /*
+     * Buffers for ciphertext in non-blocking mode
+     */
+    private final boolean blocking;
+    private ByteQueueInputStream inputBuffers = null;
+    private ByteQueueOutputStream outputBuffer = null;
+    private byte[] inputHeader = new byte[RecordStream.TLS_HEADER_SIZE];
+
     private TlsInputStream tlsInputStream = null;
     private TlsOutputStream tlsOutputStream = null;
 
@@ -66,6 +90,10 @@ public abstract class TlsProtocol
     private volatile boolean failedWithError = false;
     private volatile boolean appDataReady = false;
     private volatile boolean writeExtraEmptyRecords = true;
+    private volatile boolean coalesceWrites = false;
+    private boolean delegateTasks = false;
+    private DelegatedTask delegatedTask = null;
+    private boolean handshakeFinished = false;
     private byte[] expected_verify_data = null;
     protected byte[] client_verify_data = null;
     protected byte[] server_verify_data = null;
@@ -79,10 +107,75 @@ public abstract class TlsProtocol
 
     public TlsProtocol(InputStream input, OutputStream output, SecureRandom secureRandom)
     {
-        this.recordStream = new RecordStream(this, input, output);
+        this(input, output, secureRandom, null);
+    }
+
+    /**
+     * @param bufferPool Pool from which the record layer and the internal queues take their
+     *                   buffers, or null to let each connection allocate its own
+     */
+    public TlsProtocol(InputStream input, OutputStream output, SecureRandom secureRandom, TlsBufferPool bufferPool)
+    {
+        this.blocking = true;
+        initQueues(bufferPool);
+        this.recordStream = new RecordStream(this, input, output, bufferPool, true);
         this.secureRandom = secureRandom;
     }
 
+    /**
+     * Constructor for non-blocking mode.
+     * <p/>
+     * No thread is ever blocked waiting for the network. Ciphertext received from the peer is
+     * supplied via {@link #offerInput(byte[])}, and any decrypted application data can then be
+     * retrieved with {@link #readInput(byte[], int, int)}. Application data to be sent is supplied
+     * via {@link #offerOutput(byte[], int, int)}, and the resulting ciphertext (as well as any
+     * handshake or alert records generated by the protocol) must be drained with
+     * {@link #readOutput(byte[], int, int)} and sent to the peer by the caller.
+     *
+     * @param secureRandom Random number generator for various cryptographic functions
+     */
+    public TlsProtocol(SecureRandom secureRandom)
+    {
+        this(secureRandom, null);
+    }
+
+    /**
+     * Constructor for non-blocking mode.
+     * <p/>
+     * Buffers for the record layer, the internal queues and the ciphertext buffers are taken from
+     * the given pool, and returned to it whenever the respective queue drains, so that idle
+     * connections hold no buffers.
+     * <p/>
+     * Received application data that has not been read, and encrypted output that has not been
+     * read, are each limited to 64 KiB; the connection fails with an alert if either is exceeded.
+     *
+     * @param secureRandom Random number generator for various cryptographic functions
+     * @param bufferPool   Pool from which buffers are taken, or null to let each connection allocate
+     *                     its own
+     * @see #TlsProtocol(SecureRandom)
+     */
+    public TlsProtocol(SecureRandom secureRandom, TlsBufferPool bufferPool)
+    {
+        this.blocking = false;
+        initQueues(bufferPool);
+        this.inputBuffers = new ByteQueueInputStream(INPUT_LIMIT, bufferPool);
+        this.outputBuffer = new ByteQueueOutputStream(OUTPUT_LIMIT, bufferPool);
+        this.recordStream = new RecordStream(this, inputBuffers, outputBuffer, bufferPool, false);
+        this.secureRandom = secureRandom;
+    }
+
+    private void initQueues(TlsBufferPool bufferPool)
+    {
+        /*
+         * A record may be added to the remains of an earlier one; the handshake queue also holds a
+         * partial message, whose length is checked against MAX_HANDSHAKE_MESSAGE_LENGTH
+         */
+        this.applicationDataQueue = new ByteQueue(APPLICATION_DATA_LIMIT, bufferPool);
+        this.changeCipherSpecQueue = new ByteQueue(2 * MAX_PLAINTEXT_LENGTH, bufferPool);
+        this.alertQueue = new ByteQueue(2 * MAX_PLAINTEXT_LENGTH, bufferPool);
+        this.handshakeQueue = new ByteQueue(4 + MAX_HANDSHAKE_MESSAGE_LENGTH + MAX_PLAINTEXT_LENGTH, bufferPool);
+    }
+
     protected abstract AbstractTlsContext getContext();
 
     protected abstract TlsPeer getPeer();
@@ -104,17 +197,39 @@ public abstract class TlsProtocol
     {
 
         this.expected_verify_data = null;
+        this.handshakeFinished = false;
+
+        if (!blocking)
+        {
+            /*
+             * In non-blocking mode, the handshake is driven by calls to offerInput.
+             */
+            return;
+        }
 
         /*
          * We will now read data, until we have completed the handshake.
          */
-        while (this.connection_state != CS_SERVER_FINISHED)
+        while (this.connection_state != CS_END)
         {
             safeReadRecord();
         }
 
+        finishHandshake();
+    }
+
+    private void finishHandshake()
+        throws IOException
+    {
+        this.handshakeFinished = true;
+
         this.recordStream.finaliseHandshake();
 
+        /*
+         * The handshake queue will most likely stay idle now, don't hold on to its storage.
+         */
+        this.handshakeQueue.shrink();
+
         ProtocolVersion version = getContext().getServerVersion();
         this.writeExtraEmptyRecords = version.isEqualOrEarlierVersionOf(ProtocolVersion.TLSv10);
 
@@ -125,9 +240,14 @@ public abstract class TlsProtocol
         {
             this.appDataReady = true;
 
-            this.tlsInputStream = new TlsInputStream(this);
-            this.tlsOutputStream = new TlsOutputStream(this);
+            if (blocking)
+            {
+                this.tlsInputStream = new TlsInputStream(this);
+                this.tlsOutputStream = new TlsOutputStream(this);
+            }
         }
+
+        getPeer().notifyHandshakeComplete();
     }
 
     protected void processRecord(short protocol, byte[] buf, int offset, int len)
@@ -139,15 +259,15 @@ public abstract class TlsProtocol
         switch (protocol)
         {
         case ContentType.change_cipher_spec:
-            changeCipherSpecQueue.addData(buf, offset, len);
+            addToQueue(changeCipherSpecQueue, buf, offset, len);
             processChangeCipherSpec();
             break;
         case ContentType.alert:
-            alertQueue.addData(buf, offset, len);
+            addToQueue(alertQueue, buf, offset, len);
             processAlert();
             break;
         case ContentType.handshake:
-            handshakeQueue.addData(buf, offset, len);
+            addToQueue(handshakeQueue, buf, offset, len);
             processHandshake();
             break;
         case ContentType.application_data:
@@ -155,7 +275,7 @@ public abstract class TlsProtocol
             {
                 this.failWithError(AlertLevel.fatal, AlertDescription.unexpected_message);
             }
-            applicationDataQueue.addData(buf, offset, len);
+            addToQueue(applicationDataQueue, buf, offset, len);
             processApplicationData();
             break;
         default:
@@ -167,6 +287,17 @@ public abstract class TlsProtocol
         }
     }
 
+    private static void addToQueue(ByteQueue queue, byte[] buf, int offset, int len)
+        throws IOException
+    {
+        if (len > queue.getLimit() - queue.size())
+        {
+            // e.g. the application has not read the application data received so far
+            throw new TlsFatalAlert(AlertDescription.internal_error);
+        }
+        queue.addData(buf, offset, len);
+    }
+
     private void processHandshake()
         throws IOException
     {
@@ -185,6 +316,11 @@ public abstract class TlsProtocol
                 short type = TlsUtils.readUint8(bis);
                 int len = TlsUtils.readUint24(bis);
 
+                if (len > MAX_HANDSHAKE_MESSAGE_LENGTH)
+                {
+                    throw new TlsFatalAlert(AlertDescription.decode_error);
+                }
+
                 /*
                  * Check if we have enough bytes in the buffer to read the full message.
                  */
@@ -194,8 +330,7 @@ public abstract class TlsProtocol
                      * Read the message.
                      */
                     byte[] buf = new byte[len];
-                    handshakeQueue.read(buf, 0, len, 4);
-                    handshakeQueue.removeData(len + 4);
+                    handshakeQueue.removeData(buf, 0, len, 4);
 
                     /*
                      * RFC 2246 7.4.9. The value handshake_messages includes all handshake messages
@@ -223,8 +358,15 @@ public abstract class TlsProtocol
                     }
 
                     /*
-                     * Now, parse the message.
+                     * Now, parse the message, unless that is left to a delegated task, in which
+                     * case processing is suspended until the task has run.
                      */
+                    if (delegateTasks && isDelegatedHandshakeMessage(type))
+                    {
+                        this.delegatedTask = new DelegatedTask(type, buf);
+                        return;
+                    }
+
                     handleHandshakeMessage(type, buf);
                     read = true;
                 }
@@ -263,6 +405,7 @@ public abstract class TlsProtocol
 
                 this.failedWithError = true;
                 this.closed = true;
+                invalidateSession();
                 /*
                  * Now try to close the stream, ignore errors.
                  */
@@ -369,10 +512,17 @@ public abstract class TlsProtocol
             }
 
             safeReadRecord();
+
+            /*
+             * Also process any further records that arrived along with it, before returning.
+             */
+            while (!this.closed && recordStream.hasCompleteRecord())
+            {
+                safeReadRecord();
+            }
         }
         len = Math.min(len, applicationDataQueue.size());
-        applicationDataQueue.read(buf, offset, len, 0);
-        applicationDataQueue.removeData(len);
+        applicationDataQueue.removeData(buf, offset, len, 0);
         return len;
     }
 
@@ -465,6 +615,12 @@ public abstract class TlsProtocol
             throw new IOException("Sorry, connection has been closed, you cannot write more data");
         }
 
+        boolean coalesce = this.coalesceWrites;
+        if (coalesce)
+        {
+            recordStream.startCoalescing();
+        }
+
         while (len > 0)
         {
             /*
@@ -491,24 +647,433 @@ public abstract class TlsProtocol
             offset += toWrite;
             len -= toWrite;
         }
+
+        if (coalesce)
+        {
+            try
+            {
+                recordStream.endCoalescing();
+            }
+            catch (IOException e)
+            {
+                if (!closed)
+                {
+                    this.failWithError(AlertLevel.fatal, AlertDescription.internal_error);
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Enable or disable coalescing of application data writes. When enabled, all records produced
+     * by a single write are encrypted into one contiguous buffer, and written to the underlying
+     * stream and flushed together, instead of once per record. This reduces the number of system
+     * calls and TCP segments for bulk transfers. Disabled by default.
+     *
+     * @param coalesceWrites true to coalesce writes
+     */
+    public void setCoalesceWrites(boolean coalesceWrites)
+    {
+        this.coalesceWrites = coalesceWrites;
+    }
+
+    /**
+     * Enable or disable delegated tasks. When enabled, handshake messages whose handling may
+     * involve an operation with a private key, such as decrypting the pre-master secret or signing
+     * the key exchange parameters, are not handled while input is offered. Instead, processing of
+     * the input is suspended, and a task that handles the message is made available through
+     * {@link #getDelegatedTask()}, so that the (possibly slow, or remote) operation can be run
+     * without holding up the thread that does the I/O. Disabled by default.
+     * <p/>
+     * Only allowed in non-blocking mode.
+     *
+     * @param delegateTasks true to delegate tasks
+     */
+    public void setDelegateTasks(boolean delegateTasks)
+    {
+        if (blocking)
+        {
+            throw new IllegalStateException("Cannot use setDelegateTasks() in blocking mode!");
+        }
+
+        this.delegateTasks = delegateTasks;
+    }
+
+    /**
+     * Gets a task on which the handshake is waiting, if any (see {@link #setDelegateTasks(boolean)}).
+     * The task may be run on any thread; once it has, {@link #resumeHandshake()} must be called to
+     * continue processing the input. While the task is outstanding, input may still be offered,
+     * but it is only buffered; no other method may be called until the task has run.<br>
+     * <br>
+     * Only allowed in non-blocking mode.
+     *
+     * @return the task, or null if the handshake is not waiting on one, or it has been returned
+     *         before.
+     */
+    public Runnable getDelegatedTask()
+    {
+        if (blocking)
+        {
+            throw new IllegalStateException("Cannot use getDelegatedTask() in blocking mode!");
+        }
+
+        DelegatedTask task = this.delegatedTask;
+        if (task == null || task.handedOut)
+        {
+            return null;
+        }
+        task.handedOut = true;
+        return task;
+    }
+
+    /**
+     * Continue the handshake after the task returned by {@link #getDelegatedTask()} has run,
+     * processing any input offered in the meantime. Afterwards, there may be another task to run.
+     * <br>
+     * <br>
+     * Only allowed in non-blocking mode.
+     *
+     * @throws IOException If the task failed, or an error occurs while processing the input
+     */
+    public void resumeHandshake()
+        throws IOException
+    {
+        if (blocking)
+        {
+            throw new IllegalStateException("Cannot use resumeHandshake() in blocking mode!");
+        }
+
+        DelegatedTask task = this.delegatedTask;
+        if (task == null)
+        {
+            return;
+        }
+        if (!task.complete)
+        {
+            throw new IllegalStateException("The delegated task has not been run");
+        }
+
+        this.delegatedTask = null;
+
+        try
+        {
+            task.rethrowFailure();
+
+            processHandshake();
+        }
+        catch (TlsFatalAlert e)
+        {
+            if (!this.closed)
+            {
+                this.failWithError(AlertLevel.fatal, e.getAlertDescription());
+            }
+            throw e;
+        }
+        catch (IOException e)
+        {
+            if (!this.closed)
+            {
+                this.failWithError(AlertLevel.fatal, AlertDescription.internal_error);
+            }
+            throw e;
+        }
+        catch (RuntimeException e)
+        {
+            if (!this.closed)
+            {
+                this.failWithError(AlertLevel.fatal, AlertDescription.internal_error);
+            }
+            throw e;
+        }
+
+        if (!handshakeFinished && this.connection_state == CS_END)
+        {
+            finishHandshake();
+        }
+
+        if (!closed)
+        {
+            processInputBuffers();
+        }
+    }
+
+    /**
+     * @param type the type of a handshake message that is about to be handled.
+     * @return true if handling the message may involve an operation with a private key, and so
+     *         should be left to a delegated task when those are enabled.
+     */
+    protected boolean isDelegatedHandshakeMessage(short type)
+    {
+        return false;
     }
 
     /**
-     * @return An OutputStream which can be used to send data.
+     * @return An OutputStream which can be used to send data. Only allowed in blocking mode.
      */
     public OutputStream getOutputStream()
     {
+        if (!blocking)
+        {
+            throw new IllegalStateException("Cannot use OutputStream in non-blocking mode! Use offerOutput() instead.");
+        }
         return this.tlsOutputStream;
     }
 
     /**
-     * @return An InputStream which can be used to read data.
+     * @return An InputStream which can be used to read data. Only allowed in blocking mode.
      */
     public InputStream getInputStream()
     {
+        if (!blocking)
+        {
+            throw new IllegalStateException("Cannot use InputStream in non-blocking mode! Use offerInput() instead.");
+        }
         return this.tlsInputStream;
     }
 
+    /**
+     * Offer input from an arbitrary source. Only allowed in non-blocking mode.
+     * <p/>
+     * After this method returns, the input buffer is "owned" by this object. Every complete record
+     * contained in the buffered input is processed before returning; any trailing partial record
+     * is retained until more input is offered. Use {@link #getAvailableInputBytes()} and
+     * {@link #readInput(byte[], int, int)} to retrieve any resulting application data, and
+     * {@link #getAvailableOutputBytes()} and {@link #readOutput(byte[], int, int)} to retrieve any
+     * ciphertext that has to be sent to the peer in response.
+     * <p/>
+     * NOTE: At most 64 KiB of received application data is held for {@link #readInput}, so input
+     * carrying more than that should be offered in parts, reading the application data in between.
+     * Beyond that limit, the connection fails with an internal_error alert.
+     *
+     * @param input The input buffer to offer
+     * @throws IOException If an error occurs while decrypting or processing a record
+     */
+    public void offerInput(byte[] input)
+        throws IOException
+    {
+        offerInput(input, 0, input.length);
+    }
+
+    /**
+     * Offer input from a section of a buffer. Only allowed in non-blocking mode.
+     *
+     * @param input  The buffer containing the input to offer
+     * @param offset The offset at which the input starts
+     * @param length The number of bytes of input
+     * @throws IOException If an error occurs while decrypting or processing a record
+     * @see #offerInput(byte[])
+     */
+    public void offerInput(byte[] input, int offset, int length)
+        throws IOException
+    {
+        if (blocking)
+        {
+            throw new IllegalStateException("Cannot use offerInput() in blocking mode! Use getInputStream() instead.");
+        }
+
+        if (closed)
+        {
+            throw new IOException("Connection is closed, cannot accept any more input");
+        }
+
+        /*
+         * Process the input as it is added, so that only a few records are ever buffered, however
+         * much is offered at once.
+         */
+        while (length > 0 && !closed)
+        {
+            int count = Math.min(length, inputBuffers.getSpace());
+            if (count < 1)
+            {
+                // Records are not being processed while a delegated task is pending
+                this.failWithError(AlertLevel.fatal, AlertDescription.internal_error);
+            }
+
+            inputBuffers.addBytes(input, offset, count);
+            offset += count;
+            length -= count;
+
+            processInputBuffers();
+        }
+    }
+
+    private void processInputBuffers()
+        throws IOException
+    {
+        byte[] header = inputHeader;
+
+        // loop while there are enough bytes to read the length of the next record
+        while (delegatedTask == null && inputBuffers.available() >= 5)
+        {
+            inputBuffers.peek(header);
+
+            int totalLength = TlsUtils.readUint16(header, 3) + 5;
+            if (inputBuffers.available() < totalLength)
+            {
+                // not enough bytes to read a whole record
+                break;
+            }
+
+            safeReadRecord();
+
+            if (!handshakeFinished && this.connection_state == CS_END)
+            {
+                finishHandshake();
+            }
+
+            if (closed)
+            {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Gets the amount of received application data. A call to {@link #readInput(byte[], int, int)}
+     * is guaranteed to be able to return at least this much data.<br>
+     * <br>
+     * Only allowed in non-blocking mode.
+     *
+     * @return The number of bytes of available application data
+     */
+    public int getAvailableInputBytes()
+    {
+        if (blocking)
+        {
+            throw new IllegalStateException("Cannot use getAvailableInputBytes() in blocking mode! Use getInputStream().available() instead.");
+        }
+        return applicationDataQueue.size();
+    }
+
+    /**
+     * Retrieves received application data. Use {@link #getAvailableInputBytes()} to check how
+     * much application data is currently available. This method functions similarly to
+     * {@link InputStream#read(byte[], int, int)}, except that it never blocks. If no data is
+     * available, nothing will be copied and zero will be returned.<br>
+     * <br>
+     * Only allowed in non-blocking mode.
+     *
+     * @param buffer The buffer to hold the application data
+     * @param offset The start offset in the buffer at which the data is written
+     * @param length The maximum number of bytes to read
+     * @return The total number of bytes copied to the buffer. May be less than the length
+     *         specified if the length was greater than the amount of available data.
+     */
+    public int readInput(byte[] buffer, int offset, int length)
+    {
+        if (blocking)
+        {
+            throw new IllegalStateException("Cannot use readInput() in blocking mode! Use getInputStream() instead.");
+        }
+
+        length = Math.min(length, applicationDataQueue.size());
+        applicationDataQueue.removeData(buffer, offset, length, 0);
+        return length;
+    }
+
+    /**
+     * Offer output from an arbitrary source. Only allowed in non-blocking mode.
+     * <p/>
+     * After this method returns, the specified section of the buffer will have been processed. Use
+     * {@link #readOutput(byte[], int, int)} to get the bytes to transmit to the other peer.<br>
+     * <br>
+     * This method must not be called until after the handshake is complete! Attempting to call it
+     * before the handshake is complete will result in an exception.
+     * <p/>
+     * NOTE: The data offered, together with the output not yet read by {@link #readOutput}, must not
+     * exceed 64 KiB, or the connection fails with an internal_error alert.
+     *
+     * @param buffer The buffer containing application data to encrypt
+     * @param offset The offset at which to begin reading data
+     * @param length The number of bytes of data to read
+     * @throws IOException If an error occurs encrypting the data, or the handshake is not complete
+     */
+    public void offerOutput(byte[] buffer, int offset, int length)
+        throws IOException
+    {
+        if (blocking)
+        {
+            throw new IllegalStateException("Cannot use offerOutput() in blocking mode! Use getOutputStream() instead.");
+        }
+
+        if (!appDataReady)
+        {
+            throw new IOException("Application data cannot be sent until the handshake is complete!");
+        }
+
+        if (length > APPLICATION_DATA_LIMIT - outputBuffer.getBuffer().size())
+        {
+            // The output already pending, together with this data, would exceed the limit
+            this.failWithError(AlertLevel.fatal, AlertDescription.internal_error);
+        }
+
+        writeData(buffer, offset, length);
+    }
+
+    /**
+     * Gets the amount of encrypted data available to be sent. A call to
+     * {@link #readOutput(byte[], int, int)} is guaranteed to be able to return at least this much
+     * data.<br>
+     * <br>
+     * Only allowed in non-blocking mode.
+     *
+     * @return The number of bytes of available encrypted data
+     */
+    public int getAvailableOutputBytes()
+    {
+        if (blocking)
+        {
+            throw new IllegalStateException("Cannot use getAvailableOutputBytes() in blocking mode! Use getOutputStream() instead.");
+        }
+
+        return outputBuffer.getBuffer().size();
+    }
+
+    /**
+     * Retrieves encrypted data to be sent. Use {@link #getAvailableOutputBytes()} to check how
+     * much encrypted data is currently available. This method functions similarly to
+     * {@link InputStream#read(byte[], int, int)}, except that it never blocks. If no data is
+     * available, nothing will be copied and zero will be returned.<br>
+     * <br>
+     * Only allowed in non-blocking mode.
+     *
+     * @param buffer The buffer to hold the encrypted data
+     * @param offset The start offset in the buffer at which the data is written
+     * @param length The maximum number of bytes to read
+     * @return The total number of bytes copied to the buffer. May be less than the length
+     *         specified if the length was greater than the amount of available data.
+     */
+    public int readOutput(byte[] buffer, int offset, int length)
+    {
+        if (blocking)
+        {
+            throw new IllegalStateException("Cannot use readOutput() in blocking mode! Use getOutputStream() instead.");
+        }
+
+        ByteQueue output = outputBuffer.getBuffer();
+        length = Math.min(length, output.size());
+        output.removeData(buffer, offset, length, 0);
+        return length;
+    }
+
+    /**
+     * @return true if the connection has been closed, either normally or because of an error.
+     */
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+    /**
+     * @return true if the handshake resumed a previous session, rather than establishing a new
+     *         one.
+     */
+    public boolean isResumedSession()
+    {
+        return resumed;
+    }
+
     /**
      * Terminate this connection with an alert.
      * <p/>
@@ -537,6 +1102,7 @@ public abstract class TlsProtocol
                  * This is a fatal message.
                  */
                 this.failedWithError = true;
+                invalidateSession();
             }
             raiseAlert(alertLevel, alertDescription, null, null);
             recordStream.close();
@@ -560,12 +1126,6 @@ public abstract class TlsProtocol
 
         assertEmpty(buf);
 
-        if(resumed)
-        {
-            sendFinishedMessage();
-            recordStream.updateHandshakeData(new byte[]{HandshakeType.finished,0x00,0x00, (byte) expected_verify_data.length}, 0, 4);
-            recordStream.updateHandshakeData(verify_data, 0, (byte) expected_verify_data.length);
-        }
         /*
          * Compare both checksums.
          */
@@ -578,6 +1138,14 @@ public abstract class TlsProtocol
         }
     }
 
+    /**
+     * Called when a fatal alert is sent or received. RFC 5246 7.2.2. [..] any connection terminated
+     * with a fatal alert MUST NOT be resumed.
+     */
+    protected void invalidateSession()
+    {
+    }
+
     protected void raiseAlert(short alertLevel, short alertDescription, String message, Exception cause)
         throws IOException
     {
@@ -648,7 +1216,7 @@ public abstract class TlsProtocol
         throws IOException
     {
         byte[] verify_data = createVerifyData(getContext().isServer());
-        client_verify_data = createVerifyData(getContext().isServer());
+        client_verify_data = verify_data;
 
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
         TlsUtils.writeUint8(HandshakeType.finished, bos);
@@ -951,4 +1519,72 @@ public abstract class TlsProtocol
             return PRFAlgorithm.tls_prf_legacy;
         }
     }
+
+    private class DelegatedTask
+        implements Runnable
+    {
+        private final short type;
+        private final byte[] buf;
+
+        private boolean handedOut = false;
+        private volatile boolean complete = false;
+        private Throwable failure = null;
+
+        DelegatedTask(short type, byte[] buf)
+        {
+            this.type = type;
+            this.buf = buf;
+        }
+
+        public void run()
+        {
+            if (complete)
+            {
+                throw new IllegalStateException("The delegated task has already been run");
+            }
+
+            try
+            {
+                handleHandshakeMessage(type, buf);
+            }
+            catch (Throwable t)
+            {
+                // NOTE: Even an Error must stop resumeHandshake() from continuing the handshake
+                this.failure = t;
+            }
+            finally
+            {
+                this.complete = true;
+            }
+        }
+
+        void rethrowFailure()
+            throws IOException
+        {
+            if (failure instanceof IOException)
+            {
+                throw (IOException)failure;
+            }
+            if (failure instanceof RuntimeException)
+            {
+                throw (RuntimeException)failure;
+            }
+            if (failure != null)
+            {
+                try
+                {
+                    failWithError(AlertLevel.fatal, AlertDescription.internal_error);
+                }
+                catch (IOException e)
+                {
+                    // NOTE: The alert has been sent; the Error itself is what the caller needs to see
+                    if (failure instanceof Error)
+                    {
+                        throw (Error)failure;
+                    }
+                    throw e;
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,109 @@
+package org.bouncycastle.crypto.tls;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+
+import org.bouncycastle.crypto.DataLengthException;
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.encodings.PKCS1Encoding;
+import org.bouncycastle.crypto.engines.RSABlindedEngine;
+import org.bouncycastle.crypto.engines.RSABlindingCache;
+import org.bouncycastle.crypto.params.AsymmetricKeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithRandom;
+import org.bouncycastle.crypto.params.RSAPrivateCrtKeyParameters;
+
+/**
+ * Decrypts RSA-encrypted premaster secrets for a server that performs many RSA key exchanges with
+ * the same key (see {@link BatchedTlsEncryptionCredentials}), drawing the blinding factors of the
+ * decryptions in batches (see {@link RSABlindingCache}).
+ * <p/>
+ * Each decryption is done by the calling thread, with its own blinding factor, and never waits for
+ * other requests; only the drawing of fresh blinding factors is batched, so that a batch of them
+ * needs a single modular inversion rather than one each. A single instance is normally shared
+ * between all the servers using a key; it is thread-safe.
+ */
+public class TlsRSABatchDecryptor
+{
+    public static final int DEFAULT_BATCH_SIZE = 16;
+
+    private final RSAPrivateCrtKeyParameters privateKey;
+    private final SecureRandom secureRandom;
+    private final RSABlindingCache blindingCache;
+
+    /**
+     * Create a decryptor drawing {@link #DEFAULT_BATCH_SIZE} blinding factors at a time.
+     */
+    public TlsRSABatchDecryptor(AsymmetricKeyParameter privateKey, SecureRandom secureRandom)
+    {
+        this(privateKey, secureRandom, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param privateKey   the RSA private key of the server, with its CRT parameters and public
+     *                     exponent.
+     * @param secureRandom the source of randomness for blinding the decryptions.
+     * @param batchSize    the number of blinding factors drawn together.
+     */
+    public TlsRSABatchDecryptor(AsymmetricKeyParameter privateKey, SecureRandom secureRandom, int batchSize)
+    {
+        if (privateKey == null)
+        {
+            throw new IllegalArgumentException("'privateKey' cannot be null");
+        }
+        if (!privateKey.isPrivate())
+        {
+            throw new IllegalArgumentException("'privateKey' must be private");
+        }
+        if (!(privateKey instanceof RSAPrivateCrtKeyParameters))
+        {
+            throw new IllegalArgumentException("'privateKey' type not supported: "
+                + privateKey.getClass().getName());
+        }
+        if (secureRandom == null)
+        {
+            throw new IllegalArgumentException("'secureRandom' cannot be null");
+        }
+        if (batchSize < 1)
+        {
+            throw new IllegalArgumentException("'batchSize' must be positive");
+        }
+
+        this.privateKey = (RSAPrivateCrtKeyParameters)privateKey;
+        this.secureRandom = secureRandom;
+
+        // NOTE: Every decryption gets a fresh blinding factor; they are only drawn in batches
+        this.blindingCache = new RSABlindingCache(this.privateKey, secureRandom, 1, batchSize);
+    }
+
+    public AsymmetricKeyParameter getPrivateKey()
+    {
+        return privateKey;
+    }
+
+    /**
+     * Decrypt a premaster secret.
+     *
+     * @param encryptedPreMasterSecret the RSA-encrypted premaster secret.
+     * @return the PKCS#1 decoded premaster secret.
+     * @throws IOException if the premaster secret could not be decrypted or decoded.
+     */
+    public byte[] decryptPreMasterSecret(byte[] encryptedPreMasterSecret)
+        throws IOException
+    {
+        PKCS1Encoding encoding = new PKCS1Encoding(new RSABlindedEngine(blindingCache));
+        encoding.init(false, new ParametersWithRandom(privateKey, secureRandom));
+
+        try
+        {
+            return encoding.processBlock(encryptedPreMasterSecret, 0, encryptedPreMasterSecret.length);
+        }
+        catch (DataLengthException e)
+        {
+            throw new TlsFatalAlert(AlertDescription.illegal_parameter);
+        }
+        catch (InvalidCipherTextException e)
+        {
+            throw new TlsFatalAlert(AlertDescription.illegal_parameter);
+        }
+    }
+}
@@ -6,10 +6,8 @@ import java.io.OutputStream;
 import java.util.Vector;
 
 import org.bouncycastle.asn1.x509.KeyUsage;
-import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
 import org.bouncycastle.crypto.params.AsymmetricKeyParameter;
 import org.bouncycastle.crypto.params.RSAKeyParameters;
-import org.bouncycastle.crypto.util.PublicKeyFactory;
 import org.bouncycastle.util.io.Streams;
 
 /**
@@ -62,10 +60,9 @@ public class TlsRSAKeyExchange
 
         org.bouncycastle.asn1.x509.Certificate x509Cert = serverCertificate.getCertificateAt(0);
 
-        SubjectPublicKeyInfo keyInfo = x509Cert.getSubjectPublicKeyInfo();
         try
         {
-            this.serverPublicKey = PublicKeyFactory.createKey(keyInfo);
+            this.serverPublicKey = TlsUtils.getSubjectPublicKey(serverCertificate);
         }
         catch (RuntimeException e)
         {
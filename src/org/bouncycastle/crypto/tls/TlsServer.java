@@ -35,6 +35,28 @@ public interface TlsServer
     short getSelectedCompressionMethod()
         throws IOException;
 
+    /**
+     * @return the cache in which the sessions established by this server are kept for resumption,
+     *         or null if sessions are not to be resumed.
+     */
+    TlsSessionCache getSessionCache();
+
+    /**
+     * @return the codec with which this server issues and accepts RFC 5077 session tickets, or
+     *         null if session tickets are not supported.
+     */
+    TlsSessionTicketCodec getSessionTicketCodec();
+
+    /**
+     * Called by the protocol handler, instead of {@link #getSelectedCipherSuite()} and
+     * {@link #getSelectedCompressionMethod()}, when the session offered by the client is resumed.
+     *
+     * @param sessionParameters the parameters of the resumed session.
+     * @throws IOException
+     */
+    void notifySessionResumed(SessionParameters sessionParameters)
+        throws IOException;
+
     // Hashtable is (Integer -> byte[])
     Hashtable getServerExtensions()
         throws IOException;
@@ -83,7 +105,4 @@ public interface TlsServer
      */
     NewSessionTicket getNewSessionTicket()
         throws IOException;
-
-    void notifyHandshakeComplete()
-        throws IOException;
 }
@@ -21,6 +21,7 @@ public class TlsServerProtocol
     protected TlsServer tlsServer = null;
     protected TlsServerContextImpl tlsServerContext = null;
 
+    protected byte[] offeredSessionID;
     protected int[] offeredCipherSuites;
     protected short[] offeredCompressionMethods;
     protected Hashtable clientExtensions;
@@ -29,6 +30,10 @@ public class TlsServerProtocol
     protected short selectedCompressionMethod;
     protected Hashtable serverExtensions;
 
+    protected TlsSessionCache sessionCache = null;
+    protected TlsSessionTicketCodec sessionTicketCodec = null;
+    protected byte[] sessionID = null;
+
     protected TlsKeyExchange keyExchange = null;
     protected TlsCredentials serverCredentials = null;
     protected CertificateRequest certificateRequest = null;
@@ -42,8 +47,40 @@ public class TlsServerProtocol
         super(input, output, secureRandom);
     }
 
+    public TlsServerProtocol(InputStream input, OutputStream output, SecureRandom secureRandom, TlsBufferPool bufferPool)
+    {
+        super(input, output, secureRandom, bufferPool);
+    }
+
+    /**
+     * Constructor for non-blocking mode.
+     *
+     * @param secureRandom Random number generator for various cryptographic functions
+     * @see TlsProtocol#TlsProtocol(SecureRandom)
+     */
+    public TlsServerProtocol(SecureRandom secureRandom)
+    {
+        super(secureRandom);
+    }
+
+    /**
+     * Constructor for non-blocking mode, taking buffers from a pool.
+     *
+     * @param secureRandom Random number generator for various cryptographic functions
+     * @param bufferPool   Pool from which buffers are taken
+     * @see TlsProtocol#TlsProtocol(SecureRandom, TlsBufferPool)
+     */
+    public TlsServerProtocol(SecureRandom secureRandom, TlsBufferPool bufferPool)
+    {
+        super(secureRandom, bufferPool);
+    }
+
     /**
-     * Receives a TLS handshake in the role of server
+     * Receives a TLS handshake in the role of server.
+     * <p/>
+     * In blocking mode, this will not return until the handshake is complete. In non-blocking mode,
+     * this returns immediately and the handshake is driven by {@link #offerInput(byte[])};
+     * {@link TlsPeer#notifyHandshakeComplete()} signals completion.
      *
      * @param tlsServer
      * @throws IOException If handshake was not successful.
@@ -74,8 +111,6 @@ public class TlsServerProtocol
         this.recordStream.setRestrictReadVersion(false);
 
         completeHandshake();
-
-        this.tlsServer.notifyHandshakeComplete();
     }
 
     protected AbstractTlsContext getContext()
@@ -103,7 +138,9 @@ public class TlsServerProtocol
             // NB: Fall through to next case label
         }
         case CS_CERTIFICATE_VERIFY:
+        case CS_SERVER_FINISHED:
         {
+            // NB: CS_SERVER_FINISHED only precedes this in an abbreviated handshake
             this.connection_state = CS_CLIENT_CHANGE_CIPHER_SPEC;
             break;
         }
@@ -114,6 +151,20 @@ public class TlsServerProtocol
         }
     }
 
+    protected boolean isDelegatedHandshakeMessage(short type)
+    {
+        switch (type)
+        {
+        case HandshakeType.client_hello:
+            // The ServerKeyExchange sent in response may need signing
+        case HandshakeType.client_key_exchange:
+            // The pre-master secret may need decrypting
+            return true;
+        default:
+            return false;
+        }
+    }
+
     protected void handleHandshakeMessage(short type, byte[] data)
         throws IOException
     {
@@ -149,6 +200,28 @@ public class TlsServerProtocol
                     recordStream.notifyHelloComplete();
                 }
 
+                if (this.resumed)
+                {
+                    /*
+                     * RFC 5246 7.3. [..] the server MUST send a ChangeCipherSpec message and then
+                     * send its Finished message directly after the ServerHello.
+                     */
+                    recordStream.setPendingConnectionState(tlsServer.getCompression(), tlsServer.getCipher());
+
+                    if (expectSessionTicket)
+                    {
+                        sendNewSessionTicketMessage(tlsServer.getNewSessionTicket());
+                    }
+                    this.connection_state = CS_SERVER_SESSION_TICKET;
+
+                    sendChangeCipherSpecMessage();
+                    this.connection_state = CS_SERVER_CHANGE_CIPHER_SPEC;
+
+                    sendFinishedMessage();
+                    this.connection_state = CS_SERVER_FINISHED;
+                    break;
+                }
+
                 Vector serverSupplementalData = tlsServer.getServerSupplementalData();
                 if (serverSupplementalData != null)
                 {
@@ -335,17 +408,29 @@ public class TlsServerProtocol
                 processFinishedMessage(buf);
                 this.connection_state = CS_CLIENT_FINISHED;
 
-                if (expectSessionTicket)
+                if (!this.resumed)
                 {
-                    sendNewSessionTicketMessage(tlsServer.getNewSessionTicket());
-                }
-                this.connection_state = CS_SERVER_SESSION_TICKET;
+                    if (expectSessionTicket)
+                    {
+                        sendNewSessionTicketMessage(tlsServer.getNewSessionTicket());
+                    }
+                    this.connection_state = CS_SERVER_SESSION_TICKET;
 
-                sendChangeCipherSpecMessage();
-                this.connection_state = CS_SERVER_CHANGE_CIPHER_SPEC;
+                    sendChangeCipherSpecMessage();
+                    this.connection_state = CS_SERVER_CHANGE_CIPHER_SPEC;
 
-                sendFinishedMessage();
-                this.connection_state = CS_SERVER_FINISHED;
+                    sendFinishedMessage();
+                    this.connection_state = CS_SERVER_FINISHED;
+
+                    if (this.sessionID.length > 0)
+                    {
+                        this.sessionCache.put(this.sessionID, new SessionParameters(getContext().getServerVersion(),
+                            this.selectedCipherSuite, this.selectedCompressionMethod,
+                            this.securityParameters.masterSecret));
+                    }
+                }
+
+                this.connection_state = CS_END;
                 break;
             default:
                 this.failWithError(AlertLevel.fatal, AlertDescription.unexpected_message);
@@ -390,6 +475,14 @@ public class TlsServerProtocol
         }
     }
 
+    protected void invalidateSession()
+    {
+        if (this.sessionCache != null && this.sessionID != null && this.sessionID.length > 0)
+        {
+            this.sessionCache.remove(this.sessionID);
+        }
+    }
+
     protected void notifyClientCertificate(Certificate clientCertificate)
         throws IOException
     {
@@ -488,8 +581,8 @@ public class TlsServerProtocol
          */
         byte[] client_random = TlsUtils.readFully(32, buf);
 
-        byte[] sessionID = TlsUtils.readOpaque8(buf);
-        if (sessionID.length > 32)
+        this.offeredSessionID = TlsUtils.readOpaque8(buf);
+        if (offeredSessionID.length > 32)
         {
             this.failWithError(AlertLevel.fatal, AlertDescription.illegal_parameter);
         }
@@ -671,26 +764,54 @@ public class TlsServerProtocol
 
         buf.write(this.securityParameters.serverRandom);
 
-        /*
-         * The server may return an empty session_id to indicate that the session will not be cached
-         * and therefore cannot be resumed.
-         */
-        TlsUtils.writeOpaque8(TlsUtils.EMPTY_BYTES, buf);
+        this.sessionCache = tlsServer.getSessionCache();
+        this.sessionTicketCodec = tlsServer.getSessionTicketCodec();
 
-        this.selectedCipherSuite = tlsServer.getSelectedCipherSuite();
-        if (!arrayContains(this.offeredCipherSuites, this.selectedCipherSuite)
-            || this.selectedCipherSuite == CipherSuite.TLS_NULL_WITH_NULL_NULL
-            || this.selectedCipherSuite == CipherSuite.TLS_EMPTY_RENEGOTIATION_INFO_SCSV)
+        SessionParameters sessionParameters = getResumableSession(server_version);
+        if (sessionParameters != null)
         {
-            this.failWithError(AlertLevel.fatal, AlertDescription.internal_error);
-        }
+            /*
+             * RFC 5246 7.4.1.3. If the session_id was found in the server's cache and the server is
+             * willing to re-establish the connection under the specified session state, the server
+             * will respond with the same value as was supplied by the client.
+             * 
+             * RFC 5077 3.4. If the server accepts the ticket and the Session ID is not empty, then
+             * it MUST respond with the same Session ID present in the ClientHello.
+             */
+            this.resumed = true;
+            this.sessionID = this.offeredSessionID;
+
+            tlsServer.notifySessionResumed(sessionParameters);
 
-        this.selectedCompressionMethod = tlsServer.getSelectedCompressionMethod();
-        if (!arrayContains(this.offeredCompressionMethods, this.selectedCompressionMethod))
+            this.selectedCipherSuite = sessionParameters.getCipherSuite();
+            this.selectedCompressionMethod = sessionParameters.getCompressionAlgorithm();
+            this.securityParameters.masterSecret = sessionParameters.getMasterSecret();
+        }
+        else
         {
-            this.failWithError(AlertLevel.fatal, AlertDescription.internal_error);
+            /*
+             * The server may return an empty session_id to indicate that the session will not be
+             * cached and therefore cannot be resumed.
+             */
+            this.sessionID = (this.sessionCache == null) ? TlsUtils.EMPTY_BYTES : createSessionID();
+
+            this.selectedCipherSuite = tlsServer.getSelectedCipherSuite();
+            if (!arrayContains(this.offeredCipherSuites, this.selectedCipherSuite)
+                || this.selectedCipherSuite == CipherSuite.TLS_NULL_WITH_NULL_NULL
+                || this.selectedCipherSuite == CipherSuite.TLS_EMPTY_RENEGOTIATION_INFO_SCSV)
+            {
+                this.failWithError(AlertLevel.fatal, AlertDescription.internal_error);
+            }
+
+            this.selectedCompressionMethod = tlsServer.getSelectedCompressionMethod();
+            if (!arrayContains(this.offeredCompressionMethods, this.selectedCompressionMethod))
+            {
+                this.failWithError(AlertLevel.fatal, AlertDescription.internal_error);
+            }
         }
 
+        TlsUtils.writeOpaque8(this.sessionID, buf);
+
         TlsUtils.writeUint16(this.selectedCipherSuite, buf);
         TlsUtils.writeUint8(this.selectedCompressionMethod, buf);
 
@@ -765,6 +886,58 @@ public class TlsServerProtocol
         safeWriteRecord(ContentType.handshake, message, 0, message.length);
     }
 
+    /**
+     * Recover the session offered by the client, if any, from its session ticket or from the
+     * session cache.
+     *
+     * @param serverVersion the version negotiated for this connection
+     * @return the parameters of the session, or null if it cannot be resumed.
+     */
+    protected SessionParameters getResumableSession(ProtocolVersion serverVersion)
+    {
+        SessionParameters sessionParameters = null;
+
+        if (this.sessionTicketCodec != null && this.clientExtensions != null)
+        {
+            byte[] ticket = (byte[])this.clientExtensions.get(EXT_SessionTicket);
+            if (ticket != null && ticket.length > 0)
+            {
+                sessionParameters = this.sessionTicketCodec.decodeTicket(ticket);
+            }
+        }
+
+        if (sessionParameters == null && this.sessionCache != null && this.offeredSessionID.length > 0)
+        {
+            sessionParameters = this.sessionCache.get(this.offeredSessionID);
+        }
+
+        if (sessionParameters == null)
+        {
+            return null;
+        }
+
+        /*
+         * RFC 5246 7.4.1.2. If the session_id field is not empty (implying a session resumption
+         * request), this vector MUST include at least the cipher_suite from that session. [..] it
+         * MUST include the compression_method from that session.
+         */
+        if (!serverVersion.equals(sessionParameters.getServerVersion())
+            || !arrayContains(this.offeredCipherSuites, sessionParameters.getCipherSuite())
+            || !arrayContains(this.offeredCompressionMethods, sessionParameters.getCompressionAlgorithm()))
+        {
+            return null;
+        }
+
+        return sessionParameters;
+    }
+
+    protected byte[] createSessionID()
+    {
+        byte[] sessionID = new byte[32];
+        secureRandom.nextBytes(sessionID);
+        return sessionID;
+    }
+
     protected boolean expectCertificateVerifyMessage()
     {
         return this.clientCertificateType >= 0 && TlsUtils.hasSigningCapability(this.clientCertificateType);
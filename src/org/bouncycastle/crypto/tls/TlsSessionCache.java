@@ -0,0 +1,31 @@
+package org.bouncycastle.crypto.tls;
+
+/**
+ * A store of resumable sessions, keyed by session ID, for use by a {@link TlsServer}. A single
+ * cache is normally shared between all the connections of a server, so implementations must be
+ * thread-safe.
+ */
+public interface TlsSessionCache
+{
+    /**
+     * @param sessionID the session ID offered by the client.
+     * @return the parameters of the session, or null if it is unknown or has expired.
+     */
+    SessionParameters get(byte[] sessionID);
+
+    /**
+     * Called by the protocol handler once a full handshake has completed.
+     *
+     * @param sessionID         the session ID that was sent to the client.
+     * @param sessionParameters the parameters of the new session.
+     */
+    void put(byte[] sessionID, SessionParameters sessionParameters);
+
+    /**
+     * Called by the protocol handler when a fatal alert means the session must no longer be
+     * resumed (RFC 5246 7.2.2).
+     *
+     * @param sessionID the session ID to remove.
+     */
+    void remove(byte[] sessionID);
+}
@@ -0,0 +1,31 @@
+package org.bouncycastle.crypto.tls;
+
+import java.io.IOException;
+
+/**
+ * Seals session state into RFC 5077 session tickets, and recovers it from tickets presented by
+ * clients, so that a server can resume sessions without keeping any state of its own. A single
+ * codec is normally shared between all the connections of a server, so implementations must be
+ * thread-safe.
+ */
+public interface TlsSessionTicketCodec
+{
+    /**
+     * @return the lifetime hint, in seconds, to send along with new tickets.
+     */
+    long getTicketLifetimeHint();
+
+    /**
+     * @param sessionParameters the parameters of the session to seal.
+     * @return the ticket.
+     * @throws IOException
+     */
+    byte[] encodeTicket(SessionParameters sessionParameters)
+        throws IOException;
+
+    /**
+     * @param ticket a ticket presented by a client.
+     * @return the parameters of the session, or null if the ticket is not valid or has expired.
+     */
+    SessionParameters decodeTicket(byte[] ticket);
+}
@@ -0,0 +1,75 @@
+package org.bouncycastle.crypto.tls;
+
+import java.security.SecureRandom;
+
+import org.bouncycastle.util.Arrays;
+
+/**
+ * A key used to protect session tickets, following <i>RFC 5077 4. Recommended Ticket
+ * Construction</i>: a 16 byte key name identifying the key, a 128-bit AES key and a 256-bit
+ * HMAC-SHA256 key.
+ * <p/>
+ * Servers that should accept each other's tickets, e.g. behind a load balancer, must be given the
+ * same keys.
+ */
+public class TlsSessionTicketKey
+{
+    public static final int KEY_NAME_LENGTH = 16;
+    public static final int ENCRYPTION_KEY_LENGTH = 16;
+    public static final int MAC_KEY_LENGTH = 32;
+
+    protected byte[] keyName;
+    protected byte[] encryptionKey;
+    protected byte[] macKey;
+
+    public TlsSessionTicketKey(byte[] keyName, byte[] encryptionKey, byte[] macKey)
+    {
+        if (keyName == null || keyName.length != KEY_NAME_LENGTH)
+        {
+            throw new IllegalArgumentException("'keyName' must be " + KEY_NAME_LENGTH + " bytes");
+        }
+        if (encryptionKey == null || encryptionKey.length != ENCRYPTION_KEY_LENGTH)
+        {
+            throw new IllegalArgumentException("'encryptionKey' must be " + ENCRYPTION_KEY_LENGTH + " bytes");
+        }
+        if (macKey == null || macKey.length != MAC_KEY_LENGTH)
+        {
+            throw new IllegalArgumentException("'macKey' must be " + MAC_KEY_LENGTH + " bytes");
+        }
+
+        this.keyName = Arrays.clone(keyName);
+        this.encryptionKey = Arrays.clone(encryptionKey);
+        this.macKey = Arrays.clone(macKey);
+    }
+
+    /**
+     * Generate a new key with a random key name.
+     */
+    public static TlsSessionTicketKey generate(SecureRandom random)
+    {
+        byte[] keyName = new byte[KEY_NAME_LENGTH];
+        byte[] encryptionKey = new byte[ENCRYPTION_KEY_LENGTH];
+        byte[] macKey = new byte[MAC_KEY_LENGTH];
+
+        random.nextBytes(keyName);
+        random.nextBytes(encryptionKey);
+        random.nextBytes(macKey);
+
+        return new TlsSessionTicketKey(keyName, encryptionKey, macKey);
+    }
+
+    public byte[] getKeyName()
+    {
+        return Arrays.clone(keyName);
+    }
+
+    public byte[] getEncryptionKey()
+    {
+        return Arrays.clone(encryptionKey);
+    }
+
+    public byte[] getMacKey()
+    {
+        return Arrays.clone(macKey);
+    }
+}
@@ -19,6 +19,11 @@ public class TlsStreamCipher
     protected TlsMac writeMac;
     protected TlsMac readMac;
 
+    /*
+     * Scratch buffer for the MAC of received records.
+     */
+    private byte[] computedMac;
+
     public TlsStreamCipher(TlsContext context, StreamCipher clientWriteCipher,
                            StreamCipher serverWriteCipher, Digest clientWriteDigest, Digest serverWriteDigest,
                            int cipherKeySize)
@@ -80,6 +85,8 @@ public class TlsStreamCipher
 
         this.encryptCipher.init(true, encryptParams);
         this.decryptCipher.init(false, decryptParams);
+
+        this.computedMac = new byte[readMac.getSize()];
     }
 
     public int getPlaintextLimit(int ciphertextLimit)
@@ -87,20 +94,40 @@ public class TlsStreamCipher
         return ciphertextLimit - writeMac.getSize();
     }
 
+    public int getCiphertextLimit(int plaintextLength)
+    {
+        return plaintextLength + writeMac.getSize();
+    }
+
     public byte[] encodePlaintext(long seqNo, short type, byte[] plaintext, int offset, int len)
     {
-        byte[] mac = writeMac.calculateMac(seqNo, type, plaintext, offset, len);
+        byte[] outbuf = new byte[getCiphertextLimit(len)];
+        encodePlaintext(seqNo, type, plaintext, offset, len, outbuf, 0);
+        return outbuf;
+    }
 
-        byte[] outbuf = new byte[len + mac.length];
+    public int encodePlaintext(long seqNo, short type, byte[] plaintext, int offset, int len, byte[] output,
+                               int outputOffset)
+    {
+        int macSize = writeMac.calculateMac(seqNo, type, plaintext, offset, len, output, outputOffset + len);
 
-        encryptCipher.processBytes(plaintext, offset, len, outbuf, 0);
-        encryptCipher.processBytes(mac, 0, mac.length, outbuf, len);
+        encryptCipher.processBytes(plaintext, offset, len, output, outputOffset);
+        encryptCipher.processBytes(output, outputOffset + len, macSize, output, outputOffset + len);
 
-        return outbuf;
+        return len + macSize;
     }
 
     public byte[] decodeCiphertext(long seqNo, short type, byte[] ciphertext, int offset, int len)
         throws IOException
+    {
+        byte[] deciphered = new byte[len];
+        int plaintextLength = decodeCiphertext(seqNo, type, ciphertext, offset, len, deciphered, 0);
+        return Arrays.copyOf(deciphered, plaintextLength);
+    }
+
+    public int decodeCiphertext(long seqNo, short type, byte[] ciphertext, int offset, int len, byte[] output,
+                                int outputOffset)
+        throws IOException
     {
         int macSize = readMac.getSize();
         if (len < macSize)
@@ -108,19 +135,17 @@ public class TlsStreamCipher
             throw new TlsFatalAlert(AlertDescription.decode_error);
         }
 
-        byte[] deciphered = new byte[len];
-        decryptCipher.processBytes(ciphertext, offset, len, deciphered, 0);
+        decryptCipher.processBytes(ciphertext, offset, len, output, outputOffset);
 
         int macInputLen = len - macSize;
 
-        byte[] receivedMac = Arrays.copyOfRange(deciphered, macInputLen, len);
-        byte[] computedMac = readMac.calculateMac(seqNo, type, deciphered, 0, macInputLen);
+        readMac.calculateMac(seqNo, type, output, outputOffset, macInputLen, computedMac, 0);
 
-        if (!Arrays.constantTimeAreEqual(receivedMac, computedMac))
+        if (!TlsUtils.constantTimeAreEqual(macSize, computedMac, 0, output, outputOffset + macInputLen))
         {
             throw new TlsFatalAlert(AlertDescription.bad_record_mac);
         }
 
-        return Arrays.copyOfRange(deciphered, 0, macInputLen);
+        return macInputLen;
     }
 }
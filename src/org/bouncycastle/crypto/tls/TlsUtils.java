@@ -323,6 +323,15 @@ public class TlsUtils
         }
     }
 
+    public static void readFully(byte[] buf, int off, int len, InputStream input)
+        throws IOException
+    {
+        if (len > 0 && len != Streams.readFully(input, buf, off, len))
+        {
+            throw new EOFException();
+        }
+    }
+
     public static byte[] readOpaque8(InputStream input)
         throws IOException
     {
@@ -670,6 +679,20 @@ public class TlsUtils
         }
     }
 
+    /**
+     * Extract the public key of the end-entity certificate of a chain, reusing the key already
+     * extracted if the chain came from a {@link TlsCertificateCache}.
+     */
+    static AsymmetricKeyParameter getSubjectPublicKey(Certificate certificate)
+        throws IOException
+    {
+        if (certificate instanceof CachedCertificate)
+        {
+            return ((CachedCertificate)certificate).getSubjectPublicKey();
+        }
+        return PublicKeyFactory.createKey(certificate.getCertificateAt(0).getSubjectPublicKeyInfo());
+    }
+
     static void validateKeyUsage(org.bouncycastle.asn1.x509.Certificate c, int keyUsageBits)
         throws IOException
     {
@@ -989,6 +1012,19 @@ public class TlsUtils
         }
     }
 
+    /**
+     * Compare two regions of byte arrays in constant time.
+     */
+    static boolean constantTimeAreEqual(int len, byte[] a, int aOff, byte[] b, int bOff)
+    {
+        int d = 0;
+        for (int i = 0; i < len; ++i)
+        {
+            d |= (a[aOff + i] ^ b[bOff + i]);
+        }
+        return 0 == d;
+    }
+
     static final byte[] SSL_CLIENT = {0x43, 0x4C, 0x4E, 0x54};
     static final byte[] SSL_SERVER = {0x53, 0x52, 0x56, 0x52};
 
@@ -0,0 +1,124 @@
+package org.bouncycastle.math.ec;
+
+import java.math.BigInteger;
+
+/**
+ * Class implementing fixed-point comb multiplication, for multiplying the same point (typically the
+ * base point of a curve) by many different numbers. The precomputation is done once, when the
+ * multiplier is created; each multiplication then takes about <code>t/w</code> doublings and
+ * additions, for a multiplicator of at most <code>t</code> bits and a comb of width <code>w</code>.
+ * <p/>
+ * Instances are immutable, and so may be shared freely between threads.
+ */
+public class FixedPointCombMultiplier
+{
+    private final ECPoint p;
+    private final int width;
+    private final int spacing;
+
+    /**
+     * Holds the sums of the subsets of <code>{2^(i*spacing) * p | 0 <= i < width}</code>, indexed
+     * by the bits of <code>i</code>.
+     */
+    private final ECPoint[] preComp;
+
+    /**
+     * @param p       The point to be multiplied.
+     * @param bits    The maximum bit length of the multiplicators, normally that of the order of
+     *                <code>p</code>.
+     * @param width   The width of the comb; the precomputation holds <code>2^width</code> points.
+     */
+    public FixedPointCombMultiplier(ECPoint p, int bits, int width)
+    {
+        if (p == null || p.isInfinity())
+        {
+            throw new IllegalArgumentException("'p' cannot be null or infinity");
+        }
+        if (bits < 1)
+        {
+            throw new IllegalArgumentException("'bits' must be positive");
+        }
+        if (width < 1 || width > 8)
+        {
+            throw new IllegalArgumentException("'width' must be between 1 and 8");
+        }
+
+        this.p = p;
+        this.width = width;
+        this.spacing = (bits + width - 1) / width;
+
+        ECPoint[] teeth = new ECPoint[width];
+        teeth[0] = p;
+        for (int i = 1; i < width; ++i)
+        {
+            ECPoint q = teeth[i - 1];
+            for (int j = 0; j < spacing; ++j)
+            {
+                q = q.twice();
+            }
+            teeth[i] = q;
+        }
+
+        this.preComp = new ECPoint[1 << width];
+        this.preComp[0] = p.getCurve().getInfinity();
+        for (int i = 0; i < width; ++i)
+        {
+            int bit = 1 << i;
+            for (int j = 0; j < bit; ++j)
+            {
+                this.preComp[bit + j] = this.preComp[j].add(teeth[i]);
+            }
+        }
+    }
+
+    /**
+     * @return The point being multiplied.
+     */
+    public ECPoint getPoint()
+    {
+        return p;
+    }
+
+    /**
+     * Multiplies the point by the given number.
+     * @param k The multiplicator.
+     * @return <code>k * p</code>.
+     */
+    public ECPoint multiply(BigInteger k)
+    {
+        if (k.signum() < 0)
+        {
+            throw new IllegalArgumentException("The multiplicator cannot be negative");
+        }
+
+        if (k.bitLength() > width * spacing)
+        {
+            // Too long for the comb
+            return p.multiply(k);
+        }
+
+        ECPoint R = p.getCurve().getInfinity();
+
+        for (int i = spacing - 1; i >= 0; --i)
+        {
+            R = R.twice();
+
+            int index = 0;
+            for (int j = width - 1; j >= 0; --j)
+            {
+                index <<= 1;
+                if (k.testBit(j * spacing + i))
+                {
+                    index |= 1;
+                }
+            }
+
+            if (index != 0)
+            {
+                R = R.add(preComp[index]);
+            }
+        }
+
+        return R;
+    }
+}
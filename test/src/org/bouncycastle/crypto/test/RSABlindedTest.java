@@ -6,6 +6,7 @@ import org.bouncycastle.crypto.InvalidCipherTextException;
 import org.bouncycastle.crypto.encodings.OAEPEncoding;
 import org.bouncycastle.crypto.encodings.PKCS1Encoding;
 import org.bouncycastle.crypto.engines.RSABlindedEngine;
+import org.bouncycastle.crypto.engines.RSABlindingCache;
 import org.bouncycastle.crypto.generators.RSAKeyPairGenerator;
 import org.bouncycastle.crypto.params.RSAKeyGenerationParameters;
 import org.bouncycastle.crypto.params.RSAKeyParameters;
@@ -41,6 +42,86 @@ public class RSABlindedTest
     static byte[] incorrectPadding = Hex.decode("0001ffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff4e6f77206973207468652074696d6520666f7220616c6c20676f6f64206d656e");
     static byte[] missingDataBlock = Hex.decode("0001ffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff");
 
+    private void testBatchedBlindingCache(RSAKeyParameters pubParameters, RSAKeyParameters privParameters)
+    {
+        RSABlindedEngine eng = new RSABlindedEngine();
+        RSABlindingCache cache = new RSABlindingCache((RSAPrivateCrtKeyParameters)privParameters,
+            new SecureRandom(), 1, 5);
+        RSABlindedEngine cachedEng = new RSABlindedEngine(cache);
+
+        // a fresh blinding factor for each block, from a few batches
+        for (int i = 0; i != 12; i++)
+        {
+            byte[] data = Hex.decode(edgeInput);
+            data[data.length - 1] = (byte)i;
+
+            eng.init(true, pubParameters);
+            byte[] block = eng.processBlock(data, 0, data.length);
+
+            cachedEng.init(false, privParameters);
+            if (!areEqual(data, cachedEng.processBlock(block, 0, block.length)))
+            {
+                fail("failed batched blinding cache test");
+            }
+        }
+
+        try
+        {
+            new RSABlindingCache((RSAPrivateCrtKeyParameters)privParameters, new SecureRandom(), 1, 0);
+
+            fail("failed batched blinding cache batch size check");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+    }
+
+    private void testBlindingCache(RSAKeyParameters pubParameters, RSAKeyParameters privParameters)
+    {
+        RSABlindedEngine eng = new RSABlindedEngine();
+        RSABlindingCache cache = new RSABlindingCache((RSAPrivateCrtKeyParameters)privParameters,
+            new SecureRandom(), 3);
+        RSABlindedEngine cachedEng = new RSABlindedEngine(cache);
+
+        if (!cache.isFor(privParameters) || cache.isFor(pubParameters))
+        {
+            fail("failed blinding cache key check");
+        }
+
+        // enough blocks to draw a fresh blinding factor a few times
+        for (int i = 0; i != 10; i++)
+        {
+            byte[] data = Hex.decode(edgeInput);
+            data[data.length - 1] = (byte)i;
+
+            eng.init(true, pubParameters);
+            byte[] block = eng.processBlock(data, 0, data.length);
+
+            cachedEng.init(false, privParameters);
+            if (!areEqual(data, cachedEng.processBlock(block, 0, block.length)))
+            {
+                fail("failed blinding cache test");
+            }
+        }
+
+        // a cache for a different key is not used
+        RSAKeyPairGenerator pGen = new RSAKeyPairGenerator();
+        pGen.init(new RSAKeyGenerationParameters(BigInteger.valueOf(0x11), new SecureRandom(), 512, 25));
+        AsymmetricCipherKeyPair pair = pGen.generateKeyPair();
+
+        byte[] data = Hex.decode(input);
+
+        eng.init(true, pair.getPublic());
+        byte[] block = eng.processBlock(data, 0, data.length);
+
+        cachedEng.init(false, pair.getPrivate());
+        if (!areEqual(data, cachedEng.processBlock(block, 0, block.length)))
+        {
+            fail("failed blinding cache other key test");
+        }
+    }
+
     public String getName()
     {
         return "RSABlinded";
@@ -416,6 +497,8 @@ public class RSABlindedTest
         testMissingDataPKCS1Block(pubParameters, privParameters);
         testTruncatedPKCS1Block(pubParameters, privParameters);
         testWrongPaddingPKCS1Block(pubParameters, privParameters);
+        testBlindingCache(pubParameters, privParameters);
+        testBatchedBlindingCache(pubParameters, privParameters);
 
         try
         {
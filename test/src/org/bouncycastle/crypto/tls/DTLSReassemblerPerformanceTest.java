@@ -0,0 +1,66 @@
+package org.bouncycastle.crypto.tls;
+
+import java.security.SecureRandom;
+
+import junit.framework.TestCase;
+
+/**
+ * Measures the rate of reassembly of 16 KB handshake messages (e.g. large certificate chains) from
+ * 100-byte fragments, as from a small MTU, arriving in a random order.
+ */
+public class DTLSReassemblerPerformanceTest
+    extends TestCase
+{
+    public static final int MESSAGE_LENGTH = 1 << 14;
+    public static final int FRAGMENT_LENGTH = 100;
+    public static final int NUM_MESSAGES = 20000;
+
+    public void testShuffledFragments()
+    {
+        SecureRandom random = new SecureRandom();
+
+        byte[] message = new byte[MESSAGE_LENGTH];
+        random.nextBytes(message);
+
+        int[][] orders = new int[16][];
+        for (int i = 0; i < orders.length; ++i)
+        {
+            orders[i] = DTLSReassemblerTest.createShuffledOffsets(MESSAGE_LENGTH, FRAGMENT_LENGTH, random);
+        }
+
+        // warm up
+        reassemble(message, orders, NUM_MESSAGES / 10);
+
+        long startTime = System.currentTimeMillis();
+        reassemble(message, orders, NUM_MESSAGES);
+        long millis = Math.max(1, System.currentTimeMillis() - startTime);
+
+        int fragments = orders[0].length;
+
+        System.out.println("DTLSReassembler, " + MESSAGE_LENGTH + " byte messages in " + fragments + " fragments");
+        System.out.print("Messages/s       : ");
+        System.out.println(1000.0 * NUM_MESSAGES / millis);
+        System.out.print("Fragments/s      : ");
+        System.out.println(1000.0 * NUM_MESSAGES * fragments / millis);
+        System.out.println();
+    }
+
+    private static void reassemble(byte[] message, int[][] orders, int count)
+    {
+        for (int n = 0; n < count; ++n)
+        {
+            int[] offsets = orders[n % orders.length];
+            DTLSReassembler reassembler = new DTLSReassembler(HandshakeType.certificate, message.length);
+            for (int i = 0; i < offsets.length; ++i)
+            {
+                int offset = offsets[i];
+                reassembler.contributeFragment(HandshakeType.certificate, message.length, message, offset, offset,
+                    Math.min(FRAGMENT_LENGTH, message.length - offset));
+            }
+            if (reassembler.getBodyIfComplete() == null)
+            {
+                fail("message not reassembled");
+            }
+        }
+    }
+}
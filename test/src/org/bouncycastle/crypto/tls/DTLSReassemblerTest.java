@@ -0,0 +1,203 @@
+package org.bouncycastle.crypto.tls;
+
+import java.security.SecureRandom;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.bouncycastle.util.Arrays;
+
+/**
+ * NOTE: In this package, rather than with the other TLS tests, since DTLSReassembler and
+ * DTLSInboundFlight are package-private.
+ */
+public class DTLSReassemblerTest
+    extends TestCase
+{
+    private final SecureRandom random = new SecureRandom();
+
+    public void testShuffledFragments()
+    {
+        byte[] message = new byte[16384];
+        random.nextBytes(message);
+
+        DTLSReassembler reassembler = new DTLSReassembler(HandshakeType.certificate, message.length);
+
+        int[] offsets = createShuffledOffsets(message.length, 100);
+        for (int i = 0; i < offsets.length; ++i)
+        {
+            assertNull(reassembler.getBodyIfComplete());
+            contribute(reassembler, message, offsets[i], Math.min(100, message.length - offsets[i]));
+        }
+
+        assertTrue(Arrays.areEqual(message, reassembler.getBodyIfComplete()));
+    }
+
+    public void testOverlappingFragments()
+    {
+        byte[] message = new byte[5000];
+        random.nextBytes(message);
+
+        for (int round = 0; round < 100; ++round)
+        {
+            DTLSReassembler reassembler = new DTLSReassembler(HandshakeType.certificate, message.length);
+            boolean[] received = new boolean[message.length];
+
+            while (reassembler.getBodyIfComplete() == null)
+            {
+                int offset = random.nextInt(message.length);
+                int length = Math.min(random.nextInt(300), message.length - offset);
+                contribute(reassembler, message, offset, length);
+
+                for (int i = offset; i < offset + length; ++i)
+                {
+                    received[i] = true;
+                }
+                assertEquals(isAllTrue(received), reassembler.getBodyIfComplete() != null);
+            }
+
+            assertTrue(Arrays.areEqual(message, reassembler.getBodyIfComplete()));
+        }
+    }
+
+    public void testReceivedBytesAreKept()
+    {
+        byte[] message = new byte[1000];
+        random.nextBytes(message);
+
+        DTLSReassembler reassembler = new DTLSReassembler(HandshakeType.certificate, message.length);
+        contribute(reassembler, message, 200, 100);
+
+        // a different fragment over the same range does not replace what was received
+        byte[] other = Arrays.clone(message);
+        for (int i = 150; i < 350; ++i)
+        {
+            other[i] = 0x5A;
+        }
+        contribute(reassembler, other, 150, 200);
+
+        contribute(reassembler, message, 0, message.length);
+        byte[] body = reassembler.getBodyIfComplete();
+        assertTrue(Arrays.areEqual(Arrays.copyOfRange(other, 150, 200), Arrays.copyOfRange(body, 150, 200)));
+        assertTrue(Arrays.areEqual(Arrays.copyOfRange(message, 200, 300), Arrays.copyOfRange(body, 200, 300)));
+        assertTrue(Arrays.areEqual(Arrays.copyOfRange(other, 300, 350), Arrays.copyOfRange(body, 300, 350)));
+    }
+
+    public void testInvalidFragmentsAreIgnored()
+    {
+        byte[] message = new byte[100];
+        DTLSReassembler reassembler = new DTLSReassembler(HandshakeType.certificate, message.length);
+
+        reassembler.contributeFragment(HandshakeType.finished, message.length, message, 0, 0, message.length);
+        reassembler.contributeFragment(HandshakeType.certificate, message.length + 1, message, 0, 0, message.length);
+        reassembler.contributeFragment(HandshakeType.certificate, message.length, message, 0, 50, message.length - 49);
+        assertNull(reassembler.getBodyIfComplete());
+
+        contribute(reassembler, message, 0, message.length);
+        assertNotNull(reassembler.getBodyIfComplete());
+    }
+
+    public void testEmptyMessage()
+    {
+        DTLSReassembler reassembler = new DTLSReassembler(HandshakeType.server_hello_done, 0);
+        assertNull(reassembler.getBodyIfComplete());
+
+        reassembler.contributeFragment(HandshakeType.server_hello_done, 0, TlsUtils.EMPTY_BYTES, 0, 0, 0);
+        assertEquals(0, reassembler.getBodyIfComplete().length);
+
+        reassembler.reset();
+        assertNull(reassembler.getBodyIfComplete());
+    }
+
+    public void testReset()
+    {
+        byte[] message = new byte[1000];
+        random.nextBytes(message);
+
+        DTLSReassembler reassembler = new DTLSReassembler(HandshakeType.certificate, message.length);
+        contribute(reassembler, message, 0, message.length);
+        assertNotNull(reassembler.getBodyIfComplete());
+
+        reassembler.reset();
+        contribute(reassembler, message, 0, 999);
+        assertNull(reassembler.getBodyIfComplete());
+        contribute(reassembler, message, 999, 1);
+        assertTrue(Arrays.areEqual(message, reassembler.getBodyIfComplete()));
+    }
+
+    public void testInboundFlight()
+    {
+        DTLSInboundFlight flight = new DTLSInboundFlight();
+        assertEquals(-1, flight.getHighestSeq());
+        assertTrue(flight.isComplete());
+
+        int[] seqs = new int[]{ 7, 3, 12, 5, 4, 9, 11, 6, 10, 8, 13, 14 };
+        DTLSReassembler[] reassemblers = new DTLSReassembler[seqs.length];
+        for (int i = 0; i < seqs.length; ++i)
+        {
+            reassemblers[i] = new DTLSReassembler(HandshakeType.certificate, 10);
+            flight.put(seqs[i], reassemblers[i]);
+        }
+
+        for (int i = 0; i < seqs.length; ++i)
+        {
+            assertSame(reassemblers[i], flight.get(seqs[i]));
+        }
+        assertNull(flight.get(0));
+        assertNull(flight.get(15));
+        assertEquals(14, flight.getHighestSeq());
+
+        assertFalse(flight.isComplete());
+        for (int i = 0; i < seqs.length; ++i)
+        {
+            contribute(reassemblers[i], new byte[10], 0, 10);
+        }
+        assertTrue(flight.isComplete());
+
+        flight.reset();
+        assertFalse(flight.isComplete());
+    }
+
+    public static TestSuite suite()
+    {
+        return new TestSuite(DTLSReassemblerTest.class);
+    }
+
+    static int[] createShuffledOffsets(int length, int fragmentLength, SecureRandom random)
+    {
+        int[] offsets = new int[(length + fragmentLength - 1) / fragmentLength];
+        for (int i = 0; i < offsets.length; ++i)
+        {
+            offsets[i] = i * fragmentLength;
+        }
+        for (int i = offsets.length - 1; i > 0; --i)
+        {
+            int j = random.nextInt(i + 1);
+            int tmp = offsets[i];
+            offsets[i] = offsets[j];
+            offsets[j] = tmp;
+        }
+        return offsets;
+    }
+
+    private int[] createShuffledOffsets(int length, int fragmentLength)
+    {
+        return createShuffledOffsets(length, fragmentLength, random);
+    }
+
+    private static void contribute(DTLSReassembler reassembler, byte[] message, int offset, int length)
+    {
+        reassembler.contributeFragment(reassembler.getType(), message.length, message, offset, offset, length);
+    }
+
+    private static boolean isAllTrue(boolean[] flags)
+    {
+        for (int i = 0; i < flags.length; ++i)
+        {
+            if (!flags[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,326 @@
+package org.bouncycastle.crypto.tls;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.bouncycastle.crypto.tls.test.MockDTLSClient;
+import org.bouncycastle.crypto.tls.test.MockDTLSServer;
+import org.bouncycastle.util.Arrays;
+
+/**
+ * Drives the server side of handshakes by events (see DTLSServerProtocol#beginHandshake), from a
+ * single thread that never waits on a transport.
+ * <p/>
+ * NOTE: In this package, rather than with the other TLS tests, since the event-driven handshake is
+ * package-private.
+ */
+public class DTLSServerHandshakeTest
+    extends TestCase
+{
+    private static final int MTU = 1500;
+
+    private final SecureRandom secureRandom = new SecureRandom();
+
+    public void testHandshake()
+        throws Exception
+    {
+        Events events = new Events();
+        DTLSTimerWheel timerWheel = new DTLSTimerWheel();
+
+        try
+        {
+            ClientTransport clientTransport = new ClientTransport(events);
+            ClientThread client = new ClientThread(clientTransport);
+            client.start();
+
+            DTLSTransport server = runServer(events, clientTransport, timerWheel, false);
+
+            client.join();
+            assertNull(client.failure);
+            assertNotNull(client.transport);
+            assertNotNull(server);
+        }
+        finally
+        {
+            timerWheel.close();
+        }
+    }
+
+    public void testLostFlightIsResentFromTimer()
+        throws Exception
+    {
+        Events events = new Events();
+        DTLSTimerWheel timerWheel = new DTLSTimerWheel();
+
+        try
+        {
+            // only the timer of the server can recover the flight
+            ClientTransport clientTransport = new ClientTransport(events);
+            clientTransport.dropRetransmissions = true;
+            ClientThread client = new ClientThread(clientTransport);
+            client.start();
+
+            // the first flight of the server (from ServerHello to ServerHelloDone) is lost
+            DTLSTransport server = runServer(events, clientTransport, timerWheel, true);
+
+            client.join();
+            assertNull(client.failure);
+            assertNotNull(client.transport);
+            assertNotNull(server);
+            assertTrue(events.resends > 0);
+        }
+        finally
+        {
+            timerWheel.close();
+        }
+    }
+
+    public static TestSuite suite()
+    {
+        return new TestSuite(DTLSServerHandshakeTest.class);
+    }
+
+    /*
+     * Answers ClientHellos until one is verified, then handshakes with the client by events alone.
+     */
+    private DTLSTransport runServer(Events events, ClientTransport clientTransport, DTLSTimerWheel timerWheel,
+        boolean loseFirstFlight)
+        throws Exception
+    {
+        DTLSServerProtocol protocol = new DTLSServerProtocol(secureRandom);
+        ServerTransport serverTransport = new ServerTransport(clientTransport);
+
+        DTLSRequest request = null;
+        while (request == null)
+        {
+            byte[] datagram = events.next();
+            assertNotNull(datagram);
+            request = protocol.verifier.verifyRequest(TlsUtils.EMPTY_BYTES, datagram, 0, datagram.length,
+                serverTransport);
+        }
+
+        serverTransport.dropping = loseFirstFlight;
+
+        final Events resendEvents = events;
+        DTLSServerProtocol.ServerHandshakeState state = protocol.beginHandshake(new MockDTLSServer(),
+            serverTransport, request, timerWheel, new Runnable()
+            {
+                public void run()
+                {
+                    resendEvents.addResend();
+                }
+            });
+
+        DTLSTransport transport = protocol.continueHandshake(state, null, 0, 0);
+        while (transport == null)
+        {
+            byte[] datagram = events.next();
+            if (datagram == null)
+            {
+                // the resend task has run
+                serverTransport.dropping = false;
+                transport = protocol.continueHandshake(state, null, 0, 0);
+            }
+            else
+            {
+                transport = protocol.continueHandshake(state, datagram, 0, datagram.length);
+            }
+        }
+
+        // no retransmission is left scheduled
+        assertEquals(0L, state.resendTime);
+
+        return transport;
+    }
+
+    /*
+     * The datagrams from the client to the server, and the runs of the resend task, in order
+     */
+    private static class Events
+    {
+        private final Vector queue = new Vector();
+        int resends = 0;
+
+        synchronized void addDatagram(byte[] buf, int off, int len)
+        {
+            queue.addElement(Arrays.copyOfRange(buf, off, off + len));
+            notifyAll();
+        }
+
+        synchronized void addResend()
+        {
+            ++resends;
+            queue.addElement(new byte[0]);
+            notifyAll();
+        }
+
+        /**
+         * @return the next datagram, or null if the resend task has run.
+         */
+        synchronized byte[] next()
+            throws InterruptedException
+        {
+            long end = System.currentTimeMillis() + 30000L;
+            while (queue.isEmpty())
+            {
+                long remaining = end - System.currentTimeMillis();
+                assertTrue("no event", remaining > 0);
+                wait(remaining);
+            }
+            byte[] event = (byte[])queue.elementAt(0);
+            queue.removeElementAt(0);
+            return event.length == 0 ? null : event;
+        }
+    }
+
+    private static class ClientTransport
+        implements DatagramTransport
+    {
+        private final Events events;
+        private final Vector received = new Vector();
+        private final Vector sent = new Vector();
+        boolean dropRetransmissions = false;
+
+        ClientTransport(Events events)
+        {
+            this.events = events;
+        }
+
+        public int getReceiveLimit()
+        {
+            return MTU - 20 - 8;
+        }
+
+        public int getSendLimit()
+        {
+            return MTU - 84 - 8;
+        }
+
+        public synchronized int receive(byte[] buf, int off, int len, int waitMillis)
+            throws IOException
+        {
+            long end = System.currentTimeMillis() + waitMillis;
+            while (received.isEmpty())
+            {
+                long remaining = end - System.currentTimeMillis();
+                if (remaining <= 0)
+                {
+                    return -1;
+                }
+                try
+                {
+                    wait(remaining);
+                }
+                catch (InterruptedException e)
+                {
+                    throw new IOException("Interrupted");
+                }
+            }
+            byte[] datagram = (byte[])received.elementAt(0);
+            received.removeElementAt(0);
+            int length = Math.min(len, datagram.length);
+            System.arraycopy(datagram, 0, buf, off, length);
+            return length;
+        }
+
+        public void send(byte[] buf, int off, int len)
+        {
+            if (dropRetransmissions)
+            {
+                // a retransmitted record differs from the original in its header only
+                byte[] fragment = Arrays.copyOfRange(buf, off + 13, off + len);
+                for (int i = 0; i < sent.size(); ++i)
+                {
+                    if (Arrays.areEqual(fragment, (byte[])sent.elementAt(i)))
+                    {
+                        return;
+                    }
+                }
+                sent.addElement(fragment);
+            }
+            events.addDatagram(buf, off, len);
+        }
+
+        public void close()
+        {
+        }
+
+        synchronized void deliver(byte[] buf, int off, int len)
+        {
+            received.addElement(Arrays.copyOfRange(buf, off, off + len));
+            notifyAll();
+        }
+    }
+
+    /*
+     * Sends to the client, dropping the datagrams while asked to; it is never received from.
+     */
+    private static class ServerTransport
+        implements DatagramTransport
+    {
+        private final ClientTransport client;
+        boolean dropping = false;
+
+        ServerTransport(ClientTransport client)
+        {
+            this.client = client;
+        }
+
+        public int getReceiveLimit()
+        {
+            return MTU - 20 - 8;
+        }
+
+        public int getSendLimit()
+        {
+            return MTU - 84 - 8;
+        }
+
+        public int receive(byte[] buf, int off, int len, int waitMillis)
+        {
+            fail("event-driven handshake received from its transport");
+            return -1;
+        }
+
+        public void send(byte[] buf, int off, int len)
+        {
+            if (!dropping)
+            {
+                client.deliver(buf, off, len);
+            }
+        }
+
+        public void close()
+        {
+        }
+    }
+
+    private class ClientThread
+        extends Thread
+    {
+        private final ClientTransport clientTransport;
+
+        volatile DTLSTransport transport = null;
+        volatile Exception failure = null;
+
+        ClientThread(ClientTransport clientTransport)
+        {
+            this.clientTransport = clientTransport;
+        }
+
+        public void run()
+        {
+            try
+            {
+                transport = new DTLSClientProtocol(secureRandom).connect(new MockDTLSClient(), clientTransport);
+            }
+            catch (Exception e)
+            {
+                failure = e;
+            }
+        }
+    }
+}
@@ -2,6 +2,8 @@ package org.bouncycastle.crypto.tls.test;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
+import org.bouncycastle.crypto.tls.DTLSReassemblerTest;
+import org.bouncycastle.crypto.tls.DTLSServerHandshakeTest;
 
 public class AllTests
 {
@@ -17,6 +19,20 @@ public class AllTests
         TestSuite suite = new TestSuite("TLS tests");
 
         suite.addTest(BasicTlsTest.suite());
+        suite.addTest(ByteQueueTest.suite());
+        suite.addTest(ClientHelloTemplateTest.suite());
+        suite.addTest(DTLSAllocationTest.suite());
+        suite.addTest(DTLSReassemblerTest.suite());
+        suite.addTest(DTLSServerHandshakeTest.suite());
+        suite.addTest(DTLSServerMultiplexerTest.suite());
+        suite.addTest(DTLSTimerWheelTest.suite());
+        suite.addTest(DTLSVerifierTest.suite());
+        suite.addTest(DefaultTlsClientSessionCacheTest.suite());
+        suite.addTest(DefaultTlsSessionCacheTest.suite());
+        suite.addTest(DefaultTlsSessionTicketCodecTest.suite());
+        suite.addTest(TlsCertificateCacheTest.suite());
+        suite.addTest(TlsEphemeralKeyPoolTest.suite());
+        suite.addTest(TlsRSABatchDecryptorTest.suite());
 
         return suite;
     }
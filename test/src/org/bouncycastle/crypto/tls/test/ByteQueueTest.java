@@ -0,0 +1,108 @@
+package org.bouncycastle.crypto.tls.test;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.bouncycastle.crypto.tls.ByteQueue;
+import org.bouncycastle.crypto.tls.TlsRuntimeException;
+import org.bouncycastle.util.Arrays;
+
+public class ByteQueueTest
+    extends TestCase
+{
+    public void testWrapAround()
+    {
+        ByteQueue queue = new ByteQueue();
+
+        byte[] data = new byte[700];
+        for (int i = 0; i < data.length; ++i)
+        {
+            data[i] = (byte)i;
+        }
+
+        byte[] result = new byte[data.length];
+        for (int i = 0; i < 10; ++i)
+        {
+            queue.addData(data, 0, data.length);
+            queue.removeData(result, 0, result.length, 0);
+
+            assertTrue(Arrays.areEqual(data, result));
+            assertEquals(0, queue.size());
+        }
+
+        // the ring buffer must not have grown beyond its initial size
+        assertEquals(1024, queue.getCapacity());
+    }
+
+    public void testReadWithSkip()
+    {
+        ByteQueue queue = new ByteQueue();
+
+        byte[] data = new byte[]{ 1, 2, 3, 4, 5, 6 };
+        queue.addData(data, 0, 3);
+        queue.removeData(1);
+        queue.addData(data, 3, 3);
+
+        byte[] result = new byte[3];
+        queue.read(result, 0, 3, 1);
+        assertTrue(Arrays.areEqual(new byte[]{ 3, 4, 5 }, result));
+        assertEquals(5, queue.size());
+    }
+
+    public void testGrowKeepsOrder()
+    {
+        ByteQueue queue = new ByteQueue();
+
+        byte[] data = new byte[1000];
+        for (int i = 0; i < data.length; ++i)
+        {
+            data[i] = (byte)i;
+        }
+
+        queue.addData(data, 0, data.length);
+        queue.removeData(900);
+        queue.addData(data, 0, data.length);
+        assertEquals(1100, queue.size());
+
+        byte[] result = new byte[1100];
+        queue.read(result, 0, result.length, 0);
+        assertTrue(Arrays.areEqual(Arrays.copyOfRange(data, 900, 1000), Arrays.copyOfRange(result, 0, 100)));
+        assertTrue(Arrays.areEqual(data, Arrays.copyOfRange(result, 100, 1100)));
+    }
+
+    public void testLimit()
+    {
+        ByteQueue queue = new ByteQueue(10);
+
+        queue.addData(new byte[10], 0, 10);
+        assertEquals(10, queue.getCapacity());
+
+        try
+        {
+            queue.addData(new byte[1], 0, 1);
+            fail("queue limit not enforced");
+        }
+        catch (TlsRuntimeException e)
+        {
+            // expected
+        }
+    }
+
+    public void testShrink()
+    {
+        ByteQueue queue = new ByteQueue();
+        assertEquals(0, queue.getCapacity());
+
+        queue.addData(new byte[5], 0, 5);
+        queue.shrink();
+        assertEquals(1024, queue.getCapacity());
+
+        queue.removeData(5);
+        queue.shrink();
+        assertEquals(0, queue.getCapacity());
+    }
+
+    public static TestSuite suite()
+    {
+        return new TestSuite(ByteQueueTest.class);
+    }
+}
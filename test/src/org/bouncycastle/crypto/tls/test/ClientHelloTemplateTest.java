@@ -0,0 +1,148 @@
+package org.bouncycastle.crypto.tls.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Hashtable;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.bouncycastle.crypto.tls.CipherSuite;
+import org.bouncycastle.crypto.tls.ClientHelloTemplate;
+import org.bouncycastle.crypto.tls.CompressionMethod;
+import org.bouncycastle.crypto.tls.ExtensionType;
+import org.bouncycastle.crypto.tls.HandshakeType;
+import org.bouncycastle.crypto.tls.ProtocolVersion;
+import org.bouncycastle.crypto.tls.TlsUtils;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.Integers;
+
+public class ClientHelloTemplateTest
+    extends TestCase
+{
+    private static final int[] CIPHER_SUITES = new int[]{ CipherSuite.TLS_RSA_WITH_AES_128_CBC_SHA,
+        CipherSuite.TLS_RSA_WITH_AES_256_CBC_SHA };
+    private static final short[] COMPRESSION_METHODS = new short[]{ CompressionMethod._null };
+
+    private static final byte[] SERVER_NAME = new byte[]{ 0, 1, 2, 3 };
+
+    public void testEncoding()
+        throws IOException
+    {
+        ClientHelloTemplate template = new ClientHelloTemplate(ProtocolVersion.TLSv11, CIPHER_SUITES,
+            COMPRESSION_METHODS, createExtensions());
+
+        byte[] random = createBytes(32, 1);
+        byte[] sessionID = createBytes(32, 2);
+
+        assertTrue(Arrays.areEqual(encode(random, sessionID, null, true),
+            template.encode(random, sessionID, null)));
+        assertTrue(Arrays.areEqual(encode(random, TlsUtils.EMPTY_BYTES, null, true),
+            template.encode(random, TlsUtils.EMPTY_BYTES, null)));
+
+        // only the random and session ID differ between connections
+        byte[] otherRandom = createBytes(32, 3);
+        assertTrue(Arrays.areEqual(encode(otherRandom, sessionID, null, true),
+            template.encode(otherRandom, sessionID, null)));
+    }
+
+    public void testSessionTicketIsAppended()
+        throws IOException
+    {
+        byte[] random = createBytes(32, 1);
+        byte[] ticket = createBytes(100, 4);
+
+        ClientHelloTemplate template = new ClientHelloTemplate(ProtocolVersion.TLSv11, CIPHER_SUITES,
+            COMPRESSION_METHODS, createExtensions());
+        assertTrue(Arrays.areEqual(encode(random, TlsUtils.EMPTY_BYTES, ticket, true),
+            template.encode(random, TlsUtils.EMPTY_BYTES, ticket)));
+        assertTrue(Arrays.areEqual(encode(random, TlsUtils.EMPTY_BYTES, TlsUtils.EMPTY_BYTES, true),
+            template.encode(random, TlsUtils.EMPTY_BYTES, TlsUtils.EMPTY_BYTES)));
+
+        // without other extensions, the ticket is sent on its own
+        template = new ClientHelloTemplate(ProtocolVersion.TLSv11, CIPHER_SUITES, COMPRESSION_METHODS, null);
+        assertTrue(Arrays.areEqual(encode(random, TlsUtils.EMPTY_BYTES, null, false),
+            template.encode(random, TlsUtils.EMPTY_BYTES, null)));
+        assertTrue(Arrays.areEqual(encode(random, TlsUtils.EMPTY_BYTES, ticket, false),
+            template.encode(random, TlsUtils.EMPTY_BYTES, ticket)));
+    }
+
+    public void testTemplateIsImmutable()
+        throws IOException
+    {
+        int[] cipherSuites = Arrays.clone(CIPHER_SUITES);
+        Hashtable extensions = createExtensions();
+
+        ClientHelloTemplate template = new ClientHelloTemplate(ProtocolVersion.TLSv11, cipherSuites,
+            COMPRESSION_METHODS, extensions);
+
+        cipherSuites[0] = CipherSuite.TLS_RSA_WITH_NULL_SHA;
+        extensions.clear();
+        template.getCipherSuites()[0] = CipherSuite.TLS_RSA_WITH_NULL_SHA;
+        template.getClientExtensions().clear();
+
+        assertTrue(Arrays.areEqual(CIPHER_SUITES, template.getCipherSuites()));
+        assertEquals(1, template.getClientExtensions().size());
+
+        byte[] random = createBytes(32, 1);
+        assertTrue(Arrays.areEqual(encode(random, TlsUtils.EMPTY_BYTES, null, true),
+            template.encode(random, TlsUtils.EMPTY_BYTES, null)));
+    }
+
+    public static TestSuite suite()
+    {
+        return new TestSuite(ClientHelloTemplateTest.class);
+    }
+
+    private static Hashtable createExtensions()
+    {
+        Hashtable extensions = new Hashtable();
+        extensions.put(Integers.valueOf(ExtensionType.server_name), SERVER_NAME);
+        return extensions;
+    }
+
+    private static byte[] createBytes(int length, int value)
+    {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte)value);
+        return bytes;
+    }
+
+    /*
+     * Encodes a ClientHello the same way as TlsClientProtocol
+     */
+    private static byte[] encode(byte[] random, byte[] sessionID, byte[] ticket, boolean withServerName)
+        throws IOException
+    {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        TlsUtils.writeUint8(HandshakeType.client_hello, buf);
+        TlsUtils.writeUint24(0, buf);
+        TlsUtils.writeVersion(ProtocolVersion.TLSv11, buf);
+        buf.write(random);
+        TlsUtils.writeOpaque8(sessionID, buf);
+        TlsUtils.writeUint16(2 * (CIPHER_SUITES.length + 1), buf);
+        TlsUtils.writeUint16Array(CIPHER_SUITES, buf);
+        TlsUtils.writeUint16(CipherSuite.TLS_EMPTY_RENEGOTIATION_INFO_SCSV, buf);
+        TlsUtils.writeUint8((short)COMPRESSION_METHODS.length, buf);
+        TlsUtils.writeUint8Array(COMPRESSION_METHODS, buf);
+
+        if (withServerName || ticket != null)
+        {
+            ByteArrayOutputStream ext = new ByteArrayOutputStream();
+            if (withServerName)
+            {
+                TlsUtils.writeUint16(ExtensionType.server_name, ext);
+                TlsUtils.writeOpaque16(SERVER_NAME, ext);
+            }
+            if (ticket != null)
+            {
+                TlsUtils.writeUint16(ExtensionType.session_ticket, ext);
+                TlsUtils.writeOpaque16(ticket, ext);
+            }
+            TlsUtils.writeOpaque16(ext.toByteArray(), buf);
+        }
+
+        byte[] message = buf.toByteArray();
+        TlsUtils.writeUint24(message.length - 4, message, 1);
+        return message;
+    }
+}
@@ -0,0 +1,267 @@
+package org.bouncycastle.crypto.tls.test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.security.SecureRandom;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.bouncycastle.crypto.tls.DTLSClientProtocol;
+import org.bouncycastle.crypto.tls.DTLSServerProtocol;
+import org.bouncycastle.crypto.tls.DTLSTransport;
+import org.bouncycastle.crypto.tls.DatagramTransport;
+
+/**
+ * Checks that, once a DTLS association carries application data, sending and receiving a datagram
+ * allocates nothing. The datagrams go through a transport that allocates nothing itself either.
+ */
+public class DTLSAllocationTest
+    extends TestCase
+{
+    private static final int MTU = 1500;
+    private static final int NUM_DATAGRAMS = 1000;
+
+    /*
+     * Allowance for what reading the allocation counter itself allocates (about 1 KB); even a single
+     * small allocation per datagram would exceed it many times over
+     */
+    private static final long MAX_ALLOCATED_BYTES = 4096;
+
+    public void testApplicationDataDoesNotAllocate()
+        throws Exception
+    {
+        SecureRandom secureRandom = new NonAllocatingRandom();
+
+        LoopbackTransport clientTransport = new LoopbackTransport();
+        LoopbackTransport serverTransport = new LoopbackTransport();
+        clientTransport.peer = serverTransport;
+        serverTransport.peer = clientTransport;
+
+        ServerThread serverThread = new ServerThread(new DTLSServerProtocol(secureRandom), serverTransport);
+        serverThread.start();
+
+        DTLSTransport client = new DTLSClientProtocol(secureRandom).connect(new MockDTLSClient(), clientTransport);
+
+        serverThread.join();
+        if (serverThread.failure != null)
+        {
+            fail(serverThread.failure.toString());
+        }
+        DTLSTransport server = serverThread.server;
+
+        byte[] data = new byte[Math.min(client.getSendLimit(), server.getSendLimit())];
+        secureRandom.nextBytes(data);
+        byte[] buf = new byte[Math.max(client.getReceiveLimit(), server.getReceiveLimit())];
+
+        // warm up, also letting the record layers grow their buffers
+        for (int i = 0; i < NUM_DATAGRAMS; ++i)
+        {
+            exchange(client, server, data, buf);
+        }
+
+        long startAllocated = getAllocatedBytes();
+        for (int i = 0; i < NUM_DATAGRAMS; ++i)
+        {
+            exchange(client, server, data, buf);
+        }
+        long endAllocated = getAllocatedBytes();
+
+        client.close();
+        server.close();
+
+        if (startAllocated < 0 || endAllocated < 0)
+        {
+            // allocation counting not supported by this JVM
+            return;
+        }
+
+        long allocated = endAllocated - startAllocated;
+        assertTrue("allocated " + allocated + " bytes for " + 2 * NUM_DATAGRAMS + " datagrams",
+            allocated <= MAX_ALLOCATED_BYTES);
+    }
+
+    public static TestSuite suite()
+    {
+        return new TestSuite(DTLSAllocationTest.class);
+    }
+
+    private static void exchange(DTLSTransport client, DTLSTransport server, byte[] data, byte[] buf)
+        throws IOException
+    {
+        client.send(data, 0, data.length);
+        assertEquals(data.length, server.receive(buf, 0, buf.length, 1000));
+
+        server.send(data, 0, data.length);
+        assertEquals(data.length, client.receive(buf, 0, buf.length, 1000));
+    }
+
+    /**
+     * Uses com.sun.management.ThreadMXBean, where available, to count the bytes allocated by the
+     * current thread.
+     *
+     * @return the allocated byte count, or -1 if it cannot be determined.
+     */
+    private static long getAllocatedBytes()
+    {
+        try
+        {
+            Class beanClass = Class.forName("com.sun.management.ThreadMXBean");
+            Method method = beanClass.getMethod("getThreadAllocatedBytes", new Class[]{ long.class });
+            Object result = method.invoke(ManagementFactory.getThreadMXBean(),
+                new Object[]{ new Long(Thread.currentThread().getId()) });
+            return ((Long)result).longValue();
+        }
+        catch (Exception e)
+        {
+            return -1;
+        }
+    }
+
+    /*
+     * The record layer draws on the SecureRandom for each record (explicit IVs, padding lengths),
+     * and the JDK implementations allocate on each call, so that allocation is not the record
+     * layer's own. This xorshift generator, which is NOT secure, allocates nothing.
+     */
+    private static class NonAllocatingRandom
+        extends SecureRandom
+    {
+        private long state = new SecureRandom().nextLong() | 1L;
+
+        public synchronized void nextBytes(byte[] bytes)
+        {
+            for (int i = 0; i < bytes.length; ++i)
+            {
+                bytes[i] = (byte)nextLong();
+            }
+        }
+
+        public int nextInt()
+        {
+            return (int)nextLong();
+        }
+
+        public synchronized long nextLong()
+        {
+            state ^= state << 13;
+            state ^= state >>> 7;
+            state ^= state << 17;
+            return state;
+        }
+    }
+
+    /*
+     * Delivers datagrams to its peer through a fixed ring of preallocated slots, dropping them when
+     * the ring is full, as a socket would.
+     */
+    private static class LoopbackTransport
+        implements DatagramTransport
+    {
+        private final byte[][] slots = new byte[16][MTU];
+        private final int[] lengths = new int[16];
+        private int head = 0, count = 0;
+        private boolean closed = false;
+
+        LoopbackTransport peer;
+
+        // Like UDPTransport, allowing for IP and UDP headers
+        public int getReceiveLimit()
+        {
+            return MTU - 20 - 8;
+        }
+
+        public int getSendLimit()
+        {
+            return MTU - 84 - 8;
+        }
+
+        public synchronized int receive(byte[] buf, int off, int len, int waitMillis)
+            throws IOException
+        {
+            long end = System.currentTimeMillis() + waitMillis;
+            while (count == 0 && !closed)
+            {
+                long remaining = end - System.currentTimeMillis();
+                if (remaining <= 0)
+                {
+                    return -1;
+                }
+                try
+                {
+                    wait(remaining);
+                }
+                catch (InterruptedException e)
+                {
+                    throw new IOException("Interrupted");
+                }
+            }
+            if (count == 0)
+            {
+                return -1;
+            }
+
+            int length = Math.min(len, lengths[head]);
+            System.arraycopy(slots[head], 0, buf, off, length);
+            head = (head + 1) % slots.length;
+            --count;
+            return length;
+        }
+
+        public void send(byte[] buf, int off, int len)
+            throws IOException
+        {
+            peer.deliver(buf, off, len);
+        }
+
+        public void close()
+        {
+            peer.closePeer();
+        }
+
+        private synchronized void deliver(byte[] buf, int off, int len)
+        {
+            if (count < slots.length && !closed)
+            {
+                int tail = (head + count) % slots.length;
+                System.arraycopy(buf, off, slots[tail], 0, len);
+                lengths[tail] = len;
+                ++count;
+                notifyAll();
+            }
+        }
+
+        private synchronized void closePeer()
+        {
+            closed = true;
+            notifyAll();
+        }
+    }
+
+    private static class ServerThread
+        extends Thread
+    {
+        private final DTLSServerProtocol serverProtocol;
+        private final DatagramTransport serverTransport;
+
+        volatile DTLSTransport server = null;
+        volatile Exception failure = null;
+
+        ServerThread(DTLSServerProtocol serverProtocol, DatagramTransport serverTransport)
+        {
+            this.serverProtocol = serverProtocol;
+            this.serverTransport = serverTransport;
+        }
+
+        public void run()
+        {
+            try
+            {
+                server = serverProtocol.accept(new MockDTLSServer(), serverTransport);
+            }
+            catch (Exception e)
+            {
+                failure = e;
+            }
+        }
+    }
+}
@@ -0,0 +1,424 @@
+package org.bouncycastle.crypto.tls.test;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.security.SecureRandom;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.bouncycastle.crypto.tls.DTLSAssociation;
+import org.bouncycastle.crypto.tls.DTLSAssociationHandler;
+import org.bouncycastle.crypto.tls.DTLSClientProtocol;
+import org.bouncycastle.crypto.tls.DTLSServerMultiplexer;
+import org.bouncycastle.crypto.tls.DTLSTransport;
+import org.bouncycastle.crypto.tls.DatagramTransport;
+import org.bouncycastle.crypto.tls.TlsServer;
+import org.bouncycastle.crypto.tls.UDPTransport;
+import org.bouncycastle.util.Arrays;
+
+public class DTLSServerMultiplexerTest
+    extends TestCase
+{
+    private static final int MTU = 1500;
+
+    public void testConcurrentClients()
+        throws Exception
+    {
+        SecureRandom secureRandom = new SecureRandom();
+        EchoHandler handler = new EchoHandler();
+
+        DatagramSocket serverSocket = new DatagramSocket(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+        DTLSServerMultiplexer multiplexer = new DTLSServerMultiplexer(serverSocket, MTU, handler, secureRandom, 2);
+        multiplexer.start();
+
+        try
+        {
+            ClientThread[] clients = new ClientThread[4];
+            for (int i = 0; i < clients.length; ++i)
+            {
+                clients[i] = new ClientThread(serverSocket.getLocalSocketAddress(), secureRandom, i + 1);
+                clients[i].start();
+            }
+            for (int i = 0; i < clients.length; ++i)
+            {
+                clients[i].join();
+                if (clients[i].failure != null)
+                {
+                    fail(clients[i].failure.toString());
+                }
+            }
+
+            assertEquals(clients.length, handler.connected.size());
+            assertEquals(clients.length, waitForClosed(handler, clients.length));
+            assertEquals(0, multiplexer.getAssociationCount());
+        }
+        finally
+        {
+            multiplexer.close();
+        }
+    }
+
+    public void testIdleAssociationsExpire()
+        throws Exception
+    {
+        SecureRandom secureRandom = new SecureRandom();
+        EchoHandler handler = new EchoHandler();
+
+        DatagramSocket serverSocket = new DatagramSocket(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+        DTLSServerMultiplexer multiplexer = new DTLSServerMultiplexer(serverSocket, MTU, handler, secureRandom, 1);
+        multiplexer.setIdleTimeoutMillis(500L);
+        multiplexer.start();
+
+        try
+        {
+            DatagramSocket socket = new DatagramSocket();
+            socket.connect(serverSocket.getLocalSocketAddress());
+            new DTLSClientProtocol(secureRandom).connect(new MockDTLSClient(), new UDPTransport(socket, MTU));
+
+            assertEquals(1, multiplexer.getAssociationCount());
+            assertEquals(1, waitForClosed(handler, 1));
+            assertEquals(0, multiplexer.getAssociationCount());
+
+            socket.close();
+        }
+        finally
+        {
+            multiplexer.close();
+        }
+    }
+
+    public void testClientReconnectsFromSameAddress()
+        throws Exception
+    {
+        SecureRandom secureRandom = new SecureRandom();
+        EchoHandler handler = new EchoHandler();
+
+        DatagramSocket serverSocket = new DatagramSocket(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+        DTLSServerMultiplexer multiplexer = new DTLSServerMultiplexer(serverSocket, MTU, handler, secureRandom, 2);
+        multiplexer.start();
+
+        try
+        {
+            DatagramSocket socket = new DatagramSocket();
+            socket.connect(serverSocket.getLocalSocketAddress());
+
+            DTLSTransport first = new DTLSClientProtocol(secureRandom).connect(new MockDTLSClient(),
+                new UDPTransport(socket, MTU));
+            checkEcho(first, 1);
+
+            // the client loses its state, and connects again from the same address and port
+            DTLSTransport second = new DTLSClientProtocol(secureRandom).connect(new MockDTLSClient(),
+                new UDPTransport(socket, MTU));
+            checkEcho(second, 2);
+
+            assertEquals(2, handler.connected.size());
+            assertEquals(1, waitForClosed(handler, 1));
+            assertSame(handler.connected.elementAt(0), handler.closed.elementAt(0));
+            assertEquals(1, multiplexer.getAssociationCount());
+
+            second.close();
+            socket.close();
+        }
+        finally
+        {
+            multiplexer.close();
+        }
+    }
+
+    public void testStalledHandshakeHoldsNoWorker()
+        throws Exception
+    {
+        SecureRandom secureRandom = new SecureRandom();
+        EchoHandler handler = new EchoHandler();
+
+        DatagramSocket serverSocket = new DatagramSocket(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+        DTLSServerMultiplexer multiplexer = new DTLSServerMultiplexer(serverSocket, MTU, handler, secureRandom, 1);
+        multiplexer.start();
+
+        StalledClientThread stalled = new StalledClientThread(serverSocket.getLocalSocketAddress(), secureRandom);
+        stalled.start();
+
+        try
+        {
+            assertEquals(1, waitForAssociations(multiplexer, 1));
+
+            // the only worker is free to handshake with another client meanwhile
+            DatagramSocket socket = new DatagramSocket();
+            socket.connect(serverSocket.getLocalSocketAddress());
+            DTLSTransport dtlsClient = new DTLSClientProtocol(secureRandom).connect(new MockDTLSClient(),
+                new UDPTransport(socket, MTU));
+            checkEcho(dtlsClient, 1);
+
+            assertEquals(1, handler.connected.size());
+            assertEquals(2, multiplexer.getAssociationCount());
+
+            dtlsClient.close();
+            socket.close();
+        }
+        finally
+        {
+            stalled.finish();
+            multiplexer.close();
+        }
+    }
+
+    public void testHandshakesLimitedPerAddress()
+        throws Exception
+    {
+        SecureRandom secureRandom = new SecureRandom();
+        EchoHandler handler = new EchoHandler();
+
+        DatagramSocket serverSocket = new DatagramSocket(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+        DTLSServerMultiplexer multiplexer = new DTLSServerMultiplexer(serverSocket, MTU, handler, secureRandom, 2);
+        multiplexer.setMaxHandshakesPerAddress(1);
+        multiplexer.setHandshakeTimeoutMillis(2000L);
+        multiplexer.start();
+
+        StalledClientThread first = new StalledClientThread(serverSocket.getLocalSocketAddress(), secureRandom);
+        StalledClientThread second = new StalledClientThread(serverSocket.getLocalSocketAddress(), secureRandom);
+
+        try
+        {
+            first.start();
+            assertEquals(1, waitForAssociations(multiplexer, 1));
+
+            // the verified ClientHello from another port of the same host is ignored
+            second.start();
+            second.waitForVerified();
+            Thread.sleep(200L);
+            assertEquals(1, multiplexer.getAssociationCount());
+
+            // once the first handshake has timed out, the host can handshake again
+            assertEquals(0, waitForAssociations(multiplexer, 0));
+
+            DatagramSocket socket = new DatagramSocket();
+            socket.connect(serverSocket.getLocalSocketAddress());
+            DTLSTransport dtlsClient = new DTLSClientProtocol(secureRandom).connect(new MockDTLSClient(),
+                new UDPTransport(socket, MTU));
+            checkEcho(dtlsClient, 1);
+
+            dtlsClient.close();
+            socket.close();
+        }
+        finally
+        {
+            first.finish();
+            second.finish();
+            multiplexer.close();
+        }
+    }
+
+    public static TestSuite suite()
+    {
+        return new TestSuite(DTLSServerMultiplexerTest.class);
+    }
+
+    private static int waitForClosed(EchoHandler handler, int count)
+        throws InterruptedException
+    {
+        synchronized (handler)
+        {
+            long end = System.currentTimeMillis() + 10000L;
+            while (handler.closed.size() < count && System.currentTimeMillis() < end)
+            {
+                handler.wait(100L);
+            }
+            return handler.closed.size();
+        }
+    }
+
+    private static int waitForAssociations(DTLSServerMultiplexer multiplexer, int count)
+        throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + 10000L;
+        while (multiplexer.getAssociationCount() != count && System.currentTimeMillis() < end)
+        {
+            Thread.sleep(20L);
+        }
+        return multiplexer.getAssociationCount();
+    }
+
+    private static void checkEcho(DTLSTransport dtlsClient, int id)
+        throws IOException
+    {
+        byte[] buf = new byte[dtlsClient.getReceiveLimit()];
+        for (int i = 1; i <= 5; ++i)
+        {
+            byte[] data = new byte[i];
+            Arrays.fill(data, (byte)id);
+            dtlsClient.send(data, 0, data.length);
+
+            int length = dtlsClient.receive(buf, 0, buf.length, 5000);
+            assertTrue(Arrays.areEqual(data, Arrays.copyOfRange(buf, 0, length)));
+        }
+    }
+
+    static class EchoHandler
+        implements DTLSAssociationHandler
+    {
+        final Vector connected = new Vector();
+        final Vector closed = new Vector();
+
+        public TlsServer createServer(SocketAddress peerAddress)
+        {
+            return new MockDTLSServer();
+        }
+
+        public void notifyConnected(DTLSAssociation association)
+        {
+            connected.addElement(association);
+        }
+
+        public void notifyReceived(DTLSAssociation association, byte[] buf, int off, int len)
+            throws IOException
+        {
+            association.send(buf, off, len);
+        }
+
+        public synchronized void notifyClosed(DTLSAssociation association)
+        {
+            closed.addElement(association);
+            notifyAll();
+        }
+    }
+
+    static class ClientThread
+        extends Thread
+    {
+        private final SocketAddress serverAddress;
+        private final SecureRandom secureRandom;
+        private final int id;
+
+        volatile Throwable failure = null;
+
+        ClientThread(SocketAddress serverAddress, SecureRandom secureRandom, int id)
+        {
+            this.serverAddress = serverAddress;
+            this.secureRandom = secureRandom;
+            this.id = id;
+        }
+
+        public void run()
+        {
+            try
+            {
+                DatagramSocket socket = new DatagramSocket();
+                socket.connect(serverAddress);
+
+                DTLSTransport dtlsClient = new DTLSClientProtocol(secureRandom).connect(new MockDTLSClient(),
+                    new UDPTransport(socket, MTU));
+
+                checkEcho(dtlsClient, id);
+
+                dtlsClient.close();
+                socket.close();
+            }
+            catch (Throwable t)
+            {
+                failure = t;
+            }
+        }
+    }
+
+    /*
+     * A client that answers the HelloVerifyRequest, then sends nothing more, until finished.
+     */
+    static class StalledClientThread
+        extends Thread
+        implements DatagramTransport
+    {
+        private final DatagramSocket socket;
+        private final UDPTransport transport;
+        private final SecureRandom secureRandom;
+        private int sent = 0;
+        private volatile boolean finished = false;
+
+        StalledClientThread(SocketAddress serverAddress, SecureRandom secureRandom)
+            throws IOException
+        {
+            this.socket = new DatagramSocket();
+            socket.connect(serverAddress);
+            this.transport = new UDPTransport(socket, MTU);
+            this.secureRandom = secureRandom;
+        }
+
+        public void run()
+        {
+            try
+            {
+                new DTLSClientProtocol(secureRandom).connect(new MockDTLSClient(), this);
+            }
+            catch (Exception e)
+            {
+                // Finished
+            }
+        }
+
+        /*
+         * NOTE: The client takes an IOException from its transport for a timeout, so it is stopped
+         * by a runtime exception instead.
+         */
+        void finish()
+            throws InterruptedException
+        {
+            finished = true;
+            socket.close();
+            join();
+        }
+
+        synchronized void waitForVerified()
+            throws InterruptedException
+        {
+            long end = System.currentTimeMillis() + 10000L;
+            while (sent < 2 && System.currentTimeMillis() < end)
+            {
+                wait(100L);
+            }
+            assertTrue(sent >= 2);
+        }
+
+        public int getReceiveLimit()
+            throws IOException
+        {
+            return transport.getReceiveLimit();
+        }
+
+        public int getSendLimit()
+            throws IOException
+        {
+            return transport.getSendLimit();
+        }
+
+        public int receive(byte[] buf, int off, int len, int waitMillis)
+            throws IOException
+        {
+            if (finished)
+            {
+                throw new IllegalStateException("Client finished");
+            }
+            return transport.receive(buf, off, len, waitMillis);
+        }
+
+        // only the ClientHello, and the ClientHello with the cookie, are sent
+        public synchronized void send(byte[] buf, int off, int len)
+            throws IOException
+        {
+            if (sent < 2)
+            {
+                transport.send(buf, off, len);
+                ++sent;
+                notifyAll();
+            }
+        }
+
+        public void close()
+            throws IOException
+        {
+            transport.close();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package org.bouncycastle.crypto.tls.test;
+
+import java.util.Vector;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.bouncycastle.crypto.tls.DTLSTimerWheel;
+
+public class DTLSTimerWheelTest
+    extends TestCase
+{
+    public void testTimersFireInOrder()
+        throws Exception
+    {
+        DTLSTimerWheel wheel = new DTLSTimerWheel(10L, 8);
+        Fired fired = new Fired();
+
+        long start = System.currentTimeMillis();
+
+        // the later delays wrap around the wheel more than once
+        wheel.schedule(fired.task("c"), 300L);
+        wheel.schedule(fired.task("a"), 20L);
+        wheel.schedule(fired.task("b"), 150L);
+
+        fired.waitFor(3);
+        assertEquals("a", fired.names.elementAt(0));
+        assertEquals("b", fired.names.elementAt(1));
+        assertEquals("c", fired.names.elementAt(2));
+
+        // no timer fires early
+        assertTrue(((Long)fired.times.elementAt(0)).longValue() - start >= 20L);
+        assertTrue(((Long)fired.times.elementAt(1)).longValue() - start >= 150L);
+        assertTrue(((Long)fired.times.elementAt(2)).longValue() - start >= 300L);
+
+        wheel.close();
+    }
+
+    public void testCancel()
+        throws Exception
+    {
+        DTLSTimerWheel wheel = new DTLSTimerWheel(10L, 8);
+        Fired fired = new Fired();
+
+        DTLSTimerWheel.Timeout cancelled = wheel.schedule(fired.task("cancelled"), 50L);
+        DTLSTimerWheel.Timeout kept = wheel.schedule(fired.task("kept"), 100L);
+
+        assertTrue(cancelled.cancel());
+        assertFalse(cancelled.cancel());
+
+        fired.waitFor(1);
+        Thread.sleep(100L);
+        assertEquals(1, fired.names.size());
+        assertEquals("kept", fired.names.elementAt(0));
+
+        // too late to cancel once it has fired
+        assertFalse(kept.cancel());
+
+        wheel.close();
+    }
+
+    public void testManyTimers()
+        throws Exception
+    {
+        DTLSTimerWheel wheel = new DTLSTimerWheel(5L, 16);
+        Fired fired = new Fired();
+
+        DTLSTimerWheel.Timeout[] timeouts = new DTLSTimerWheel.Timeout[1000];
+        for (int i = 0; i < timeouts.length; ++i)
+        {
+            timeouts[i] = wheel.schedule(fired.task(null), 50 + i % 200);
+        }
+        for (int i = 0; i < timeouts.length; i += 2)
+        {
+            timeouts[i].cancel();
+        }
+
+        fired.waitFor(timeouts.length / 2);
+        Thread.sleep(50L);
+        assertEquals(timeouts.length / 2, fired.names.size());
+
+        wheel.close();
+    }
+
+    public static TestSuite suite()
+    {
+        return new TestSuite(DTLSTimerWheelTest.class);
+    }
+
+    static class Fired
+    {
+        final Vector names = new Vector();
+        final Vector times = new Vector();
+
+        Runnable task(final String name)
+        {
+            return new Runnable()
+            {
+                public void run()
+                {
+                    synchronized (Fired.this)
+                    {
+                        names.addElement(name == null ? "" : name);
+                        times.addElement(new Long(System.currentTimeMillis()));
+                        Fired.this.notifyAll();
+                    }
+                }
+            };
+        }
+
+        synchronized void waitFor(int count)
+            throws InterruptedException
+        {
+            long end = System.currentTimeMillis() + 5000L;
+            while (names.size() < count && System.currentTimeMillis() < end)
+            {
+                wait(100L);
+            }
+            assertEquals(count, names.size());
+        }
+    }
+}
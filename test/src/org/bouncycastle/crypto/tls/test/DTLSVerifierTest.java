@@ -0,0 +1,213 @@
+package org.bouncycastle.crypto.tls.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.bouncycastle.crypto.tls.CipherSuite;
+import org.bouncycastle.crypto.tls.ContentType;
+import org.bouncycastle.crypto.tls.DTLSVerifier;
+import org.bouncycastle.crypto.tls.DatagramTransport;
+import org.bouncycastle.crypto.tls.HandshakeType;
+import org.bouncycastle.crypto.tls.ProtocolVersion;
+import org.bouncycastle.crypto.tls.TlsUtils;
+import org.bouncycastle.util.Arrays;
+
+public class DTLSVerifierTest
+    extends TestCase
+{
+    private static final byte[] CLIENT_ID = new byte[]{ 127, 0, 0, 1, 0x12, 0x34 };
+    private static final byte[] OTHER_CLIENT_ID = new byte[]{ 127, 0, 0, 2, 0x12, 0x34 };
+
+    public void testCookieExchange()
+        throws IOException
+    {
+        DTLSVerifier verifier = new DTLSVerifier(new SecureRandom());
+        SentDatagrams sender = new SentDatagrams();
+
+        byte[] random = createBytes(32, 1);
+
+        // an initial ClientHello is answered with a HelloVerifyRequest
+        byte[] clientHello = createClientHello(5, 0, random, TlsUtils.EMPTY_BYTES);
+        assertNull(verifier.verifyRequest(CLIENT_ID, clientHello, 0, clientHello.length, sender));
+        byte[] cookie = checkHelloVerifyRequest(sender.take(), 5, 0);
+
+        // the ClientHello is accepted when it comes back with the cookie
+        clientHello = createClientHello(6, 1, random, cookie);
+        assertNotNull(verifier.verifyRequest(CLIENT_ID, clientHello, 0, clientHello.length, sender));
+        assertTrue(sender.datagrams.isEmpty());
+
+        // ... but not from another client
+        assertNull(verifier.verifyRequest(OTHER_CLIENT_ID, clientHello, 0, clientHello.length, sender));
+        assertFalse(Arrays.areEqual(cookie, checkHelloVerifyRequest(sender.take(), 6, 1)));
+
+        // ... nor with different parameters
+        clientHello = createClientHello(7, 1, createBytes(32, 2), cookie);
+        assertNull(verifier.verifyRequest(CLIENT_ID, clientHello, 0, clientHello.length, sender));
+        checkHelloVerifyRequest(sender.take(), 7, 1);
+    }
+
+    public void testOtherDatagramsAreIgnored()
+        throws IOException
+    {
+        DTLSVerifier verifier = new DTLSVerifier(new SecureRandom());
+        SentDatagrams sender = new SentDatagrams();
+
+        byte[] clientHello = createClientHello(0, 0, createBytes(32, 1), TlsUtils.EMPTY_BYTES);
+
+        // truncated
+        assertNull(verifier.verifyRequest(CLIENT_ID, clientHello, 0, clientHello.length - 1, sender));
+        assertNull(verifier.verifyRequest(CLIENT_ID, clientHello, 0, 20, sender));
+
+        // not a handshake record
+        byte[] data = Arrays.clone(clientHello);
+        data[0] = (byte)ContentType.application_data;
+        assertNull(verifier.verifyRequest(CLIENT_ID, data, 0, data.length, sender));
+
+        // not epoch 0
+        data = Arrays.clone(clientHello);
+        data[4] = 1;
+        assertNull(verifier.verifyRequest(CLIENT_ID, data, 0, data.length, sender));
+
+        // a fragment
+        data = Arrays.clone(clientHello);
+        data[13 + 11]--;
+        assertNull(verifier.verifyRequest(CLIENT_ID, data, 0, data.length, sender));
+
+        assertTrue(sender.datagrams.isEmpty());
+
+        // the datagram may be anywhere in the buffer
+        data = Arrays.concatenate(createBytes(3, 0), clientHello);
+        assertNull(verifier.verifyRequest(CLIENT_ID, data, 3, clientHello.length, sender));
+        checkHelloVerifyRequest(sender.take(), 0, 0);
+    }
+
+    public void testSecretRotation()
+        throws Exception
+    {
+        DTLSVerifier verifier = new DTLSVerifier(new SecureRandom(), 300L);
+        SentDatagrams sender = new SentDatagrams();
+
+        byte[] random = createBytes(32, 1);
+        byte[] clientHello = createClientHello(0, 0, random, TlsUtils.EMPTY_BYTES);
+        assertNull(verifier.verifyRequest(CLIENT_ID, clientHello, 0, clientHello.length, sender));
+        byte[] cookie = checkHelloVerifyRequest(sender.take(), 0, 0);
+
+        clientHello = createClientHello(1, 1, random, cookie);
+
+        // still accepted under the previous secret
+        Thread.sleep(400L);
+        assertNotNull(verifier.verifyRequest(CLIENT_ID, clientHello, 0, clientHello.length, sender));
+
+        // but not once that has been replaced too
+        Thread.sleep(400L);
+        assertNull(verifier.verifyRequest(CLIENT_ID, clientHello, 0, clientHello.length, sender));
+        checkHelloVerifyRequest(sender.take(), 1, 1);
+    }
+
+    public static TestSuite suite()
+    {
+        return new TestSuite(DTLSVerifierTest.class);
+    }
+
+    private static byte[] createBytes(int length, int value)
+    {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte)value);
+        return bytes;
+    }
+
+    private static byte[] createClientHello(long recordSeq, int messageSeq, byte[] random, byte[] cookie)
+        throws IOException
+    {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        TlsUtils.writeVersion(ProtocolVersion.DTLSv12, body);
+        body.write(random);
+        TlsUtils.writeOpaque8(TlsUtils.EMPTY_BYTES, body);
+        TlsUtils.writeOpaque8(cookie, body);
+        TlsUtils.writeUint16(2, body);
+        TlsUtils.writeUint16(CipherSuite.TLS_RSA_WITH_AES_128_CBC_SHA, body);
+        TlsUtils.writeUint8((short)1, body);
+        TlsUtils.writeUint8((short)0, body);
+
+        return createRecord(recordSeq, HandshakeType.client_hello, messageSeq, body.toByteArray());
+    }
+
+    private static byte[] createRecord(long recordSeq, short msgType, int messageSeq, byte[] body)
+        throws IOException
+    {
+        byte[] record = new byte[13 + 12 + body.length];
+        TlsUtils.writeUint8(ContentType.handshake, record, 0);
+        TlsUtils.writeVersion(ProtocolVersion.DTLSv10, record, 1);
+        TlsUtils.writeUint16(0, record, 3);
+        TlsUtils.writeUint48(recordSeq, record, 5);
+        TlsUtils.writeUint16(12 + body.length, record, 11);
+        TlsUtils.writeUint8(msgType, record, 13);
+        TlsUtils.writeUint24(body.length, record, 14);
+        TlsUtils.writeUint16(messageSeq, record, 17);
+        TlsUtils.writeUint24(0, record, 19);
+        TlsUtils.writeUint24(body.length, record, 22);
+        System.arraycopy(body, 0, record, 25, body.length);
+        return record;
+    }
+
+    /*
+     * The HelloVerifyRequest must repeat the record and message sequence numbers of the ClientHello
+     */
+    private static byte[] checkHelloVerifyRequest(byte[] datagram, long recordSeq, int messageSeq)
+        throws IOException
+    {
+        byte[] cookie = Arrays.copyOfRange(datagram, 13 + 12 + 3, datagram.length);
+        assertEquals(32, cookie.length);
+
+        byte[] body = new byte[3 + cookie.length];
+        TlsUtils.writeVersion(ProtocolVersion.DTLSv10, body, 0);
+        TlsUtils.writeUint8((short)cookie.length, body, 2);
+        System.arraycopy(cookie, 0, body, 3, cookie.length);
+
+        assertTrue(Arrays.areEqual(createRecord(recordSeq, HandshakeType.hello_verify_request, messageSeq, body),
+            datagram));
+        return cookie;
+    }
+
+    static class SentDatagrams
+        implements DatagramTransport
+    {
+        final Vector datagrams = new Vector();
+
+        byte[] take()
+        {
+            assertEquals(1, datagrams.size());
+            byte[] datagram = (byte[])datagrams.elementAt(0);
+            datagrams.removeAllElements();
+            return datagram;
+        }
+
+        public int getReceiveLimit()
+        {
+            return 1500;
+        }
+
+        public int getSendLimit()
+        {
+            return 1500;
+        }
+
+        public int receive(byte[] buf, int off, int len, int waitMillis)
+        {
+            return -1;
+        }
+
+        public void send(byte[] buf, int off, int len)
+        {
+            datagrams.addElement(Arrays.copyOfRange(buf, off, off + len));
+        }
+
+        public void close()
+        {
+        }
+    }
+}
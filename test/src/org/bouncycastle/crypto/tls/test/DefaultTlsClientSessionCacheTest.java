@@ -0,0 +1,136 @@
+package org.bouncycastle.crypto.tls.test;
+
+import java.util.Vector;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.bouncycastle.crypto.tls.CipherSuite;
+import org.bouncycastle.crypto.tls.CompressionMethod;
+import org.bouncycastle.crypto.tls.DefaultTlsClient;
+import org.bouncycastle.crypto.tls.DefaultTlsClientSessionCache;
+import org.bouncycastle.crypto.tls.NewSessionTicket;
+import org.bouncycastle.crypto.tls.ProtocolVersion;
+import org.bouncycastle.crypto.tls.SessionParameters;
+import org.bouncycastle.crypto.tls.TlsAuthentication;
+import org.bouncycastle.crypto.tls.TlsClientSession;
+
+public class DefaultTlsClientSessionCacheTest
+    extends TestCase
+{
+    public void testGetReturnsSessionForServer()
+    {
+        DefaultTlsClientSessionCache cache = new DefaultTlsClientSessionCache();
+
+        TlsClientSession session = createSession(null);
+        cache.put("example.com:443", session);
+
+        assertSame(session, cache.get("example.com:443"));
+        assertNull(cache.get("example.com:8443"));
+
+        // a new session with the same server replaces the previous one
+        TlsClientSession newer = createSession(null);
+        cache.put("example.com:443", newer);
+        assertSame(newer, cache.get("example.com:443"));
+        assertEquals(1, cache.size());
+
+        cache.remove("example.com:443");
+        assertNull(cache.get("example.com:443"));
+    }
+
+    public void testLeastRecentlyUsedIsEvicted()
+    {
+        DefaultTlsClientSessionCache cache = new DefaultTlsClientSessionCache(2,
+            DefaultTlsClientSessionCache.DEFAULT_LIFETIME_MILLIS);
+
+        cache.put("a:443", createSession(null));
+        cache.put("b:443", createSession(null));
+
+        // touch a, so that b becomes the eldest
+        assertNotNull(cache.get("a:443"));
+
+        cache.put("c:443", createSession(null));
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("a:443"));
+        assertNull(cache.get("b:443"));
+        assertNotNull(cache.get("c:443"));
+    }
+
+    public void testServerIdentityFollowsServerNames()
+    {
+        Vector serverNames = new Vector();
+        serverNames.addElement("a.example.com");
+
+        TestClient client = new TestClient(serverNames);
+        assertNull(client.getServerIdentity());
+
+        client.setSessionCache(new DefaultTlsClientSessionCache(), "Example.COM", 443);
+        assertEquals("example.com:443/a.example.com", client.getServerIdentity());
+
+        // sessions must not be resumed with the previous server names
+        client.addServerName("b.example.com");
+        assertEquals("example.com:443/a.example.com,b.example.com", client.getServerIdentity());
+    }
+
+    public void testTicketLifetimeHintShortensLifetime()
+    {
+        final long[] now = new long[]{ 1000L };
+
+        DefaultTlsClientSessionCache cache = new DefaultTlsClientSessionCache(10, 60000L)
+        {
+            protected long currentTimeMillis()
+            {
+                return now[0];
+            }
+        };
+
+        cache.put("a:443", createSession(new NewSessionTicket(10L, new byte[]{ 1, 2, 3 })));
+        cache.put("b:443", createSession(new NewSessionTicket(0L, new byte[]{ 1, 2, 3 })));
+        cache.put("c:443", createSession(null));
+
+        now[0] += 9999L;
+        assertNotNull(cache.get("a:443"));
+
+        now[0] += 1L;
+        assertNull(cache.get("a:443"));
+        assertNotNull(cache.get("b:443"));
+        assertNotNull(cache.get("c:443"));
+
+        now[0] += 50000L;
+        assertNull(cache.get("b:443"));
+        assertNull(cache.get("c:443"));
+    }
+
+    public static TestSuite suite()
+    {
+        return new TestSuite(DefaultTlsClientSessionCacheTest.class);
+    }
+
+    private static TlsClientSession createSession(NewSessionTicket sessionTicket)
+    {
+        SessionParameters sessionParameters = new SessionParameters(ProtocolVersion.TLSv11,
+            CipherSuite.TLS_RSA_WITH_AES_128_CBC_SHA, CompressionMethod._null, new byte[48]);
+
+        byte[] sessionID = sessionTicket == null ? new byte[32] : new byte[0];
+        return new TlsClientSession(sessionID, sessionTicket, sessionParameters);
+    }
+
+    private static class TestClient
+        extends DefaultTlsClient
+    {
+        TestClient(Vector serverNames)
+        {
+            super(serverNames);
+        }
+
+        void addServerName(String serverName)
+        {
+            serverNames.addElement(serverName);
+        }
+
+        public TlsAuthentication getAuthentication()
+        {
+            return null;
+        }
+    }
+}
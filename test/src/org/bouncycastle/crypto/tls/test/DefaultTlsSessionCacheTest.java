@@ -0,0 +1,110 @@
+package org.bouncycastle.crypto.tls.test;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.bouncycastle.crypto.tls.CipherSuite;
+import org.bouncycastle.crypto.tls.CompressionMethod;
+import org.bouncycastle.crypto.tls.DefaultTlsSessionCache;
+import org.bouncycastle.crypto.tls.ProtocolVersion;
+import org.bouncycastle.crypto.tls.SessionParameters;
+import org.bouncycastle.util.Arrays;
+
+public class DefaultTlsSessionCacheTest
+    extends TestCase
+{
+    public void testGetReturnsStoredSession()
+    {
+        DefaultTlsSessionCache cache = new DefaultTlsSessionCache();
+
+        SessionParameters session = createSession((byte)1);
+        cache.put(createSessionID(1), session);
+
+        // a distinct array with the same contents must find the session
+        assertSame(session, cache.get(createSessionID(1)));
+        assertNull(cache.get(createSessionID(2)));
+
+        byte[] masterSecret = session.getMasterSecret();
+        assertTrue(Arrays.areEqual(createMasterSecret((byte)1), masterSecret));
+        masterSecret[0] ^= 1;
+        assertTrue(Arrays.areEqual(createMasterSecret((byte)1), session.getMasterSecret()));
+    }
+
+    public void testLeastRecentlyUsedIsEvicted()
+    {
+        DefaultTlsSessionCache cache = new DefaultTlsSessionCache(2, DefaultTlsSessionCache.DEFAULT_LIFETIME_MILLIS);
+
+        cache.put(createSessionID(1), createSession((byte)1));
+        cache.put(createSessionID(2), createSession((byte)2));
+
+        // touch session 1, so that session 2 becomes the eldest
+        assertNotNull(cache.get(createSessionID(1)));
+
+        cache.put(createSessionID(3), createSession((byte)3));
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get(createSessionID(1)));
+        assertNull(cache.get(createSessionID(2)));
+        assertNotNull(cache.get(createSessionID(3)));
+    }
+
+    public void testExpiredSessionIsNotReturned()
+    {
+        final long[] now = new long[]{ 1000L };
+
+        DefaultTlsSessionCache cache = new DefaultTlsSessionCache(10, 500L)
+        {
+            protected long currentTimeMillis()
+            {
+                return now[0];
+            }
+        };
+
+        cache.put(createSessionID(1), createSession((byte)1));
+
+        now[0] += 499L;
+        assertNotNull(cache.get(createSessionID(1)));
+
+        now[0] += 1L;
+        assertNull(cache.get(createSessionID(1)));
+        assertEquals(0, cache.size());
+    }
+
+    public void testRemove()
+    {
+        DefaultTlsSessionCache cache = new DefaultTlsSessionCache();
+
+        cache.put(createSessionID(1), createSession((byte)1));
+        cache.remove(createSessionID(1));
+
+        assertNull(cache.get(createSessionID(1)));
+        assertEquals(0, cache.size());
+
+        // removing an unknown session is harmless
+        cache.remove(createSessionID(2));
+    }
+
+    public static TestSuite suite()
+    {
+        return new TestSuite(DefaultTlsSessionCacheTest.class);
+    }
+
+    private static byte[] createSessionID(int n)
+    {
+        byte[] sessionID = new byte[32];
+        sessionID[31] = (byte)n;
+        return sessionID;
+    }
+
+    private static byte[] createMasterSecret(byte b)
+    {
+        byte[] masterSecret = new byte[48];
+        Arrays.fill(masterSecret, b);
+        return masterSecret;
+    }
+
+    private static SessionParameters createSession(byte b)
+    {
+        return new SessionParameters(ProtocolVersion.TLSv11, CipherSuite.TLS_RSA_WITH_AES_128_CBC_SHA,
+            CompressionMethod._null, createMasterSecret(b));
+    }
+}
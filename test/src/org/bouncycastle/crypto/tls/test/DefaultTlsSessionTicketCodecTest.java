@@ -0,0 +1,146 @@
+package org.bouncycastle.crypto.tls.test;
+
+import java.security.SecureRandom;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.bouncycastle.crypto.tls.CipherSuite;
+import org.bouncycastle.crypto.tls.CompressionMethod;
+import org.bouncycastle.crypto.tls.DefaultTlsSessionTicketCodec;
+import org.bouncycastle.crypto.tls.ProtocolVersion;
+import org.bouncycastle.crypto.tls.SessionParameters;
+import org.bouncycastle.crypto.tls.TlsSessionTicketKey;
+import org.bouncycastle.util.Arrays;
+
+public class DefaultTlsSessionTicketCodecTest
+    extends TestCase
+{
+    private final SecureRandom random = new SecureRandom();
+
+    public void testTicketRoundTrip()
+        throws Exception
+    {
+        DefaultTlsSessionTicketCodec codec = new DefaultTlsSessionTicketCodec(random);
+
+        byte[] ticket = codec.encodeTicket(createSession((byte)1));
+
+        SessionParameters session = codec.decodeTicket(ticket);
+        assertNotNull(session);
+        assertEquals(ProtocolVersion.TLSv11, session.getServerVersion());
+        assertEquals(CipherSuite.TLS_RSA_WITH_AES_128_CBC_SHA, session.getCipherSuite());
+        assertEquals(CompressionMethod._null, session.getCompressionAlgorithm());
+        assertTrue(Arrays.areEqual(createMasterSecret((byte)1), session.getMasterSecret()));
+
+        assertEquals(DefaultTlsSessionTicketCodec.DEFAULT_TICKET_LIFETIME_MILLIS / 1000,
+            codec.getTicketLifetimeHint());
+    }
+
+    public void testModifiedTicketIsRejected()
+        throws Exception
+    {
+        DefaultTlsSessionTicketCodec codec = new DefaultTlsSessionTicketCodec(random);
+
+        byte[] ticket = codec.encodeTicket(createSession((byte)1));
+
+        for (int i = 0; i < ticket.length; ++i)
+        {
+            byte[] modified = Arrays.clone(ticket);
+            modified[i] ^= 1;
+            assertNull(codec.decodeTicket(modified));
+        }
+
+        assertNull(codec.decodeTicket(Arrays.copyOfRange(ticket, 0, ticket.length - 1)));
+        assertNull(codec.decodeTicket(new byte[0]));
+    }
+
+    public void testTicketFromUnknownKeyIsRejected()
+        throws Exception
+    {
+        DefaultTlsSessionTicketCodec issuer = new DefaultTlsSessionTicketCodec(random);
+        DefaultTlsSessionTicketCodec other = new DefaultTlsSessionTicketCodec(random);
+
+        assertNull(other.decodeTicket(issuer.encodeTicket(createSession((byte)1))));
+    }
+
+    public void testSharedKeyIsAccepted()
+        throws Exception
+    {
+        TlsSessionTicketKey key = TlsSessionTicketKey.generate(random);
+
+        DefaultTlsSessionTicketCodec issuer = new DefaultTlsSessionTicketCodec(random, key, 60000L);
+        DefaultTlsSessionTicketCodec other = new DefaultTlsSessionTicketCodec(random, key, 60000L);
+
+        assertNotNull(other.decodeTicket(issuer.encodeTicket(createSession((byte)1))));
+    }
+
+    public void testExpiredTicketIsRejected()
+        throws Exception
+    {
+        final long[] now = new long[]{ 1000L };
+
+        DefaultTlsSessionTicketCodec codec = new DefaultTlsSessionTicketCodec(random,
+            TlsSessionTicketKey.generate(random), 500L)
+        {
+            protected long currentTimeMillis()
+            {
+                return now[0];
+            }
+        };
+
+        byte[] ticket = codec.encodeTicket(createSession((byte)1));
+
+        now[0] += 499L;
+        assertNotNull(codec.decodeTicket(ticket));
+
+        now[0] += 1L;
+        assertNull(codec.decodeTicket(ticket));
+    }
+
+    public void testRetiredKeyDecryptsUntilTicketsExpire()
+        throws Exception
+    {
+        final long[] now = new long[]{ 1000L };
+
+        DefaultTlsSessionTicketCodec codec = new DefaultTlsSessionTicketCodec(random, 100L, 500L)
+        {
+            protected long currentTimeMillis()
+            {
+                return now[0];
+            }
+        };
+
+        byte[] first = codec.encodeTicket(createSession((byte)1));
+
+        // the key is rotated when the next ticket is issued
+        now[0] += 100L;
+        byte[] second = codec.encodeTicket(createSession((byte)2));
+
+        assertFalse(Arrays.areEqual(Arrays.copyOfRange(first, 0, TlsSessionTicketKey.KEY_NAME_LENGTH),
+            Arrays.copyOfRange(second, 0, TlsSessionTicketKey.KEY_NAME_LENGTH)));
+
+        assertTrue(Arrays.areEqual(createMasterSecret((byte)1), codec.decodeTicket(first).getMasterSecret()));
+        assertTrue(Arrays.areEqual(createMasterSecret((byte)2), codec.decodeTicket(second).getMasterSecret()));
+
+        // once the ticket lifetime has passed since the rotation, the retired key is forgotten
+        now[0] += 500L;
+        assertNull(codec.decodeTicket(first));
+    }
+
+    public static TestSuite suite()
+    {
+        return new TestSuite(DefaultTlsSessionTicketCodecTest.class);
+    }
+
+    private static byte[] createMasterSecret(byte b)
+    {
+        byte[] masterSecret = new byte[48];
+        Arrays.fill(masterSecret, b);
+        return masterSecret;
+    }
+
+    private static SessionParameters createSession(byte b)
+    {
+        return new SessionParameters(ProtocolVersion.TLSv11, CipherSuite.TLS_RSA_WITH_AES_128_CBC_SHA,
+            CompressionMethod._null, createMasterSecret(b));
+    }
+}
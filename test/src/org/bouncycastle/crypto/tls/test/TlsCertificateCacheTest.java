@@ -0,0 +1,174 @@
+package org.bouncycastle.crypto.tls.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.bouncycastle.crypto.tls.AlertDescription;
+import org.bouncycastle.crypto.tls.CachingTlsAuthentication;
+import org.bouncycastle.crypto.tls.Certificate;
+import org.bouncycastle.crypto.tls.ServerOnlyTlsAuthentication;
+import org.bouncycastle.crypto.tls.TlsCertificateCache;
+import org.bouncycastle.crypto.tls.TlsFatalAlert;
+
+public class TlsCertificateCacheTest
+    extends TestCase
+{
+    public void testSameChainIsParsedOnce()
+        throws Exception
+    {
+        TlsCertificateCache cache = new TlsCertificateCache();
+
+        byte[] chain = encode(new String[]{ "x509-server.pem", "x509-ca.pem" });
+        byte[] other = encode(new String[]{ "x509-ca.pem" });
+
+        Certificate first = cache.parse(new ByteArrayInputStream(chain));
+        assertEquals(2, first.getLength());
+        assertSame(first, cache.parse(new ByteArrayInputStream(chain)));
+
+        Certificate second = cache.parse(new ByteArrayInputStream(other));
+        assertEquals(1, second.getLength());
+        assertNotSame(first, second);
+        assertEquals(2, cache.size());
+
+        assertSame(Certificate.EMPTY_CHAIN, cache.parse(new ByteArrayInputStream(new byte[3])));
+    }
+
+    public void testChainExpires()
+        throws Exception
+    {
+        final long[] now = new long[]{ 1000L };
+
+        TlsCertificateCache cache = new TlsCertificateCache(10, 500L)
+        {
+            protected long currentTimeMillis()
+            {
+                return now[0];
+            }
+        };
+
+        byte[] chain = encode(new String[]{ "x509-server.pem", "x509-ca.pem" });
+
+        Certificate first = cache.parse(new ByteArrayInputStream(chain));
+        cache.setTrusted(first, "localhost:443");
+
+        now[0] += 500L;
+        Certificate second = cache.parse(new ByteArrayInputStream(chain));
+        assertNotSame(first, second);
+        assertFalse(cache.isTrusted(second, "localhost:443"));
+    }
+
+    public void testTrustEndsWhenCertificateExpires()
+        throws Exception
+    {
+        byte[] chain = encode(new String[]{ "x509-server.pem", "x509-ca.pem" });
+        long notAfter = Certificate.parse(new ByteArrayInputStream(chain)).getCertificateAt(0).getEndDate()
+            .getDate().getTime();
+
+        final long[] now = new long[]{ notAfter - 500L };
+
+        TlsCertificateCache cache = new TlsCertificateCache(10, TlsCertificateCache.DEFAULT_LIFETIME_MILLIS)
+        {
+            protected long currentTimeMillis()
+            {
+                return now[0];
+            }
+        };
+
+        Certificate first = cache.parse(new ByteArrayInputStream(chain));
+        cache.setTrusted(first, "localhost:443");
+        assertTrue(cache.isTrusted(first, "localhost:443"));
+
+        now[0] = notAfter;
+        assertFalse(cache.isTrusted(first, "localhost:443"));
+        assertNotSame(first, cache.parse(new ByteArrayInputStream(chain)));
+    }
+
+    public void testTrustIsBoundToServer()
+        throws Exception
+    {
+        TlsCertificateCache cache = new TlsCertificateCache();
+
+        Certificate chain = cache.parse(new ByteArrayInputStream(encode(new String[]{ "x509-server.pem" })));
+
+        CountingAuthentication counter = new CountingAuthentication(true);
+        CachingTlsAuthentication authentication = new CachingTlsAuthentication(cache, "localhost:443", counter);
+        authentication.notifyServerCertificate(chain);
+        authentication.notifyServerCertificate(chain);
+        assertEquals(1, counter.count);
+        assertTrue(cache.isTrusted(chain, "localhost:443"));
+
+        // the same chain presented by another server must be validated again
+        assertFalse(cache.isTrusted(chain, "example.com:443"));
+        new CachingTlsAuthentication(cache, "example.com:443", counter).notifyServerCertificate(chain);
+        assertEquals(2, counter.count);
+
+        // a chain that was not parsed by the cache is never trusted
+        Certificate uncached = Certificate.parse(new ByteArrayInputStream(encode(new String[]{ "x509-server.pem" })));
+        cache.setTrusted(uncached, "localhost:443");
+        assertFalse(cache.isTrusted(uncached, "localhost:443"));
+    }
+
+    public void testRejectionIsNotCached()
+        throws Exception
+    {
+        TlsCertificateCache cache = new TlsCertificateCache();
+
+        Certificate chain = cache.parse(new ByteArrayInputStream(encode(new String[]{ "x509-server.pem" })));
+
+        CountingAuthentication counter = new CountingAuthentication(false);
+        CachingTlsAuthentication authentication = new CachingTlsAuthentication(cache, "localhost:443", counter);
+        for (int i = 0; i < 2; ++i)
+        {
+            try
+            {
+                authentication.notifyServerCertificate(chain);
+                fail("chain should have been rejected");
+            }
+            catch (TlsFatalAlert e)
+            {
+                assertEquals(AlertDescription.bad_certificate, e.getAlertDescription());
+            }
+        }
+        assertEquals(2, counter.count);
+        assertFalse(cache.isTrusted(chain, "localhost:443"));
+    }
+
+    public static TestSuite suite()
+    {
+        return new TestSuite(TlsCertificateCacheTest.class);
+    }
+
+    private static byte[] encode(String[] resources)
+        throws IOException
+    {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        TlsTestUtils.loadCertificateChain(resources).encode(buf);
+        return buf.toByteArray();
+    }
+
+    private static class CountingAuthentication
+        extends ServerOnlyTlsAuthentication
+    {
+        private final boolean accept;
+
+        int count = 0;
+
+        CountingAuthentication(boolean accept)
+        {
+            this.accept = accept;
+        }
+
+        public void notifyServerCertificate(Certificate serverCertificate)
+            throws IOException
+        {
+            ++count;
+            if (!accept)
+            {
+                throw new TlsFatalAlert(AlertDescription.bad_certificate);
+            }
+        }
+    }
+}
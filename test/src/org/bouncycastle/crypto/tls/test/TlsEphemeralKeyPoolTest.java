@@ -0,0 +1,120 @@
+package org.bouncycastle.crypto.tls.test;
+
+import java.security.SecureRandom;
+import java.util.Hashtable;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.bouncycastle.crypto.AsymmetricCipherKeyPair;
+import org.bouncycastle.crypto.agreement.DHStandardGroups;
+import org.bouncycastle.crypto.params.DHPrivateKeyParameters;
+import org.bouncycastle.crypto.params.DHPublicKeyParameters;
+import org.bouncycastle.crypto.params.ECDomainParameters;
+import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+import org.bouncycastle.crypto.tls.NamedCurve;
+import org.bouncycastle.crypto.tls.TlsECCUtils;
+import org.bouncycastle.crypto.tls.TlsEphemeralKeyPool;
+
+public class TlsEphemeralKeyPoolTest
+    extends TestCase
+{
+    public void testKeyPairsAreSingleUse()
+        throws Exception
+    {
+        TlsEphemeralKeyPool pool = new TlsEphemeralKeyPool(new SecureRandom(), 4, 2);
+        try
+        {
+            ECDomainParameters curve = TlsECCUtils.getParametersForNamedCurve(NamedCurve.secp256r1);
+
+            // the first request only tells the pool which curve is wanted
+            assertNull(pool.takeECKeyPair(curve));
+            waitForSize(pool, 4);
+
+            Hashtable seen = new Hashtable();
+            for (int i = 0; i < 4; ++i)
+            {
+                AsymmetricCipherKeyPair keyPair = pool.takeECKeyPair(curve);
+                assertNotNull(keyPair);
+
+                ECPrivateKeyParameters privateKey = (ECPrivateKeyParameters)keyPair.getPrivate();
+                ECPublicKeyParameters publicKey = (ECPublicKeyParameters)keyPair.getPublic();
+                assertSame(curve, privateKey.getParameters());
+                assertEquals(curve.getG().multiply(privateKey.getD()), publicKey.getQ());
+
+                assertNull(seen.put(privateKey.getD(), keyPair));
+            }
+
+            // the pool is refilled as key pairs are taken
+            waitForSize(pool, 4);
+            assertFalse(seen.containsKey(((ECPrivateKeyParameters)pool.takeECKeyPair(curve).getPrivate()).getD()));
+        }
+        finally
+        {
+            pool.close();
+        }
+    }
+
+    public void testGroupsAreKeptApart()
+        throws Exception
+    {
+        TlsEphemeralKeyPool pool = new TlsEphemeralKeyPool(new SecureRandom(), 2, 1);
+        try
+        {
+            ECDomainParameters curve = TlsECCUtils.getParametersForNamedCurve(NamedCurve.secp256r1);
+
+            assertNull(pool.takeDHKeyPair(DHStandardGroups.rfc5114_1024_160));
+            assertNull(pool.takeECKeyPair(curve));
+            waitForSize(pool, 4);
+
+            AsymmetricCipherKeyPair keyPair = pool.takeDHKeyPair(DHStandardGroups.rfc5114_1024_160);
+            DHPrivateKeyParameters privateKey = (DHPrivateKeyParameters)keyPair.getPrivate();
+            assertEquals(DHStandardGroups.rfc5114_1024_160, privateKey.getParameters());
+            assertEquals(DHStandardGroups.rfc5114_1024_160.getG().modPow(privateKey.getX(),
+                DHStandardGroups.rfc5114_1024_160.getP()), ((DHPublicKeyParameters)keyPair.getPublic()).getY());
+
+            assertTrue(pool.takeECKeyPair(curve).getPrivate() instanceof ECPrivateKeyParameters);
+
+            // an equivalent, but different, instance of the curve gets no key pairs
+            assertNull(pool.takeECKeyPair(new ECDomainParameters(curve.getCurve(), curve.getG(), curve.getN())));
+        }
+        finally
+        {
+            pool.close();
+        }
+    }
+
+    public void testCloseDiscardsKeyPairs()
+        throws Exception
+    {
+        TlsEphemeralKeyPool pool = new TlsEphemeralKeyPool(new SecureRandom(), 2, 1);
+
+        ECDomainParameters curve = TlsECCUtils.getParametersForNamedCurve(NamedCurve.secp256r1);
+        assertNull(pool.takeECKeyPair(curve));
+        waitForSize(pool, 2);
+
+        pool.close();
+        assertEquals(0, pool.size());
+        assertNull(pool.takeECKeyPair(curve));
+    }
+
+    public static TestSuite suite()
+    {
+        return new TestSuite(TlsEphemeralKeyPoolTest.class);
+    }
+
+    static void waitForSize(TlsEphemeralKeyPool pool, int size)
+        throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 30000L;
+        while (pool.size() < size)
+        {
+            if (System.currentTimeMillis() > deadline)
+            {
+                fail("pool was not filled");
+            }
+            Thread.sleep(10);
+        }
+        assertEquals(size, pool.size());
+    }
+}
@@ -0,0 +1,721 @@
+package org.bouncycastle.crypto.tls.test;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+import org.bouncycastle.crypto.AsymmetricCipherKeyPair;
+import org.bouncycastle.crypto.params.ECDomainParameters;
+import org.bouncycastle.crypto.tls.AlertDescription;
+import org.bouncycastle.crypto.tls.CachingTlsAuthentication;
+import org.bouncycastle.crypto.tls.Certificate;
+import org.bouncycastle.crypto.tls.CipherSuite;
+import org.bouncycastle.crypto.tls.ClientHelloTemplate;
+import org.bouncycastle.crypto.tls.ContentType;
+import org.bouncycastle.crypto.tls.DefaultTlsBufferPool;
+import org.bouncycastle.crypto.tls.DefaultTlsClientSessionCache;
+import org.bouncycastle.crypto.tls.DefaultTlsSessionCache;
+import org.bouncycastle.crypto.tls.DefaultTlsSessionTicketCodec;
+import org.bouncycastle.crypto.tls.ExtensionType;
+import org.bouncycastle.crypto.tls.HandshakeType;
+import org.bouncycastle.crypto.tls.NewSessionTicket;
+import org.bouncycastle.crypto.tls.ServerOnlyTlsAuthentication;
+import org.bouncycastle.crypto.tls.TlsAuthentication;
+import org.bouncycastle.crypto.tls.TlsBufferPool;
+import org.bouncycastle.crypto.tls.TlsCertificateCache;
+import org.bouncycastle.crypto.tls.TlsClient;
+import org.bouncycastle.crypto.tls.TlsClientProtocol;
+import org.bouncycastle.crypto.tls.TlsClientSession;
+import org.bouncycastle.crypto.tls.TlsClientSessionCache;
+import org.bouncycastle.crypto.tls.TlsEncryptionCredentials;
+import org.bouncycastle.crypto.tls.TlsEphemeralKeyPool;
+import org.bouncycastle.crypto.tls.TlsProtocol;
+import org.bouncycastle.crypto.tls.TlsServer;
+import org.bouncycastle.crypto.tls.TlsServerProtocol;
+import org.bouncycastle.crypto.tls.TlsSessionCache;
+import org.bouncycastle.crypto.tls.TlsSessionTicketCodec;
+import org.bouncycastle.crypto.tls.TlsSignerCredentials;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.Integers;
+
+public class TlsProtocolNonBlockingTest
+    extends TestCase
+{
+
+    public void testClientServerFragmented()
+        throws IOException
+    {
+        // tests if it's really non-blocking when partial records arrive
+        testClientServer(true);
+    }
+
+    public void testClientServerNonFragmented()
+        throws IOException
+    {
+        testClientServer(false);
+    }
+
+    public void testClientServerPooled()
+        throws IOException
+    {
+        DefaultTlsBufferPool bufferPool = new DefaultTlsBufferPool();
+        testClientServer(false, bufferPool);
+
+        // every buffer must have been returned once the queues drained
+        int freeBuffers = bufferPool.getFreeBufferCount();
+        assertTrue(freeBuffers > 0);
+        testClientServer(false, bufferPool);
+        assertEquals(freeBuffers, bufferPool.getFreeBufferCount());
+    }
+
+    public void testClientServerResumed()
+        throws IOException
+    {
+        final TlsSessionCache sessionCache = new DefaultTlsSessionCache();
+
+        TlsProtocolTest.MyTlsClient client = new TlsProtocolTest.MyTlsClient();
+        testClientServer(false, null, client, new TlsProtocolTest.MyTlsServer()
+        {
+            public TlsSessionCache getSessionCache()
+            {
+                return sessionCache;
+            }
+        });
+
+        byte[] sessionID = client.getSessionID();
+        assertEquals(32, sessionID.length);
+
+        // the server must accept the session ID the client now offers
+        TlsClientProtocol clientProtocol = testClientServer(false, null, client, new TlsProtocolTest.MyTlsServer()
+        {
+            public TlsSessionCache getSessionCache()
+            {
+                return sessionCache;
+            }
+        });
+        assertTrue(clientProtocol.isResumedSession());
+        assertTrue(Arrays.areEqual(sessionID, client.getSessionID()));
+    }
+
+    public void testClientServerResumedWithTicket()
+        throws IOException
+    {
+        final TlsSessionTicketCodec sessionTicketCodec = new DefaultTlsSessionTicketCodec(new SecureRandom());
+
+        TicketTlsClient client = new TicketTlsClient();
+        testClientServer(false, null, client, new TicketTlsServer(sessionTicketCodec));
+
+        assertNotNull(client.ticket);
+        assertTrue(client.ticket.length > 0);
+        byte[] ticket = client.ticket;
+
+        // no session cache, so the server can only recover the session from the ticket
+        client.sessionID = new byte[32];
+        new SecureRandom().nextBytes(client.sessionID);
+        byte[] sessionID = client.getSessionID();
+
+        assertTrue(testClientServer(false, null, client, new TicketTlsServer(sessionTicketCodec)).isResumedSession());
+        assertTrue(Arrays.areEqual(sessionID, client.getSessionID()));
+
+        // the ticket is not renewed on resumption
+        assertSame(ticket, client.ticket);
+    }
+
+    public void testClientServerResumedFromClientCache()
+        throws IOException
+    {
+        final TlsSessionCache sessionCache = new DefaultTlsSessionCache();
+        DefaultTlsClientSessionCache clientSessionCache = new DefaultTlsClientSessionCache();
+
+        testClientServer(false, null, createCachingClient(clientSessionCache), new TlsProtocolTest.MyTlsServer()
+        {
+            public TlsSessionCache getSessionCache()
+            {
+                return sessionCache;
+            }
+        });
+
+        TlsClientSession session = clientSessionCache.get("localhost:443");
+        assertNotNull(session);
+        assertEquals(32, session.getSessionID().length);
+        assertNull(session.getSessionTicket());
+
+        // a new client resumes the session, which therefore stays in the cache as it was
+        TlsProtocolTest.MyTlsClient client = createCachingClient(clientSessionCache);
+        TlsClientProtocol clientProtocol = testClientServer(false, null, client, new TlsProtocolTest.MyTlsServer()
+        {
+            public TlsSessionCache getSessionCache()
+            {
+                return sessionCache;
+            }
+        });
+        assertTrue(clientProtocol.isResumedSession());
+        assertTrue(Arrays.areEqual(session.getSessionID(), client.getSessionID()));
+        assertSame(session, clientSessionCache.get("localhost:443"));
+    }
+
+    public void testClientServerResumedWithTicketFromClientCache()
+        throws IOException
+    {
+        TlsSessionTicketCodec sessionTicketCodec = new DefaultTlsSessionTicketCodec(new SecureRandom());
+        DefaultTlsClientSessionCache clientSessionCache = new DefaultTlsClientSessionCache();
+
+        testClientServer(false, null, createCachingClient(clientSessionCache), new TicketTlsServer(sessionTicketCodec));
+
+        TlsClientSession session = clientSessionCache.get("localhost:443");
+        assertNotNull(session);
+        assertEquals(0, session.getSessionID().length);
+        assertNotNull(session.getSessionTicket());
+
+        assertTrue(testClientServer(false, null, createCachingClient(clientSessionCache),
+            new TicketTlsServer(sessionTicketCodec)).isResumedSession());
+        assertSame(session, clientSessionCache.get("localhost:443"));
+    }
+
+    public void testClientServerResumedWithRenewedTicket()
+        throws IOException
+    {
+        TlsSessionTicketCodec sessionTicketCodec = new DefaultTlsSessionTicketCodec(new SecureRandom());
+        DefaultTlsClientSessionCache clientSessionCache = new DefaultTlsClientSessionCache();
+
+        testClientServer(false, null, createCachingClient(clientSessionCache), new TicketTlsServer(sessionTicketCodec));
+
+        TlsClientSession session = clientSessionCache.get("localhost:443");
+        assertNotNull(session);
+
+        // a server may issue a new ticket in the abbreviated handshake too (RFC 5077 3.1)
+        assertTrue(testClientServer(false, null, createCachingClient(clientSessionCache),
+            new TicketTlsServer(sessionTicketCodec)
+            {
+                public Hashtable getServerExtensions()
+                    throws IOException
+                {
+                    Hashtable serverExtensions = super.getServerExtensions();
+                    if (serverExtensions == null)
+                    {
+                        serverExtensions = new Hashtable();
+                    }
+                    serverExtensions.put(Integers.valueOf(ExtensionType.session_ticket), new byte[0]);
+                    return serverExtensions;
+                }
+            }).isResumedSession());
+
+        TlsClientSession renewed = clientSessionCache.get("localhost:443");
+        assertNotSame(session, renewed);
+        assertFalse(Arrays.areEqual(session.getSessionTicket().getTicket(), renewed.getSessionTicket().getTicket()));
+        assertTrue(Arrays.areEqual(session.getSessionParameters().getMasterSecret(),
+            renewed.getSessionParameters().getMasterSecret()));
+
+        // and the renewed ticket can be used in turn
+        assertTrue(testClientServer(false, null, createCachingClient(clientSessionCache),
+            new TicketTlsServer(sessionTicketCodec)).isResumedSession());
+    }
+
+    public void testClientServerWithCertificateCache()
+        throws IOException
+    {
+        final TlsCertificateCache certificateCache = new TlsCertificateCache();
+        final int[] validations = new int[1];
+
+        for (int i = 0; i < 2; ++i)
+        {
+            TlsProtocolTest.MyTlsClient client = new TlsProtocolTest.MyTlsClient()
+            {
+                public TlsAuthentication getAuthentication()
+                    throws IOException
+                {
+                    return new CachingTlsAuthentication(certificateCache, "localhost:443",
+                        new ServerOnlyTlsAuthentication()
+                        {
+                            public void notifyServerCertificate(Certificate serverCertificate)
+                            {
+                                ++validations[0];
+                            }
+                        });
+                }
+            };
+            client.setCertificateCache(certificateCache);
+
+            testClientServer(false, null, client, new TlsProtocolTest.MyTlsServer());
+        }
+
+        // the second handshake found the chain already parsed and trusted
+        assertEquals(1, certificateCache.size());
+        assertEquals(1, validations[0]);
+    }
+
+    public void testClientServerWithClientHelloTemplate()
+        throws IOException
+    {
+        ClientHelloTemplate template = ClientHelloTemplate.create(new TlsProtocolTest.MyTlsClient(), new SecureRandom());
+
+        TlsProtocolTest.MyTlsClient client = new TlsProtocolTest.MyTlsClient();
+        client.setClientHelloTemplate(template);
+        testClientServer(false, null, client, new TlsProtocolTest.MyTlsServer());
+
+        // the SessionTicket extension is sent in addition to the template's extensions
+        TlsSessionTicketCodec sessionTicketCodec = new DefaultTlsSessionTicketCodec(new SecureRandom());
+        DefaultTlsClientSessionCache clientSessionCache = new DefaultTlsClientSessionCache();
+
+        for (int i = 0; i < 2; ++i)
+        {
+            client = createCachingClient(clientSessionCache);
+            client.setClientHelloTemplate(template);
+
+            TlsClientProtocol clientProtocol = testClientServer(false, null, client,
+                new TicketTlsServer(sessionTicketCodec));
+            assertEquals(i == 1, clientProtocol.isResumedSession());
+        }
+
+        assertFalse(template.getClientExtensions().containsKey(Integers.valueOf(ExtensionType.session_ticket)));
+    }
+
+    public void testClientServerWithEphemeralKeyPool()
+        throws Exception
+    {
+        final int[] taken = new int[1];
+        final TlsEphemeralKeyPool ephemeralKeyPool = new TlsEphemeralKeyPool(new SecureRandom(), 2, 1)
+        {
+            public AsymmetricCipherKeyPair takeECKeyPair(ECDomainParameters ecParameters)
+            {
+                AsymmetricCipherKeyPair keyPair = super.takeECKeyPair(ecParameters);
+                if (keyPair != null)
+                {
+                    ++taken[0];
+                }
+                return keyPair;
+            }
+        };
+
+        try
+        {
+            for (int i = 0; i < 3; ++i)
+            {
+                testClientServer(false, null, new TlsProtocolTest.MyTlsClient(), new TlsProtocolTest.MyTlsServer()
+                {
+                    protected TlsEphemeralKeyPool getEphemeralKeyPool()
+                    {
+                        return ephemeralKeyPool;
+                    }
+                });
+
+                TlsEphemeralKeyPoolTest.waitForSize(ephemeralKeyPool, 2);
+            }
+
+            // the first handshake generated its own key pair
+            assertEquals(2, taken[0]);
+        }
+        finally
+        {
+            ephemeralKeyPool.close();
+        }
+    }
+
+    public void testClientServerWithDelegatedTasks()
+        throws Exception
+    {
+        testClientServerWithDelegatedTasks(null);
+        testClientServerWithDelegatedTasks(new int[]{ CipherSuite.TLS_RSA_WITH_AES_128_CBC_SHA });
+    }
+
+    private static void testClientServerWithDelegatedTasks(final int[] cipherSuites)
+        throws Exception
+    {
+        final Vector operationThreads = new Vector();
+
+        TlsServer server = new TlsProtocolTest.MyTlsServer()
+        {
+            protected int[] getCipherSuites()
+            {
+                return cipherSuites != null ? cipherSuites : super.getCipherSuites();
+            }
+
+            protected TlsEncryptionCredentials getRSAEncryptionCredentials()
+                throws IOException
+            {
+                final TlsEncryptionCredentials credentials = super.getRSAEncryptionCredentials();
+                return new TlsEncryptionCredentials()
+                {
+                    public byte[] decryptPreMasterSecret(byte[] encryptedPreMasterSecret)
+                        throws IOException
+                    {
+                        operationThreads.addElement(Thread.currentThread());
+                        return credentials.decryptPreMasterSecret(encryptedPreMasterSecret);
+                    }
+
+                    public Certificate getCertificate()
+                    {
+                        return credentials.getCertificate();
+                    }
+                };
+            }
+
+            protected TlsSignerCredentials getRSASignerCredentials()
+                throws IOException
+            {
+                final TlsSignerCredentials credentials = super.getRSASignerCredentials();
+                return new TlsSignerCredentials()
+                {
+                    public byte[] generateCertificateSignature(byte[] md5andsha1)
+                        throws IOException
+                    {
+                        operationThreads.addElement(Thread.currentThread());
+                        return credentials.generateCertificateSignature(md5andsha1);
+                    }
+
+                    public Certificate getCertificate()
+                    {
+                        return credentials.getCertificate();
+                    }
+                };
+            }
+        };
+
+        SecureRandom secureRandom = new SecureRandom();
+
+        TlsClientProtocol clientProtocol = new TlsClientProtocol(secureRandom);
+        TlsServerProtocol serverProtocol = new TlsServerProtocol(secureRandom);
+        clientProtocol.setDelegateTasks(true);
+        serverProtocol.setDelegateTasks(true);
+
+        clientProtocol.connect(new TlsProtocolTest.MyTlsClient());
+        serverProtocol.accept(server);
+
+        // pump handshake, running the delegated tasks on another thread
+        boolean hadData = true;
+        while (hadData)
+        {
+            hadData = pumpData(serverProtocol, clientProtocol, false);
+            hadData |= runDelegatedTasks(clientProtocol);
+            hadData |= pumpData(clientProtocol, serverProtocol, false);
+            hadData |= runDelegatedTasks(serverProtocol);
+        }
+
+        // the server's private key was only used off the I/O thread
+        assertEquals(1, operationThreads.size());
+        assertNotSame(Thread.currentThread(), operationThreads.elementAt(0));
+
+        byte[] data = new byte[1024];
+        secureRandom.nextBytes(data);
+        writeAndRead(clientProtocol, serverProtocol, data, false);
+        writeAndRead(serverProtocol, clientProtocol, data, false);
+
+        clientProtocol.close();
+        pumpData(clientProtocol, serverProtocol, false);
+        assertTrue(serverProtocol.isClosed());
+    }
+
+    public void testDelegatedTaskError()
+        throws Exception
+    {
+        TlsServer server = new TlsProtocolTest.MyTlsServer()
+        {
+            protected int[] getCipherSuites()
+            {
+                return new int[]{ CipherSuite.TLS_RSA_WITH_AES_128_CBC_SHA };
+            }
+
+            protected TlsEncryptionCredentials getRSAEncryptionCredentials()
+                throws IOException
+            {
+                final TlsEncryptionCredentials credentials = super.getRSAEncryptionCredentials();
+                return new TlsEncryptionCredentials()
+                {
+                    public byte[] decryptPreMasterSecret(byte[] encryptedPreMasterSecret)
+                    {
+                        throw new Error("remote key unavailable");
+                    }
+
+                    public Certificate getCertificate()
+                    {
+                        return credentials.getCertificate();
+                    }
+                };
+            }
+        };
+
+        SecureRandom secureRandom = new SecureRandom();
+
+        TlsClientProtocol clientProtocol = new TlsClientProtocol(secureRandom);
+        TlsServerProtocol serverProtocol = new TlsServerProtocol(secureRandom);
+        serverProtocol.setDelegateTasks(true);
+
+        clientProtocol.connect(new TlsProtocolTest.MyTlsClient());
+        serverProtocol.accept(server);
+
+        try
+        {
+            boolean hadData = true;
+            while (hadData)
+            {
+                hadData = pumpData(serverProtocol, clientProtocol, false);
+                hadData |= pumpData(clientProtocol, serverProtocol, false);
+                hadData |= runDelegatedTasks(serverProtocol);
+            }
+            fail("handshake continued after the delegated task failed");
+        }
+        catch (Error e)
+        {
+            assertEquals("remote key unavailable", e.getMessage());
+        }
+
+        assertTrue(serverProtocol.isClosed());
+
+        // the client is told about the failure by an alert
+        try
+        {
+            pumpData(serverProtocol, clientProtocol, false);
+            fail("client did not receive the alert");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+    }
+
+    public void testUnreadApplicationDataIsLimited()
+        throws Exception
+    {
+        SecureRandom secureRandom = new SecureRandom();
+
+        TlsClientProtocol clientProtocol = new TlsClientProtocol(secureRandom);
+        TlsServerProtocol serverProtocol = new TlsServerProtocol(secureRandom);
+
+        clientProtocol.connect(new TlsProtocolTest.MyTlsClient());
+        serverProtocol.accept(new TlsProtocolTest.MyTlsServer());
+
+        boolean hadData = true;
+        while (hadData)
+        {
+            hadData = pumpData(serverProtocol, clientProtocol, false);
+            hadData |= pumpData(clientProtocol, serverProtocol, false);
+        }
+
+        // the server never reads the application data it receives
+        byte[] data = new byte[1 << 14];
+        try
+        {
+            for (int i = 0; i < 5; ++i)
+            {
+                clientProtocol.offerOutput(data, 0, data.length);
+                pumpData(clientProtocol, serverProtocol, false);
+            }
+            fail("unread application data was not limited");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+
+        assertTrue(serverProtocol.isClosed());
+
+        // the client is told about the failure by an alert
+        try
+        {
+            pumpData(serverProtocol, clientProtocol, false);
+            fail("client did not receive the alert");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+    }
+
+    public void testLongHandshakeMessageIsRejected()
+        throws Exception
+    {
+        TlsClientProtocol clientProtocol = new TlsClientProtocol(new SecureRandom());
+        clientProtocol.connect(new TlsProtocolTest.MyTlsClient());
+
+        byte[] clientHello = new byte[clientProtocol.getAvailableOutputBytes()];
+        clientProtocol.readOutput(clientHello, 0, clientHello.length);
+
+        // a handshake record starting a message of 128 KiB + 1 bytes
+        byte[] record = new byte[]{ ContentType.handshake, 3, 1, 0, 4, HandshakeType.server_hello, 2, 0, 1 };
+        try
+        {
+            clientProtocol.offerInput(record);
+            fail("long handshake message was not rejected");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+
+        assertTrue(clientProtocol.isClosed());
+
+        // the (plaintext) alert sent to the server
+        byte[] alert = new byte[clientProtocol.getAvailableOutputBytes()];
+        clientProtocol.readOutput(alert, 0, alert.length);
+        assertEquals(AlertDescription.decode_error, alert[alert.length - 1]);
+    }
+
+    private static boolean runDelegatedTasks(TlsProtocol protocol)
+        throws Exception
+    {
+        boolean ran = false;
+
+        Runnable task;
+        while ((task = protocol.getDelegatedTask()) != null)
+        {
+            Thread worker = new Thread(task);
+            worker.start();
+            worker.join();
+
+            protocol.resumeHandshake();
+            ran = true;
+        }
+
+        return ran;
+    }
+
+    private static TlsProtocolTest.MyTlsClient createCachingClient(TlsClientSessionCache clientSessionCache)
+    {
+        TlsProtocolTest.MyTlsClient client = new TlsProtocolTest.MyTlsClient();
+        client.setSessionCache(clientSessionCache, "localhost", 443);
+        return client;
+    }
+
+    private static void testClientServer(boolean fragment)
+        throws IOException
+    {
+        testClientServer(fragment, null);
+    }
+
+    private static void testClientServer(boolean fragment, TlsBufferPool bufferPool)
+        throws IOException
+    {
+        testClientServer(fragment, bufferPool, new TlsProtocolTest.MyTlsClient(), new TlsProtocolTest.MyTlsServer());
+    }
+
+    private static TlsClientProtocol testClientServer(boolean fragment, TlsBufferPool bufferPool, TlsClient client,
+        TlsServer server)
+        throws IOException
+    {
+
+        SecureRandom secureRandom = new SecureRandom();
+
+        TlsClientProtocol clientProtocol = new TlsClientProtocol(secureRandom, bufferPool);
+        TlsServerProtocol serverProtocol = new TlsServerProtocol(secureRandom, bufferPool);
+
+        clientProtocol.connect(client);
+        serverProtocol.accept(server);
+
+        // pump handshake
+        boolean hadDataFromServer = true;
+        boolean hadDataFromClient = true;
+        while (hadDataFromServer || hadDataFromClient)
+        {
+            hadDataFromServer = pumpData(serverProtocol, clientProtocol, fragment);
+            hadDataFromClient = pumpData(clientProtocol, serverProtocol, fragment);
+        }
+
+        // send data in both directions
+        byte[] data = new byte[1024];
+        secureRandom.nextBytes(data);
+        writeAndRead(clientProtocol, serverProtocol, data, fragment);
+        writeAndRead(serverProtocol, clientProtocol, data, fragment);
+
+        // close the connection
+        clientProtocol.close();
+        pumpData(clientProtocol, serverProtocol, fragment);
+        assertTrue(serverProtocol.isClosed());
+
+        assertEquals(clientProtocol.isResumedSession(), serverProtocol.isResumedSession());
+        return clientProtocol;
+    }
+
+    private static void writeAndRead(TlsProtocol writer, TlsProtocol reader, byte[] data, boolean fragment)
+        throws IOException
+    {
+        int dataSize = data.length;
+        writer.offerOutput(data, 0, dataSize);
+        pumpData(writer, reader, fragment);
+
+        assertEquals(dataSize, reader.getAvailableInputBytes());
+        byte[] readData = new byte[dataSize];
+        reader.readInput(readData, 0, dataSize);
+        assertTrue(Arrays.areEqual(data, readData));
+    }
+
+    private static boolean pumpData(TlsProtocol from, TlsProtocol to, boolean fragment)
+        throws IOException
+    {
+        int byteCount = from.getAvailableOutputBytes();
+        if (byteCount == 0)
+        {
+            return false;
+        }
+
+        if (fragment)
+        {
+            while (from.getAvailableOutputBytes() > 0)
+            {
+                byte[] buffer = new byte[1];
+                from.readOutput(buffer, 0, 1);
+                to.offerInput(buffer);
+            }
+        }
+        else
+        {
+            byte[] buffer = new byte[byteCount];
+            from.readOutput(buffer, 0, buffer.length);
+            to.offerInput(buffer);
+        }
+
+        return true;
+    }
+
+    static class TicketTlsClient
+        extends TlsProtocolTest.MyTlsClient
+    {
+        byte[] sessionID = null;
+        byte[] ticket = null;
+
+        public byte[] getSessionID()
+        {
+            return sessionID == null ? new byte[0] : Arrays.clone(sessionID);
+        }
+
+        public void notifySessionID(byte[] sessionID)
+        {
+            this.sessionID = Arrays.clone(sessionID);
+        }
+
+        public Hashtable getClientExtensions()
+            throws IOException
+        {
+            Hashtable clientExtensions = super.getClientExtensions();
+            if (clientExtensions == null)
+            {
+                clientExtensions = new Hashtable();
+            }
+            clientExtensions.put(Integers.valueOf(ExtensionType.session_ticket), ticket == null ? new byte[0] : ticket);
+            return clientExtensions;
+        }
+
+        public void notifyNewSessionTicket(NewSessionTicket newSessionTicket)
+            throws IOException
+        {
+            this.ticket = newSessionTicket.getTicket();
+        }
+    }
+
+    static class TicketTlsServer
+        extends TlsProtocolTest.MyTlsServer
+    {
+        private final TlsSessionTicketCodec sessionTicketCodec;
+
+        TicketTlsServer(TlsSessionTicketCodec sessionTicketCodec)
+        {
+            this.sessionTicketCodec = sessionTicketCodec;
+        }
+
+        public TlsSessionTicketCodec getSessionTicketCodec()
+        {
+            return sessionTicketCodec;
+        }
+    }
+}
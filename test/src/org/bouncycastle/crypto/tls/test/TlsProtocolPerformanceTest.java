@@ -0,0 +1,319 @@
+package org.bouncycastle.crypto.tls.test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.security.SecureRandom;
+
+import junit.framework.TestCase;
+
+import org.bouncycastle.crypto.tls.CipherSuite;
+import org.bouncycastle.crypto.tls.DefaultTlsClient;
+import org.bouncycastle.crypto.tls.DefaultTlsClientSessionCache;
+import org.bouncycastle.crypto.tls.DefaultTlsServer;
+import org.bouncycastle.crypto.tls.DefaultTlsSessionCache;
+import org.bouncycastle.crypto.tls.DefaultTlsSessionTicketCodec;
+import org.bouncycastle.crypto.tls.ProtocolVersion;
+import org.bouncycastle.crypto.tls.ServerOnlyTlsAuthentication;
+import org.bouncycastle.crypto.tls.TlsAuthentication;
+import org.bouncycastle.crypto.tls.TlsClientProtocol;
+import org.bouncycastle.crypto.tls.TlsClientSessionCache;
+import org.bouncycastle.crypto.tls.TlsEncryptionCredentials;
+import org.bouncycastle.crypto.tls.TlsProtocol;
+import org.bouncycastle.crypto.tls.TlsServerProtocol;
+import org.bouncycastle.crypto.tls.TlsSessionCache;
+import org.bouncycastle.crypto.tls.TlsSessionTicketCodec;
+
+/**
+ * Measures handshake rate, bulk throughput and allocation per record of the TLS record layer, for
+ * each of the bulk ciphers supported by DefaultTlsCipherFactory, and the rate of full handshakes
+ * against that of abbreviated handshakes resuming a session. Client and server run in non-blocking
+ * mode and are pumped from a single thread, so the numbers reflect the protocol code alone.
+ */
+public class TlsProtocolPerformanceTest
+    extends TestCase
+{
+    public static final int NUM_HANDSHAKES = 20;
+    public static final int NUM_RECORDS = 1000;
+    public static final int RECORD_SIZE = 1 << 14;
+
+    private static final int[] CIPHER_SUITES = new int[]{
+        CipherSuite.TLS_RSA_WITH_AES_128_CBC_SHA,
+        CipherSuite.TLS_RSA_WITH_AES_128_GCM_SHA256,
+        CipherSuite.TLS_RSA_WITH_AES_256_GCM_SHA384,
+        CipherSuite.TLS_RSA_WITH_CAMELLIA_128_CBC_SHA,
+        CipherSuite.TLS_RSA_WITH_3DES_EDE_CBC_SHA,
+        CipherSuite.TLS_RSA_WITH_SEED_CBC_SHA,
+        CipherSuite.TLS_RSA_WITH_RC4_128_SHA,
+        CipherSuite.TLS_RSA_WITH_NULL_SHA,
+    };
+
+    private static final String[] CIPHER_SUITE_NAMES = new String[]{
+        "TLS_RSA_WITH_AES_128_CBC_SHA",
+        "TLS_RSA_WITH_AES_128_GCM_SHA256",
+        "TLS_RSA_WITH_AES_256_GCM_SHA384",
+        "TLS_RSA_WITH_CAMELLIA_128_CBC_SHA",
+        "TLS_RSA_WITH_3DES_EDE_CBC_SHA",
+        "TLS_RSA_WITH_SEED_CBC_SHA",
+        "TLS_RSA_WITH_RC4_128_SHA",
+        "TLS_RSA_WITH_NULL_SHA",
+    };
+
+    private final SecureRandom secureRandom = new SecureRandom();
+
+    private final byte[] transfer = new byte[2 * RECORD_SIZE];
+
+    public void testCipherSuites()
+        throws Exception
+    {
+        for (int i = 0; i < CIPHER_SUITES.length; ++i)
+        {
+            runCipherSuite(CIPHER_SUITES[i], CIPHER_SUITE_NAMES[i]);
+        }
+    }
+
+    public void testResumedHandshakes()
+        throws Exception
+    {
+        int cipherSuite = CipherSuite.TLS_RSA_WITH_AES_128_CBC_SHA;
+
+        double full = measureHandshakes(cipherSuite, null, null, null);
+        double resumedByID = measureHandshakes(cipherSuite, new DefaultTlsClientSessionCache(),
+            new DefaultTlsSessionCache(), null);
+        double resumedByTicket = measureHandshakes(cipherSuite, new DefaultTlsClientSessionCache(), null,
+            new DefaultTlsSessionTicketCodec(secureRandom));
+
+        System.out.println("TLS_RSA_WITH_AES_128_CBC_SHA handshakes");
+        System.out.print("Full/s           : ");
+        System.out.println(full);
+        System.out.print("Session ID/s     : ");
+        System.out.println(resumedByID);
+        System.out.print("Session ticket/s : ");
+        System.out.println(resumedByTicket);
+        System.out.println();
+    }
+
+    private void runCipherSuite(int cipherSuite, String name)
+        throws IOException
+    {
+        double handshakesPerSecond = measureHandshakes(cipherSuite, null, null, null);
+
+        TlsProtocol[] pair = handshake(cipherSuite, null, null, null);
+        TlsProtocol client = pair[0], server = pair[1];
+
+        byte[] data = new byte[RECORD_SIZE];
+        secureRandom.nextBytes(data);
+
+        // warm up
+        for (int i = 0; i < NUM_RECORDS / 10; ++i)
+        {
+            sendRecord(client, server, data);
+        }
+
+        long startAllocated = getAllocatedBytes();
+        long startTime = System.currentTimeMillis();
+        for (int i = 0; i < NUM_RECORDS; ++i)
+        {
+            sendRecord(client, server, data);
+        }
+        long bulkMillis = Math.max(1, System.currentTimeMillis() - startTime);
+        long endAllocated = getAllocatedBytes();
+
+        client.close();
+
+        double megabytesPerSecond = (1000.0 * NUM_RECORDS * RECORD_SIZE) / (bulkMillis * 1024.0 * 1024.0);
+
+        System.out.println(name);
+        System.out.print("Handshakes/s     : ");
+        System.out.println(handshakesPerSecond);
+        System.out.print("MB/s             : ");
+        System.out.println(megabytesPerSecond);
+        System.out.print("Bytes/record     : ");
+        if (startAllocated < 0 || endAllocated < 0)
+        {
+            System.out.println("n/a");
+        }
+        else
+        {
+            System.out.println((endAllocated - startAllocated) / NUM_RECORDS);
+        }
+        System.out.println();
+    }
+
+    /**
+     * @return the number of handshakes per second. If a client session cache is given, the first
+     *         handshake establishes a session that all the measured handshakes resume.
+     */
+    private double measureHandshakes(int cipherSuite, TlsClientSessionCache clientSessionCache,
+        TlsSessionCache sessionCache, TlsSessionTicketCodec sessionTicketCodec)
+        throws IOException
+    {
+        // warm up
+        handshake(cipherSuite, clientSessionCache, sessionCache, sessionTicketCodec);
+
+        long startTime = System.currentTimeMillis();
+        for (int i = 0; i < NUM_HANDSHAKES; ++i)
+        {
+            TlsProtocol[] pair = handshake(cipherSuite, clientSessionCache, sessionCache, sessionTicketCodec);
+            assertEquals(clientSessionCache != null, ((TlsClientProtocol)pair[0]).isResumedSession());
+        }
+        long handshakeMillis = Math.max(1, System.currentTimeMillis() - startTime);
+
+        return 1000.0 * NUM_HANDSHAKES / handshakeMillis;
+    }
+
+    private TlsProtocol[] handshake(int cipherSuite, TlsClientSessionCache clientSessionCache,
+        TlsSessionCache sessionCache, TlsSessionTicketCodec sessionTicketCodec)
+        throws IOException
+    {
+        TlsClientProtocol clientProtocol = new TlsClientProtocol(secureRandom);
+        TlsServerProtocol serverProtocol = new TlsServerProtocol(secureRandom);
+
+        PerformanceTlsClient client = new PerformanceTlsClient(cipherSuite);
+        if (clientSessionCache != null)
+        {
+            client.setSessionCache(clientSessionCache, "localhost", 443);
+        }
+
+        clientProtocol.connect(client);
+        serverProtocol.accept(new PerformanceTlsServer(cipherSuite, sessionCache, sessionTicketCodec));
+
+        boolean hadDataFromServer = true;
+        boolean hadDataFromClient = true;
+        while (hadDataFromServer || hadDataFromClient)
+        {
+            hadDataFromServer = pumpData(serverProtocol, clientProtocol);
+            hadDataFromClient = pumpData(clientProtocol, serverProtocol);
+        }
+
+        return new TlsProtocol[]{ clientProtocol, serverProtocol };
+    }
+
+    private void sendRecord(TlsProtocol from, TlsProtocol to, byte[] data)
+        throws IOException
+    {
+        from.offerOutput(data, 0, data.length);
+        pumpData(from, to);
+
+        int received = 0;
+        while (received < data.length)
+        {
+            int count = to.readInput(transfer, 0, Math.min(transfer.length, to.getAvailableInputBytes()));
+            if (count == 0)
+            {
+                fail("record was not delivered");
+            }
+            received += count;
+        }
+    }
+
+    private boolean pumpData(TlsProtocol from, TlsProtocol to)
+        throws IOException
+    {
+        if (from.getAvailableOutputBytes() == 0)
+        {
+            return false;
+        }
+
+        int count;
+        while ((count = from.readOutput(transfer, 0, transfer.length)) > 0)
+        {
+            to.offerInput(transfer, 0, count);
+        }
+
+        return true;
+    }
+
+    /**
+     * Uses com.sun.management.ThreadMXBean, where available, to count the bytes allocated by the
+     * current thread.
+     *
+     * @return the allocated byte count, or -1 if it cannot be determined.
+     */
+    private static long getAllocatedBytes()
+    {
+        try
+        {
+            Class beanClass = Class.forName("com.sun.management.ThreadMXBean");
+            Method method = beanClass.getMethod("getThreadAllocatedBytes", new Class[]{ long.class });
+            Object result = method.invoke(ManagementFactory.getThreadMXBean(),
+                new Object[]{ new Long(Thread.currentThread().getId()) });
+            return ((Long)result).longValue();
+        }
+        catch (Exception e)
+        {
+            return -1;
+        }
+    }
+
+    static class PerformanceTlsClient
+        extends DefaultTlsClient
+    {
+        private final int cipherSuite;
+
+        PerformanceTlsClient(int cipherSuite)
+        {
+            this.cipherSuite = cipherSuite;
+
+            setClientVersion(ProtocolVersion.TLSv12);
+        }
+
+        public int[] getCipherSuites()
+        {
+            return new int[]{ cipherSuite };
+        }
+
+        public TlsAuthentication getAuthentication()
+            throws IOException
+        {
+            return new ServerOnlyTlsAuthentication()
+            {
+                public void notifyServerCertificate(org.bouncycastle.crypto.tls.Certificate serverCertificate)
+                {
+                }
+            };
+        }
+    }
+
+    static class PerformanceTlsServer
+        extends DefaultTlsServer
+    {
+        private final int cipherSuite;
+        private final TlsSessionCache sessionCache;
+        private final TlsSessionTicketCodec sessionTicketCodec;
+
+        PerformanceTlsServer(int cipherSuite, TlsSessionCache sessionCache, TlsSessionTicketCodec sessionTicketCodec)
+        {
+            this.cipherSuite = cipherSuite;
+            this.sessionCache = sessionCache;
+            this.sessionTicketCodec = sessionTicketCodec;
+        }
+
+        public TlsSessionCache getSessionCache()
+        {
+            return sessionCache;
+        }
+
+        public TlsSessionTicketCodec getSessionTicketCodec()
+        {
+            return sessionTicketCodec;
+        }
+
+        protected ProtocolVersion getMaximumVersion()
+        {
+            return ProtocolVersion.TLSv12;
+        }
+
+        protected int[] getCipherSuites()
+        {
+            return new int[]{ cipherSuite };
+        }
+
+        protected TlsEncryptionCredentials getRSAEncryptionCredentials()
+            throws IOException
+        {
+            return TlsTestUtils.loadEncryptionCredentials(context, new String[]{"x509-server.pem", "x509-ca.pem"},
+                "x509-server-key.pem");
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package org.bouncycastle.crypto.tls.test;
+
+import java.security.SecureRandom;
+
+import junit.framework.TestCase;
+import org.bouncycastle.crypto.encodings.PKCS1Encoding;
+import org.bouncycastle.crypto.engines.RSABlindedEngine;
+import org.bouncycastle.crypto.params.ParametersWithRandom;
+import org.bouncycastle.crypto.params.RSAPrivateCrtKeyParameters;
+import org.bouncycastle.crypto.tls.TlsRSABatchDecryptor;
+
+/**
+ * Measures the rate of premaster secret decryptions, from several threads at once, of a
+ * {@link TlsRSABatchDecryptor} against that of a plain {@link RSABlindedEngine} drawing a fresh
+ * blinding factor for each decryption, as DefaultTlsEncryptionCredentials does by default.
+ */
+public class TlsRSABatchDecryptorPerformanceTest
+    extends TestCase
+{
+    public static final int NUM_THREADS = 4;
+    public static final int NUM_DECRYPTIONS = 200;
+
+    private final SecureRandom secureRandom = new SecureRandom();
+
+    public void testThroughput()
+        throws Exception
+    {
+        final RSAPrivateCrtKeyParameters privateKey = TlsRSABatchDecryptorTest.loadPrivateKey();
+        final byte[] ciphertext = TlsRSABatchDecryptorTest.encrypt(new byte[][]{
+            TlsRSABatchDecryptorTest.createSecret(1) })[0];
+
+        final TlsRSABatchDecryptor decryptor = new TlsRSABatchDecryptor(privateKey, secureRandom);
+
+        Decryptor plain = new Decryptor()
+        {
+            public void decrypt()
+                throws Exception
+            {
+                PKCS1Encoding encoding = new PKCS1Encoding(new RSABlindedEngine());
+                encoding.init(false, new ParametersWithRandom(privateKey, secureRandom));
+                encoding.processBlock(ciphertext, 0, ciphertext.length);
+            }
+        };
+
+        Decryptor batched = new Decryptor()
+        {
+            public void decrypt()
+                throws Exception
+            {
+                decryptor.decryptPreMasterSecret(ciphertext);
+            }
+        };
+
+        // warm up
+        measure(plain);
+        measure(batched);
+
+        double plainPerSecond = measure(plain);
+        double batchedPerSecond = measure(batched);
+
+        System.out.println("RSA premaster secret decryptions, " + NUM_THREADS + " threads");
+        System.out.print("RSABlindedEngine/s     : ");
+        System.out.println(plainPerSecond);
+        System.out.print("TlsRSABatchDecryptor/s : ");
+        System.out.println(batchedPerSecond);
+        System.out.println();
+
+        assertTrue(batchedPerSecond > plainPerSecond);
+    }
+
+    /**
+     * @return the number of decryptions per second, over all the threads.
+     */
+    private double measure(final Decryptor decryptor)
+        throws Exception
+    {
+        final Exception[] failure = new Exception[1];
+
+        Thread[] threads = new Thread[NUM_THREADS];
+        for (int i = 0; i < NUM_THREADS; ++i)
+        {
+            threads[i] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        for (int j = 0; j < NUM_DECRYPTIONS; ++j)
+                        {
+                            decryptor.decrypt();
+                        }
+                    }
+                    catch (Exception e)
+                    {
+                        failure[0] = e;
+                    }
+                }
+            };
+        }
+
+        long startTime = System.currentTimeMillis();
+        for (int i = 0; i < NUM_THREADS; ++i)
+        {
+            threads[i].start();
+        }
+        for (int i = 0; i < NUM_THREADS; ++i)
+        {
+            threads[i].join();
+        }
+        long millis = Math.max(1, System.currentTimeMillis() - startTime);
+
+        if (failure[0] != null)
+        {
+            throw failure[0];
+        }
+
+        return 1000.0 * NUM_THREADS * NUM_DECRYPTIONS / millis;
+    }
+
+    interface Decryptor
+    {
+        void decrypt()
+            throws Exception;
+    }
+}
@@ -0,0 +1,159 @@
+package org.bouncycastle.crypto.tls.test;
+
+import java.security.SecureRandom;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.bouncycastle.crypto.AsymmetricBlockCipher;
+import org.bouncycastle.crypto.encodings.PKCS1Encoding;
+import org.bouncycastle.crypto.engines.RSABlindedEngine;
+import org.bouncycastle.crypto.params.ParametersWithRandom;
+import org.bouncycastle.crypto.params.RSAKeyParameters;
+import org.bouncycastle.crypto.params.RSAPrivateCrtKeyParameters;
+import org.bouncycastle.crypto.tls.AlertDescription;
+import org.bouncycastle.crypto.tls.TlsFatalAlert;
+import org.bouncycastle.crypto.tls.TlsRSABatchDecryptor;
+import org.bouncycastle.util.Arrays;
+
+public class TlsRSABatchDecryptorTest
+    extends TestCase
+{
+    public void testConcurrentDecryptions()
+        throws Exception
+    {
+        TlsRSABatchDecryptor decryptor = new TlsRSABatchDecryptor(loadPrivateKey(), new SecureRandom(), 4);
+
+        // more decryptions than a batch of blinding factors
+        byte[][] secrets = new byte[10][];
+        for (int i = 0; i < secrets.length; ++i)
+        {
+            secrets[i] = createSecret(i);
+        }
+
+        Decryption[] decryptions = decryptConcurrently(decryptor, encrypt(secrets));
+
+        for (int i = 0; i < secrets.length; ++i)
+        {
+            assertNull(decryptions[i].failure);
+            assertTrue(Arrays.areEqual(secrets[i], decryptions[i].result));
+        }
+    }
+
+    public void testInvalidCiphertextFailsAlone()
+        throws Exception
+    {
+        TlsRSABatchDecryptor decryptor = new TlsRSABatchDecryptor(loadPrivateKey(), new SecureRandom(), 3);
+
+        byte[][] secrets = new byte[][]{ createSecret(1), createSecret(2), createSecret(3) };
+        byte[][] ciphertexts = encrypt(secrets);
+
+        // a block larger than the modulus, and so not decryptable at all
+        byte[] tooLarge = new byte[ciphertexts[0].length];
+        Arrays.fill(tooLarge, (byte)0xFF);
+        ciphertexts[1] = tooLarge;
+
+        Decryption[] decryptions = decryptConcurrently(decryptor, ciphertexts);
+
+        assertTrue(Arrays.areEqual(secrets[0], decryptions[0].result));
+        assertTrue(decryptions[1].failure instanceof TlsFatalAlert);
+        assertEquals(AlertDescription.illegal_parameter,
+            ((TlsFatalAlert)decryptions[1].failure).getAlertDescription());
+        assertTrue(Arrays.areEqual(secrets[2], decryptions[2].result));
+
+        // a block that decrypts, but is not PKCS#1 encoded
+        ciphertexts[1] = createSecret(4);
+        decryptions = decryptConcurrently(decryptor, ciphertexts);
+        assertTrue(decryptions[1].failure instanceof TlsFatalAlert);
+        assertTrue(Arrays.areEqual(secrets[2], decryptions[2].result));
+    }
+
+    public void testSingleRequest()
+        throws Exception
+    {
+        TlsRSABatchDecryptor decryptor = new TlsRSABatchDecryptor(loadPrivateKey(), new SecureRandom());
+
+        byte[] secret = createSecret(5);
+        assertTrue(Arrays.areEqual(secret, decryptor.decryptPreMasterSecret(encrypt(new byte[][]{ secret })[0])));
+    }
+
+    public static TestSuite suite()
+    {
+        return new TestSuite(TlsRSABatchDecryptorTest.class);
+    }
+
+    static RSAPrivateCrtKeyParameters loadPrivateKey()
+        throws Exception
+    {
+        return (RSAPrivateCrtKeyParameters)TlsTestUtils.loadPrivateKeyResource("x509-server-key.pem");
+    }
+
+    static byte[] createSecret(int value)
+    {
+        byte[] secret = new byte[48];
+        Arrays.fill(secret, (byte)value);
+        return secret;
+    }
+
+    static byte[][] encrypt(byte[][] secrets)
+        throws Exception
+    {
+        RSAPrivateCrtKeyParameters privateKey = loadPrivateKey();
+        RSAKeyParameters publicKey = new RSAKeyParameters(false, privateKey.getModulus(),
+            privateKey.getPublicExponent());
+
+        AsymmetricBlockCipher encoding = new PKCS1Encoding(new RSABlindedEngine());
+        encoding.init(true, new ParametersWithRandom(publicKey, new SecureRandom()));
+
+        byte[][] ciphertexts = new byte[secrets.length][];
+        for (int i = 0; i < secrets.length; ++i)
+        {
+            ciphertexts[i] = encoding.processBlock(secrets[i], 0, secrets[i].length);
+        }
+        return ciphertexts;
+    }
+
+    private static Decryption[] decryptConcurrently(TlsRSABatchDecryptor decryptor, byte[][] ciphertexts)
+        throws InterruptedException
+    {
+        Decryption[] decryptions = new Decryption[ciphertexts.length];
+        Thread[] threads = new Thread[ciphertexts.length];
+        for (int i = 0; i < ciphertexts.length; ++i)
+        {
+            decryptions[i] = new Decryption(decryptor, ciphertexts[i]);
+            threads[i] = new Thread(decryptions[i]);
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; ++i)
+        {
+            threads[i].join();
+        }
+        return decryptions;
+    }
+
+    static class Decryption
+        implements Runnable
+    {
+        final TlsRSABatchDecryptor decryptor;
+        final byte[] ciphertext;
+        byte[] result;
+        Exception failure;
+
+        Decryption(TlsRSABatchDecryptor decryptor, byte[] ciphertext)
+        {
+            this.decryptor = decryptor;
+            this.ciphertext = ciphertext;
+        }
+
+        public void run()
+        {
+            try
+            {
+                result = decryptor.decryptPreMasterSecret(ciphertext);
+            }
+            catch (Exception e)
+            {
+                failure = e;
+            }
+        }
+    }
+}
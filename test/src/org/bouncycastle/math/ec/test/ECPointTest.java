@@ -13,6 +13,7 @@ import org.bouncycastle.asn1.x9.X9ECParameters;
 import org.bouncycastle.math.ec.ECCurve;
 import org.bouncycastle.math.ec.ECFieldElement;
 import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.math.ec.FixedPointCombMultiplier;
 
 /**
  * Test class for {@link org.bouncycastle.math.ec.ECPoint ECPoint}. All
@@ -444,6 +445,38 @@ public class ECPointTest extends TestCase
         }
     }
 
+    /**
+     * Checks that <code>FixedPointCombMultiplier</code> agrees with
+     * <code>ECPoint.multiply()</code> for the generators of the standard
+     * elliptic curves as given in <code>SECNamedCurves</code>.
+     */
+    public void testFixedPointComb()
+    {
+        Enumeration curveEnum = SECNamedCurves.getNames();
+        while (curveEnum.hasMoreElements())
+        {
+            String name = (String) curveEnum.nextElement();
+            X9ECParameters x9ECParameters = SECNamedCurves.getByName(name);
+
+            BigInteger n = x9ECParameters.getN();
+            ECPoint g = x9ECParameters.getG();
+
+            FixedPointCombMultiplier comb = new FixedPointCombMultiplier(g, n.bitLength(), 5);
+
+            assertTrue(comb.multiply(BigInteger.ZERO).isInfinity());
+            assertEquals("FixedPointCombMultiplier is incorrect", g, comb.multiply(BigInteger.ONE));
+            assertEquals("FixedPointCombMultiplier is incorrect", g.negate(),
+                comb.multiply(n.subtract(BigInteger.ONE)));
+
+            BigInteger k = new BigInteger(n.bitLength(), secRand);
+            assertEquals("FixedPointCombMultiplier is incorrect", g.multiply(k), comb.multiply(k));
+
+            // A multiplicator too long for the comb
+            k = k.setBit(n.bitLength() + 10);
+            assertEquals("FixedPointCombMultiplier is incorrect", g.multiply(k), comb.multiply(k));
+        }
+    }
+
     public static Test suite()
     {
         return new TestSuite(ECPointTest.class);